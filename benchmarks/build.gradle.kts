@@ -0,0 +1,47 @@
+plugins {
+  java
+  id("me.champeau.jmh")
+  id("com.diffplug.spotless")
+}
+
+val restateVersion: String by rootProject.extra
+
+dependencies {
+  jmh(project(":ledger"))
+  jmh(testFixtures(project(":ledger")))
+  jmh("dev.restate:sdk-java-http:$restateVersion")
+  jmh("com.fasterxml.jackson.datatype:jackson-datatype-jdk8:2.18.4")
+  jmhAnnotationProcessor("dev.restate:sdk-api-gen:$restateVersion")
+}
+
+java {
+  toolchain {
+    languageVersion.set(JavaLanguageVersion.of(21))
+  }
+}
+
+jmh {
+  jmhVersion.set("1.37")
+  fork.set(1)
+  warmupIterations.set(3)
+  iterations.set(5)
+  // gc reports allocation rate per operation (gc.alloc.rate.norm) next to the timings.
+  profilers.add("gc")
+  // Extra profilers, e.g. -PjmhProfilers=async:event=alloc for allocation flame graphs.
+  if (project.hasProperty("jmhProfilers")) {
+    profilers.addAll((project.property("jmhProfilers") as String).split(","))
+  }
+  if (project.hasProperty("jmhIncludes")) {
+    includes.add(project.property("jmhIncludes") as String)
+  }
+}
+
+spotless {
+  java {
+    googleJavaFormat()
+    importOrder()
+    removeUnusedImports()
+    formatAnnotations()
+    toggleOffOn("//", "/n")
+  }
+}
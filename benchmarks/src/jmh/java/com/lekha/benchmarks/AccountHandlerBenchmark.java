@@ -0,0 +1,112 @@
+package com.lekha.benchmarks;
+
+import com.lekha.account.Account;
+import com.lekha.account.AccountType;
+import com.lekha.ledger.Ledger;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.testsetup.inmemory.InMemoryRestate;
+import com.lekha.testsetup.inmemory.StateOperationCounts;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Full {@code Account} handler invocations on the in-memory engine: state loads and flushes, the
+ * balance update and the ledger entry sent to {@code Ledger}. Unlike {@link AccountStateBenchmark}
+ * this includes the validation and ledger plumbing of the production handlers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AccountHandlerBenchmark {
+
+  private InMemoryRestate restate;
+  private String accountId;
+  private Money amount;
+
+  @Setup
+  public void setup() {
+    restate = new InMemoryRestate().bind(new Account()).bind(new Ledger());
+    accountId = "benchmark-account-" + UUID.randomUUID();
+    amount = Money.of(Currency.USD, 100L);
+    restate
+        .call(
+            "Account",
+            accountId,
+            "init",
+            new Account.InitInstruction(
+                new Account.AccountOptions(AccountType.LIABILITY, Currency.USD)))
+        .join();
+    restate
+        .call(
+            "Account",
+            accountId,
+            "credit",
+            new Account.CreditInstruction(Money.of(Currency.USD, 1_000_000_000L), metadata()))
+        .join();
+  }
+
+  @TearDown
+  public void tearDown() {
+    restate.close();
+  }
+
+  /**
+   * State operations per {@code credit} and {@code debit} invocation in the iteration, reported by
+   * JMH next to the throughput.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class StateOperations {
+
+    public double creditGets;
+    public double creditSets;
+    public double debitGets;
+    public double debitSets;
+
+    @Setup(Level.Iteration)
+    public void reset(AccountHandlerBenchmark benchmark) {
+      benchmark.restate.resetStateOperationCounts();
+    }
+
+    @TearDown(Level.Iteration)
+    public void collect(AccountHandlerBenchmark benchmark) throws Exception {
+      benchmark.restate.awaitIdle(Duration.ofSeconds(30));
+      Map<String, StateOperationCounts> counts = benchmark.restate.stateOperationCounts();
+      StateOperationCounts credit =
+          counts.getOrDefault("Account/credit", StateOperationCounts.EMPTY);
+      StateOperationCounts debit = counts.getOrDefault("Account/debit", StateOperationCounts.EMPTY);
+      creditGets = credit.getsPerInvocation();
+      creditSets = credit.setsPerInvocation();
+      debitGets = debit.getsPerInvocation();
+      debitSets = debit.setsPerInvocation();
+    }
+  }
+
+  @Benchmark
+  public Account.DebitResult debitThenCredit(StateOperations stateOperations) {
+    restate
+        .call("Account", accountId, "credit", new Account.CreditInstruction(amount, metadata()))
+        .join();
+    return restate
+        .<Account.DebitResult>call(
+            "Account", accountId, "debit", new Account.DebitInstruction(amount, metadata()))
+        .join();
+  }
+
+  private static Account.OperationMetadata metadata() {
+    return new Account.OperationMetadata();
+  }
+}
@@ -0,0 +1,125 @@
+package com.lekha.benchmarks;
+
+import com.lekha.account.Account;
+import com.lekha.account.AccountBalancesState;
+import com.lekha.account.AccountOptionsState;
+import com.lekha.account.AccountState;
+import com.lekha.account.AccountType;
+import com.lekha.account.HoldBalanceState;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.testsetup.inmemory.InMemoryRestate;
+import dev.restate.sdk.ObjectContext;
+import dev.restate.sdk.annotation.Handler;
+import dev.restate.sdk.annotation.Name;
+import dev.restate.sdk.annotation.VirtualObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Load, update and flush cycles of the account balance and hold states, as done by a single {@code
+ * Account} handler invocation. Each cycle runs as one invocation of {@link AccountStateCycles} on
+ * the in-memory engine, so it includes the one read and (at most) one write of the consolidated
+ * account record, with the production serdes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AccountStateBenchmark {
+
+  private static final String HOLD_ID = "benchmark-hold";
+  private static final Money AMOUNT = Money.of(Currency.USD, 100L);
+
+  private InMemoryRestate restate;
+
+  @Setup
+  public void setup() {
+    restate = new InMemoryRestate().bind(new AccountStateCycles());
+    restate.call("AccountStateCycles", "benchmark-account", "init", null).join();
+  }
+
+  @TearDown
+  public void tearDown() {
+    restate.close();
+  }
+
+  @Benchmark
+  public Account.AccountSummary debitCreditFlush() {
+    return cycle("debitCreditFlush");
+  }
+
+  @Benchmark
+  public Account.AccountSummary holdReleaseFlush() {
+    return cycle("holdReleaseFlush");
+  }
+
+  @Benchmark
+  public Account.HoldSummary holdStateCreateAndDrain() {
+    return cycle("holdStateCreateAndDrain");
+  }
+
+  private <R> R cycle(String handler) {
+    return restate.<R>call("AccountStateCycles", "benchmark-account", handler, null).join();
+  }
+
+  @VirtualObject
+  @Name("AccountStateCycles")
+  public static class AccountStateCycles {
+
+    @Handler
+    public void init(ObjectContext ctx) {
+      try (AccountState accountState = AccountState.of(ctx);
+          AccountBalancesState accountBalancesState =
+              AccountBalancesState.create(accountState, Currency.USD)) {
+        AccountOptionsState.create(
+            accountState, new Account.AccountOptions(AccountType.LIABILITY, Currency.USD));
+        accountBalancesState.addAvailableBalance(Money.of(Currency.USD, 1_000_000_000L));
+      }
+    }
+
+    @Handler
+    public Account.AccountSummary debitCreditFlush(ObjectContext ctx) {
+      try (AccountState accountState = AccountState.of(ctx);
+          AccountBalancesState accountBalancesState =
+              AccountBalancesState.getExisting(accountState)) {
+        accountBalancesState.subtractAvailableBalance(AMOUNT);
+        accountBalancesState.addAvailableBalance(AMOUNT);
+        return accountBalancesState.accountSummary();
+      }
+    }
+
+    @Handler
+    public Account.AccountSummary holdReleaseFlush(ObjectContext ctx) {
+      try (AccountState accountState = AccountState.of(ctx);
+          AccountBalancesState accountBalancesState =
+              AccountBalancesState.getExisting(accountState)) {
+        accountBalancesState.hold(AMOUNT);
+        accountBalancesState.releaseHold(AMOUNT);
+        return accountBalancesState.accountSummary();
+      }
+    }
+
+    @Handler
+    public Account.HoldSummary holdStateCreateAndDrain(ObjectContext ctx) {
+      try (AccountState accountState = AccountState.of(ctx);
+          HoldBalanceState holdBalanceState =
+              HoldBalanceState.create(accountState, HOLD_ID, Account.HoldType.USER, Currency.USD)) {
+        holdBalanceState.addAvailableBalance(AMOUNT);
+      }
+      // Draining the hold to zero removes it from the account state on flush.
+      try (AccountState accountState = AccountState.of(ctx);
+          HoldBalanceState holdBalanceState =
+              HoldBalanceState.getExisting(accountState, HOLD_ID, Account.HoldType.USER)) {
+        holdBalanceState.subtractAvailableBalance(AMOUNT);
+        return holdBalanceState.holdSummary();
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.lekha.benchmarks;
+
+import com.lekha.account.Account;
+import com.lekha.clock.Clock;
+import com.lekha.ledger.Ledger;
+import com.lekha.ledger.journal.LedgerJournal;
+import com.lekha.ledger.journal.RecordView;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Fan-out of {@link LedgerJournal#changes} to concurrent subscribers: the time from appending a
+ * record to every subscriber having received it, per record, with subscribers that request {@value
+ * #REQUEST_BATCH} records at a time on a shared pool. Records are appended with {@link
+ * LedgerJournal.Durability.OsManaged}, so the time is the one of the subscriptions rather than of
+ * the disk.
+ */
+@State(Scope.Benchmark)
+public class LedgerChangeStreamBenchmark {
+
+  private static final int RECORDS_PER_INVOCATION = 1_000;
+  private static final int REQUEST_BATCH = 64;
+
+  @Param({"1", "16", "256"})
+  public int subscribers;
+
+  private final List<CountingSubscriber> subscriptions = new ArrayList<>();
+  private Path directory;
+  private LedgerJournal journal;
+  private ExecutorService executor;
+  private List<Ledger.Entry> entries;
+  private long appended;
+
+  @Setup
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("ledger-change-stream-benchmark");
+    LedgerJournal.Options defaults = LedgerJournal.Options.DEFAULT;
+    journal =
+        LedgerJournal.open(
+            directory,
+            new LedgerJournal.Options(
+                defaults.segmentSize(),
+                new LedgerJournal.Durability.OsManaged(),
+                defaults.balanceCheckpointInterval(),
+                defaults.compression()));
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    for (int i = 0; i < subscribers; i++) {
+      CountingSubscriber subscriber = new CountingSubscriber();
+      journal.changes(0, executor).subscribe(subscriber);
+      subscriptions.add(subscriber);
+    }
+    entries =
+        List.of(
+            new Ledger.Entry(
+                Ledger.Operation.CREDIT,
+                Money.of(Currency.USD, 100L),
+                new Account.AccountSummary(
+                    "benchmark-account",
+                    new Account.AccountBalances(
+                        Money.of(Currency.USD, 1_000_000L), Money.of(Currency.USD, 0L))),
+                Optional.empty(),
+                new Account.OperationMetadata()));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    journal.close();
+    executor.shutdown();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @OperationsPerInvocation(RECORDS_PER_INVOCATION)
+  public long fanOut() {
+    for (int i = 0; i < RECORDS_PER_INVOCATION; i++) {
+      journal.append(
+          "benchmark_" + appended++ + "_ledger",
+          Clock.hybrid().now(),
+          "benchmark-account",
+          entries);
+    }
+    for (CountingSubscriber subscriber : subscriptions) {
+      while (subscriber.received.get() < appended) {
+        LockSupport.parkNanos(10_000);
+      }
+    }
+    return appended;
+  }
+
+  private static final class CountingSubscriber implements Flow.Subscriber<RecordView> {
+    private final AtomicLong received = new AtomicLong();
+    private Flow.Subscription subscription;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(REQUEST_BATCH);
+    }
+
+    @Override
+    public void onNext(RecordView record) {
+      if (received.incrementAndGet() % REQUEST_BATCH == 0) {
+        subscription.request(REQUEST_BATCH);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      throw new IllegalStateException(throwable);
+    }
+
+    @Override
+    public void onComplete() {}
+  }
+}
@@ -0,0 +1,115 @@
+package com.lekha.benchmarks;
+
+import com.lekha.account.Account;
+import com.lekha.clock.Clock;
+import com.lekha.ledger.Ledger;
+import com.lekha.ledger.journal.LedgerJournal;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Appends of one-entry ledger records, as stored by {@code Ledger.recordBalanceChange}, from
+ * concurrent handler threads for each {@link LedgerJournal.Durability}. {@code appendThroughput}
+ * gives entries/sec; {@code appendLatency} samples the time until an append is acknowledged, with
+ * its p99 in the percentiles of the result.
+ *
+ * <p>The journal is in the temporary directory, so run it on the disk the ledger uses in
+ * production: {@code -Djava.io.tmpdir=...}.
+ */
+@State(Scope.Benchmark)
+@Threads(16)
+public class LedgerJournalBenchmark {
+
+  @Param({"per_entry", "group_commit", "os_managed"})
+  public String durability;
+
+  private final AtomicLong idems = new AtomicLong();
+  private Path directory;
+  private LedgerJournal journal;
+  private List<Ledger.Entry> entries;
+
+  @Setup
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("ledger-journal-benchmark");
+    LedgerJournal.Options defaults = LedgerJournal.Options.DEFAULT;
+    journal =
+        LedgerJournal.open(
+            directory,
+            new LedgerJournal.Options(
+                defaults.segmentSize(),
+                policy(),
+                defaults.balanceCheckpointInterval(),
+                defaults.compression()));
+    entries =
+        List.of(
+            new Ledger.Entry(
+                Ledger.Operation.DEBIT,
+                Money.of(Currency.USD, 100L),
+                new Account.AccountSummary(
+                    "benchmark-account",
+                    new Account.AccountBalances(
+                        Money.of(Currency.USD, 1_000_000L), Money.of(Currency.USD, 0L))),
+                Optional.empty(),
+                new Account.OperationMetadata()));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    journal.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public long appendThroughput() {
+    return append();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long appendLatency() {
+    return append();
+  }
+
+  private long append() {
+    return journal.append(
+        "benchmark_" + idems.incrementAndGet() + "_ledger",
+        Clock.hybrid().now(),
+        "benchmark-account",
+        entries);
+  }
+
+  private LedgerJournal.Durability policy() {
+    return switch (durability) {
+      case "per_entry" -> new LedgerJournal.Durability.PerEntry();
+      case "group_commit" -> LedgerJournal.Durability.GroupCommit.DEFAULT;
+      case "os_managed" -> new LedgerJournal.Durability.OsManaged();
+      default -> throw new IllegalArgumentException("Unknown durability " + durability);
+    };
+  }
+}
@@ -0,0 +1,92 @@
+package com.lekha.benchmarks;
+
+import com.lekha.account.BalanceUpdateChecks;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Debit/credit hot path of the account balance states: check that the balance covers the amount,
+ * subtract it, and add it back. {@code bigInteger*} runs the same cycle on the previous
+ * BigInteger-backed representation, so comparing {@code gc.alloc.rate.norm} between the two shows
+ * the allocation drop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MoneyBenchmark {
+
+  /** The representation {@link Money} had before the long fast path. */
+  record BigIntegerMoney(Currency currency, BigInteger amountInMinorUnits) {
+    boolean isLessThan(BigIntegerMoney other) {
+      return amountInMinorUnits.compareTo(other.amountInMinorUnits) < 0;
+    }
+
+    BigIntegerMoney add(BigIntegerMoney other) {
+      return new BigIntegerMoney(currency, amountInMinorUnits.add(other.amountInMinorUnits));
+    }
+
+    BigIntegerMoney subtract(BigIntegerMoney other) {
+      return new BigIntegerMoney(currency, amountInMinorUnits.subtract(other.amountInMinorUnits));
+    }
+  }
+
+  private static final Supplier<Map<String, String>> ERROR_CONTEXT =
+      () -> Map.of("account_id", "benchmark");
+
+  private Money balance;
+  private Money amount;
+  private BigIntegerMoney bigIntegerBalance;
+  private BigIntegerMoney bigIntegerAmount;
+
+  @Setup
+  public void setup() {
+    // Large enough that the amounts never fit in BigInteger's small-value cache.
+    balance = Money.of(Currency.USD, 1_000_000_000_000L);
+    amount = Money.of(Currency.USD, 12_345L);
+    bigIntegerBalance = new BigIntegerMoney(Currency.USD, BigInteger.valueOf(1_000_000_000_000L));
+    bigIntegerAmount = new BigIntegerMoney(Currency.USD, BigInteger.valueOf(12_345L));
+  }
+
+  @Benchmark
+  public Money debitCredit() {
+    BalanceUpdateChecks.checkEnoughBalance(balance, amount, ERROR_CONTEXT);
+    Money debited = balance.subtract(amount);
+    return debited.add(amount);
+  }
+
+  @Benchmark
+  public BigIntegerMoney bigIntegerDebitCredit() {
+    if (bigIntegerBalance.isLessThan(bigIntegerAmount)) {
+      throw new IllegalStateException("not enough balance");
+    }
+    BigIntegerMoney debited = bigIntegerBalance.subtract(bigIntegerAmount);
+    return debited.add(bigIntegerAmount);
+  }
+
+  @Benchmark
+  public boolean isLessThan() {
+    return balance.isLessThan(amount);
+  }
+
+  @Benchmark
+  public boolean bigIntegerIsLessThan() {
+    return bigIntegerBalance.isLessThan(bigIntegerAmount);
+  }
+
+  @Benchmark
+  public Money addNearOverflow() {
+    // Exercises the BigInteger fallback.
+    return Money.of(Currency.USD, Long.MAX_VALUE).add(amount);
+  }
+}
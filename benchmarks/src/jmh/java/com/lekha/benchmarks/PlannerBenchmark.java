@@ -0,0 +1,64 @@
+package com.lekha.benchmarks;
+
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.transfer.Planner;
+import com.lekha.transfer.Transfer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Planning of {@code Transfer.bulkMove} inputs of increasing size. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlannerBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int numInstructions;
+
+  // Number of distinct accounts the instructions move money between.
+  @Param({"100"})
+  public int numAccounts;
+
+  private List<Transfer.MoveMoneyInstruction> instructions;
+
+  @Setup
+  public void setup() {
+    instructions = new ArrayList<>(numInstructions);
+    Transfer.MoveMoneyInstructionOptions options =
+        new Transfer.MoveMoneyInstructionOptions(Optional.empty());
+    for (int i = 0; i < numInstructions; i++) {
+      instructions.add(
+          new Transfer.MoveMoneyInstruction(
+              "account-" + (i % numAccounts),
+              "account-" + ((i * 7 + 1) % numAccounts),
+              Money.of(Currency.USD, 100L + i),
+              options));
+    }
+  }
+
+  @Benchmark
+  public Planner.Plan nonTransactionalPlan() {
+    return new Planner.NonTransactionalPlanner().plan(instructions);
+  }
+
+  @Benchmark
+  public Planner.Plan nettingPlan() {
+    return new Planner.NettingPlanner().plan(instructions);
+  }
+
+  @Benchmark
+  public Planner.Plan transactionalPlan() {
+    return new Planner.TransactionalPlanner("benchmark-transaction").plan(instructions);
+  }
+}
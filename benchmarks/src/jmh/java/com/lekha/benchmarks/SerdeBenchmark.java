@@ -0,0 +1,119 @@
+package com.lekha.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.lekha.account.Account;
+import com.lekha.account.AccountStateSerdes;
+import com.lekha.ledger.Ledger;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.transfer.AccountOperation;
+import com.lekha.utils.Batcher;
+import dev.restate.serde.Serde;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Round-trips of the payloads that are journaled on every transfer, with Jackson and, for state,
+ * with the binary serdes of {@link AccountStateSerdes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerdeBenchmark {
+
+  // Number of items in the batcher state and of operations in the bulk ledger instruction.
+  @Param({"10", "1000"})
+  public int batchSize;
+
+  private ObjectWriter accountOperationWriter;
+  private ObjectReader accountOperationReader;
+  private ObjectWriter batcherStateWriter;
+  private ObjectReader batcherStateReader;
+  private ObjectWriter bulkInstructionWriter;
+  private ObjectReader bulkInstructionReader;
+  private Serde<List<Account.AsyncDebitInstruction>> batcherSegmentSerde;
+
+  private AccountOperation<?, ?> accountOperation;
+  private Batcher.State<Account.AsyncDebitInstruction> batcherState;
+  private Ledger.BulkRecordBalanceChangeInstruction bulkInstruction;
+
+  @Setup
+  public void setup() {
+    ObjectMapper objectMapper = new ObjectMapper().registerModule(new Jdk8Module());
+    accountOperationWriter = objectMapper.writerFor(AccountOperation.class);
+    accountOperationReader = objectMapper.readerFor(AccountOperation.class);
+    TypeReference<Batcher.State<Account.AsyncDebitInstruction>> batcherStateType =
+        new TypeReference<>() {};
+    batcherStateWriter = objectMapper.writerFor(batcherStateType);
+    batcherStateReader = objectMapper.readerFor(batcherStateType);
+    bulkInstructionWriter = objectMapper.writerFor(Ledger.BulkRecordBalanceChangeInstruction.class);
+    bulkInstructionReader = objectMapper.readerFor(Ledger.BulkRecordBalanceChangeInstruction.class);
+    batcherSegmentSerde = AccountStateSerdes.DEBIT_BATCHER.segment();
+
+    Money amount = Money.of(Currency.USD, 12_345L);
+    Account.OperationMetadata metadata = new Account.OperationMetadata();
+    accountOperation = new AccountOperation.AsyncDebit("benchmark-account", amount);
+
+    List<Account.AsyncDebitInstruction> items = new LinkedList<>();
+    List<Ledger.OperationDetails> allOperationDetails = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      items.add(
+          new Account.AsyncDebitInstruction(
+              new Account.DebitInstruction(amount, metadata),
+              new Account.SignalInstruction("sign_1fjZ8WxwG7wMBcsOpA1Rl4pK2" + i)));
+      allOperationDetails.add(new Ledger.OperationDetails(amount, metadata));
+    }
+    batcherState = new Batcher.State<>(items, "inv_1gdJBtdVEcM942bjcDmb1c1khoaJe11Hbz");
+
+    Account.AccountSummary accountSummary =
+        new Account.AccountSummary(
+            "benchmark-account",
+            new Account.AccountBalances(
+                Money.of(Currency.USD, 1_000_000L), Money.zero(Currency.USD)));
+    bulkInstruction =
+        new Ledger.BulkRecordBalanceChangeInstruction(
+            "inv_1gdJBtdVEcM942bjcDmb1c1khoaJe11Hbz_account_debit",
+            1_700_000_000_000L,
+            Ledger.Operation.DEBIT,
+            accountSummary,
+            allOperationDetails);
+  }
+
+  @Benchmark
+  public Object accountOperationRoundTrip() throws IOException {
+    byte[] bytes = accountOperationWriter.writeValueAsBytes(accountOperation);
+    return accountOperationReader.readValue(bytes);
+  }
+
+  @Benchmark
+  public Object batcherStateRoundTrip() throws IOException {
+    byte[] bytes = batcherStateWriter.writeValueAsBytes(batcherState);
+    return batcherStateReader.readValue(bytes);
+  }
+
+  @Benchmark
+  public Object batcherSegmentBinaryRoundTrip() {
+    return batcherSegmentSerde.deserialize(batcherSegmentSerde.serialize(batcherState.items()));
+  }
+
+  @Benchmark
+  public Object bulkRecordBalanceChangeInstructionRoundTrip() throws IOException {
+    byte[] bytes = bulkInstructionWriter.writeValueAsBytes(bulkInstruction);
+    return bulkInstructionReader.readValue(bytes);
+  }
+}
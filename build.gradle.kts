@@ -1,5 +1,6 @@
 plugins {
   id("com.diffplug.spotless") version "6.25.0" apply false
+  id("me.champeau.jmh") version "0.7.2" apply false
 }
 
 extra["restateVersion"] = "2.4.0"
@@ -1,6 +1,7 @@
 plugins {
   java
   application
+  `java-test-fixtures`
   id("com.diffplug.spotless")
 }
 
@@ -33,6 +34,10 @@ dependencies {
   testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine")
   testImplementation("org.assertj:assertj-core:3.24.2")
   testImplementation("dev.restate:sdk-testing:${restateVersion}")
+  testAnnotationProcessor("dev.restate:sdk-api-gen:$restateVersion")
+
+  // In-memory engine shared by tests and benchmarks
+  testFixturesImplementation("dev.restate:sdk-java-http:$restateVersion")
 }
 
 java {
@@ -2,6 +2,7 @@ package com.lekha;
 
 import com.lekha.account.Account;
 import com.lekha.ledger.Ledger;
+import com.lekha.ledger.journal.LedgerJournal;
 import com.lekha.transfer.Transfer;
 import dev.restate.admin.api.DeploymentApi;
 import dev.restate.admin.client.ApiClient;
@@ -9,6 +10,9 @@ import dev.restate.admin.model.RegisterDeploymentRequest;
 import dev.restate.admin.model.RegisterDeploymentRequestAnyOf;
 import dev.restate.sdk.endpoint.Endpoint;
 import dev.restate.sdk.http.vertx.RestateHttpServer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -16,7 +20,19 @@ public class AppMain {
   private static final Logger LOG = LogManager.getLogger(AppMain.class);
 
   public static void main(String[] args) throws Exception {
-    RestateHttpServer.listen(Endpoint.bind(new Account()).bind(new Ledger()).bind(new Transfer()));
+    LedgerJournal journal =
+        LedgerJournal.open(
+            Path.of(envOrDefault("LEDGER_JOURNAL_DIR", "ledger-journal")),
+            new LedgerJournal.Options(
+                envIntOrDefault(
+                    "LEDGER_JOURNAL_SEGMENT_BYTES", LedgerJournal.Options.DEFAULT.segmentSize()),
+                journalDurability(),
+                envIntOrDefault(
+                    "LEDGER_BALANCE_CHECKPOINT_INTERVAL",
+                    LedgerJournal.Options.DEFAULT.balanceCheckpointInterval()),
+                journalCompression()));
+    RestateHttpServer.listen(
+        Endpoint.bind(new Account()).bind(new Ledger(journal)).bind(new Transfer()));
     LOG.info("App started");
 
     ApiClient adminApiClient = new ApiClient();
@@ -30,6 +46,43 @@ public class AppMain {
     LOG.info("App registered");
   }
 
+  private static LedgerJournal.Durability journalDurability() {
+    String durability = envOrDefault("LEDGER_JOURNAL_DURABILITY", "group_commit");
+    switch (durability) {
+      case "per_entry":
+        return new LedgerJournal.Durability.PerEntry();
+      case "os_managed":
+        return new LedgerJournal.Durability.OsManaged();
+      case "group_commit":
+        break;
+      default:
+        LOG.warn("Invalid LEDGER_JOURNAL_DURABILITY ({}), using group_commit", durability);
+    }
+    LedgerJournal.Durability.GroupCommit defaults = LedgerJournal.Durability.GroupCommit.DEFAULT;
+    return new LedgerJournal.Durability.GroupCommit(
+        envIntOrDefault("LEDGER_JOURNAL_GROUP_ENTRIES", defaults.maxEntries()),
+        Duration.of(
+            envIntOrDefault(
+                "LEDGER_JOURNAL_GROUP_DELAY_MICROS", (int) (defaults.maxDelay().toNanos() / 1_000)),
+            ChronoUnit.MICROS));
+  }
+
+  private static LedgerJournal.Compression journalCompression() {
+    String compression = envOrDefault("LEDGER_JOURNAL_COMPRESSION", "cold_segments");
+    switch (compression) {
+      case "none":
+        return new LedgerJournal.Compression.None();
+      case "cold_segments":
+        break;
+      default:
+        LOG.warn("Invalid LEDGER_JOURNAL_COMPRESSION ({}), using cold_segments", compression);
+    }
+    return new LedgerJournal.Compression.ColdSegments(
+        envIntOrDefault(
+            "LEDGER_JOURNAL_HOT_SEGMENTS",
+            LedgerJournal.Compression.ColdSegments.DEFAULT.hotSegments()));
+  }
+
   private static String envOrDefault(String key, String defaultValue) {
     String value = System.getenv(key);
     if (value == null || value.isBlank()) {
@@ -1,8 +1,11 @@
 package com.lekha.account;
 
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.lekha.ledger.Ledger;
 import com.lekha.money.Currency;
 import com.lekha.money.Money;
+import com.lekha.utils.AdaptiveBatchPolicy;
 import com.lekha.utils.Batcher;
 import dev.restate.sdk.ObjectContext;
 import dev.restate.sdk.SharedObjectContext;
@@ -10,18 +13,51 @@ import dev.restate.sdk.annotation.Handler;
 import dev.restate.sdk.annotation.Shared;
 import dev.restate.sdk.annotation.VirtualObject;
 import dev.restate.sdk.common.TerminalException;
-import dev.restate.serde.TypeRef;
+import io.micrometer.core.instrument.Metrics;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @VirtualObject
 public class Account {
 
-  public record AccountOptions(AccountType accountType, Currency nativeCurrency) {}
+  private static final String DEBIT_BATCHER_NAME = "debit_batcher";
+  // Sizes asyncDebit batches per account from its recent debit rate and batch execution times.
+  private static final AdaptiveBatchPolicy DEBIT_BATCH_POLICY =
+      new AdaptiveBatchPolicy(
+          DEBIT_BATCHER_NAME, AdaptiveBatchPolicy.Bounds.DEFAULT, Metrics.globalRegistry);
+  private static final String GROUP_COMMIT_BATCHER_NAME = "group_commit_batcher";
+  private static final AdaptiveBatchPolicy GROUP_COMMIT_BATCH_POLICY =
+      new AdaptiveBatchPolicy(
+          GROUP_COMMIT_BATCHER_NAME, AdaptiveBatchPolicy.Bounds.DEFAULT, Metrics.globalRegistry);
+
+  /**
+   * @param numShards number of shard accounts backing this account, see {@link AccountShards}. 1
+   *     (or absent) for an ordinary account.
+   * @param groupCommit whether transfers queue the credits, hold credits and hold debits of this
+   *     account on its {@link Account#groupCommit}, for hot accounts that take many of them at
+   *     once. Off (or absent) by default, as queueing delays each operation by the batch linger.
+   */
+  public record AccountOptions(
+      AccountType accountType, Currency nativeCurrency, int numShards, boolean groupCommit) {
+    public AccountOptions {
+      if (numShards < 0) {
+        throw new TerminalException("numShards must not be negative");
+      }
+      numShards = Math.max(numShards, 1);
+    }
+
+    public AccountOptions(AccountType accountType, Currency nativeCurrency, int numShards) {
+      this(accountType, nativeCurrency, numShards, false);
+    }
+
+    public AccountOptions(AccountType accountType, Currency nativeCurrency) {
+      this(accountType, nativeCurrency, 1);
+    }
+  }
 
   public record InitInstruction(AccountOptions accountOptions) {}
 
@@ -29,7 +65,34 @@ public class Account {
 
   public record SignalInstruction(String signalId) {}
 
-  public record DebitInstruction(Money amountToDebit, OperationMetadata metadata) {}
+  /**
+   * The transfer instructions a netted balance change settles: what the account received and what
+   * it paid under each. The account posts one ledger entry per instruction instead of one for the
+   * net amount. {@link #NONE} for balance changes that settle a single instruction.
+   */
+  public record SettledInstructions(
+      List<LedgerRecorder.OperationDetails> credits, List<LedgerRecorder.OperationDetails> debits) {
+    public static final SettledInstructions NONE = new SettledInstructions(List.of(), List.of());
+
+    /** The same instructions, as the opposite balance change posts them when it undoes this one. */
+    public SettledInstructions reversed() {
+      return new SettledInstructions(debits, credits);
+    }
+  }
+
+  public record DebitInstruction(
+      Money amountToDebit, OperationMetadata metadata, SettledInstructions settledInstructions) {
+    public DebitInstruction {
+      // Absent from instructions journaled before netted operations carried them.
+      if (settledInstructions == null) {
+        settledInstructions = SettledInstructions.NONE;
+      }
+    }
+
+    public DebitInstruction(Money amountToDebit, OperationMetadata metadata) {
+      this(amountToDebit, metadata, SettledInstructions.NONE);
+    }
+  }
 
   public record AsyncDebitInstruction(
       DebitInstruction debitInstruction, SignalInstruction signalInstruction) {}
@@ -44,12 +107,25 @@ public class Account {
 
   public record AsyncDebitResult(DebitResult debitResult, Signal signal) {}
 
-  public record CreditInstruction(Money amountToCredit, OperationMetadata metadata) {}
+  public record CreditInstruction(
+      Money amountToCredit, OperationMetadata metadata, SettledInstructions settledInstructions) {
+    public CreditInstruction {
+      // Absent from instructions journaled before netted operations carried them.
+      if (settledInstructions == null) {
+        settledInstructions = SettledInstructions.NONE;
+      }
+    }
+
+    public CreditInstruction(Money amountToCredit, OperationMetadata metadata) {
+      this(amountToCredit, metadata, SettledInstructions.NONE);
+    }
+  }
 
   public record CreditResult(AccountSummary accountSummary) {}
 
   public record HoldInstruction(String holdId, Money amountToHold, OperationMetadata metadata) {}
 
+  // Binary state stores hold types by ordinal: add new constants at the end.
   public enum HoldType {
     // The hold was requested by user
     USER,
@@ -95,27 +171,156 @@ public class Account {
   public record TransactionalHoldInstruction(
       String transactionId, Money amountToHold, OperationMetadata metadata) {}
 
+  /**
+   * @param minimumShardBalance available balance to gather on one shard, if the total allows it.
+   * @param fundedShardKey the shard to gather it on; the richest shard when absent.
+   */
+  public record RebalanceInstruction(Money minimumShardBalance, Optional<String> fundedShardKey) {}
+
+  public record RebalanceResult(String fundedShardKey) {}
+
+  /** Available balance that a {@link #rebalance} moves off one shard and onto another. */
+  public record ShardTransferInstruction(Money amount) {}
+
+  /**
+   * An operation that {@link #groupCommit} applies together with the others queued on the account.
+   * Its result is the result of the matching handler, e.g. a {@link CreditResult} for a {@link
+   * Credit}.
+   */
+  @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
+  @JsonSubTypes({
+    @JsonSubTypes.Type(value = GroupCommitOperation.Credit.class, name = "credit"),
+    @JsonSubTypes.Type(value = GroupCommitOperation.CreditHold.class, name = "credit_hold"),
+    @JsonSubTypes.Type(
+        value = GroupCommitOperation.TransactionalCredit.class,
+        name = "transactional_credit"),
+    @JsonSubTypes.Type(value = GroupCommitOperation.DebitHold.class, name = "debit_hold")
+  })
+  public sealed interface GroupCommitOperation {
+    record Credit(CreditInstruction instruction) implements GroupCommitOperation {}
+
+    record CreditHold(CreditHoldInstruction instruction) implements GroupCommitOperation {}
+
+    record TransactionalCredit(TransactionalCreditInstruction instruction)
+        implements GroupCommitOperation {}
+
+    record DebitHold(DebitHoldInstruction instruction) implements GroupCommitOperation {}
+  }
+
+  public record GroupCommitInstruction(
+      GroupCommitOperation operation, SignalInstruction signalInstruction) {}
+
+  /**
+   * An operation that {@link #applyBatch} applies together with the others of the batch. Its
+   * instruction is the one of the matching handler, e.g. a {@link DebitInstruction} for a {@link
+   * Debit}.
+   */
+  @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
+  @JsonSubTypes({
+    @JsonSubTypes.Type(value = BatchOperation.Debit.class, name = "debit"),
+    @JsonSubTypes.Type(value = BatchOperation.Credit.class, name = "credit"),
+    @JsonSubTypes.Type(value = BatchOperation.Hold.class, name = "hold"),
+    @JsonSubTypes.Type(value = BatchOperation.ReleaseHold.class, name = "release_hold"),
+    @JsonSubTypes.Type(value = BatchOperation.DebitHold.class, name = "debit_hold"),
+    @JsonSubTypes.Type(value = BatchOperation.CreditHold.class, name = "credit_hold"),
+    @JsonSubTypes.Type(
+        value = BatchOperation.TransactionalDebit.class,
+        name = "transactional_debit"),
+    @JsonSubTypes.Type(
+        value = BatchOperation.TransactionalCredit.class,
+        name = "transactional_credit"),
+    @JsonSubTypes.Type(value = BatchOperation.TransactionalHold.class, name = "transactional_hold"),
+    @JsonSubTypes.Type(
+        value = BatchOperation.TransactionalReleaseHold.class,
+        name = "transactional_release_hold")
+  })
+  public sealed interface BatchOperation {
+    record Debit(DebitInstruction instruction) implements BatchOperation {}
+
+    record Credit(CreditInstruction instruction) implements BatchOperation {}
+
+    record Hold(HoldInstruction instruction) implements BatchOperation {}
+
+    record ReleaseHold(ReleaseHoldInstruction instruction) implements BatchOperation {}
+
+    record DebitHold(DebitHoldInstruction instruction) implements BatchOperation {}
+
+    record CreditHold(CreditHoldInstruction instruction) implements BatchOperation {}
+
+    record TransactionalDebit(TransactionalDebitInstruction instruction)
+        implements BatchOperation {}
+
+    record TransactionalCredit(TransactionalCreditInstruction instruction)
+        implements BatchOperation {}
+
+    record TransactionalHold(TransactionalHoldInstruction instruction) implements BatchOperation {}
+
+    record TransactionalReleaseHold(TransactionalReleaseHoldInstruction instruction)
+        implements BatchOperation {}
+  }
+
+  /**
+   * The operations of an {@link #applyBatch} call. They travel in a record rather than as a bare
+   * list, so that Jackson sees their declared type and writes the {@code type} id of each one.
+   */
+  public record ApplyBatchInstruction(List<BatchOperation> operations) {}
+
+  /**
+   * The result of one {@link BatchOperation}: the fields of the matching handler result, the hold
+   * summary and released amount being present where that result has them.
+   */
+  public record BatchOperationResult(
+      AccountSummary accountSummary,
+      Optional<HoldSummary> holdSummary,
+      Optional<Money> releasedAmount) {
+
+    BatchOperationResult(AccountSummary accountSummary) {
+      this(accountSummary, Optional.empty(), Optional.empty());
+    }
+
+    BatchOperationResult(AccountSummary accountSummary, HoldSummary holdSummary) {
+      this(accountSummary, Optional.of(holdSummary), Optional.empty());
+    }
+
+    BatchOperationResult(AccountSummary accountSummary, HoldSummary holdSummary, Money released) {
+      this(accountSummary, Optional.of(holdSummary), Optional.of(released));
+    }
+  }
+
+  /**
+   * @param results the results of the applied operations, in batch order.
+   * @param failure the message of the operation that failed, the one after the last applied. It and
+   *     the operations after it were not applied.
+   */
+  public record ApplyBatchResult(List<BatchOperationResult> results, Optional<String> failure) {}
+
   @Handler
   public AccountSummary init(ObjectContext ctx, InitInstruction instruction) {
-    if (!AccountOptionsState.exists(ctx)) {
-      AccountOptionsState.create(ctx, instruction.accountOptions());
-      try (AccountBalancesState accountBalancesState =
-          AccountBalancesState.create(ctx, instruction.accountOptions().nativeCurrency())) {
-        return accountBalancesState.accountSummary();
+    try (AccountState accountState = AccountState.of(ctx)) {
+      if (!AccountOptionsState.exists(accountState)) {
+        AccountOptionsState.create(accountState, instruction.accountOptions());
+        if (AccountShards.isSharded(instruction.accountOptions())) {
+          AccountShards.initShards(ctx, instruction.accountOptions());
+        }
+        try (AccountBalancesState accountBalancesState =
+            AccountBalancesState.create(
+                accountState, instruction.accountOptions().nativeCurrency())) {
+          return accountBalancesState.accountSummary();
+        }
       }
-    }
 
-    return this.getSummary(ctx);
+      return this.getSummary(ctx, accountState);
+    }
   }
 
   @Handler
   public void asyncDebit(ObjectContext ctx, AsyncDebitInstruction instruction) {
     Batcher<AsyncDebitInstruction> batcher =
-        new Batcher<>(ctx, "debit_batcher", new TypeRef<>() {});
+        new Batcher<>(ctx, DEBIT_BATCHER_NAME, AccountStateSerdes.DEBIT_BATCHER);
+    DEBIT_BATCH_POLICY.recordArrival(ctx.key());
     Batcher<AsyncDebitInstruction>.Appender appender =
         batcher.appender(
-            1000,
-            Duration.ofMillis(100L),
+            () -> DEBIT_BATCH_POLICY.limits(ctx.key()),
             (_ctx, batchName, delay) -> {
               AccountClient.ContextClient.Send accountClient =
                   AccountClient.fromContext(_ctx, _ctx.key()).send();
@@ -130,33 +335,45 @@ public class Account {
 
   @Handler
   public void batchDebit(ObjectContext ctx, String batchName) {
-    Batcher<AsyncDebitInstruction> batcher = new Batcher<>(ctx, batchName, new TypeRef<>() {});
-    batcher.executor().executeBatch(instructions -> batchDebit(ctx, instructions));
+    Batcher<AsyncDebitInstruction> batcher =
+        new Batcher<>(ctx, batchName, AccountStateSerdes.DEBIT_BATCHER);
+    long startNanos = System.nanoTime();
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      BulkDebitUpdateResult updateResult =
+          new BulkDebitUpdateResult(new ArrayList<>(), new ArrayList<>());
+      // Segments are applied as they are read; the ledger entry and signals cover the whole batch.
+      batcher
+          .executor()
+          .executeBatch(instructions -> executeBulkDebit(accountState, instructions, updateResult));
+      batchDebit(ctx, accountState, ledgerRecorder, updateResult);
+      DEBIT_BATCH_POLICY.recordExecution(
+          ctx.key(),
+          updateResult.successfulInstructions().size() + updateResult.failedDebits().size(),
+          Duration.ofNanos(System.nanoTime() - startNanos));
+    }
   }
 
-  private void batchDebit(ObjectContext ctx, List<AsyncDebitInstruction> instructions) {
-    if (instructions.isEmpty()) {
+  private void batchDebit(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      BulkDebitUpdateResult updateResult) {
+    if (updateResult.successfulInstructions().isEmpty() && updateResult.failedDebits().isEmpty()) {
       return;
     }
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
-      String accountId = ctx.key();
-
-      BulkDebitUpdateResult updateResult =
-          executeBulkDebit(ctx, accountBalancesState, instructions);
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
       AccountSummary accountSummary = accountBalancesState.accountSummary();
 
-      LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, accountId);
-      List<LedgerRecorder.OperationDetails> allOperationDetails =
-          updateResult.successfulInstructions().stream()
-              .map(
-                  instruction ->
-                      new LedgerRecorder.OperationDetails(
-                          instruction.debitInstruction.amountToDebit,
-                          instruction.debitInstruction.metadata))
-              .toList();
-      if (!allOperationDetails.isEmpty()) {
-        ledgerRecorder.bulkRecordBalanceChangeInLedger(
-            "account_debit", Ledger.Operation.DEBIT, accountSummary, allOperationDetails);
+      for (AsyncDebitInstruction instruction : updateResult.successfulInstructions()) {
+        DebitInstruction debitInstruction = instruction.debitInstruction();
+        ledgerRecorder.recordSettledBalanceChangeInLedger(
+            debitInstruction.amountToDebit(),
+            Ledger.Operation.DEBIT,
+            accountSummary,
+            debitInstruction.metadata(),
+            debitInstruction.settledInstructions());
       }
 
       for (AsyncDebitInstruction instruction : updateResult.successfulInstructions()) {
@@ -169,52 +386,260 @@ public class Account {
           ctx.awakeableHandle(signalId).reject(e.getMessage());
         }
       }
-      for (AsyncDebitInstruction instruction : updateResult.failedInstructions()) {
-        String signalId = instruction.signalInstruction().signalId();
-        ctx.awakeableHandle(signalId).reject("Debit failed");
+      for (FailedDebit failedDebit : updateResult.failedDebits()) {
+        String signalId = failedDebit.instruction().signalInstruction().signalId();
+        ctx.awakeableHandle(signalId).reject(failedDebit.failure());
       }
     }
   }
 
-  private record BulkDebitUpdateResult(
-      List<AsyncDebitInstruction> successfulInstructions,
-      List<AsyncDebitInstruction> failedInstructions) {}
+  /**
+   * Queues {@code instruction} to be applied with the other operations queued on this account, in
+   * one state update and one ledger record per entry kind and operation. The result, or the failure
+   * message, is delivered through the awakeable of the signal instruction.
+   */
+  @Handler
+  public void groupCommit(ObjectContext ctx, GroupCommitInstruction instruction) {
+    Batcher<GroupCommitInstruction> batcher =
+        new Batcher<>(ctx, GROUP_COMMIT_BATCHER_NAME, AccountStateSerdes.GROUP_COMMIT_BATCHER);
+    GROUP_COMMIT_BATCH_POLICY.recordArrival(ctx.key());
+    Batcher<GroupCommitInstruction>.Appender appender =
+        batcher.appender(
+            () -> GROUP_COMMIT_BATCH_POLICY.limits(ctx.key()),
+            (_ctx, batchName, delay) -> {
+              AccountClient.ContextClient.Send accountClient =
+                  AccountClient.fromContext(_ctx, _ctx.key()).send();
+              if (delay.isPresent()) {
+                return accountClient.executeGroupCommit(batchName, delay.get());
+              } else {
+                return accountClient.executeGroupCommit(batchName);
+              }
+            });
+    appender.addToBatch(instruction);
+  }
+
+  @Handler
+  public void executeGroupCommit(ObjectContext ctx, String batchName) {
+    Batcher<GroupCommitInstruction> batcher =
+        new Batcher<>(ctx, batchName, AccountStateSerdes.GROUP_COMMIT_BATCHER);
+    long startNanos = System.nanoTime();
+    List<GroupCommitOutcome> outcomes = new ArrayList<>();
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      batcher
+          .executor()
+          .executeBatch(
+              instructions -> {
+                for (GroupCommitInstruction instruction : instructions) {
+                  outcomes.add(groupCommit(ctx, accountState, ledgerRecorder, instruction));
+                }
+              });
+    }
+
+    for (GroupCommitOutcome outcome : outcomes) {
+      if (outcome.result() != null) {
+        resolve(ctx, outcome.signalId(), outcome.result());
+      } else {
+        ctx.awakeableHandle(outcome.signalId()).reject(outcome.failure());
+      }
+    }
+    GROUP_COMMIT_BATCH_POLICY.recordExecution(
+        ctx.key(), outcomes.size(), Duration.ofNanos(System.nanoTime() - startNanos));
+  }
+
+  /** The result of one group-committed operation, or the message it failed with. */
+  private record GroupCommitOutcome(String signalId, Record result, String failure) {}
 
-  private BulkDebitUpdateResult executeBulkDebit(
+  private GroupCommitOutcome groupCommit(
       ObjectContext ctx,
-      AccountBalancesState accountBalancesState,
-      List<AsyncDebitInstruction> instructions) {
-    AccountOptions accountOptions = AccountOptionsState.getExisting(ctx).accountOptions();
-    if (accountOptions.accountType().doDebitsDecreaseBalance()) {
-      List<AsyncDebitInstruction> successfulInstructions = new LinkedList<>();
-      List<AsyncDebitInstruction> failedInstructions = new LinkedList<>();
-      for (AsyncDebitInstruction instruction : instructions) {
-        Money amountToDebit = instruction.debitInstruction.amountToDebit;
-        if (accountBalancesState.availableBalance().isLessThan(amountToDebit)) {
-          failedInstructions.add(instruction);
-        } else {
-          accountBalancesState.subtractAvailableBalance(amountToDebit);
-          successfulInstructions.add(instruction);
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      GroupCommitInstruction instruction) {
+    String signalId = instruction.signalInstruction().signalId();
+    // A failed operation must leave neither state changes nor ledger entries behind.
+    AccountState.Snapshot snapshot = accountState.snapshot();
+    int ledgerCheckpoint = ledgerRecorder.checkpoint();
+    try {
+      Record result =
+          switch (instruction.operation()) {
+            case GroupCommitOperation.Credit credit ->
+                credit(ctx, accountState, ledgerRecorder, credit.instruction());
+            case GroupCommitOperation.CreditHold creditHold ->
+                creditHold(
+                    accountState,
+                    ledgerRecorder,
+                    HoldType.USER,
+                    creditHold.instruction().holdId(),
+                    creditHold.instruction().creditInstruction());
+            case GroupCommitOperation.TransactionalCredit transactionalCredit ->
+                transactionalCredit(
+                    ctx, accountState, ledgerRecorder, transactionalCredit.instruction());
+            case GroupCommitOperation.DebitHold debitHold ->
+                debitHold(accountState, ledgerRecorder, debitHold.instruction());
+          };
+      return new GroupCommitOutcome(signalId, result, null);
+    } catch (TerminalException e) {
+      accountState.restore(snapshot);
+      ledgerRecorder.rollback(ledgerCheckpoint);
+      return new GroupCommitOutcome(signalId, null, e.getMessage());
+    }
+  }
+
+  /**
+   * Applies {@code operations} in order, with one state update and one ledger record for all of
+   * them. Stops at the first operation that fails, which leaves neither state changes nor ledger
+   * entries behind; the operations before it stay applied.
+   */
+  @Handler
+  public ApplyBatchResult applyBatch(ObjectContext ctx, ApplyBatchInstruction instruction) {
+    List<BatchOperation> operations = instruction.operations();
+    List<BatchOperationResult> results = new ArrayList<>(operations.size());
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      for (BatchOperation operation : operations) {
+        AccountState.Snapshot snapshot = accountState.snapshot();
+        int ledgerCheckpoint = ledgerRecorder.checkpoint();
+        try {
+          results.add(apply(ctx, accountState, ledgerRecorder, operation));
+        } catch (TerminalException e) {
+          accountState.restore(snapshot);
+          ledgerRecorder.rollback(ledgerCheckpoint);
+          return new ApplyBatchResult(results, Optional.of(e.getMessage()));
         }
       }
-      return new BulkDebitUpdateResult(successfulInstructions, failedInstructions);
-    } else {
-      Money amountToDebit =
-          instructions.stream()
-              .map(instruction -> instruction.debitInstruction.amountToDebit)
-              .reduce(Money::add)
-              .get();
-      accountBalancesState.addAvailableBalance(amountToDebit);
-      return new BulkDebitUpdateResult(instructions, List.of());
+    }
+    return new ApplyBatchResult(results, Optional.empty());
+  }
+
+  private BatchOperationResult apply(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      BatchOperation operation) {
+    return switch (operation) {
+      case BatchOperation.Debit debit ->
+          new BatchOperationResult(
+              debit(ctx, accountState, ledgerRecorder, debit.instruction()).accountSummary());
+      case BatchOperation.Credit credit ->
+          new BatchOperationResult(
+              credit(ctx, accountState, ledgerRecorder, credit.instruction()).accountSummary());
+      case BatchOperation.Hold hold -> {
+        HoldResult result =
+            hold(ctx, accountState, ledgerRecorder, HoldType.USER, hold.instruction());
+        yield new BatchOperationResult(result.accountSummary(), result.holdSummary());
+      }
+      case BatchOperation.ReleaseHold releaseHold -> {
+        ReleaseHoldResult result =
+            releaseHold(
+                ctx, accountState, ledgerRecorder, HoldType.USER, releaseHold.instruction());
+        yield new BatchOperationResult(
+            result.accountSummary(), result.holdSummary(), result.releasedAmount());
+      }
+      case BatchOperation.DebitHold debitHold -> {
+        DebitHoldResult result = debitHold(accountState, ledgerRecorder, debitHold.instruction());
+        yield new BatchOperationResult(result.accountSummary(), result.holdSummary());
+      }
+      case BatchOperation.CreditHold creditHold -> {
+        CreditHoldResult result =
+            creditHold(
+                accountState,
+                ledgerRecorder,
+                HoldType.USER,
+                creditHold.instruction().holdId(),
+                creditHold.instruction().creditInstruction());
+        yield new BatchOperationResult(result.accountSummary(), result.holdSummary());
+      }
+      case BatchOperation.TransactionalDebit transactionalDebit -> {
+        TransactionalDebitResult result =
+            transactionalDebit(ctx, accountState, ledgerRecorder, transactionalDebit.instruction());
+        yield new BatchOperationResult(result.accountSummary(), result.transactionHoldSummary());
+      }
+      case BatchOperation.TransactionalCredit transactionalCredit -> {
+        TransactionalCreditResult result =
+            transactionalCredit(
+                ctx, accountState, ledgerRecorder, transactionalCredit.instruction());
+        yield new BatchOperationResult(result.accountSummary(), result.transactionHoldSummary());
+      }
+      case BatchOperation.TransactionalHold transactionalHold -> {
+        HoldResult result =
+            transactionalHold(ctx, accountState, ledgerRecorder, transactionalHold.instruction());
+        yield new BatchOperationResult(result.accountSummary(), result.holdSummary());
+      }
+      case BatchOperation.TransactionalReleaseHold transactionalReleaseHold -> {
+        TransactionalReleaseHoldInstruction instruction = transactionalReleaseHold.instruction();
+        ReleaseHoldResult result =
+            releaseHold(
+                ctx,
+                accountState,
+                ledgerRecorder,
+                HoldType.TRANSACTION,
+                new ReleaseHoldInstruction(instruction.transactionId(), instruction.metadata()));
+        yield new BatchOperationResult(
+            result.accountSummary(), result.holdSummary(), result.releasedAmount());
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Record> void resolve(ObjectContext ctx, String signalId, T result) {
+    ctx.awakeableHandle(signalId).resolve((Class<T>) result.getClass(), result);
+  }
+
+  private record BulkDebitUpdateResult(
+      List<AsyncDebitInstruction> successfulInstructions, List<FailedDebit> failedDebits) {}
+
+  private record FailedDebit(AsyncDebitInstruction instruction, String failure) {}
+
+  private void executeBulkDebit(
+      AccountState accountState,
+      List<AsyncDebitInstruction> instructions,
+      BulkDebitUpdateResult updateResult) {
+    if (instructions.isEmpty()) {
+      return;
+    }
+    AccountOptions accountOptions = AccountOptionsState.getExisting(accountState).accountOptions();
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
+      if (accountOptions.accountType().doDebitsDecreaseBalance()) {
+        for (AsyncDebitInstruction instruction : instructions) {
+          try {
+            accountBalancesState.subtractAvailableBalance(
+                instruction.debitInstruction.amountToDebit);
+            updateResult.successfulInstructions().add(instruction);
+          } catch (TerminalException e) {
+            updateResult.failedDebits().add(new FailedDebit(instruction, e.getMessage()));
+          }
+        }
+      } else {
+        Money amountToDebit =
+            instructions.stream()
+                .map(instruction -> instruction.debitInstruction.amountToDebit)
+                .reduce(Money::add)
+                .get();
+        accountBalancesState.addAvailableBalance(amountToDebit);
+        updateResult.successfulInstructions().addAll(instructions);
+      }
     }
   }
 
   @Handler
   public DebitResult debit(ObjectContext ctx, DebitInstruction instruction) {
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return debit(ctx, accountState, ledgerRecorder, instruction);
+    }
+  }
+
+  private DebitResult debit(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      DebitInstruction instruction) {
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
       Money amountToDebit = instruction.amountToDebit();
-      String accountId = ctx.key();
-      AccountOptions accountOptions = AccountOptionsState.getExisting(ctx).accountOptions();
+      AccountOptions accountOptions =
+          AccountOptionsState.getExisting(accountState).accountOptions();
 
       if (accountOptions.accountType().doDebitsDecreaseBalance()) {
         accountBalancesState.subtractAvailableBalance(amountToDebit);
@@ -224,13 +649,12 @@ public class Account {
 
       AccountSummary accountSummary = accountBalancesState.accountSummary();
 
-      LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, accountId);
-      ledgerRecorder.recordBalanceChangeInLedger(
-          "account_debit",
+      ledgerRecorder.recordSettledBalanceChangeInLedger(
           amountToDebit,
           Ledger.Operation.DEBIT,
           accountSummary,
-          instruction.metadata());
+          instruction.metadata(),
+          instruction.settledInstructions());
 
       return new DebitResult(accountSummary);
     }
@@ -238,11 +662,23 @@ public class Account {
 
   @Handler
   public CreditResult credit(ObjectContext ctx, CreditInstruction instruction) {
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return credit(ctx, accountState, ledgerRecorder, instruction);
+    }
+  }
+
+  private CreditResult credit(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      CreditInstruction instruction) {
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
       Money amountToCredit = instruction.amountToCredit();
-      String accountId = ctx.key();
 
-      AccountOptions accountOptions = AccountOptionsState.getExisting(ctx).accountOptions();
+      AccountOptions accountOptions =
+          AccountOptionsState.getExisting(accountState).accountOptions();
       if (accountOptions.accountType().doCreditsDecreaseBalance()) {
         accountBalancesState.subtractAvailableBalance(amountToCredit);
       } else {
@@ -251,13 +687,12 @@ public class Account {
 
       AccountSummary accountSummary = accountBalancesState.accountSummary();
 
-      LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, accountId);
-      ledgerRecorder.recordBalanceChangeInLedger(
-          "account_credit",
+      ledgerRecorder.recordSettledBalanceChangeInLedger(
           amountToCredit,
           Ledger.Operation.CREDIT,
           accountSummary,
-          instruction.metadata());
+          instruction.metadata(),
+          instruction.settledInstructions());
 
       return new CreditResult(accountSummary);
     }
@@ -266,22 +701,111 @@ public class Account {
   @Shared
   @Handler
   public AccountSummary getSummary(SharedObjectContext ctx) {
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
-      return accountBalancesState.accountSummary();
+    try (AccountState accountState = AccountState.of(ctx)) {
+      return getSummary(ctx, accountState);
+    }
+  }
+
+  private AccountSummary getSummary(SharedObjectContext ctx, AccountState accountState) {
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
+      AccountSummary accountSummary = accountBalancesState.accountSummary();
+      AccountOptions accountOptions =
+          AccountOptionsState.getExisting(accountState).accountOptions();
+      if (AccountShards.isSharded(accountOptions)) {
+        return AccountShards.combinedSummary(ctx, accountOptions, accountSummary);
+      }
+      return accountSummary;
+    }
+  }
+
+  @Shared
+  @Handler
+  public AccountOptions getOptions(SharedObjectContext ctx) {
+    try (AccountState accountState = AccountState.of(ctx)) {
+      return AccountOptionsState.getExisting(accountState).accountOptions();
+    }
+  }
+
+  @Handler
+  public RebalanceResult rebalance(ObjectContext ctx, RebalanceInstruction instruction) {
+    AccountOptions accountOptions;
+    try (AccountState accountState = AccountState.of(ctx)) {
+      accountOptions = AccountOptionsState.getExisting(accountState).accountOptions();
+    }
+    if (!AccountShards.isSharded(accountOptions)) {
+      throw new TerminalException("Account is not sharded. Account id: " + ctx.key());
+    }
+    return AccountShards.rebalance(ctx, accountOptions, instruction);
+  }
+
+  /**
+   * Takes available balance off this shard of a sharded account, during its {@link #rebalance}. The
+   * ledger records it as a {@link Ledger.Operation#SHARD_DEBIT} or {@link
+   * Ledger.Operation#SHARD_CREDIT}, whichever decreases the balance of the account type, apart from
+   * the debits and credits of transfers.
+   */
+  @Handler
+  public AccountSummary takeShardBalance(ObjectContext ctx, ShardTransferInstruction instruction) {
+    return shardTransfer(ctx, instruction, true);
+  }
+
+  /** Gives available balance to this shard of a sharded account, see {@link #takeShardBalance}. */
+  @Handler
+  public AccountSummary giveShardBalance(ObjectContext ctx, ShardTransferInstruction instruction) {
+    return shardTransfer(ctx, instruction, false);
+  }
+
+  private AccountSummary shardTransfer(
+      ObjectContext ctx, ShardTransferInstruction instruction, boolean take) {
+    if (!AccountShards.isShardKey(ctx.key())) {
+      throw new TerminalException("Account is not a shard. Account id: " + ctx.key());
+    }
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key());
+        AccountBalancesState accountBalancesState =
+            AccountBalancesState.getExisting(accountState)) {
+      Money amount = instruction.amount();
+      if (take) {
+        accountBalancesState.subtractAvailableBalance(amount);
+      } else {
+        accountBalancesState.addAvailableBalance(amount);
+      }
+
+      AccountOptions accountOptions =
+          AccountOptionsState.getExisting(accountState).accountOptions();
+      Ledger.Operation operation =
+          take == accountOptions.accountType().doDebitsDecreaseBalance()
+              ? Ledger.Operation.SHARD_DEBIT
+              : Ledger.Operation.SHARD_CREDIT;
+      AccountSummary accountSummary = accountBalancesState.accountSummary();
+      ledgerRecorder.recordBalanceChangeInLedger(
+          amount, operation, accountSummary, new OperationMetadata());
+      return accountSummary;
     }
   }
 
   @Handler
   public HoldResult hold(ObjectContext ctx, HoldInstruction instruction) {
-    return hold(ctx, HoldType.USER, instruction);
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return hold(ctx, accountState, ledgerRecorder, HoldType.USER, instruction);
+    }
   }
 
-  private HoldResult hold(ObjectContext ctx, HoldType holdType, HoldInstruction instruction) {
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
+  private HoldResult hold(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      HoldType holdType,
+      HoldInstruction instruction) {
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
       Money amountToHold = instruction.amountToHold();
       String accountId = ctx.key();
 
-      AccountOptions accountOptions = AccountOptionsState.getExisting(ctx).accountOptions();
+      AccountOptions accountOptions =
+          AccountOptionsState.getExisting(accountState).accountOptions();
       if (!accountOptions.accountType().doDebitsDecreaseBalance()) {
         throw new TerminalException(
             "Cannot hold balances on this account. Account id: " + accountId);
@@ -289,22 +813,16 @@ public class Account {
 
       String holdId = instruction.holdId();
       try (HoldBalanceState holdBalanceState =
-          HoldBalanceState.create(ctx, holdId, holdType, amountToHold.currency())) {
+          HoldBalanceState.create(accountState, holdId, holdType, amountToHold.currency())) {
         accountBalancesState.hold(amountToHold);
         holdBalanceState.addAvailableBalance(amountToHold);
 
         AccountSummary accountSummary = accountBalancesState.accountSummary();
         HoldSummary holdSummary = holdBalanceState.holdSummary();
 
-        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, accountId);
         ledgerRecorder.recordBalanceChangeInLedger(
-            "account_debit",
-            amountToHold,
-            Ledger.Operation.DEBIT,
-            accountSummary,
-            instruction.metadata());
+            amountToHold, Ledger.Operation.DEBIT, accountSummary, instruction.metadata());
         ledgerRecorder.recordHoldBalanceChangeInLedger(
-            "hold_credit",
             amountToHold,
             Ledger.Operation.CREDIT,
             accountSummary,
@@ -318,16 +836,23 @@ public class Account {
 
   @Handler
   public ReleaseHoldResult releaseHold(ObjectContext ctx, ReleaseHoldInstruction instruction) {
-    return releaseHold(ctx, HoldType.USER, instruction);
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return releaseHold(ctx, accountState, ledgerRecorder, HoldType.USER, instruction);
+    }
   }
 
   private ReleaseHoldResult releaseHold(
-      ObjectContext ctx, HoldType holdType, ReleaseHoldInstruction instruction) {
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
-      String accountId = ctx.key();
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      HoldType holdType,
+      ReleaseHoldInstruction instruction) {
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
       String holdId = instruction.holdId();
 
-      if (!HoldBalanceState.exits(ctx, holdId)) {
+      if (!HoldBalanceState.exits(accountState, holdId)) {
         // nothing to release.
         AccountSummary accountSummary = accountBalancesState.accountSummary();
         Currency currency = accountBalancesState.balances().holdBalance().currency();
@@ -337,7 +862,7 @@ public class Account {
       }
 
       try (HoldBalanceState holdBalanceState =
-          HoldBalanceState.getExisting(ctx, holdId, holdType)) {
+          HoldBalanceState.getExisting(accountState, holdId, holdType)) {
         Money amountToRelease = holdBalanceState.availableBalance();
         amountToRelease.ensurePositive();
         holdBalanceState.subtractAvailableBalance(amountToRelease);
@@ -347,20 +872,14 @@ public class Account {
         AccountSummary accountSummary = accountBalancesState.accountSummary();
         HoldSummary holdSummary = holdBalanceState.holdSummary();
 
-        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, accountId);
         ledgerRecorder.recordHoldBalanceChangeInLedger(
-            "hold_debit",
             amountToRelease,
             Ledger.Operation.DEBIT,
             accountSummary,
             holdSummary,
             instruction.metadata());
         ledgerRecorder.recordBalanceChangeInLedger(
-            "account_credit",
-            amountToRelease,
-            Ledger.Operation.CREDIT,
-            accountSummary,
-            instruction.metadata());
+            amountToRelease, Ledger.Operation.CREDIT, accountSummary, instruction.metadata());
 
         return new ReleaseHoldResult(accountSummary, holdSummary, amountToRelease);
       }
@@ -370,8 +889,9 @@ public class Account {
   @Shared
   @Handler
   public HoldSummary getHoldSummary(SharedObjectContext ctx, String holdId) {
-    try (HoldBalanceState holdBalanceState =
-        HoldBalanceState.getExisting(ctx, holdId, HoldType.USER)) {
+    try (AccountState accountState = AccountState.of(ctx);
+        HoldBalanceState holdBalanceState =
+            HoldBalanceState.getExisting(accountState, holdId, HoldType.USER)) {
       return holdBalanceState.holdSummary();
     }
   }
@@ -379,29 +899,36 @@ public class Account {
   @Shared
   @Handler
   public HoldSummary getTransactionalHoldSummary(SharedObjectContext ctx, String holdId) {
-    try (HoldBalanceState holdBalanceState =
-        HoldBalanceState.getExisting(ctx, holdId, HoldType.TRANSACTION)) {
+    try (AccountState accountState = AccountState.of(ctx);
+        HoldBalanceState holdBalanceState =
+            HoldBalanceState.getExisting(accountState, holdId, HoldType.TRANSACTION)) {
       return holdBalanceState.holdSummary();
     }
   }
 
   @Handler
   public DebitHoldResult debitHold(ObjectContext ctx, DebitHoldInstruction instruction) {
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
-      String accountId = ctx.key();
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return debitHold(accountState, ledgerRecorder, instruction);
+    }
+  }
+
+  private DebitHoldResult debitHold(
+      AccountState accountState, LedgerRecorder ledgerRecorder, DebitHoldInstruction instruction) {
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
       Money amountToDebit = instruction.debitInstruction().amountToDebit();
       String holdId = instruction.holdId();
       try (HoldBalanceState holdBalanceState =
-          HoldBalanceState.getExisting(ctx, holdId, HoldType.USER)) {
+          HoldBalanceState.getExisting(accountState, holdId, HoldType.USER)) {
         holdBalanceState.subtractAvailableBalance(amountToDebit);
         accountBalancesState.subtractHoldBalance(amountToDebit);
 
         AccountSummary accountSummary = accountBalancesState.accountSummary();
         HoldSummary holdSummary = holdBalanceState.holdSummary();
 
-        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, accountId);
         ledgerRecorder.recordHoldBalanceChangeInLedger(
-            "hold_debit",
             amountToDebit,
             Ledger.Operation.DEBIT,
             accountSummary,
@@ -414,24 +941,35 @@ public class Account {
 
   @Handler
   public CreditHoldResult creditHold(ObjectContext ctx, CreditHoldInstruction instruction) {
-    return creditHold(ctx, HoldType.USER, instruction.holdId(), instruction.creditInstruction());
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return creditHold(
+          accountState,
+          ledgerRecorder,
+          HoldType.USER,
+          instruction.holdId(),
+          instruction.creditInstruction());
+    }
   }
 
   private CreditHoldResult creditHold(
-      ObjectContext ctx, HoldType holdType, String holdId, CreditInstruction instruction) {
-    try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
-      String accountId = ctx.key();
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      HoldType holdType,
+      String holdId,
+      CreditInstruction instruction) {
+    try (AccountBalancesState accountBalancesState =
+        AccountBalancesState.getExisting(accountState)) {
       Money amountToCredit = instruction.amountToCredit();
       try (HoldBalanceState transactionHoldState =
-          HoldBalanceState.getExistingOrCreate(ctx, holdId, holdType, amountToCredit.currency())) {
+          HoldBalanceState.getExistingOrCreate(
+              accountState, holdId, holdType, amountToCredit.currency())) {
         accountBalancesState.addHoldBalance(amountToCredit);
         transactionHoldState.addAvailableBalance(amountToCredit);
 
         AccountSummary accountSummary = accountBalancesState.accountSummary();
         HoldSummary holdSummary = transactionHoldState.holdSummary();
-        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, accountId);
         ledgerRecorder.recordHoldBalanceChangeInLedger(
-            "hold_credit",
             amountToCredit,
             Ledger.Operation.CREDIT,
             accountSummary,
@@ -446,17 +984,29 @@ public class Account {
   @Handler
   public TransactionalDebitResult transactionalDebit(
       ObjectContext ctx, TransactionalDebitInstruction instruction) {
-    AccountOptionsState accountOptionsState = AccountOptionsState.getExisting(ctx);
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return transactionalDebit(ctx, accountState, ledgerRecorder, instruction);
+    }
+  }
+
+  private TransactionalDebitResult transactionalDebit(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      TransactionalDebitInstruction instruction) {
+    AccountOptionsState accountOptionsState = AccountOptionsState.getExisting(accountState);
     if (accountOptionsState.accountOptions().accountType().doDebitsDecreaseBalance()) {
-      try (AccountBalancesState accountBalancesState = AccountBalancesState.getExisting(ctx)) {
+      try (AccountBalancesState accountBalancesState =
+          AccountBalancesState.getExisting(accountState)) {
         Money amountToDebit = instruction.debitInstruction().amountToDebit();
         String transactionHoldId = instruction.transactionId();
         try (HoldBalanceState transactionHoldState =
             HoldBalanceState.getExistingOrCreate(
-                ctx, transactionHoldId, HoldType.TRANSACTION, amountToDebit.currency())) {
+                accountState, transactionHoldId, HoldType.TRANSACTION, amountToDebit.currency())) {
           // First debit from transaction hold and then account's available balance.
           drain(
-              ctx,
+              ledgerRecorder,
               amountToDebit,
               List.of(transactionHoldState),
               accountBalancesState,
@@ -468,7 +1018,8 @@ public class Account {
       }
     } else {
       // no transaction support for asset accounts
-      DebitResult debitResult = this.debit(ctx, instruction.debitInstruction());
+      DebitResult debitResult =
+          this.debit(ctx, accountState, ledgerRecorder, instruction.debitInstruction());
       HoldSummary emptyHold =
           new HoldSummary(
               instruction.transactionId(),
@@ -479,7 +1030,7 @@ public class Account {
   }
 
   private void drain(
-      ObjectContext ctx,
+      LedgerRecorder ledgerRecorder,
       Money totalBalanceToDrain,
       List<HoldBalanceState> holds,
       AccountBalancesState account,
@@ -529,10 +1080,8 @@ public class Account {
     }
 
     AccountSummary accountSummary = account.accountSummary();
-    LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, account.accountId());
     for (DrainedHold drainedHold : drainedHolds) {
       ledgerRecorder.recordHoldBalanceChangeInLedger(
-          "hold_debit_" + drainedHold.hold.holdId(),
           drainedHold.drainedBalance,
           Ledger.Operation.DEBIT,
           accountSummary,
@@ -541,18 +1090,24 @@ public class Account {
     }
     if (!accountBalanceDrained.isZero()) {
       ledgerRecorder.recordBalanceChangeInLedger(
-          "account_debit", accountBalanceDrained, Ledger.Operation.DEBIT, accountSummary, metadata);
+          accountBalanceDrained, Ledger.Operation.DEBIT, accountSummary, metadata);
     }
   }
 
   @Handler
   public TransactionalReleaseHoldResult transactionReleaseHold(
       ObjectContext ctx, TransactionalReleaseHoldInstruction instruction) {
-    ReleaseHoldResult releaseHoldResult =
-        releaseHold(
-            ctx,
-            HoldType.TRANSACTION,
-            new ReleaseHoldInstruction(instruction.transactionId(), instruction.metadata()));
+    ReleaseHoldResult releaseHoldResult;
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      releaseHoldResult =
+          releaseHold(
+              ctx,
+              accountState,
+              ledgerRecorder,
+              HoldType.TRANSACTION,
+              new ReleaseHoldInstruction(instruction.transactionId(), instruction.metadata()));
+    }
     return new TransactionalReleaseHoldResult(
         releaseHoldResult.accountSummary(),
         releaseHoldResult.holdSummary(),
@@ -562,10 +1117,22 @@ public class Account {
   @Handler
   public TransactionalCreditResult transactionalCredit(
       ObjectContext ctx, TransactionalCreditInstruction instruction) {
-    AccountOptionsState accountOptionsState = AccountOptionsState.getExisting(ctx);
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return transactionalCredit(ctx, accountState, ledgerRecorder, instruction);
+    }
+  }
+
+  private TransactionalCreditResult transactionalCredit(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      TransactionalCreditInstruction instruction) {
+    AccountOptionsState accountOptionsState = AccountOptionsState.getExisting(accountState);
     if (accountOptionsState.accountOptions().accountType().doCreditsDecreaseBalance()) {
       // no transaction support for asset accounts
-      CreditResult creditResult = this.credit(ctx, instruction.creditInstruction());
+      CreditResult creditResult =
+          this.credit(ctx, accountState, ledgerRecorder, instruction.creditInstruction());
       HoldSummary emptyHold =
           new HoldSummary(
               instruction.transactionId(),
@@ -575,7 +1142,8 @@ public class Account {
     } else {
       CreditHoldResult creditHoldResult =
           creditHold(
-              ctx,
+              accountState,
+              ledgerRecorder,
               HoldType.TRANSACTION,
               instruction.transactionId(),
               instruction.creditInstruction());
@@ -586,8 +1154,34 @@ public class Account {
 
   @Handler
   public HoldResult transactionalHold(ObjectContext ctx, TransactionalHoldInstruction instruction) {
+    try (AccountState accountState = AccountState.of(ctx);
+        LedgerRecorder ledgerRecorder = new LedgerRecorder(ctx, ctx.key())) {
+      return transactionalHold(ctx, accountState, ledgerRecorder, instruction);
+    }
+  }
+
+  private HoldResult transactionalHold(
+      ObjectContext ctx,
+      AccountState accountState,
+      LedgerRecorder ledgerRecorder,
+      TransactionalHoldInstruction instruction) {
+    AccountOptionsState accountOptionsState = AccountOptionsState.getExisting(accountState);
+    if (!accountOptionsState.accountOptions().accountType().doDebitsDecreaseBalance()) {
+      // no transaction support for asset accounts: their debits cannot run out of balance.
+      try (AccountBalancesState accountBalancesState =
+          AccountBalancesState.getExisting(accountState)) {
+        HoldSummary emptyHold =
+            new HoldSummary(
+                instruction.transactionId(),
+                HoldType.TRANSACTION,
+                Money.zero(instruction.amountToHold().currency()));
+        return new HoldResult(accountBalancesState.accountSummary(), emptyHold);
+      }
+    }
     return hold(
         ctx,
+        accountState,
+        ledgerRecorder,
         HoldType.TRANSACTION,
         new HoldInstruction(
             instruction.transactionId(), instruction.amountToHold(), instruction.metadata()));
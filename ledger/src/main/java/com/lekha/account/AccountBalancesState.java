@@ -2,9 +2,6 @@ package com.lekha.account;
 
 import com.lekha.money.Currency;
 import com.lekha.money.Money;
-import dev.restate.sdk.ObjectContext;
-import dev.restate.sdk.SharedObjectContext;
-import dev.restate.sdk.common.StateKey;
 import dev.restate.sdk.common.TerminalException;
 import java.util.Map;
 import java.util.function.Function;
@@ -12,36 +9,33 @@ import java.util.function.Supplier;
 
 public class AccountBalancesState implements AutoCloseable {
 
-  private static final StateKey<State> ACCOUNT_BALANCES_STATE_KEY =
-      StateKey.of("account_balances_state", State.class);
-
   public record State(Money availableBalance, Money holdBalance) {
     public static State empty(Currency currency) {
       return new State(Money.zero(currency), Money.zero(currency));
     }
   }
 
-  private final SharedObjectContext ctx;
+  private final AccountState accountState;
   private State state;
   private boolean flushNeeded;
 
-  private AccountBalancesState(SharedObjectContext ctx, State state, boolean flushNeeded) {
-    this.ctx = ctx;
+  private AccountBalancesState(AccountState accountState, State state, boolean flushNeeded) {
+    this.accountState = accountState;
     this.state = state;
     this.flushNeeded = flushNeeded;
   }
 
-  public static AccountBalancesState create(ObjectContext ctx, Currency currency) {
-    if (ctx.get(ACCOUNT_BALANCES_STATE_KEY).isPresent()) {
+  public static AccountBalancesState create(AccountState accountState, Currency currency) {
+    if (accountState.balances().isPresent()) {
       throw new TerminalException("account state already present");
     }
     State state = State.empty(currency);
-    return new AccountBalancesState(ctx, state, true);
+    return new AccountBalancesState(accountState, state, true);
   }
 
-  public static AccountBalancesState getExisting(SharedObjectContext ctx) {
-    State state = getStateOrThrow(ctx);
-    return new AccountBalancesState(ctx, state, false);
+  public static AccountBalancesState getExisting(AccountState accountState) {
+    State state = getStateOrThrow(accountState);
+    return new AccountBalancesState(accountState, state, false);
   }
 
   public void addAvailableBalance(Money amountToAdd) {
@@ -102,7 +96,7 @@ public class AccountBalancesState implements AutoCloseable {
   }
 
   public String accountId() {
-    return this.ctx.key();
+    return this.accountState.accountId();
   }
 
   public Account.AccountSummary accountSummary() {
@@ -116,11 +110,7 @@ public class AccountBalancesState implements AutoCloseable {
 
   public void flush() {
     if (flushNeeded) {
-      if (!(ctx instanceof ObjectContext)) {
-        throw new TerminalException("Cannot flush state in shared context");
-      }
-
-      ((ObjectContext) ctx).set(ACCOUNT_BALANCES_STATE_KEY, state);
+      accountState.setBalances(state);
       flushNeeded = false;
     }
   }
@@ -158,8 +148,9 @@ public class AccountBalancesState implements AutoCloseable {
     return () -> Map.of("account_id", accountId(), "balance_type", "hold_balance");
   }
 
-  private static State getStateOrThrow(SharedObjectContext ctx) {
-    return ctx.get(ACCOUNT_BALANCES_STATE_KEY)
+  private static State getStateOrThrow(AccountState accountState) {
+    return accountState
+        .balances()
         .orElseThrow(() -> new TerminalException("account state not present"));
   }
 }
@@ -1,16 +1,14 @@
 package com.lekha.account;
 
 import com.lekha.money.Currency;
-import dev.restate.sdk.ObjectContext;
-import dev.restate.sdk.SharedObjectContext;
-import dev.restate.sdk.common.StateKey;
 import dev.restate.sdk.common.TerminalException;
 
 public class AccountOptionsState {
-  private static final StateKey<State> ACCOUNT_OPTIONS_KEY =
-      StateKey.of("account_options", State.class);
 
-  public record State(AccountType accountType, Currency nativeCurrency) {}
+  // numShards is 0 in state written before sharding existed, which AccountOptions reads as 1, and
+  // groupCommit is false in state written before group commit existed.
+  public record State(
+      AccountType accountType, Currency nativeCurrency, int numShards, boolean groupCommit) {}
 
   private State state;
 
@@ -18,31 +16,41 @@ public class AccountOptionsState {
     this.state = state;
   }
 
-  public static boolean exists(SharedObjectContext ctx) {
-    return ctx.get(ACCOUNT_OPTIONS_KEY).isPresent();
+  public static boolean exists(AccountState accountState) {
+    return accountState.options().isPresent();
   }
 
   public static AccountOptionsState create(
-      ObjectContext ctx, Account.AccountOptions accountOptions) {
-    if (exists(ctx)) {
+      AccountState accountState, Account.AccountOptions accountOptions) {
+    if (exists(accountState)) {
       throw new TerminalException("Account options already exists");
     }
-    State state = new State(accountOptions.accountType(), accountOptions.nativeCurrency());
-    ctx.set(ACCOUNT_OPTIONS_KEY, state);
+    State state =
+        new State(
+            accountOptions.accountType(),
+            accountOptions.nativeCurrency(),
+            accountOptions.numShards(),
+            accountOptions.groupCommit());
+    accountState.setOptions(state);
     return new AccountOptionsState(state);
   }
 
-  public static AccountOptionsState getExisting(SharedObjectContext ctx) {
-    State state = getStateOrThrow(ctx);
+  public static AccountOptionsState getExisting(AccountState accountState) {
+    State state = getStateOrThrow(accountState);
     return new AccountOptionsState(state);
   }
 
   public Account.AccountOptions accountOptions() {
-    return new Account.AccountOptions(this.state.accountType(), this.state.nativeCurrency());
+    return new Account.AccountOptions(
+        this.state.accountType(),
+        this.state.nativeCurrency(),
+        this.state.numShards(),
+        this.state.groupCommit());
   }
 
-  private static State getStateOrThrow(SharedObjectContext ctx) {
-    return ctx.get(ACCOUNT_OPTIONS_KEY)
+  private static State getStateOrThrow(AccountState accountState) {
+    return accountState
+        .options()
         .orElseThrow(() -> new TerminalException("account options not present"));
   }
 }
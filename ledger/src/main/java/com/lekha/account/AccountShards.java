@@ -0,0 +1,186 @@
+package com.lekha.account;
+
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import dev.restate.sdk.Context;
+import dev.restate.sdk.DurableFuture;
+import dev.restate.sdk.ObjectContext;
+import dev.restate.sdk.common.TerminalException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sharded accounts.
+ *
+ * <p>Restate runs the exclusive handlers of one account key one at a time, so an account that takes
+ * part in every transfer caps throughput. An account initialized with {@code numShards > 1} is a
+ * logical account whose balances live on {@code numShards} shard accounts keyed {@code
+ * <accountId>#shard-<i>}, each an ordinary unsharded account of the same type. Transfers route
+ * balance operations to any shard and hold operations to the shard their hold id hashes to. The
+ * logical account's {@code getSummary} returns the combined balances, and {@code rebalance} moves
+ * available balance between shards when one runs low, with the shard transfer handlers of the
+ * shards rather than debits and credits, so that the ledger tells such moves from transfers.
+ *
+ * <p>A hold lives on the shard its hold id hashes to, see {@link #shardKey(String, int, String)}.
+ * Clients placing holds on a sharded account address that shard; the hold handlers of the logical
+ * key itself operate on its own, normally empty, balance.
+ */
+public final class AccountShards {
+
+  private static final String SHARD_SEPARATOR = "#shard-";
+
+  private AccountShards() {}
+
+  public static boolean isSharded(Account.AccountOptions accountOptions) {
+    return accountOptions.numShards() > 1;
+  }
+
+  public static String shardKey(String accountId, int shard) {
+    return accountId + SHARD_SEPARATOR + shard;
+  }
+
+  public static boolean isShardKey(String accountKey) {
+    return accountKey.contains(SHARD_SEPARATOR);
+  }
+
+  public static List<String> shardKeys(String accountId, int numShards) {
+    List<String> shardKeys = new ArrayList<>(numShards);
+    for (int shard = 0; shard < numShards; shard++) {
+      shardKeys.add(shardKey(accountId, shard));
+    }
+    return shardKeys;
+  }
+
+  /** The shard that owns {@code routingId}, e.g. a hold or transaction id. */
+  public static String shardKey(String accountId, int numShards, String routingId) {
+    return shardKey(accountId, Math.floorMod(routingId.hashCode(), numShards));
+  }
+
+  static void initShards(ObjectContext ctx, Account.AccountOptions accountOptions) {
+    Account.InitInstruction shardInitInstruction =
+        new Account.InitInstruction(
+            new Account.AccountOptions(
+                accountOptions.accountType(), accountOptions.nativeCurrency()));
+    List<DurableFuture<Account.AccountSummary>> initResults = new ArrayList<>();
+    for (String shardKey : shardKeys(ctx.key(), accountOptions.numShards())) {
+      initResults.add(AccountClient.fromContext(ctx, shardKey).init(shardInitInstruction));
+    }
+    DurableFuture.all(new ArrayList<>(initResults)).await();
+  }
+
+  static Account.AccountSummary combinedSummary(
+      Context ctx, Account.AccountOptions accountOptions, Account.AccountSummary ownSummary) {
+    Money availableBalance = ownSummary.balances().availableBalance();
+    Money holdBalance = ownSummary.balances().holdBalance();
+    for (Account.AccountSummary shardSummary :
+        shardSummaries(ctx, shardKeys(ownSummary.accountId(), accountOptions.numShards()))) {
+      availableBalance = availableBalance.add(shardSummary.balances().availableBalance());
+      holdBalance = holdBalance.add(shardSummary.balances().holdBalance());
+    }
+    return new Account.AccountSummary(
+        ownSummary.accountId(), new Account.AccountBalances(availableBalance, holdBalance));
+  }
+
+  /**
+   * Evens out the available balance of the shards. When the requested minimum is more than an even
+   * share, the funded shard is topped up to it instead, so that a single debit of that size can
+   * succeed there. A failure other than a shard drained in the meantime is rethrown once the
+   * balance already taken is handed back out.
+   */
+  static Account.RebalanceResult rebalance(
+      ObjectContext ctx,
+      Account.AccountOptions accountOptions,
+      Account.RebalanceInstruction instruction) {
+    Currency currency = accountOptions.nativeCurrency();
+    List<String> shardKeys = shardKeys(ctx.key(), accountOptions.numShards());
+    List<Account.AccountSummary> summaries = shardSummaries(ctx, shardKeys);
+    List<Money> balances =
+        summaries.stream().map(summary -> summary.balances().availableBalance()).toList();
+    Money total = balances.stream().reduce(Money.zero(currency), Money::add);
+
+    int fundedShard = instruction.fundedShardKey().map(shardKeys::indexOf).orElse(-1);
+    if (fundedShard < 0) {
+      fundedShard = 0;
+      for (int shard = 1; shard < balances.size(); shard++) {
+        if (balances.get(shard).isGreaterThan(balances.get(fundedShard))) {
+          fundedShard = shard;
+        }
+      }
+    }
+    List<Money> targets =
+        targets(total, balances.size(), fundedShard, instruction.minimumShardBalance());
+
+    // Take surpluses first so that money is never created, then hand them to shards below target.
+    Money moved = Money.zero(currency);
+    TerminalException failure = null;
+    for (int shard = 0; shard < balances.size() && failure == null; shard++) {
+      Money surplus = balances.get(shard).subtract(targets.get(shard));
+      if (surplus.isGreaterThan(Money.zero(currency))) {
+        try {
+          takeFromShard(ctx, summaries.get(shard).accountId(), surplus);
+          moved = moved.add(surplus);
+        } catch (TerminalException e) {
+          if (!BalanceUpdateChecks.isInsufficientBalance(e)) {
+            failure = e;
+          }
+          // Otherwise the shard was drained concurrently; leave it as it is.
+        }
+      }
+    }
+    for (int shard = 0; shard < balances.size() && !moved.isZero(); shard++) {
+      if (shard == fundedShard) {
+        continue;
+      }
+      Money deficit = targets.get(shard).subtract(balances.get(shard));
+      if (deficit.isGreaterThan(Money.zero(currency))) {
+        Money given = deficit.min(moved);
+        giveToShard(ctx, summaries.get(shard).accountId(), given);
+        moved = moved.subtract(given);
+      }
+    }
+    String fundedShardKey = summaries.get(fundedShard).accountId();
+    if (!moved.isZero()) {
+      giveToShard(ctx, fundedShardKey, moved);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return new Account.RebalanceResult(fundedShardKey);
+  }
+
+  private static List<Money> targets(
+      Money total, int numShards, int fundedShard, Money minimumShardBalance) {
+    Money fundedTarget = total.divide(numShards);
+    Money otherTarget = fundedTarget;
+    if (minimumShardBalance.isGreaterThan(fundedTarget) && !total.isLessThan(minimumShardBalance)) {
+      fundedTarget = minimumShardBalance;
+      otherTarget = total.subtract(minimumShardBalance).divide(numShards - 1);
+    }
+    List<Money> targets = new ArrayList<>(numShards);
+    for (int shard = 0; shard < numShards; shard++) {
+      targets.add(shard == fundedShard ? fundedTarget : otherTarget);
+    }
+    return targets;
+  }
+
+  private static List<Account.AccountSummary> shardSummaries(Context ctx, List<String> shardKeys) {
+    List<DurableFuture<Account.AccountSummary>> summaryFutures = new ArrayList<>();
+    for (String shardKey : shardKeys) {
+      summaryFutures.add(AccountClient.fromContext(ctx, shardKey).getSummary());
+    }
+    DurableFuture.all(new ArrayList<>(summaryFutures)).await();
+    return summaryFutures.stream().map(DurableFuture::await).toList();
+  }
+
+  private static void takeFromShard(ObjectContext ctx, String shardKey, Money amount) {
+    AccountClient.fromContext(ctx, shardKey)
+        .takeShardBalance(new Account.ShardTransferInstruction(amount))
+        .await();
+  }
+
+  private static void giveToShard(ObjectContext ctx, String shardKey, Money amount) {
+    AccountClient.fromContext(ctx, shardKey)
+        .giveShardBalance(new Account.ShardTransferInstruction(amount))
+        .await();
+  }
+}
@@ -0,0 +1,255 @@
+package com.lekha.account;
+
+import dev.restate.sdk.ObjectContext;
+import dev.restate.sdk.SharedObjectContext;
+import dev.restate.sdk.common.StateKey;
+import dev.restate.sdk.common.TerminalException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * All state of one account: the account options and balances under one key, and each hold under its
+ * own {@code hold_<id>} key.
+ *
+ * <p>An instance is a read-through cache for one handler invocation. The account key is read once,
+ * on first use, and each hold key the first time that hold is looked up. {@link
+ * AccountOptionsState}, {@link AccountBalancesState} and {@link HoldBalanceState} read and update
+ * the cached values. {@link #close()} writes back only the keys that changed, so a balance update
+ * costs the same however many holds the account has open.
+ *
+ * <p>Accounts written before this layout keep their options and balances in separate {@code
+ * account_options} and {@code account_balances_state} keys, and accounts written by the previous
+ * layout keep their holds inside the account key. Both are read from there and moved to the current
+ * keys by the first exclusive handler that changes the account.
+ *
+ * <p>All keys use the binary serdes of {@link AccountStateSerdes}, which still read values written
+ * as JSON.
+ */
+public class AccountState implements AutoCloseable {
+
+  private static final StateKey<State> ACCOUNT_STATE_KEY =
+      StateKey.of("account", AccountStateSerdes.ACCOUNT_STATE);
+  private static final String HOLD_STATE_KEY_PREFIX = "hold_";
+
+  /**
+   * The value of the account key. {@code holds} is written empty; it is only non-empty in state
+   * written before holds moved to their own keys.
+   */
+  public record State(
+      AccountOptionsState.State options,
+      AccountBalancesState.State balances,
+      Map<String, HoldBalanceState.State> holds) {}
+
+  private final SharedObjectContext ctx;
+  private boolean loaded;
+  private AccountOptionsState.State options;
+  private AccountBalancesState.State balances;
+  // Holds looked up so far; null values stand for holds that do not exist.
+  private final Map<String, HoldBalanceState.State> holds = new HashMap<>();
+  private final Set<String> changedHolds = new HashSet<>();
+  // Holds read from the account key, to be moved to their own keys.
+  private Set<String> embeddedHolds = Set.of();
+  private boolean migrateLegacyState;
+  private boolean accountChanged;
+  // The latest snapshot, which records the holds changed since it was taken.
+  private Snapshot snapshot;
+
+  private AccountState(SharedObjectContext ctx) {
+    this.ctx = ctx;
+  }
+
+  public static AccountState of(SharedObjectContext ctx) {
+    return new AccountState(ctx);
+  }
+
+  public String accountId() {
+    return ctx.key();
+  }
+
+  Optional<AccountOptionsState.State> options() {
+    load();
+    return Optional.ofNullable(options);
+  }
+
+  Optional<AccountBalancesState.State> balances() {
+    load();
+    return Optional.ofNullable(balances);
+  }
+
+  Optional<HoldBalanceState.State> hold(String holdId) {
+    load();
+    if (!holds.containsKey(holdId)) {
+      holds.put(holdId, ctx.get(holdStateKey(holdId)).orElse(null));
+    }
+    return Optional.ofNullable(holds.get(holdId));
+  }
+
+  void setOptions(AccountOptionsState.State options) {
+    load();
+    this.options = options;
+    this.accountChanged = true;
+  }
+
+  void setBalances(AccountBalancesState.State balances) {
+    load();
+    this.balances = balances;
+    this.accountChanged = true;
+  }
+
+  void setHold(String holdId, HoldBalanceState.State hold) {
+    recordHoldChange(holdId);
+    this.holds.put(holdId, hold);
+    this.changedHolds.add(holdId);
+  }
+
+  void removeHold(String holdId) {
+    recordHoldChange(holdId);
+    if (this.holds.put(holdId, null) != null) {
+      this.changedHolds.add(holdId);
+    }
+  }
+
+  /**
+   * The cached state, to undo a failed operation with {@link #restore}. Rather than copying the
+   * holds looked up so far, it keeps the previous value of each hold changed after it was taken, so
+   * taking one costs the same however many holds the account has.
+   */
+  static final class Snapshot {
+    private final AccountOptionsState.State options;
+    private final AccountBalancesState.State balances;
+    private final boolean accountChanged;
+    private final Map<String, PreviousHold> changedHolds = new HashMap<>();
+
+    private Snapshot(
+        AccountOptionsState.State options,
+        AccountBalancesState.State balances,
+        boolean accountChanged) {
+      this.options = options;
+      this.balances = balances;
+      this.accountChanged = accountChanged;
+    }
+  }
+
+  // A null hold stands for a hold that did not exist when the snapshot was taken.
+  private record PreviousHold(HoldBalanceState.State hold, boolean changed) {}
+
+  /** Takes a snapshot, which only {@link #restore} can undo to until the next one is taken. */
+  Snapshot snapshot() {
+    load();
+    snapshot = new Snapshot(options, balances, accountChanged);
+    return snapshot;
+  }
+
+  void restore(Snapshot snapshot) {
+    if (snapshot != this.snapshot) {
+      throw new IllegalStateException("Only the latest snapshot can be restored");
+    }
+    this.options = snapshot.options;
+    this.balances = snapshot.balances;
+    for (Map.Entry<String, PreviousHold> hold : snapshot.changedHolds.entrySet()) {
+      this.holds.put(hold.getKey(), hold.getValue().hold());
+      if (!hold.getValue().changed()) {
+        this.changedHolds.remove(hold.getKey());
+      }
+    }
+    snapshot.changedHolds.clear();
+    this.accountChanged = snapshot.accountChanged;
+  }
+
+  private void recordHoldChange(String holdId) {
+    HoldBalanceState.State previous = hold(holdId).orElse(null);
+    if (snapshot != null && !snapshot.changedHolds.containsKey(holdId)) {
+      snapshot.changedHolds.put(holdId, new PreviousHold(previous, changedHolds.contains(holdId)));
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+  }
+
+  public void flush() {
+    if (!accountChanged && changedHolds.isEmpty()) {
+      return;
+    }
+    if (!(ctx instanceof ObjectContext objectContext)) {
+      throw new TerminalException("Cannot flush state in shared context");
+    }
+    if (!embeddedHolds.isEmpty()) {
+      changedHolds.addAll(embeddedHolds);
+      embeddedHolds = Set.of();
+      accountChanged = true;
+    }
+    if (accountChanged) {
+      objectContext.set(ACCOUNT_STATE_KEY, new State(options, balances, Map.of()));
+      accountChanged = false;
+    }
+    for (String holdId : changedHolds) {
+      HoldBalanceState.State hold = holds.get(holdId);
+      if (hold == null) {
+        objectContext.clear(holdStateKey(holdId));
+      } else {
+        objectContext.set(holdStateKey(holdId), hold);
+      }
+    }
+    changedHolds.clear();
+    if (migrateLegacyState) {
+      LegacyAccountState.clear(objectContext);
+      migrateLegacyState = false;
+    }
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    Optional<State> state = ctx.get(ACCOUNT_STATE_KEY);
+    if (state.isPresent()) {
+      options = state.get().options();
+      balances = state.get().balances();
+      holds.putAll(state.get().holds());
+      embeddedHolds = new HashSet<>(state.get().holds().keySet());
+      return;
+    }
+
+    Optional<State> legacyState = LegacyAccountState.read(ctx);
+    if (legacyState.isPresent()) {
+      options = legacyState.get().options();
+      balances = legacyState.get().balances();
+      migrateLegacyState = true;
+    }
+  }
+
+  private static StateKey<HoldBalanceState.State> holdStateKey(String holdId) {
+    return StateKey.of(HOLD_STATE_KEY_PREFIX + holdId, AccountStateSerdes.HOLD);
+  }
+
+  /**
+   * The per-part keys accounts used before {@link AccountState}. Their holds already live under the
+   * current hold keys.
+   */
+  private static final class LegacyAccountState {
+    private static final StateKey<AccountOptionsState.State> ACCOUNT_OPTIONS_KEY =
+        StateKey.of("account_options", AccountStateSerdes.OPTIONS);
+    private static final StateKey<AccountBalancesState.State> ACCOUNT_BALANCES_STATE_KEY =
+        StateKey.of("account_balances_state", AccountStateSerdes.BALANCES);
+
+    static Optional<State> read(SharedObjectContext ctx) {
+      Optional<AccountOptionsState.State> options = ctx.get(ACCOUNT_OPTIONS_KEY);
+      if (options.isEmpty()) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          new State(options.get(), ctx.get(ACCOUNT_BALANCES_STATE_KEY).orElse(null), Map.of()));
+    }
+
+    static void clear(ObjectContext ctx) {
+      ctx.clear(ACCOUNT_OPTIONS_KEY);
+      ctx.clear(ACCOUNT_BALANCES_STATE_KEY);
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package com.lekha.account;
+
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.serde.BinaryCodec;
+import com.lekha.serde.BinaryReader;
+import com.lekha.serde.BinaryWriter;
+import com.lekha.serde.VersionedSerde;
+import com.lekha.utils.Batcher;
+import dev.restate.serde.Serde;
+import dev.restate.serde.TypeRef;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary serdes of the account state keys.
+ *
+ * <p>Amounts are varints and currencies, account types and hold types are ordinals, so a hold takes
+ * a few bytes plus its id instead of a JSON object repeating field and currency names. Adding a
+ * field to one of these records means adding it to its codec below; reordering or removing enum
+ * constants changes the meaning of state already written.
+ */
+public final class AccountStateSerdes {
+
+  private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+  private static final Currency[] CURRENCIES = Currency.values();
+  private static final Account.HoldType[] HOLD_TYPES = Account.HoldType.values();
+
+  static final BinaryCodec<AccountOptionsState.State> OPTIONS_CODEC =
+      BinaryCodec.of(AccountStateSerdes::writeOptions, AccountStateSerdes::readOptions);
+  static final BinaryCodec<AccountBalancesState.State> BALANCES_CODEC =
+      BinaryCodec.of(AccountStateSerdes::writeBalances, AccountStateSerdes::readBalances);
+  static final BinaryCodec<HoldBalanceState.State> HOLD_CODEC =
+      BinaryCodec.of(AccountStateSerdes::writeHold, AccountStateSerdes::readHold);
+  static final BinaryCodec<AccountState.State> ACCOUNT_STATE_CODEC =
+      BinaryCodec.of(AccountStateSerdes::writeAccountState, AccountStateSerdes::readAccountState);
+  static final BinaryCodec<LedgerRecorder.OperationDetails> OPERATION_DETAILS_CODEC =
+      BinaryCodec.of(
+          AccountStateSerdes::writeOperationDetails, AccountStateSerdes::readOperationDetails);
+  static final BinaryCodec<Account.AsyncDebitInstruction> ASYNC_DEBIT_INSTRUCTION_CODEC =
+      BinaryCodec.of(
+          AccountStateSerdes::writeAsyncDebitInstruction,
+          AccountStateSerdes::readAsyncDebitInstruction);
+  static final BinaryCodec<Account.GroupCommitInstruction> GROUP_COMMIT_INSTRUCTION_CODEC =
+      BinaryCodec.of(
+          AccountStateSerdes::writeGroupCommitInstruction,
+          AccountStateSerdes::readGroupCommitInstruction);
+
+  public static final Serde<AccountOptionsState.State> OPTIONS =
+      VersionedSerde.of(OPTIONS_CODEC, AccountOptionsState.State.class);
+  public static final Serde<AccountBalancesState.State> BALANCES =
+      VersionedSerde.of(BALANCES_CODEC, AccountBalancesState.State.class);
+  public static final Serde<HoldBalanceState.State> HOLD =
+      VersionedSerde.of(HOLD_CODEC, HoldBalanceState.State.class);
+  public static final Serde<AccountState.State> ACCOUNT_STATE =
+      VersionedSerde.of(ACCOUNT_STATE_CODEC, AccountState.State.class);
+  public static final Batcher.StateSerdes<Account.AsyncDebitInstruction> DEBIT_BATCHER =
+      Batcher.stateSerdes(ASYNC_DEBIT_INSTRUCTION_CODEC, new TypeRef<>() {});
+  public static final Batcher.StateSerdes<Account.GroupCommitInstruction> GROUP_COMMIT_BATCHER =
+      Batcher.stateSerdes(GROUP_COMMIT_INSTRUCTION_CODEC, new TypeRef<>() {});
+
+  private AccountStateSerdes() {}
+
+  private static void writeOptions(BinaryWriter out, AccountOptionsState.State options) {
+    out.writeEnum(options.accountType());
+    out.writeEnum(options.nativeCurrency());
+    out.writeVarInt(options.numShards());
+    out.writeBoolean(options.groupCommit());
+  }
+
+  private static AccountOptionsState.State readOptions(BinaryReader in) {
+    return new AccountOptionsState.State(
+        in.readEnum(ACCOUNT_TYPES),
+        in.readEnum(CURRENCIES),
+        in.readVarInt(),
+        in.formatVersion() >= VersionedSerde.FORMAT_V2 && in.readBoolean());
+  }
+
+  private static void writeBalances(BinaryWriter out, AccountBalancesState.State balances) {
+    out.writeMoney(balances.availableBalance());
+    out.writeMoney(balances.holdBalance());
+  }
+
+  private static AccountBalancesState.State readBalances(BinaryReader in) {
+    return new AccountBalancesState.State(in.readMoney(), in.readMoney());
+  }
+
+  private static void writeHold(BinaryWriter out, HoldBalanceState.State hold) {
+    out.writeString(hold.holdDetails().holdId());
+    out.writeEnum(hold.holdDetails().holdType());
+    out.writeMoney(hold.availableBalance());
+  }
+
+  private static HoldBalanceState.State readHold(BinaryReader in) {
+    HoldBalanceState.HoldDetails holdDetails =
+        new HoldBalanceState.HoldDetails(in.readString(), in.readEnum(HOLD_TYPES));
+    return new HoldBalanceState.State(holdDetails, in.readMoney());
+  }
+
+  // Options and balances are absent only in state of accounts that were never initialized. Holds
+  // are keyed by their hold id, which each hold already carries.
+  private static void writeAccountState(BinaryWriter out, AccountState.State state) {
+    out.writeBoolean(state.options() != null);
+    if (state.options() != null) {
+      writeOptions(out, state.options());
+    }
+    out.writeBoolean(state.balances() != null);
+    if (state.balances() != null) {
+      writeBalances(out, state.balances());
+    }
+    out.writeCollection(state.holds().values(), HOLD_CODEC);
+  }
+
+  private static AccountState.State readAccountState(BinaryReader in) {
+    AccountOptionsState.State options = in.readBoolean() ? readOptions(in) : null;
+    AccountBalancesState.State balances = in.readBoolean() ? readBalances(in) : null;
+    Map<String, HoldBalanceState.State> holds = new LinkedHashMap<>();
+    for (HoldBalanceState.State hold : in.readList(HOLD_CODEC)) {
+      holds.put(hold.holdDetails().holdId(), hold);
+    }
+    return new AccountState.State(options, balances, holds);
+  }
+
+  private static void writeAsyncDebitInstruction(
+      BinaryWriter out, Account.AsyncDebitInstruction instruction) {
+    // OperationMetadata has no fields yet.
+    out.writeMoney(instruction.debitInstruction().amountToDebit());
+    out.writeString(instruction.signalInstruction().signalId());
+    writeSettledInstructions(out, instruction.debitInstruction().settledInstructions());
+  }
+
+  private static Account.AsyncDebitInstruction readAsyncDebitInstruction(BinaryReader in) {
+    Money amountToDebit = in.readMoney();
+    Account.SignalInstruction signalInstruction = new Account.SignalInstruction(in.readString());
+    return new Account.AsyncDebitInstruction(
+        new Account.DebitInstruction(
+            amountToDebit, new Account.OperationMetadata(), readSettledInstructions(in)),
+        signalInstruction);
+  }
+
+  private static void writeOperationDetails(
+      BinaryWriter out, LedgerRecorder.OperationDetails operationDetails) {
+    // OperationMetadata has no fields yet.
+    out.writeMoney(operationDetails.amount());
+  }
+
+  private static LedgerRecorder.OperationDetails readOperationDetails(BinaryReader in) {
+    return new LedgerRecorder.OperationDetails(in.readMoney(), new Account.OperationMetadata());
+  }
+
+  private static void writeSettledInstructions(
+      BinaryWriter out, Account.SettledInstructions settledInstructions) {
+    out.writeCollection(settledInstructions.credits(), OPERATION_DETAILS_CODEC);
+    out.writeCollection(settledInstructions.debits(), OPERATION_DETAILS_CODEC);
+  }
+
+  private static Account.SettledInstructions readSettledInstructions(BinaryReader in) {
+    if (in.formatVersion() < VersionedSerde.FORMAT_V3) {
+      return Account.SettledInstructions.NONE;
+    }
+    List<LedgerRecorder.OperationDetails> credits = in.readList(OPERATION_DETAILS_CODEC);
+    List<LedgerRecorder.OperationDetails> debits = in.readList(OPERATION_DETAILS_CODEC);
+    if (credits.isEmpty() && debits.isEmpty()) {
+      return Account.SettledInstructions.NONE;
+    }
+    return new Account.SettledInstructions(credits, debits);
+  }
+
+  // Operation tags of group-commit instructions; like enum ordinals, they must not be reused.
+  private static final int GROUP_COMMIT_CREDIT = 0;
+  private static final int GROUP_COMMIT_CREDIT_HOLD = 1;
+  private static final int GROUP_COMMIT_TRANSACTIONAL_CREDIT = 2;
+  private static final int GROUP_COMMIT_DEBIT_HOLD = 3;
+
+  private static void writeGroupCommitInstruction(
+      BinaryWriter out, Account.GroupCommitInstruction instruction) {
+    switch (instruction.operation()) {
+      case Account.GroupCommitOperation.Credit credit -> {
+        out.writeVarInt(GROUP_COMMIT_CREDIT);
+        out.writeMoney(credit.instruction().amountToCredit());
+        writeSettledInstructions(out, credit.instruction().settledInstructions());
+      }
+      case Account.GroupCommitOperation.CreditHold creditHold -> {
+        out.writeVarInt(GROUP_COMMIT_CREDIT_HOLD);
+        out.writeString(creditHold.instruction().holdId());
+        out.writeMoney(creditHold.instruction().creditInstruction().amountToCredit());
+      }
+      case Account.GroupCommitOperation.TransactionalCredit transactionalCredit -> {
+        out.writeVarInt(GROUP_COMMIT_TRANSACTIONAL_CREDIT);
+        out.writeString(transactionalCredit.instruction().transactionId());
+        out.writeMoney(transactionalCredit.instruction().creditInstruction().amountToCredit());
+      }
+      case Account.GroupCommitOperation.DebitHold debitHold -> {
+        out.writeVarInt(GROUP_COMMIT_DEBIT_HOLD);
+        out.writeString(debitHold.instruction().holdId());
+        out.writeMoney(debitHold.instruction().debitInstruction().amountToDebit());
+      }
+    }
+    out.writeString(instruction.signalInstruction().signalId());
+  }
+
+  private static Account.GroupCommitInstruction readGroupCommitInstruction(BinaryReader in) {
+    int tag = in.readVarInt();
+    Account.GroupCommitOperation operation =
+        switch (tag) {
+          case GROUP_COMMIT_CREDIT ->
+              new Account.GroupCommitOperation.Credit(
+                  new Account.CreditInstruction(
+                      in.readMoney(),
+                      new Account.OperationMetadata(),
+                      readSettledInstructions(in)));
+          case GROUP_COMMIT_CREDIT_HOLD ->
+              new Account.GroupCommitOperation.CreditHold(
+                  new Account.CreditHoldInstruction(in.readString(), readCreditInstruction(in)));
+          case GROUP_COMMIT_TRANSACTIONAL_CREDIT ->
+              new Account.GroupCommitOperation.TransactionalCredit(
+                  new Account.TransactionalCreditInstruction(
+                      in.readString(), readCreditInstruction(in)));
+          case GROUP_COMMIT_DEBIT_HOLD ->
+              new Account.GroupCommitOperation.DebitHold(
+                  new Account.DebitHoldInstruction(
+                      in.readString(),
+                      new Account.DebitInstruction(
+                          in.readMoney(), new Account.OperationMetadata())));
+          default -> throw new IllegalStateException("Unknown group commit operation " + tag);
+        };
+    return new Account.GroupCommitInstruction(
+        operation, new Account.SignalInstruction(in.readString()));
+  }
+
+  private static Account.CreditInstruction readCreditInstruction(BinaryReader in) {
+    return new Account.CreditInstruction(in.readMoney(), new Account.OperationMetadata());
+  }
+}
@@ -1,5 +1,6 @@
 package com.lekha.account;
 
+// Binary state stores account types by ordinal: add new constants at the end.
 public enum AccountType {
   ASSET(false),
   LIABILITY(true),
@@ -7,16 +7,43 @@ import java.util.function.Supplier;
 
 public class BalanceUpdateChecks {
 
+  /**
+   * Code of the {@link TerminalException} thrown when a balance cannot cover the amount taken from
+   * it. Sharded accounts retry only this failure on another shard.
+   */
+  public static final int INSUFFICIENT_BALANCE = 422;
+
+  private static final String INSUFFICIENT_BALANCE_MESSAGE_PREFIX = "Cannot take ";
+
   public static void checkEnoughBalance(
       Money currentBalance, Money amountToSubtract, Supplier<Map<String, String>> errorContext) {
     if (currentBalance.isLessThan(amountToSubtract)) {
       throw new TerminalException(
-          "Cannot take "
-              + amountToSubtract.amountInMinorUnits()
+          INSUFFICIENT_BALANCE,
+          INSUFFICIENT_BALANCE_MESSAGE_PREFIX
+              + amountToSubtract.amountInMinorUnitsString()
               + " from current balance "
-              + currentBalance.amountInMinorUnits()
+              + currentBalance.amountInMinorUnitsString()
               + ". Context: "
               + errorContext.get());
     }
   }
+
+  public static boolean isInsufficientBalance(TerminalException e) {
+    return e.getCode() == INSUFFICIENT_BALANCE;
+  }
+
+  /**
+   * Awakeables are rejected with the message of the failure only: gives an insufficient balance
+   * failure delivered through one its code back.
+   */
+  public static TerminalException fromRejection(TerminalException rejection) {
+    String message = rejection.getMessage();
+    if (!isInsufficientBalance(rejection)
+        && message != null
+        && message.startsWith(INSUFFICIENT_BALANCE_MESSAGE_PREFIX)) {
+      return new TerminalException(INSUFFICIENT_BALANCE, message);
+    }
+    return rejection;
+  }
 }
@@ -2,9 +2,6 @@ package com.lekha.account;
 
 import com.lekha.money.Currency;
 import com.lekha.money.Money;
-import dev.restate.sdk.ObjectContext;
-import dev.restate.sdk.SharedObjectContext;
-import dev.restate.sdk.common.StateKey;
 import dev.restate.sdk.common.TerminalException;
 import java.util.Map;
 import java.util.function.Function;
@@ -20,49 +17,45 @@ public class HoldBalanceState implements AutoCloseable {
     }
   }
 
-  private static final String HOLD_STATE_KEY_PREFIX = "hold_";
-
-  private final SharedObjectContext ctx;
+  private final AccountState accountState;
   private final String holdId;
-  private final StateKey<State> holdStateKey;
   private State state;
   private boolean flushNeeded = false;
 
-  private HoldBalanceState(SharedObjectContext ctx, String holdId, State state) {
-    this.ctx = ctx;
+  private HoldBalanceState(AccountState accountState, String holdId, State state) {
+    this.accountState = accountState;
     this.holdId = holdId;
-    this.holdStateKey = holdStateKey(holdId);
     this.state = state;
     this.flushNeeded = false;
   }
 
   public static HoldBalanceState create(
-      ObjectContext ctx, String holdId, Account.HoldType holdType, Currency currency) {
-    if (exits(ctx, holdId)) {
+      AccountState accountState, String holdId, Account.HoldType holdType, Currency currency) {
+    if (exits(accountState, holdId)) {
       throw new TerminalException("hold state already present");
     }
     return new HoldBalanceState(
-        ctx, holdId, State.empty(new HoldDetails(holdId, holdType), currency));
+        accountState, holdId, State.empty(new HoldDetails(holdId, holdType), currency));
   }
 
-  public static boolean exits(ObjectContext ctx, String holdId) {
-    return ctx.get(holdStateKey(holdId)).isPresent();
+  public static boolean exits(AccountState accountState, String holdId) {
+    return accountState.hold(holdId).isPresent();
   }
 
   public static HoldBalanceState getExisting(
-      SharedObjectContext ctx, String holdId, Account.HoldType holdType) {
-    State state = getStateOrThrow(ctx, holdId);
-    HoldBalanceState hold = new HoldBalanceState(ctx, holdId, state);
+      AccountState accountState, String holdId, Account.HoldType holdType) {
+    State state = getStateOrThrow(accountState, holdId);
+    HoldBalanceState hold = new HoldBalanceState(accountState, holdId, state);
     hold.ensureHoldType(holdType);
     return hold;
   }
 
   public static HoldBalanceState getExistingOrCreate(
-      ObjectContext ctx, String holdId, Account.HoldType holdType, Currency currency) {
-    if (exits(ctx, holdId)) {
-      return getExisting(ctx, holdId, holdType);
+      AccountState accountState, String holdId, Account.HoldType holdType, Currency currency) {
+    if (exits(accountState, holdId)) {
+      return getExisting(accountState, holdId, holdType);
     }
-    return create(ctx, holdId, holdType, currency);
+    return create(accountState, holdId, holdType, currency);
   }
 
   @Override
@@ -107,14 +100,10 @@ public class HoldBalanceState implements AutoCloseable {
 
   public void flush() {
     if (flushNeeded) {
-      if (!(ctx instanceof ObjectContext)) {
-        throw new TerminalException("Cannot flush state in shared context");
-      }
-
       if (state.availableBalance.isZero()) {
-        ((ObjectContext) ctx).clear(holdStateKey);
+        accountState.removeHold(holdId);
       } else {
-        ((ObjectContext) ctx).set(holdStateKey, state);
+        accountState.setHold(holdId, state);
       }
       flushNeeded = false;
     }
@@ -139,12 +128,9 @@ public class HoldBalanceState implements AutoCloseable {
     return () -> Map.of("hold_id", holdId);
   }
 
-  private static StateKey<State> holdStateKey(String holdId) {
-    return StateKey.of(HOLD_STATE_KEY_PREFIX + holdId, State.class);
-  }
-
-  private static State getStateOrThrow(SharedObjectContext ctx, String holdId) {
-    return ctx.get(holdStateKey(holdId))
+  private static State getStateOrThrow(AccountState accountState, String holdId) {
+    return accountState
+        .hold(holdId)
         .orElseThrow(() -> new TerminalException("hold state not present"));
   }
 }
@@ -5,12 +5,20 @@ import com.lekha.ledger.Ledger;
 import com.lekha.ledger.LedgerClient;
 import com.lekha.money.Money;
 import dev.restate.sdk.ObjectContext;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
-public class LedgerRecorder {
+/**
+ * Collects the ledger entries of one account invocation and posts them with a single {@link
+ * Ledger#recordEntries} call when closed, so an operation costs one outbound message however many
+ * balances it changes. Open it next to the {@link AccountState} of the handler.
+ */
+public class LedgerRecorder implements AutoCloseable {
 
   private final ObjectContext ctx;
   private final LedgerClient.ContextClient ledgerClient;
+  private final List<Ledger.Entry> entries = new ArrayList<>();
 
   public LedgerRecorder(ObjectContext ctx, String accountId) {
     this.ctx = ctx;
@@ -18,74 +26,85 @@ public class LedgerRecorder {
   }
 
   public void recordBalanceChangeInLedger(
-      String idemSuffix,
       Money amount,
       Ledger.Operation operation,
       Account.AccountSummary accountSummary,
       Account.OperationMetadata metadata) {
-    Ledger.RecordBalanceChangeInstruction instruction =
-        new Ledger.RecordBalanceChangeInstruction(
-            ledgerIdem(idemSuffix),
-            ledgerTimestampMs(),
-            operation,
-            amount,
-            accountSummary,
-            metadata);
-    // Ledger entries can be posted async
-    ledgerClient.recordBalanceChange(instruction);
+    entries.add(new Ledger.Entry(operation, amount, accountSummary, Optional.empty(), metadata));
   }
 
   public record OperationDetails(Money amount, Account.OperationMetadata metadata) {}
 
   public void bulkRecordBalanceChangeInLedger(
-      String idemSuffix,
       Ledger.Operation operation,
       Account.AccountSummary accountSummary,
       List<OperationDetails> allOperationDetails) {
-    List<Ledger.OperationDetails> ledgerOperationDetails =
-        allOperationDetails.stream()
-            .map(
-                operationDetails ->
-                    new Ledger.OperationDetails(operationDetails.amount, operationDetails.metadata))
-            .toList();
-    Ledger.BulkRecordBalanceChangeInstruction instruction =
-        new Ledger.BulkRecordBalanceChangeInstruction(
-            ledgerIdem(idemSuffix),
-            ledgerTimestampMs(),
-            operation,
-            accountSummary,
-            ledgerOperationDetails);
-    // Ledger entries can be posted async
-    ledgerClient.bulkRecordBalanceChange(instruction);
+    for (OperationDetails operationDetails : allOperationDetails) {
+      recordBalanceChangeInLedger(
+          operationDetails.amount, operation, accountSummary, operationDetails.metadata);
+    }
+  }
+
+  /**
+   * Records a balance change of {@code amount}, or, if it nets several transfer instructions, one
+   * entry per instruction in the direction that instruction moved money.
+   */
+  public void recordSettledBalanceChangeInLedger(
+      Money amount,
+      Ledger.Operation operation,
+      Account.AccountSummary accountSummary,
+      Account.OperationMetadata metadata,
+      Account.SettledInstructions settledInstructions) {
+    if (settledInstructions.credits().isEmpty() && settledInstructions.debits().isEmpty()) {
+      recordBalanceChangeInLedger(amount, operation, accountSummary, metadata);
+      return;
+    }
+    bulkRecordBalanceChangeInLedger(
+        Ledger.Operation.CREDIT, accountSummary, settledInstructions.credits());
+    bulkRecordBalanceChangeInLedger(
+        Ledger.Operation.DEBIT, accountSummary, settledInstructions.debits());
   }
 
   public void recordHoldBalanceChangeInLedger(
-      String idemSuffix,
       Money amount,
       Ledger.Operation operation,
       Account.AccountSummary accountSummary,
       Account.HoldSummary holdSummary,
       Account.OperationMetadata metadata) {
-    Ledger.RecordHoldBalanceChangeInstruction instruction =
-        new Ledger.RecordHoldBalanceChangeInstruction(
-            ledgerIdem(idemSuffix),
-            ledgerTimestampMs(),
-            operation,
-            amount,
-            accountSummary,
-            holdSummary,
-            metadata);
+    entries.add(
+        new Ledger.Entry(operation, amount, accountSummary, Optional.of(holdSummary), metadata));
+  }
+
+  /** Number of recorded entries, to pass to {@link #rollback} if the next operation fails. */
+  int checkpoint() {
+    return entries.size();
+  }
+
+  /** Drops the entries recorded since {@code checkpoint}. */
+  void rollback(int checkpoint) {
+    entries.subList(checkpoint, entries.size()).clear();
+  }
+
+  @Override
+  public void close() {
+    if (entries.isEmpty()) {
+      return;
+    }
+    Ledger.RecordEntriesInstruction instruction =
+        new Ledger.RecordEntriesInstruction(ledgerIdem(), ledgerTimestamp(), List.copyOf(entries));
     // Ledger entries can be posted async
-    ledgerClient.recordHoldBalanceChange(instruction);
+    ledgerClient.recordEntries(instruction);
+    entries.clear();
   }
 
-  private String ledgerIdem(String idemSuffix) {
-    return this.ctx.request().invocationId() + "_" + idemSuffix;
+  private String ledgerIdem() {
+    // A recorder is closed once per invocation, so the invocation id identifies its entries.
+    return this.ctx.request().invocationId() + "_ledger";
   }
 
-  private long ledgerTimestampMs() {
-    // Note: Clock.currentTimeMillis() will generate a new timestamp on a retry and that's ok
-    // because state updates only apply on successful handler execution.
-    return Clock.currentTimeMillis();
+  private long ledgerTimestamp() {
+    // The timestamp orders statements, checkpoints and balance lookups, so a retried or replayed
+    // invocation must post the same one as the first attempt under the same idem.
+    return ctx.run("ledger timestamp", Long.class, () -> Clock.hybrid().now());
   }
 }
@@ -0,0 +1,113 @@
+package com.lekha.analytics;
+
+import com.lekha.account.AccountType;
+import com.lekha.ledger.journal.RecordCursor;
+import java.util.Arrays;
+
+/**
+ * Dictionary encoding of account ids: each account gets the next int id, which is what the columns
+ * store, and its account type once it is known.
+ *
+ * <p>Ids are looked up by a hash of the account id read from the mapped record, checked against the
+ * id, so looking up a known account decodes and allocates nothing. Written by the thread that feeds
+ * the columns, and by type lookups as they complete; read concurrently by queries.
+ */
+final class AccountDictionary {
+
+  private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+  // Lookup table, only used by the feeding thread.
+  private long[] hashes = new long[1 << 10];
+  private int[] slotIds = new int[1 << 10];
+
+  // Published by size: elements below it are written before it is.
+  private volatile String[] accountIds = new String[1 << 10];
+  // AccountType ordinal + 1 per id, 0 while unknown; republished after every write.
+  private volatile byte[] types = new byte[1 << 10];
+  private volatile int size;
+
+  int size() {
+    return size;
+  }
+
+  String accountId(int id) {
+    return accountIds[id];
+  }
+
+  /** The account types of the ids below {@link #size}, as AccountType ordinal + 1, 0 if unknown. */
+  byte[] types() {
+    return types;
+  }
+
+  static AccountType accountType(byte type) {
+    return ACCOUNT_TYPES[type - 1];
+  }
+
+  /**
+   * The id of the account of the current record of {@code cursor}, or -1 - the new id if the
+   * account is new.
+   */
+  int idOf(RecordCursor cursor) {
+    long hash = cursor.accountIdHash();
+    int mask = hashes.length - 1;
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      int id = slotIds[slot] - 1;
+      if (id < 0) {
+        return -1 - add(slot, hash, cursor.accountId());
+      }
+      if (hashes[slot] == hash && cursor.hasAccountId(accountIds[id])) {
+        return id;
+      }
+    }
+  }
+
+  synchronized void setType(int id, AccountType accountType) {
+    byte[] current = types;
+    current[id] = (byte) (accountType.ordinal() + 1);
+    types = current;
+  }
+
+  private int add(int slot, long hash, String accountId) {
+    int id = size;
+    if (id == accountIds.length) {
+      grow();
+    }
+    if ((id + 1) * 10 > hashes.length * 7) {
+      rehash();
+      int mask = hashes.length - 1;
+      slot = (int) hash & mask;
+      while (slotIds[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+    }
+    hashes[slot] = hash;
+    slotIds[slot] = id + 1;
+    accountIds[id] = accountId;
+    size = id + 1;
+    return id;
+  }
+
+  private synchronized void grow() {
+    accountIds = Arrays.copyOf(accountIds, accountIds.length * 2);
+    types = Arrays.copyOf(types, types.length * 2);
+  }
+
+  private void rehash() {
+    long[] oldHashes = hashes;
+    int[] oldSlotIds = slotIds;
+    hashes = new long[oldHashes.length * 2];
+    slotIds = new int[oldSlotIds.length * 2];
+    int mask = hashes.length - 1;
+    for (int from = 0; from < oldHashes.length; from++) {
+      if (oldSlotIds[from] == 0) {
+        continue;
+      }
+      int slot = (int) oldHashes[from] & mask;
+      while (slotIds[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      hashes[slot] = oldHashes[from];
+      slotIds[slot] = oldSlotIds[from];
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.lekha.analytics;
+
+/**
+ * Up to {@link #ROWS} ledger entries, one primitive array per column. Full chunks never change; the
+ * last one is appended to by the thread that feeds the columns, and its rows are published by the
+ * row count of {@link LedgerAnalytics}.
+ */
+final class ColumnChunk {
+
+  static final int ROWS_SHIFT = 16;
+  static final int ROWS = 1 << ROWS_SHIFT;
+
+  // HybridLogicalClock timestamps.
+  final long[] timestamps = new long[ROWS];
+  // In minor units of the currency of the row.
+  final long[] amounts = new long[ROWS];
+  // AccountDictionary ids.
+  final int[] accounts = new int[ROWS];
+  // Currency ordinals.
+  final byte[] currencies = new byte[ROWS];
+  // Bitmaps of the Ledger.Operation of each row: set for credits and for shard transfers.
+  final long[] credits = new long[ROWS / Long.SIZE];
+  final long[] shardTransfers = new long[ROWS / Long.SIZE];
+  // Bounds of the timestamps of the rows, to skip the chunk in queries that do not overlap them.
+  volatile long minTimestamp = Long.MAX_VALUE;
+  volatile long maxTimestamp = Long.MIN_VALUE;
+
+  boolean isCredit(int row) {
+    return (credits[row >>> 6] & (1L << row)) != 0;
+  }
+
+  /** The Ledger.Operation ordinal of the row. */
+  int operation(int row) {
+    return (isCredit(row) ? 1 : 0) | ((shardTransfers[row >>> 6] & (1L << row)) != 0 ? 2 : 0);
+  }
+}
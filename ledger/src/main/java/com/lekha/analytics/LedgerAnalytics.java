@@ -0,0 +1,473 @@
+package com.lekha.analytics;
+
+import com.lekha.account.AccountType;
+import com.lekha.clock.HybridLogicalClock;
+import com.lekha.ledger.Ledger;
+import com.lekha.ledger.journal.RecordCursor;
+import com.lekha.ledger.journal.RecordView;
+import com.lekha.money.Currency;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Columnar projection of the ledger entries, for aggregate queries that would read every entry:
+ * totals per time bucket, operation and account type, and the accounts with the most volume.
+ *
+ * <p>Entries are kept in {@link ColumnChunk}s of primitive columns: timestamps, amounts, account
+ * ids encoded by an {@link AccountDictionary}, currencies and a bitmap of operations. A query scans
+ * only the columns it needs, with one fork/join task per chunk on the common pool, and skips the
+ * chunks whose timestamps are all outside its period.
+ *
+ * <p>The projection subscribes to {@code LedgerJournal.changes} and is fed as entries become
+ * durable, reading them in place from the journal:
+ *
+ * <pre>{@code
+ * journal.changes(0, executor).subscribe(analytics);
+ * }</pre>
+ *
+ * <p>The journal does not store account types, so the type of each new account is looked up from an
+ * {@link AccountTypeSource}; its entries count as of an unknown type until the lookup completes.
+ *
+ * <p>Queries run concurrently with feeding and see the entries fed before they started.
+ */
+public final class LedgerAnalytics implements Flow.Subscriber<RecordView> {
+
+  private static final int REQUEST_BATCH = 1024;
+  private static final int MAX_GROUPS = 1 << 20;
+  private static final Currency[] CURRENCIES = Currency.values();
+  private static final Ledger.Operation[] OPERATIONS = Ledger.Operation.values();
+  // Account type ordinals + 1, with 0 for unknown.
+  private static final int ACCOUNT_TYPE_KEYS = AccountType.values().length + 1;
+
+  /** Where account types come from, {@code Account.getOptions} in practice. */
+  public interface AccountTypeSource {
+    CompletableFuture<AccountType> accountType(String accountId);
+  }
+
+  /** Dimensions a {@link Query} groups by, in addition to its time buckets and the currency. */
+  public enum Dimension {
+    OPERATION,
+    ACCOUNT_TYPE
+  }
+
+  /**
+   * @param fromMs start of the period, inclusive.
+   * @param toMs end of the period, exclusive.
+   * @param bucket length of the time buckets of the period, from its start.
+   */
+  public record Query(long fromMs, long toMs, Duration bucket, Set<Dimension> groupBy) {
+    public Query {
+      if (toMs <= fromMs) {
+        throw new IllegalArgumentException("Query period must not be empty");
+      }
+      if (bucket.toMillis() <= 0) {
+        throw new IllegalArgumentException("Query buckets must be at least 1ms");
+      }
+      groupBy = Set.copyOf(groupBy);
+    }
+
+    private long bucketCount() {
+      long length = toMs - fromMs;
+      long bucketMs = bucket.toMillis();
+      return length / bucketMs + (length % bucketMs == 0 ? 0 : 1);
+    }
+  }
+
+  /**
+   * The entries of one group of a {@link Query}.
+   *
+   * @param operation empty unless the query groups by {@link Dimension#OPERATION}.
+   * @param accountType empty unless the query groups by {@link Dimension#ACCOUNT_TYPE} and the type
+   *     of the accounts of the group is known.
+   * @param amount the sum of the amounts, in minor units of the currency.
+   */
+  public record Group(
+      long bucketStartMs,
+      Currency currency,
+      Optional<Ledger.Operation> operation,
+      Optional<AccountType> accountType,
+      long entries,
+      long amount) {}
+
+  /**
+   * @param amount the sum of the amounts of the entries, debits and credits.
+   */
+  public record AccountVolume(String accountId, Currency currency, long entries, long amount) {}
+
+  private final AccountTypeSource accountTypes;
+  private final AccountDictionary dictionary = new AccountDictionary();
+  // Published by rowCount: the rows below it are written before it is.
+  private volatile ColumnChunk[] chunks = new ColumnChunk[0];
+  private volatile long rowCount;
+  // Owned by the subscription.
+  private Flow.Subscription subscription;
+  private long receivedRecords;
+
+  public LedgerAnalytics(AccountTypeSource accountTypes) {
+    this.accountTypes = accountTypes;
+  }
+
+  /** Number of entries fed so far. */
+  public long entryCount() {
+    return rowCount;
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    this.subscription = subscription;
+    subscription.request(REQUEST_BATCH);
+  }
+
+  @Override
+  public void onNext(RecordView record) {
+    add(record.cursor());
+    if (++receivedRecords % REQUEST_BATCH == 0) {
+      subscription.request(REQUEST_BATCH);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    // Queries keep answering with the entries fed so far.
+  }
+
+  @Override
+  public void onComplete() {}
+
+  private void add(RecordCursor record) {
+    int account = dictionary.idOf(record);
+    if (account < 0) {
+      account = -1 - account;
+      lookUpAccountType(account);
+    }
+    long timestamp = record.timestamp();
+    long row = rowCount;
+    while (record.nextEntry()) {
+      ColumnChunk chunk = chunkForRow(row);
+      int index = (int) (row & (ColumnChunk.ROWS - 1));
+      chunk.timestamps[index] = timestamp;
+      chunk.amounts[index] = record.amount();
+      chunk.accounts[index] = account;
+      chunk.currencies[index] = (byte) record.currency().ordinal();
+      Ledger.Operation operation = record.operation();
+      if (operation.isCredit()) {
+        chunk.credits[index >>> 6] |= 1L << index;
+      }
+      if (operation.isShardTransfer()) {
+        chunk.shardTransfers[index >>> 6] |= 1L << index;
+      }
+      chunk.minTimestamp = Math.min(chunk.minTimestamp, timestamp);
+      chunk.maxTimestamp = Math.max(chunk.maxTimestamp, timestamp);
+      row++;
+    }
+    rowCount = row;
+  }
+
+  private ColumnChunk chunkForRow(long row) {
+    int index = (int) (row >>> ColumnChunk.ROWS_SHIFT);
+    ColumnChunk[] current = chunks;
+    if (index == current.length) {
+      current = Arrays.copyOf(current, index + 1);
+      current[index] = new ColumnChunk();
+      chunks = current;
+    }
+    return current[index];
+  }
+
+  private void lookUpAccountType(int account) {
+    CompletableFuture<AccountType> accountType;
+    try {
+      accountType = accountTypes.accountType(dictionary.accountId(account));
+    } catch (RuntimeException e) {
+      // The entries of the account stay of an unknown type.
+      return;
+    }
+    accountType.thenAccept(type -> dictionary.setType(account, type));
+  }
+
+  /**
+   * The number and total amount of the entries in each group of {@code query} that has entries,
+   * ordered by bucket, operation, account type and currency.
+   *
+   * @throws IllegalArgumentException if the query has more than 2^20 groups.
+   * @throws ArithmeticException if the total of a group does not fit in a long.
+   */
+  public List<Group> aggregate(Query query) {
+    long bucketCount = query.bucketCount();
+    int operationKeys = query.groupBy().contains(Dimension.OPERATION) ? OPERATIONS.length : 1;
+    int typeKeys = query.groupBy().contains(Dimension.ACCOUNT_TYPE) ? ACCOUNT_TYPE_KEYS : 1;
+    int groupsPerBucket = operationKeys * typeKeys * CURRENCIES.length;
+    if (bucketCount > MAX_GROUPS / groupsPerBucket) {
+      throw new IllegalArgumentException(
+          "Query has more than " + MAX_GROUPS + " groups, use fewer buckets or dimensions");
+    }
+    long groups = bucketCount * groupsPerBucket;
+    long rows = rowCount;
+    ColumnChunk[] snapshot = chunks;
+    AggregateTask task =
+        new AggregateTask(
+            snapshot,
+            rows,
+            0,
+            chunkCount(rows),
+            query,
+            (int) groups,
+            operationKeys,
+            typeKeys,
+            dictionary.types());
+    long[] totals = ForkJoinPool.commonPool().invoke(task);
+
+    List<Group> result = new ArrayList<>();
+    for (int group = 0; group < groups; group++) {
+      long entries = totals[2 * group];
+      if (entries == 0) {
+        continue;
+      }
+      int currency = group % CURRENCIES.length;
+      int type = group / CURRENCIES.length % typeKeys;
+      int operation = group / (CURRENCIES.length * typeKeys) % operationKeys;
+      long bucket = group / (CURRENCIES.length * typeKeys * operationKeys);
+      result.add(
+          new Group(
+              query.fromMs() + bucket * query.bucket().toMillis(),
+              CURRENCIES[currency],
+              operationKeys == 1 ? Optional.empty() : Optional.of(OPERATIONS[operation]),
+              typeKeys == 1 || type == 0
+                  ? Optional.empty()
+                  : Optional.of(AccountDictionary.accountType((byte) type)),
+              entries,
+              totals[2 * group + 1]));
+    }
+    return result;
+  }
+
+  /**
+   * The {@code limit} accounts with the largest total amount of entries in {@code currency} in
+   * {@code [fromMs, toMs)}, largest first.
+   */
+  public List<AccountVolume> topAccounts(long fromMs, long toMs, Currency currency, int limit) {
+    long rows = rowCount;
+    ColumnChunk[] snapshot = chunks;
+    int accounts = dictionary.size();
+    long[] totals =
+        ForkJoinPool.commonPool()
+            .invoke(
+                new VolumeTask(
+                    snapshot,
+                    rows,
+                    0,
+                    chunkCount(rows),
+                    HybridLogicalClock.lowest(fromMs),
+                    HybridLogicalClock.lowest(toMs),
+                    (byte) currency.ordinal(),
+                    accounts));
+
+    PriorityQueue<Integer> top =
+        new PriorityQueue<>(Comparator.comparingLong(account -> totals[2 * account + 1]));
+    for (int account = 0; account < accounts; account++) {
+      if (totals[2 * account] == 0) {
+        continue;
+      }
+      top.add(account);
+      if (top.size() > limit) {
+        top.poll();
+      }
+    }
+    List<AccountVolume> result = new ArrayList<>(top.size());
+    while (!top.isEmpty()) {
+      int account = top.poll();
+      result.add(
+          new AccountVolume(
+              dictionary.accountId(account),
+              currency,
+              totals[2 * account],
+              totals[2 * account + 1]));
+    }
+    return result.reversed();
+  }
+
+  private static int chunkCount(long rows) {
+    return (int) ((rows + ColumnChunk.ROWS - 1) >>> ColumnChunk.ROWS_SHIFT);
+  }
+
+  private static int rowsIn(int chunk, long rows) {
+    return (int) Math.min(ColumnChunk.ROWS, rows - ((long) chunk << ColumnChunk.ROWS_SHIFT));
+  }
+
+  /** Adds the counts and totals of {@code from}, interleaved, to the ones of {@code to}. */
+  private static long[] merge(long[] to, long[] from) {
+    for (int i = 0; i < to.length; i += 2) {
+      to[i] += from[i];
+      to[i + 1] = Math.addExact(to[i + 1], from[i + 1]);
+    }
+    return to;
+  }
+
+  /** Entry count and total amount of each group, interleaved, over the chunks [from, to). */
+  private static final class AggregateTask extends RecursiveTask<long[]> {
+    private final ColumnChunk[] chunks;
+    private final long rows;
+    private final int from;
+    private final int to;
+    private final Query query;
+    private final int groups;
+    private final int operationKeys;
+    private final int typeKeys;
+    private final byte[] types;
+
+    AggregateTask(
+        ColumnChunk[] chunks,
+        long rows,
+        int from,
+        int to,
+        Query query,
+        int groups,
+        int operationKeys,
+        int typeKeys,
+        byte[] types) {
+      this.chunks = chunks;
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+      this.query = query;
+      this.groups = groups;
+      this.operationKeys = operationKeys;
+      this.typeKeys = typeKeys;
+      this.types = types;
+    }
+
+    @Override
+    protected long[] compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        AggregateTask earlier = subtask(from, middle);
+        earlier.fork();
+        long[] later = subtask(middle, to).compute();
+        return merge(earlier.join(), later);
+      }
+      long[] totals = new long[2 * groups];
+      if (from == to) {
+        return totals;
+      }
+      ColumnChunk chunk = chunks[from];
+      long fromTimestamp = HybridLogicalClock.lowest(query.fromMs());
+      long toTimestamp = HybridLogicalClock.lowest(query.toMs());
+      if (chunk.maxTimestamp < fromTimestamp || chunk.minTimestamp >= toTimestamp) {
+        return totals;
+      }
+      long fromMs = query.fromMs();
+      long bucketMs = query.bucket().toMillis();
+      int currencies = CURRENCIES.length;
+      boolean byOperation = operationKeys > 1;
+      boolean byType = typeKeys > 1;
+      long[] timestamps = chunk.timestamps;
+      long[] amounts = chunk.amounts;
+      byte[] chunkCurrencies = chunk.currencies;
+      int count = rowsIn(from, rows);
+      for (int row = 0; row < count; row++) {
+        long timestamp = timestamps[row];
+        if (timestamp < fromTimestamp || timestamp >= toTimestamp) {
+          continue;
+        }
+        int bucket = (int) ((HybridLogicalClock.millis(timestamp) - fromMs) / bucketMs);
+        int operation = byOperation ? chunk.operation(row) : 0;
+        int type = byType ? types[chunk.accounts[row]] : 0;
+        int group =
+            ((bucket * operationKeys + operation) * typeKeys + type) * currencies
+                + chunkCurrencies[row];
+        totals[2 * group]++;
+        totals[2 * group + 1] = Math.addExact(totals[2 * group + 1], amounts[row]);
+      }
+      return totals;
+    }
+
+    private AggregateTask subtask(int subtaskFrom, int subtaskTo) {
+      return new AggregateTask(
+          chunks, rows, subtaskFrom, subtaskTo, query, groups, operationKeys, typeKeys, types);
+    }
+  }
+
+  /** Entry count and total amount of each account, interleaved, over the chunks [from, to). */
+  private static final class VolumeTask extends RecursiveTask<long[]> {
+    private final ColumnChunk[] chunks;
+    private final long rows;
+    private final int from;
+    private final int to;
+    private final long fromTimestamp;
+    private final long toTimestamp;
+    private final byte currency;
+    private final int accounts;
+
+    VolumeTask(
+        ColumnChunk[] chunks,
+        long rows,
+        int from,
+        int to,
+        long fromTimestamp,
+        long toTimestamp,
+        byte currency,
+        int accounts) {
+      this.chunks = chunks;
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+      this.fromTimestamp = fromTimestamp;
+      this.toTimestamp = toTimestamp;
+      this.currency = currency;
+      this.accounts = accounts;
+    }
+
+    @Override
+    protected long[] compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        VolumeTask earlier = subtask(from, middle);
+        earlier.fork();
+        long[] later = subtask(middle, to).compute();
+        return merge(earlier.join(), later);
+      }
+      long[] totals = new long[2 * accounts];
+      if (from == to) {
+        return totals;
+      }
+      ColumnChunk chunk = chunks[from];
+      if (chunk.maxTimestamp < fromTimestamp || chunk.minTimestamp >= toTimestamp) {
+        return totals;
+      }
+      long[] timestamps = chunk.timestamps;
+      long[] amounts = chunk.amounts;
+      int[] chunkAccounts = chunk.accounts;
+      byte[] currencies = chunk.currencies;
+      int count = rowsIn(from, rows);
+      for (int row = 0; row < count; row++) {
+        long timestamp = timestamps[row];
+        int account = chunkAccounts[row];
+        // Accounts added after the query started have rows after its snapshot too.
+        if (timestamp < fromTimestamp
+            || timestamp >= toTimestamp
+            || currencies[row] != currency
+            || account >= accounts) {
+          continue;
+        }
+        totals[2 * account]++;
+        totals[2 * account + 1] = Math.addExact(totals[2 * account + 1], amounts[row]);
+      }
+      return totals;
+    }
+
+    private VolumeTask subtask(int subtaskFrom, int subtaskTo) {
+      return new VolumeTask(
+          chunks, rows, subtaskFrom, subtaskTo, fromTimestamp, toTimestamp, currency, accounts);
+    }
+  }
+}
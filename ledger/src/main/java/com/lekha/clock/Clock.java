@@ -1,11 +1,16 @@
 package com.lekha.clock;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-
 public class Clock {
 
+  private static final HybridLogicalClock HYBRID =
+      new HybridLogicalClock(System::currentTimeMillis);
+
   public static long currentTimeMillis() {
-    return LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+    return System.currentTimeMillis();
+  }
+
+  /** The hybrid logical clock of this process, for ordering ledger entries. */
+  public static HybridLogicalClock hybrid() {
+    return HYBRID;
   }
 }
@@ -0,0 +1,72 @@
+package com.lekha.clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Hybrid logical clock: timestamps that follow the wall clock but are strictly increasing, so that
+ * events in the same millisecond, or while the wall clock is behind a timestamp seen before, are
+ * still ordered.
+ *
+ * <p>A timestamp is a {@code long} holding the milliseconds since the epoch above a {@link
+ * #COUNTER_BITS}-bit logical counter. Timestamps compare as longs, so ledger streams of several
+ * accounts merge in time order with a long comparison, and {@link #millis} gives back the wall
+ * clock time. A counter that runs out carries into the milliseconds: the clock runs ahead of the
+ * wall clock until it catches up.
+ *
+ * <p>The state is one {@link AtomicLong}: {@link #now} and {@link #observe} take no lock and
+ * allocate nothing.
+ */
+public final class HybridLogicalClock {
+
+  public static final int COUNTER_BITS = 16;
+  private static final long MAX_MILLIS = Long.MAX_VALUE >> COUNTER_BITS;
+  private static final long MIN_MILLIS = Long.MIN_VALUE >> COUNTER_BITS;
+
+  private final LongSupplier wallClockMillis;
+  private final AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+
+  public HybridLogicalClock(LongSupplier wallClockMillis) {
+    this.wallClockMillis = wallClockMillis;
+  }
+
+  /** A timestamp later than every one this clock returned or observed before. */
+  public long now() {
+    long wallClock = lowest(wallClockMillis.getAsLong());
+    return last.accumulateAndGet(wallClock, (previous, now) -> Math.max(now, previous + 1));
+  }
+
+  /**
+   * Makes the following timestamps of this clock later than {@code timestamp}, received from
+   * another clock, so that what happens after receiving it is ordered after it.
+   */
+  public void observe(long timestamp) {
+    last.accumulateAndGet(timestamp, Math::max);
+  }
+
+  /** The wall clock time of {@code timestamp}, in milliseconds since the epoch. */
+  public static long millis(long timestamp) {
+    return timestamp >> COUNTER_BITS;
+  }
+
+  /** The logical counter of {@code timestamp}. */
+  public static int counter(long timestamp) {
+    return (int) (timestamp & ((1L << COUNTER_BITS) - 1));
+  }
+
+  /** The first timestamp in millisecond {@code millis}, clamped to the range of timestamps. */
+  public static long lowest(long millis) {
+    if (millis > MAX_MILLIS) {
+      return Long.MAX_VALUE;
+    }
+    return millis < MIN_MILLIS ? Long.MIN_VALUE : millis << COUNTER_BITS;
+  }
+
+  /** The last timestamp in millisecond {@code millis}, clamped to the range of timestamps. */
+  public static long highest(long millis) {
+    if (millis >= MAX_MILLIS) {
+      return Long.MAX_VALUE;
+    }
+    return millis < MIN_MILLIS ? Long.MIN_VALUE : lowest(millis + 1) - 1;
+  }
+}
@@ -1,18 +1,53 @@
 package com.lekha.ledger;
 
 import com.lekha.account.Account;
+import com.lekha.clock.Clock;
+import com.lekha.clock.HybridLogicalClock;
+import com.lekha.ledger.journal.JournalRecord;
+import com.lekha.ledger.journal.LedgerJournal;
 import com.lekha.money.Money;
 import dev.restate.sdk.ObjectContext;
+import dev.restate.sdk.SharedObjectContext;
 import dev.restate.sdk.annotation.Handler;
+import dev.restate.sdk.annotation.Shared;
 import dev.restate.sdk.annotation.VirtualObject;
+import dev.restate.sdk.common.TerminalException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
+/**
+ * Ledger of the balance changes of each account, keyed by account key. Entries are stored in the
+ * {@link LedgerJournal} of the service instance, and a handler returns once its entries are as
+ * durable as the journal is configured to make them. Entries are stored once per instruction {@code
+ * idem}, so retried invocations do not post them twice.
+ *
+ * <p>Entries are timestamped by the {@link HybridLogicalClock} of the account invocation that posts
+ * them, so the entries of an account are ordered even within a millisecond. Queries take wall clock
+ * times in milliseconds.
+ */
 @VirtualObject
 public class Ledger {
 
+  /**
+   * The kind of a balance change. Shard debits and credits move balance between the shards of a
+   * sharded account when it rebalances, see {@link com.lekha.account.AccountShards}, and leave the
+   * balance of the account as a whole unchanged.
+   */
   public enum Operation {
+    // The journal stores the ordinal as a credit bit and a shard transfer bit: keep the order.
     DEBIT,
-    CREDIT
+    CREDIT,
+    SHARD_DEBIT,
+    SHARD_CREDIT;
+
+    public boolean isCredit() {
+      return this == CREDIT || this == SHARD_CREDIT;
+    }
+
+    public boolean isShardTransfer() {
+      return this == SHARD_DEBIT || this == SHARD_CREDIT;
+    }
   }
 
   public record RecordBalanceChangeInstruction(
@@ -41,22 +76,198 @@ public class Ledger {
       Account.HoldSummary holdSummary,
       Account.OperationMetadata metadata) {}
 
+  /**
+   * One balance change of {@link RecordEntriesInstruction}.
+   *
+   * @param accountSummary the account balances right after this change.
+   * @param holdSummary present when the change is to a hold balance rather than to the account's
+   *     available balance.
+   */
+  public record Entry(
+      Operation operation,
+      Money amount,
+      Account.AccountSummary accountSummary,
+      Optional<Account.HoldSummary> holdSummary,
+      Account.OperationMetadata metadata) {}
+
+  /**
+   * All balance changes of one account invocation, in the order they were applied.
+   *
+   * @param timestamp a {@link HybridLogicalClock} timestamp.
+   */
+  public record RecordEntriesInstruction(String idem, long timestamp, List<Entry> entries) {}
+
+  /**
+   * @param fromMs start of the statement period, inclusive.
+   * @param toMs end of the statement period, exclusive.
+   * @param pageToken the {@link Statement#nextPageToken} of the previous page, empty for the first.
+   * @param pageSize maximum number of entries of the page, unless a single ledger record has more.
+   */
+  public record GetStatementInstruction(
+      long fromMs, long toMs, Optional<String> pageToken, int pageSize) {}
+
+  /**
+   * @param timestamp the {@link HybridLogicalClock} timestamp of the entry, which orders it among
+   *     the entries of all accounts.
+   */
+  public record StatementEntry(String idem, long timestamp, Entry entry) {
+    public long timestampMs() {
+      return HybridLogicalClock.millis(timestamp);
+    }
+  }
+
+  /**
+   * Entries of one account in the order they were recorded.
+   *
+   * @param nextPageToken present when there are more entries in the statement period.
+   */
+  public record Statement(List<StatementEntry> entries, Optional<String> nextPageToken) {}
+
+  public static final int MAX_STATEMENT_PAGE_SIZE = 1000;
+
+  public record GetBalanceAtInstruction(long timestampMs) {}
+
+  /**
+   * @param balances the account balances after its last entry recorded at or before the instant,
+   *     empty if it had no entries yet.
+   */
+  public record BalanceAt(long timestampMs, Optional<Account.AccountBalances> balances) {}
+
+  // Null when entries are not stored, see Ledger().
+  private final LedgerJournal journal;
+
+  /** A ledger that accepts entries without storing them, for tests of the account layer. */
+  public Ledger() {
+    this(null);
+  }
+
+  public Ledger(LedgerJournal journal) {
+    this.journal = journal;
+  }
+
   @Handler
   public void bulkRecordBalanceChange(
       ObjectContext ctx, BulkRecordBalanceChangeInstruction instruction) {
-    // TODO: write to DB. In the DB, we can also store latest balance in addition to writing ledger
-    // entries.
+    append(
+        ctx,
+        instruction.idem(),
+        HybridLogicalClock.lowest(instruction.timestampMs()),
+        instruction.allOperationDetails().stream()
+            .map(
+                operationDetails ->
+                    new Entry(
+                        instruction.operation(),
+                        operationDetails.amount(),
+                        instruction.accountSummary(),
+                        Optional.empty(),
+                        operationDetails.metadata()))
+            .toList());
   }
 
   @Handler
   public void recordBalanceChange(ObjectContext ctx, RecordBalanceChangeInstruction instruction) {
-    // TODO: write to DB. In the DB, we can also store latest balance in addition to writing ledger
-    // entries.
+    append(
+        ctx,
+        instruction.idem(),
+        HybridLogicalClock.lowest(instruction.timestampMs()),
+        List.of(
+            new Entry(
+                instruction.operation(),
+                instruction.amount(),
+                instruction.accountSummary(),
+                Optional.empty(),
+                instruction.metadata())));
   }
 
   @Handler
   public void recordHoldBalanceChange(
       ObjectContext ctx, RecordHoldBalanceChangeInstruction instruction) {
-    // TODO: write to DB.
+    append(
+        ctx,
+        instruction.idem(),
+        HybridLogicalClock.lowest(instruction.timestampMs()),
+        List.of(
+            new Entry(
+                instruction.operation(),
+                instruction.amount(),
+                instruction.accountSummary(),
+                Optional.of(instruction.holdSummary()),
+                instruction.metadata())));
+  }
+
+  @Handler
+  public void recordEntries(ObjectContext ctx, RecordEntriesInstruction instruction) {
+    // Entries recorded after these ones in this process are ordered after them.
+    Clock.hybrid().observe(instruction.timestamp());
+    append(ctx, instruction.idem(), instruction.timestamp(), instruction.entries());
+  }
+
+  @Shared
+  @Handler
+  public Statement getStatement(SharedObjectContext ctx, GetStatementInstruction instruction) {
+    if (instruction.pageSize() < 1 || instruction.pageSize() > MAX_STATEMENT_PAGE_SIZE) {
+      throw new TerminalException(
+          "Statement page size must be between 1 and " + MAX_STATEMENT_PAGE_SIZE);
+    }
+    if (journal == null) {
+      return new Statement(List.of(), Optional.empty());
+    }
+    long fromPosition = instruction.pageToken().map(Ledger::parsePageToken).orElse(0L);
+    LedgerJournal.StatementPage page;
+    try {
+      page =
+          journal.readStatement(
+              ctx.key(),
+              HybridLogicalClock.lowest(instruction.fromMs()),
+              HybridLogicalClock.lowest(instruction.toMs()),
+              fromPosition,
+              instruction.pageSize());
+    } catch (IllegalArgumentException e) {
+      throw new TerminalException("Invalid statement page token: " + instruction.pageToken().get());
+    }
+    List<StatementEntry> entries = new ArrayList<>();
+    for (JournalRecord record : page.records()) {
+      for (Entry entry : record.entries()) {
+        entries.add(new StatementEntry(record.idem(), record.timestamp(), entry));
+      }
+    }
+    return new Statement(
+        entries,
+        page.nextPosition() < 0
+            ? Optional.empty()
+            : Optional.of(Long.toHexString(page.nextPosition())));
+  }
+
+  @Shared
+  @Handler
+  public BalanceAt getBalanceAt(SharedObjectContext ctx, GetBalanceAtInstruction instruction) {
+    if (journal == null) {
+      return new BalanceAt(instruction.timestampMs(), Optional.empty());
+    }
+    return new BalanceAt(
+        instruction.timestampMs(),
+        journal
+            .readBalanceRecordAt(ctx.key(), HybridLogicalClock.highest(instruction.timestampMs()))
+            .map(record -> record.entries().getLast().accountSummary().balances()));
+  }
+
+  private static long parsePageToken(String pageToken) {
+    try {
+      return Long.parseUnsignedLong(pageToken, 16);
+    } catch (NumberFormatException e) {
+      throw new TerminalException("Invalid statement page token: " + pageToken);
+    }
+  }
+
+  private void append(ObjectContext ctx, String idem, long timestamp, List<Entry> entries) {
+    if (journal == null || entries.isEmpty()) {
+      return;
+    }
+    try {
+      journal.append(idem, timestamp, ctx.key(), entries);
+    } catch (IllegalArgumentException e) {
+      // Retrying would not make the entries fit.
+      throw new TerminalException(e.getMessage());
+    }
   }
 }
@@ -0,0 +1,88 @@
+package com.lekha.ledger.journal;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Balance checkpoints of each account: the position of the first record of the account and of every
+ * {@code interval}-th record after it, with the latest timestamp of the account's records up to
+ * there. Each record carries the balances after it, so the balance at an instant is the one of the
+ * last record before the instant, which is found by binary search over the checkpoints and a scan
+ * of at most {@code interval} records of the account.
+ *
+ * <p>The latest timestamp up to a record, rather than the timestamp of the record, keeps the
+ * checkpoints sorted when timestamps of consecutive records go backwards, as with a retried
+ * invocation.
+ *
+ * <p>Written under the append lock of the journal, read concurrently.
+ */
+final class BalanceCheckpoints {
+
+  /** Checkpoints of one account, in append order. */
+  static final class AccountCheckpoints {
+    private long latestTimestamp = Long.MIN_VALUE;
+    private int recordsSinceCheckpoint;
+    // Published by count: elements below it are written before it is.
+    private volatile long[] timestamps = new long[4];
+    private volatile long[] positions = new long[4];
+    private volatile int count;
+
+    /**
+     * Position of the last checkpoint with a latest timestamp at or before {@code timestamp}, or -1
+     * if the first record of the account is later.
+     */
+    long floorPosition(long timestamp) {
+      int size = count;
+      long[] checkpointTimestamps = timestamps;
+      long[] checkpointPositions = positions;
+      int low = 0;
+      int high = size - 1;
+      int found = -1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        if (checkpointTimestamps[middle] <= timestamp) {
+          found = middle;
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return found < 0 ? -1 : checkpointPositions[found];
+    }
+
+    private void add(long timestamp, long position, int interval) {
+      latestTimestamp = Math.max(latestTimestamp, timestamp);
+      if (count > 0 && ++recordsSinceCheckpoint < interval) {
+        return;
+      }
+      recordsSinceCheckpoint = 0;
+      int size = count;
+      if (size == timestamps.length) {
+        timestamps = Arrays.copyOf(timestamps, size * 2);
+        positions = Arrays.copyOf(positions, size * 2);
+      }
+      timestamps[size] = latestTimestamp;
+      positions[size] = position;
+      count = size + 1;
+    }
+  }
+
+  private final int interval;
+  private final ConcurrentHashMap<String, AccountCheckpoints> accounts = new ConcurrentHashMap<>();
+
+  BalanceCheckpoints(int interval) {
+    this.interval = interval;
+  }
+
+  /** Adds the record of {@code accountId} at {@code position}, after all records added so far. */
+  void add(String accountId, long timestamp, long position) {
+    accounts
+        .computeIfAbsent(accountId, id -> new AccountCheckpoints())
+        .add(timestamp, position, interval);
+  }
+
+  /** The checkpoints of {@code accountId}, or null if it has no records. */
+  AccountCheckpoints account(String accountId) {
+    return accounts.get(accountId);
+  }
+}
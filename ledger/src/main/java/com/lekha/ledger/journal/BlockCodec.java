@@ -0,0 +1,381 @@
+package com.lekha.ledger.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact layout of a block of frames of a sealed segment, which {@link CompressedSegment} then
+ * deflates. Records repeat their account id, currency and balances, and follow each other closely
+ * in time; blocks store account ids once per segment, in its {@link Accounts}, and the numbers as
+ * deltas:
+ *
+ * <pre>
+ * record:  timestamp:zvar  account:var  idem:bytes  entryCount:var  entry*
+ * entry:   flags:u8  amount:zvar  availableBalance:zvar  holdBalance:zvar  [hold]
+ * hold:    holdId:bytes  holdType:u8  holdBalance:zvar
+ * bytes:   length:var  bytes
+ * </pre>
+ *
+ * <p>Varints are LEB128, zvars zigzag-encoded ones. The timestamp is the difference to the one of
+ * the previous record of the block. The account is the index of the account id in the accounts of
+ * the segment. Flags are the ones of {@link JournalCodec} with the currency ordinal shifted in
+ * between the hold bit and the shard transfer bit. Balances are differences to the ones of the
+ * previous entry of the account in the block, and the balance of a hold the difference to the
+ * amount of its entry, which is the same for a hold that is placed.
+ *
+ * <p>Decoding rebuilds the frames byte for byte, checksums included, so that records keep their
+ * offsets in the segment and so their positions.
+ */
+final class BlockCodec {
+
+  private static final int CURRENCY_SHIFT = 2;
+  private static final int FLAGS_MASK =
+      (1 << CURRENCY_SHIFT) - 1 | JournalCodec.FLAG_SHARD_TRANSFER;
+
+  private BlockCodec() {}
+
+  /**
+   * The account ids of the records of a segment, each stored once for all of its blocks:
+   *
+   * <pre>
+   * accounts:  count:var  accountId:bytes*
+   * </pre>
+   */
+  static final class Accounts {
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<byte[]> accountIds = new ArrayList<>();
+
+    /** The index of the account id of the record at {@code offset}, added if it is new. */
+    private int indexOf(ByteBuffer buffer, int offset) {
+      int accountIdOffset = JournalCodec.accountIdOffset(buffer, offset);
+      String accountId = JournalCodec.getString(buffer, accountIdOffset);
+      Integer index = indexes.get(accountId);
+      if (index != null) {
+        return index;
+      }
+      byte[] bytes = new byte[JournalCodec.stringLength(buffer, accountIdOffset)];
+      buffer.get(accountIdOffset + Short.BYTES, bytes);
+      indexes.put(accountId, accountIds.size());
+      accountIds.add(bytes);
+      return accountIds.size() - 1;
+    }
+
+    void encode(Output output) {
+      output.putVarint(accountIds.size());
+      for (byte[] accountId : accountIds) {
+        output.putVarint(accountId.length);
+        output.putBytes(accountId);
+      }
+    }
+
+    static Accounts decode(byte[] bytes, int length) throws IOException {
+      Accounts accounts = new Accounts();
+      Input input = new Input(bytes, length);
+      try {
+        int count = (int) input.varint();
+        for (int i = 0; i < count; i++) {
+          accounts.accountIds.add(input.bytes((int) input.varint()));
+        }
+      } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+        throw new IOException("Corrupt journal accounts", e);
+      }
+      if (!input.isAtEnd()) {
+        throw new IOException("Corrupt journal accounts");
+      }
+      return accounts;
+    }
+  }
+
+  /** Growable output of {@link #encode}. */
+  static final class Output {
+    private byte[] bytes = new byte[1 << 16];
+    private int length;
+
+    byte[] bytes() {
+      return bytes;
+    }
+
+    int length() {
+      return length;
+    }
+
+    void clear() {
+      length = 0;
+    }
+
+    private void ensure(int more) {
+      if (length + more > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+      }
+    }
+
+    private void putByte(int value) {
+      ensure(1);
+      bytes[length++] = (byte) value;
+    }
+
+    private void putBytes(byte[] value) {
+      ensure(value.length);
+      System.arraycopy(value, 0, bytes, length, value.length);
+      length += value.length;
+    }
+
+    private void putVarint(long value) {
+      ensure(10);
+      while ((value & ~0x7FL) != 0) {
+        bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[length++] = (byte) value;
+    }
+
+    private void putZigzag(long value) {
+      putVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void putString(ByteBuffer buffer, int offset) {
+      int stringLength = JournalCodec.stringLength(buffer, offset);
+      putVarint(stringLength);
+      ensure(stringLength);
+      buffer.get(offset + Short.BYTES, bytes, length, stringLength);
+      length += stringLength;
+    }
+  }
+
+  private static final class Input {
+    private final byte[] bytes;
+    private final int length;
+    private int position;
+
+    Input(byte[] bytes, int length) {
+      this.bytes = bytes;
+      this.length = length;
+    }
+
+    boolean isAtEnd() {
+      return position == length;
+    }
+
+    int unsignedByte() {
+      checkAvailable(1);
+      return bytes[position++] & 0xFF;
+    }
+
+    long varint() {
+      long value = 0;
+      for (int shift = 0; shift < Long.SIZE; shift += 7) {
+        int b = unsignedByte();
+        value |= (long) (b & 0x7F) << shift;
+        if (b < 0x80) {
+          return value;
+        }
+      }
+      throw new IndexOutOfBoundsException("Varint longer than 64 bits");
+    }
+
+    long zigzag() {
+      long value = varint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Skips {@code count} bytes and returns where they start. */
+    int skip(int count) {
+      checkAvailable(count);
+      position += count;
+      return position - count;
+    }
+
+    byte[] bytes(int count) {
+      int from = skip(count);
+      return Arrays.copyOfRange(bytes, from, from + count);
+    }
+
+    private void checkAvailable(int count) {
+      if (count < 0 || count > length - position) {
+        throw new IndexOutOfBoundsException("Past the end of the journal block");
+      }
+    }
+  }
+
+  /** The last balances of each account of a block, by index of the account in the segment. */
+  private static final class Balances {
+    // Account index + 1 per slot of the table, 0 for a free one.
+    private int[] keys = new int[1 << 10];
+    private int[] rows = new int[1 << 10];
+    // Available and hold balance per row.
+    private long[] balances = new long[1 << 8];
+    private int size;
+
+    /** The row of {@code account}, added with zero balances if it is new. */
+    int row(int account) {
+      int mask = keys.length - 1;
+      for (int slot = (account * 0x9E3779B9) >>> 8 & mask; ; slot = (slot + 1) & mask) {
+        if (keys[slot] == account + 1) {
+          return rows[slot];
+        }
+        if (keys[slot] == 0) {
+          if (2 * (size + 1) > keys.length) {
+            grow();
+            return row(account);
+          }
+          keys[slot] = account + 1;
+          rows[slot] = size;
+          if (2 * (size + 1) > balances.length) {
+            balances = Arrays.copyOf(balances, balances.length * 2);
+          }
+          return size++;
+        }
+      }
+    }
+
+    long available(int row) {
+      return balances[2 * row];
+    }
+
+    long hold(int row) {
+      return balances[2 * row + 1];
+    }
+
+    void set(int row, long available, long hold) {
+      balances[2 * row] = available;
+      balances[2 * row + 1] = hold;
+    }
+
+    private void grow() {
+      int[] oldKeys = keys;
+      int[] oldRows = rows;
+      keys = new int[oldKeys.length * 2];
+      rows = new int[oldRows.length * 2];
+      int mask = keys.length - 1;
+      for (int old = 0; old < oldKeys.length; old++) {
+        if (oldKeys[old] == 0) {
+          continue;
+        }
+        int slot = ((oldKeys[old] - 1) * 0x9E3779B9) >>> 8 & mask;
+        while (keys[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[old];
+        rows[slot] = oldRows[old];
+      }
+    }
+  }
+
+  /**
+   * Appends the compact form of the frames from index {@code from} to {@code to} of {@code buffer}
+   * to {@code output}, adding their account ids to {@code accounts}.
+   */
+  static void encode(ByteBuffer buffer, int from, int to, Accounts accounts, Output output) {
+    Balances balances = new Balances();
+    long previousTimestamp = 0;
+    int frame = from;
+    while (frame < to) {
+      int record = frame + JournalSegment.FRAME_HEADER_SIZE;
+      long timestamp = JournalCodec.decodeTimestamp(buffer, record);
+      output.putZigzag(timestamp - previousTimestamp);
+      previousTimestamp = timestamp;
+      int account = accounts.indexOf(buffer, record);
+      output.putVarint(account);
+      output.putString(buffer, JournalCodec.idemOffset(record));
+
+      int row = balances.row(account);
+      int entryCount = JournalCodec.entryCount(buffer, record);
+      output.putVarint(entryCount);
+      int entry = JournalCodec.firstEntryOffset(buffer, record);
+      for (int i = 0; i < entryCount; i++) {
+        long amount = JournalCodec.entryAmount(buffer, entry);
+        long available = JournalCodec.entryAvailableBalance(buffer, entry);
+        long hold = JournalCodec.entryHoldBalance(buffer, entry);
+        output.putByte(
+            JournalCodec.entryFlags(buffer, entry)
+                | JournalCodec.entryCurrency(buffer, entry).ordinal() << CURRENCY_SHIFT);
+        output.putZigzag(amount);
+        output.putZigzag(available - balances.available(row));
+        output.putZigzag(hold - balances.hold(row));
+        balances.set(row, available, hold);
+        if (JournalCodec.entryHasHold(buffer, entry)) {
+          output.putString(buffer, JournalCodec.entryHoldIdOffset(entry));
+          output.putByte(JournalCodec.entryHoldType(buffer, entry));
+          output.putZigzag(JournalCodec.entryHoldAmount(buffer, entry) - amount);
+        }
+        entry = JournalCodec.entryEnd(buffer, entry);
+      }
+      frame = record + buffer.getInt(frame);
+    }
+  }
+
+  /**
+   * Rebuilds the frames of the compact form in {@code bytes[0, length)} into {@code frames}, from
+   * index 0 to its capacity.
+   *
+   * @throws IOException if the compact form is not one of exactly that many frame bytes.
+   */
+  static void decode(byte[] bytes, int length, Accounts accounts, ByteBuffer frames)
+      throws IOException {
+    try {
+      decode(new Input(bytes, length), accounts, frames);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Corrupt journal block", e);
+    }
+  }
+
+  private static void decode(Input input, Accounts accounts, ByteBuffer frames) throws IOException {
+    Balances balances = new Balances();
+    CRC32C crc = new CRC32C();
+    long timestamp = 0;
+    int frame = 0;
+    while (!input.isAtEnd()) {
+      timestamp += input.zigzag();
+      int account = (int) input.varint();
+      byte[] accountId = accounts.accountIds.get(account);
+      int idemLength = (int) input.varint();
+      int idemFrom = input.skip(idemLength);
+      int entryCount = (int) input.varint();
+
+      int record = frame + JournalSegment.FRAME_HEADER_SIZE;
+      int cursor = JournalCodec.putRecordStart(frames, record, timestamp, entryCount);
+      cursor = JournalCodec.putStringBytes(frames, cursor, input.bytes, idemFrom, idemLength);
+      cursor = JournalCodec.putStringBytes(frames, cursor, accountId, 0, accountId.length);
+      int row = balances.row(account);
+      for (int i = 0; i < entryCount; i++) {
+        int flags = input.unsignedByte();
+        long amount = input.zigzag();
+        long available = balances.available(row) + input.zigzag();
+        long hold = balances.hold(row) + input.zigzag();
+        balances.set(row, available, hold);
+        cursor =
+            JournalCodec.putEntry(
+                frames,
+                cursor,
+                flags & FLAGS_MASK,
+                (flags & ~FLAGS_MASK) >>> CURRENCY_SHIFT,
+                amount,
+                available,
+                hold);
+        if ((flags & JournalCodec.FLAG_HOLD) != 0) {
+          int holdIdLength = (int) input.varint();
+          int holdIdFrom = input.skip(holdIdLength);
+          cursor =
+              JournalCodec.putStringBytes(frames, cursor, input.bytes, holdIdFrom, holdIdLength);
+          int holdType = input.unsignedByte();
+          cursor = JournalCodec.putHoldEnd(frames, cursor, holdType, amount + input.zigzag());
+        }
+      }
+      int recordSize = cursor - record;
+      crc.reset();
+      crc.update(frames.slice(record, recordSize));
+      frames.putInt(frame, recordSize);
+      frames.putInt(frame + Integer.BYTES, (int) crc.getValue());
+      frame = cursor;
+    }
+    if (frame != frames.capacity()) {
+      throw new IOException("Corrupt journal block: its frames do not fill it");
+    }
+  }
+}
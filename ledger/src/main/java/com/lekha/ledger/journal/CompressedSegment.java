@@ -0,0 +1,355 @@
+package com.lekha.ledger.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A sealed journal segment, compressed in blocks of about {@value #BLOCK_SIZE} bytes of frames.
+ *
+ * <pre>
+ * file:    header  block*  accounts  index
+ * header:  magic:i32  version:i32  segmentId:i64  writePosition:i32  blockCount:i32
+ *          accountsOffset:i64  accountsSize:i32  accountsCompactSize:i32  indexOffset:i64
+ * index:   (start:i32  end:i32  fileOffset:i64  size:i32  compactSize:i32)*
+ * </pre>
+ *
+ * <p>Each block holds the whole frames from offset {@code start} to {@code end} of the segment,
+ * encoded by {@link BlockCodec} into {@code compactSize} bytes and deflated into {@code size} bytes
+ * at {@code fileOffset}. The account ids of all blocks are deflated once, as {@link
+ * BlockCodec.Accounts}. Frames keep their offsets, so the positions of their records do not change
+ * when a segment is compressed.
+ *
+ * <p>Blocks are decompressed on the fly as reads reach them. The last one is kept, as reads mostly
+ * go through consecutive records. Thread-safe.
+ */
+final class CompressedSegment {
+
+  private static final int MAGIC = 0x4C4A5243; // "LJRC"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 48;
+  private static final int INDEX_ENTRY_SIZE = 24;
+  static final int BLOCK_SIZE = 64 << 10;
+
+  private final Path path;
+  private final MappedByteBuffer file;
+  private final int writePosition;
+  private final BlockCodec.Accounts accounts;
+  private final int[] starts;
+  private final int[] ends;
+  private final long[] fileOffsets;
+  private final int[] sizes;
+  private final int[] compactSizes;
+  private volatile FrameRange lastBlock;
+
+  private CompressedSegment(
+      Path path,
+      MappedByteBuffer file,
+      int writePosition,
+      BlockCodec.Accounts accounts,
+      int[] starts,
+      int[] ends,
+      long[] fileOffsets,
+      int[] sizes,
+      int[] compactSizes) {
+    this.path = path;
+    this.file = file;
+    this.writePosition = writePosition;
+    this.accounts = accounts;
+    this.starts = starts;
+    this.ends = ends;
+    this.fileOffsets = fileOffsets;
+    this.sizes = sizes;
+    this.compactSizes = compactSizes;
+  }
+
+  /**
+   * Compresses the frames of a sealed segment, from offset {@code start} to {@code end} of {@code
+   * frames}, into {@code path}. The file is written aside, forced and moved in place, so it is
+   * complete if it exists. Its blocks are decompressed again and compared with the frames before it
+   * is moved.
+   *
+   * @throws IOException if the file cannot be written, or does not read back as the frames.
+   */
+  static CompressedSegment write(Path path, int segmentId, FrameRange frames) throws IOException {
+    Path tmp = temporaryPath(path);
+    ByteBuffer buffer = frames.buffer();
+    int blockCount = 0;
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    long[] fileOffsets = new long[16];
+    int[] sizes = new int[16];
+    int[] compactSizes = new int[16];
+    try (FileChannel channel =
+        FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      BlockCodec.Accounts accounts = new BlockCodec.Accounts();
+      BlockCodec.Output compact = new BlockCodec.Output();
+      Deflater deflater = new Deflater();
+      try {
+        long fileOffset = HEADER_SIZE;
+        int start = frames.start();
+        while (start < frames.end()) {
+          int end = start;
+          while (end < frames.end() && end - start < BLOCK_SIZE) {
+            end += JournalSegment.FRAME_HEADER_SIZE + buffer.getInt(end - frames.base());
+          }
+          compact.clear();
+          BlockCodec.encode(buffer, start - frames.base(), end - frames.base(), accounts, compact);
+          int size = deflate(deflater, compact, channel, fileOffset);
+
+          if (blockCount == starts.length) {
+            int capacity = blockCount * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            fileOffsets = Arrays.copyOf(fileOffsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            compactSizes = Arrays.copyOf(compactSizes, capacity);
+          }
+          starts[blockCount] = start;
+          ends[blockCount] = end;
+          fileOffsets[blockCount] = fileOffset;
+          sizes[blockCount] = size;
+          compactSizes[blockCount] = compact.length();
+          blockCount++;
+          fileOffset += size;
+          start = end;
+        }
+
+        long accountsOffset = fileOffset;
+        compact.clear();
+        accounts.encode(compact);
+        int accountsSize = deflate(deflater, compact, channel, accountsOffset);
+        long indexOffset = accountsOffset + accountsSize;
+        ByteBuffer index =
+            ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int block = 0; block < blockCount; block++) {
+          index
+              .putInt(starts[block])
+              .putInt(ends[block])
+              .putLong(fileOffsets[block])
+              .putInt(sizes[block])
+              .putInt(compactSizes[block]);
+        }
+        writeFully(channel, index.flip(), indexOffset);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header
+            .putInt(MAGIC)
+            .putInt(VERSION)
+            .putLong(segmentId)
+            .putInt(frames.end())
+            .putInt(blockCount)
+            .putLong(accountsOffset)
+            .putInt(accountsSize)
+            .putInt(compact.length())
+            .putLong(indexOffset);
+        writeFully(channel, header.flip(), 0);
+        channel.force(true);
+      } finally {
+        deflater.end();
+      }
+
+      CompressedSegment written = open(tmp, segmentId);
+      for (int block = 0; block < blockCount; block++) {
+        FrameRange decompressed = written.block(block);
+        ByteBuffer original =
+            buffer.slice(starts[block] - frames.base(), ends[block] - starts[block]);
+        if (original.mismatch(decompressed.buffer()) >= 0) {
+          throw new IOException("Compressed block " + block + " does not read back: " + tmp);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    return open(path, segmentId);
+  }
+
+  static CompressedSegment open(Path path, int segmentId) throws IOException {
+    MappedByteBuffer file;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // A mapping stays valid once the channel is closed.
+      file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    file.order(ByteOrder.LITTLE_ENDIAN);
+    if (file.capacity() < HEADER_SIZE
+        || file.getInt(0) != MAGIC
+        || file.getInt(4) != VERSION
+        || file.getLong(8) != segmentId) {
+      throw new IOException("Not a compressed ledger journal segment: " + path);
+    }
+    int writePosition = file.getInt(16);
+    int blockCount = file.getInt(20);
+    long accountsOffset = file.getLong(24);
+    int accountsSize = file.getInt(32);
+    int accountsCompactSize = file.getInt(36);
+    long indexOffset = file.getLong(40);
+    if (blockCount < 0
+        || accountsOffset < HEADER_SIZE
+        || accountsSize < 0
+        || accountsOffset + accountsSize != indexOffset
+        || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE != file.capacity()) {
+      throw new IOException("Corrupt compressed ledger journal segment: " + path);
+    }
+    byte[] accountsBytes =
+        inflate(file, accountsOffset, accountsSize, accountsCompactSize, "accounts", path);
+    BlockCodec.Accounts accounts = BlockCodec.Accounts.decode(accountsBytes, accountsBytes.length);
+    int[] starts = new int[blockCount];
+    int[] ends = new int[blockCount];
+    long[] fileOffsets = new long[blockCount];
+    int[] sizes = new int[blockCount];
+    int[] compactSizes = new int[blockCount];
+    int expectedStart = JournalSegment.HEADER_SIZE;
+    for (int block = 0; block < blockCount; block++) {
+      int entry = (int) indexOffset + block * INDEX_ENTRY_SIZE;
+      starts[block] = file.getInt(entry);
+      ends[block] = file.getInt(entry + 4);
+      fileOffsets[block] = file.getLong(entry + 8);
+      sizes[block] = file.getInt(entry + 16);
+      compactSizes[block] = file.getInt(entry + 20);
+      if (starts[block] != expectedStart
+          || ends[block] <= starts[block]
+          || fileOffsets[block] < HEADER_SIZE
+          || sizes[block] < 0
+          || fileOffsets[block] + sizes[block] > accountsOffset
+          || compactSizes[block] < 0) {
+        throw new IOException("Corrupt compressed ledger journal segment: " + path);
+      }
+      expectedStart = ends[block];
+    }
+    if (expectedStart != writePosition) {
+      throw new IOException("Corrupt compressed ledger journal segment: " + path);
+    }
+    return new CompressedSegment(
+        path, file, writePosition, accounts, starts, ends, fileOffsets, sizes, compactSizes);
+  }
+
+  /** Where {@link #write} writes the file before moving it to {@code path}. */
+  static Path temporaryPath(Path path) {
+    return path.resolveSibling(path.getFileName() + ".tmp");
+  }
+
+  Path path() {
+    return path;
+  }
+
+  /** End of the last frame of the segment when it was compressed. */
+  int writePosition() {
+    return writePosition;
+  }
+
+  /**
+   * The block that holds the frame at {@code offset}, or null if {@code offset} is past the last
+   * frame.
+   *
+   * @throws UncheckedIOException if the block cannot be decompressed.
+   */
+  FrameRange frames(int offset) {
+    if (offset >= writePosition || starts.length == 0) {
+      return null;
+    }
+    FrameRange last = lastBlock;
+    if (last != null && offset >= last.start() && offset < last.end()) {
+      return last;
+    }
+    int block = Arrays.binarySearch(starts, offset);
+    if (block < 0) {
+      // Offsets before the first frame count as in the first block.
+      block = Math.max(-block - 2, 0);
+    }
+    try {
+      FrameRange frames = block(block);
+      lastBlock = frames;
+      return frames;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private FrameRange block(int block) throws IOException {
+    byte[] compact =
+        inflate(
+            file, fileOffsets[block], sizes[block], compactSizes[block], "block " + block, path);
+    ByteBuffer frames =
+        ByteBuffer.allocate(ends[block] - starts[block]).order(ByteOrder.LITTLE_ENDIAN);
+    BlockCodec.decode(compact, compact.length, accounts, frames);
+    return new FrameRange(frames, starts[block], starts[block], ends[block]);
+  }
+
+  /** Deflates {@code compact} into the file at {@code position}, and returns the size written. */
+  private static int deflate(
+      Deflater deflater, BlockCodec.Output compact, FileChannel channel, long position)
+      throws IOException {
+    deflater.reset();
+    deflater.setInput(compact.bytes(), 0, compact.length());
+    deflater.finish();
+    byte[] deflated = new byte[Math.max(compact.length() / 2, 64)];
+    int size = 0;
+    while (!deflater.finished()) {
+      if (size == deflated.length) {
+        deflated = Arrays.copyOf(deflated, deflated.length * 2);
+      }
+      size += deflater.deflate(deflated, size, deflated.length - size);
+    }
+    writeFully(channel, ByteBuffer.wrap(deflated, 0, size), position);
+    return size;
+  }
+
+  /**
+   * Inflates the {@code size} bytes at {@code position} of the file into {@code inflatedSize}.
+   *
+   * @throws IOException if they do not inflate into exactly that many bytes.
+   */
+  private static byte[] inflate(
+      ByteBuffer file, long position, int size, int inflatedSize, String what, Path path)
+      throws IOException {
+    byte[] inflated;
+    Inflater inflater = new Inflater();
+    try {
+      inflated = new byte[inflatedSize];
+      inflater.setInput(file.slice((int) position, size));
+      int length = 0;
+      while (!inflater.finished()) {
+        // Past the expected size, inflating into a spare byte tells a corrupt stream from its end.
+        int more =
+            length < inflated.length
+                ? inflater.inflate(inflated, length, inflated.length - length)
+                : inflater.inflate(new byte[1]);
+        length += more;
+        if (length > inflated.length || (more == 0 && !inflater.finished())) {
+          throw new IOException("Corrupt " + what + " of " + path);
+        }
+      }
+      if (length != inflated.length) {
+        throw new IOException("Corrupt " + what + " of " + path);
+      }
+    } catch (DataFormatException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+      throw new IOException("Corrupt " + what + " of " + path, e);
+    } finally {
+      inflater.end();
+    }
+    return inflated;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer bytes, long position)
+      throws IOException {
+    while (bytes.hasRemaining()) {
+      position += channel.write(bytes, position);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.lekha.ledger.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * How far a consumer of {@link LedgerJournal#changes} got, kept in a file so that it resumes there
+ * after a restart:
+ *
+ * <pre>{@code
+ * DurableCursor cursor = DurableCursor.open(path);
+ * journal.changes(cursor.position(), executor).subscribe(subscriber);
+ * // in the subscriber, once a record is processed:
+ * cursor.commit(record.nextPosition());
+ * }</pre>
+ *
+ * <p>A commit writes a new file, forces it and renames it over the old one, so the file holds one
+ * committed position or the other after a crash. Each commit costs a sync; committing every few
+ * records or milliseconds rather than after each trades that for records processed again after a
+ * restart.
+ */
+public final class DurableCursor {
+
+  private final Path file;
+  private final Path newFile;
+  private volatile long position;
+
+  private DurableCursor(Path file, long position) {
+    this.file = file;
+    this.newFile = file.resolveSibling(file.getFileName() + ".new");
+    this.position = position;
+  }
+
+  /** Opens the cursor in {@code file}, at position 0 if there is none yet. */
+  public static DurableCursor open(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return new DurableCursor(file, 0);
+    }
+    String content = Files.readString(file, StandardCharsets.US_ASCII).trim();
+    try {
+      return new DurableCursor(file, Long.parseUnsignedLong(content, 16));
+    } catch (NumberFormatException e) {
+      throw new IOException("Not a journal cursor: " + file, e);
+    }
+  }
+
+  /** The last committed position. */
+  public long position() {
+    return position;
+  }
+
+  public synchronized void commit(long position) throws IOException {
+    ByteBuffer content =
+        ByteBuffer.wrap(Long.toHexString(position).getBytes(StandardCharsets.US_ASCII));
+    try (FileChannel channel =
+        FileChannel.open(
+            newFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (content.hasRemaining()) {
+        channel.write(content);
+      }
+      channel.force(true);
+    }
+    Files.move(newFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    this.position = position;
+  }
+}
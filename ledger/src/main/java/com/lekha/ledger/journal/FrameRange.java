@@ -0,0 +1,13 @@
+package com.lekha.ledger.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Consecutive frames of a segment, from offset {@code start} to {@code end}, in a buffer that holds
+ * them as the segment file does: the whole mapped file, or one decompressed block of a compressed
+ * segment.
+ *
+ * @param base the segment offset of index 0 of the buffer; the frame at offset {@code o} starts at
+ *     index {@code o - base}.
+ */
+record FrameRange(ByteBuffer buffer, int base, int start, int end) {}
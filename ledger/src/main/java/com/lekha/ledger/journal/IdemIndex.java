@@ -0,0 +1,204 @@
+package com.lekha.ledger.journal;
+
+/**
+ * The idems of the records in the journal, with the position of their record, so that a retried
+ * {@code Ledger} invocation is stored once.
+ *
+ * <p>An idem is kept as a 128-bit fingerprint of the account id and the idem, in an open-addressing
+ * hash table with linear probing of {@code fingerprintHigh, fingerprintLow, position} slots. The
+ * table lives in an {@link OffHeapLongArray} and fingerprints are computed without allocating, so
+ * lookups cost the same and create no garbage however many idems are indexed. Two idems with the
+ * same fingerprint are taken as one; at 10^9 idems the odds of that are below 10^-20.
+ *
+ * <p>Most lookups are for new idems. A blocked Bloom filter, one 64-byte block per lookup and a
+ * twenty-fourth of the size of the table, answers most of them without probing the table.
+ *
+ * <p>The table doubles when it is 70% full. Not thread-safe: the journal uses it under its append
+ * lock.
+ */
+final class IdemIndex {
+
+  private static final int SLOT_LONGS = 3;
+  private static final long INITIAL_CAPACITY = 1 << 16;
+  // Eight bits per slot, so at least 11 bits per idem below the maximum load.
+  private static final int BLOOM_SLOTS_PER_BLOCK = 64;
+  private static final int BLOOM_BLOCK_LONGS = 8;
+  private static final int BLOOM_HASHES = 6;
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private long capacity;
+  private long size;
+  private OffHeapLongArray slots;
+  private long bloomBlocks;
+  private OffHeapLongArray bloom;
+
+  // Result of the last fingerprint() call, kept in fields to avoid allocating one.
+  private long fingerprintHigh;
+  private long fingerprintLow;
+  // State of fingerprint() while it hashes.
+  private long hashHigh;
+  private long hashLow;
+  private long block;
+  private int blockChars;
+
+  IdemIndex() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  long size() {
+    return size;
+  }
+
+  /** Position of the record of {@code idem}, or -1 if there is none. */
+  long find(String accountId, String idem) {
+    fingerprint(accountId, idem);
+    if (!bloomMightContain(fingerprintHigh, fingerprintLow)) {
+      return -1;
+    }
+    long mask = capacity - 1;
+    for (long slot = slotOf(fingerprintHigh) & mask; ; slot = (slot + 1) & mask) {
+      long base = slot * SLOT_LONGS;
+      long high = slots.get(base);
+      long low = slots.get(base + 1);
+      if (high == fingerprintHigh && low == fingerprintLow) {
+        return slots.get(base + 2);
+      }
+      if (high == 0 && low == 0) {
+        return -1;
+      }
+    }
+  }
+
+  /** Records that the record of {@code idem} is at {@code position}; {@code idem} must be new. */
+  void add(String accountId, String idem, long position) {
+    if ((size + 1) * 10 > capacity * 7) {
+      grow();
+    }
+    fingerprint(accountId, idem);
+    insert(fingerprintHigh, fingerprintLow, position);
+    size++;
+  }
+
+  private void insert(long high, long low, long position) {
+    long mask = capacity - 1;
+    long slot = slotOf(high) & mask;
+    while (slots.get(slot * SLOT_LONGS) != 0 || slots.get(slot * SLOT_LONGS + 1) != 0) {
+      slot = (slot + 1) & mask;
+    }
+    long base = slot * SLOT_LONGS;
+    slots.set(base, high);
+    slots.set(base + 1, low);
+    slots.set(base + 2, position);
+    bloomAdd(high, low);
+  }
+
+  private void grow() {
+    long oldCapacity = capacity;
+    OffHeapLongArray oldSlots = slots;
+    allocate(oldCapacity * 2);
+    for (long slot = 0; slot < oldCapacity; slot++) {
+      long base = slot * SLOT_LONGS;
+      long high = oldSlots.get(base);
+      long low = oldSlots.get(base + 1);
+      if (high != 0 || low != 0) {
+        insert(high, low, oldSlots.get(base + 2));
+      }
+    }
+  }
+
+  private void allocate(long newCapacity) {
+    capacity = newCapacity;
+    slots = new OffHeapLongArray(newCapacity * SLOT_LONGS);
+    bloomBlocks = Math.max(1, newCapacity / BLOOM_SLOTS_PER_BLOCK);
+    bloom = new OffHeapLongArray(bloomBlocks * BLOOM_BLOCK_LONGS);
+  }
+
+  // Slots start from the upper half of fingerprintHigh; Bloom blocks from its lower half, and
+  // Bloom bits from fingerprintLow.
+  private static long slotOf(long high) {
+    return Long.rotateLeft(high, 32);
+  }
+
+  private void bloomAdd(long high, long low) {
+    long blockStart = (high & (bloomBlocks - 1)) * BLOOM_BLOCK_LONGS;
+    for (int i = 0; i < BLOOM_HASHES; i++) {
+      int bit = (int) (low >>> (9 * i)) & 511;
+      long word = blockStart + (bit >>> 6);
+      bloom.set(word, bloom.get(word) | (1L << bit));
+    }
+  }
+
+  private boolean bloomMightContain(long high, long low) {
+    long blockStart = (high & (bloomBlocks - 1)) * BLOOM_BLOCK_LONGS;
+    for (int i = 0; i < BLOOM_HASHES; i++) {
+      int bit = (int) (low >>> (9 * i)) & 511;
+      if ((bloom.get(blockStart + (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // MurmurHash3 x64 128-bit style mixing over the UTF-16 chars of the account id, a separator and
+  // the idem.
+  private void fingerprint(String accountId, String idem) {
+    hashHigh = 0;
+    hashLow = 0;
+    block = 0;
+    blockChars = 0;
+    hashChars(accountId);
+    // Not a character, so that "ab" + "c" and "a" + "bc" differ.
+    hashChar('\uFFFF');
+    hashChars(idem);
+    if (blockChars > 0) {
+      mixBlock();
+    }
+    long length = accountId.length() + 1L + idem.length();
+    long high = hashHigh ^ length;
+    long low = hashLow ^ length;
+    high += low;
+    low += high;
+    high = fmix64(high);
+    low = fmix64(low);
+    high += low;
+    low += high;
+    if (high == 0 && low == 0) {
+      // Zero marks empty slots.
+      low = 1;
+    }
+    fingerprintHigh = high;
+    fingerprintLow = low;
+  }
+
+  private void hashChars(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      hashChar(value.charAt(i));
+    }
+  }
+
+  private void hashChar(char c) {
+    block |= (long) c << (16 * blockChars);
+    if (++blockChars == 4) {
+      mixBlock();
+    }
+  }
+
+  private void mixBlock() {
+    long k1 = Long.rotateLeft(block * C1, 31) * C2;
+    hashHigh = (Long.rotateLeft(hashHigh ^ k1, 27) + hashLow) * 5 + 0x52dce729;
+    long k2 = Long.rotateLeft(block * C2, 33) * C1;
+    hashLow = (Long.rotateLeft(hashLow ^ k2, 31) + hashHigh) * 5 + 0x38495ab5;
+    block = 0;
+    blockChars = 0;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -0,0 +1,411 @@
+package com.lekha.ledger.journal;
+
+import com.lekha.account.Account;
+import com.lekha.ledger.Ledger;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Layout of one journal record, written straight into the mapped segment.
+ *
+ * <pre>
+ * record:  timestamp:i64  entryCount:u16  idem:str  accountId:str  entry*
+ * entry:   flags:u8  currency:u8  amount:i64  availableBalance:i64  holdBalance:i64  [hold]
+ * hold:    holdId:str  holdType:u8  holdBalance:i64
+ * str:     length:u16  utf8 bytes
+ * </pre>
+ *
+ * <p>Flags hold the operation, as a credit bit and a shard transfer bit, and whether the entry has
+ * a hold. The shard transfer bit is the high one, clear in entries written before it existed. All
+ * amounts of an entry share its currency and must fit in a {@code long}. Entries are stored without
+ * their account id, which is the one of the record, and without metadata, which has no fields yet.
+ * Currencies and hold types are stored by ordinal, like in the account state.
+ */
+final class JournalCodec {
+
+  private static final Currency[] CURRENCIES = Currency.values();
+  private static final Account.HoldType[] HOLD_TYPES = Account.HoldType.values();
+  private static final Ledger.Operation[] OPERATIONS = Ledger.Operation.values();
+
+  private static final int FLAG_CREDIT = 0x01;
+  static final int FLAG_HOLD = 0x02;
+  static final int FLAG_SHARD_TRANSFER = 0x80;
+
+  private static final int RECORD_FIXED_SIZE = Long.BYTES + Short.BYTES;
+  private static final int ENTRY_FIXED_SIZE = 2 + 3 * Long.BYTES;
+  private static final int HOLD_FIXED_SIZE = 1 + Long.BYTES;
+  private static final int MAX_STRING_LENGTH = 0xFFFF;
+  private static final int MAX_ENTRIES = 0xFFFF;
+
+  private JournalCodec() {}
+
+  /**
+   * Bytes {@link #encode} will write.
+   *
+   * @throws IllegalArgumentException if the record does not fit the layout.
+   */
+  static int encodedSize(String idem, String accountId, List<Ledger.Entry> entries) {
+    if (entries.size() > MAX_ENTRIES) {
+      throw new IllegalArgumentException(
+          "Too many entries in one ledger record: " + entries.size());
+    }
+    int size = RECORD_FIXED_SIZE + stringSize(idem) + stringSize(accountId);
+    for (Ledger.Entry entry : entries) {
+      checkAmounts(entry);
+      size += ENTRY_FIXED_SIZE;
+      if (entry.holdSummary().isPresent()) {
+        size += stringSize(entry.holdSummary().get().holdId()) + HOLD_FIXED_SIZE;
+      }
+    }
+    return size;
+  }
+
+  /** Writes the record at {@code offset} with absolute puts, leaving the buffer position alone. */
+  static void encode(
+      ByteBuffer buffer,
+      int offset,
+      String idem,
+      long timestamp,
+      String accountId,
+      List<Ledger.Entry> entries) {
+    int position = putRecordStart(buffer, offset, timestamp, entries.size());
+    position = putString(buffer, position, idem);
+    position = putString(buffer, position, accountId);
+    for (Ledger.Entry entry : entries) {
+      Optional<Account.HoldSummary> holdSummary = entry.holdSummary();
+      int flags = operationFlags(entry.operation());
+      if (holdSummary.isPresent()) {
+        flags |= FLAG_HOLD;
+      }
+      Account.AccountBalances balances = entry.accountSummary().balances();
+      position =
+          putEntry(
+              buffer,
+              position,
+              flags,
+              entry.amount().currency().ordinal(),
+              entry.amount().longAmountInMinorUnits(),
+              balances.availableBalance().longAmountInMinorUnits(),
+              balances.holdBalance().longAmountInMinorUnits());
+      if (holdSummary.isPresent()) {
+        position = putString(buffer, position, holdSummary.get().holdId());
+        position =
+            putHoldEnd(
+                buffer,
+                position,
+                holdSummary.get().holdType().ordinal(),
+                holdSummary.get().balance().longAmountInMinorUnits());
+      }
+    }
+  }
+
+  // Writers of the fields of a record, for records that are not encoded from a Ledger.Entry but
+  // rebuilt from another layout, see BlockCodec. Each returns the position after what it wrote.
+
+  static int putRecordStart(ByteBuffer buffer, int offset, long timestamp, int entryCount) {
+    buffer.putLong(offset, timestamp);
+    buffer.putShort(offset + Long.BYTES, (short) entryCount);
+    return offset + RECORD_FIXED_SIZE;
+  }
+
+  static int putEntry(
+      ByteBuffer buffer,
+      int position,
+      int flags,
+      int currency,
+      long amount,
+      long availableBalance,
+      long holdBalance) {
+    buffer.put(position, (byte) flags);
+    buffer.put(position + 1, (byte) currency);
+    buffer.putLong(position + 2, amount);
+    buffer.putLong(position + 10, availableBalance);
+    buffer.putLong(position + 18, holdBalance);
+    return position + ENTRY_FIXED_SIZE;
+  }
+
+  /** Writes the fields of a hold after its id. */
+  static int putHoldEnd(ByteBuffer buffer, int position, int holdType, long holdBalance) {
+    buffer.put(position, (byte) holdType);
+    buffer.putLong(position + 1, holdBalance);
+    return position + HOLD_FIXED_SIZE;
+  }
+
+  /** Writes a string from its UTF-8 bytes. */
+  static int putStringBytes(ByteBuffer buffer, int position, byte[] bytes, int from, int length) {
+    buffer.putShort(position, (short) length);
+    buffer.put(position + Short.BYTES, bytes, from, length);
+    return position + Short.BYTES + length;
+  }
+
+  static JournalRecord decode(ByteBuffer buffer, int offset, long position) {
+    int cursor = offset;
+    long timestamp = buffer.getLong(cursor);
+    int entryCount = Short.toUnsignedInt(buffer.getShort(cursor + Long.BYTES));
+    cursor += RECORD_FIXED_SIZE;
+    String idem = getString(buffer, cursor);
+    cursor = stringEnd(buffer, cursor);
+    String accountId = getString(buffer, cursor);
+    cursor = stringEnd(buffer, cursor);
+
+    List<Ledger.Entry> entries = new ArrayList<>(entryCount);
+    for (int i = 0; i < entryCount; i++) {
+      int flags = buffer.get(cursor);
+      Currency currency = CURRENCIES[buffer.get(cursor + 1)];
+      Money amount = Money.of(currency, buffer.getLong(cursor + 2));
+      Account.AccountSummary accountSummary =
+          new Account.AccountSummary(
+              accountId,
+              new Account.AccountBalances(
+                  Money.of(currency, buffer.getLong(cursor + 10)),
+                  Money.of(currency, buffer.getLong(cursor + 18))));
+      cursor += ENTRY_FIXED_SIZE;
+      Optional<Account.HoldSummary> holdSummary = Optional.empty();
+      if ((flags & FLAG_HOLD) != 0) {
+        String holdId = getString(buffer, cursor);
+        cursor = stringEnd(buffer, cursor);
+        holdSummary =
+            Optional.of(
+                new Account.HoldSummary(
+                    holdId,
+                    HOLD_TYPES[buffer.get(cursor)],
+                    Money.of(currency, buffer.getLong(cursor + 1))));
+        cursor += HOLD_FIXED_SIZE;
+      }
+      entries.add(
+          new Ledger.Entry(
+              operation(flags),
+              amount,
+              accountSummary,
+              holdSummary,
+              new Account.OperationMetadata()));
+    }
+    return new JournalRecord(position, idem, timestamp, accountId, List.copyOf(entries));
+  }
+
+  static long decodeTimestamp(ByteBuffer buffer, int offset) {
+    return buffer.getLong(offset);
+  }
+
+  /** Whether the record at {@code offset} is of {@code accountId}, without decoding it. */
+  static boolean hasAccountId(ByteBuffer buffer, int offset, String accountId) {
+    return stringEquals(buffer, accountIdOffset(buffer, offset), accountId);
+  }
+
+  // Accessors for reading records in place, see RecordCursor.
+
+  static int entryCount(ByteBuffer buffer, int offset) {
+    return Short.toUnsignedInt(buffer.getShort(offset + Long.BYTES));
+  }
+
+  static int accountIdOffset(ByteBuffer buffer, int offset) {
+    return stringEnd(buffer, offset + RECORD_FIXED_SIZE);
+  }
+
+  static int firstEntryOffset(ByteBuffer buffer, int offset) {
+    return stringEnd(buffer, accountIdOffset(buffer, offset));
+  }
+
+  static int entryEnd(ByteBuffer buffer, int entryOffset) {
+    int end = entryOffset + ENTRY_FIXED_SIZE;
+    return entryHasHold(buffer, entryOffset) ? stringEnd(buffer, end) + HOLD_FIXED_SIZE : end;
+  }
+
+  /** The operation and hold flags of the entry. */
+  static int entryFlags(ByteBuffer buffer, int entryOffset) {
+    return Byte.toUnsignedInt(buffer.get(entryOffset));
+  }
+
+  static Ledger.Operation entryOperation(ByteBuffer buffer, int entryOffset) {
+    return operation(buffer.get(entryOffset));
+  }
+
+  private static int operationFlags(Ledger.Operation operation) {
+    return (operation.isCredit() ? FLAG_CREDIT : 0)
+        | (operation.isShardTransfer() ? FLAG_SHARD_TRANSFER : 0);
+  }
+
+  private static Ledger.Operation operation(int flags) {
+    return OPERATIONS[(flags & FLAG_CREDIT) | ((flags & FLAG_SHARD_TRANSFER) != 0 ? 2 : 0)];
+  }
+
+  static boolean entryHasHold(ByteBuffer buffer, int entryOffset) {
+    return (buffer.get(entryOffset) & FLAG_HOLD) != 0;
+  }
+
+  static Currency entryCurrency(ByteBuffer buffer, int entryOffset) {
+    return CURRENCIES[buffer.get(entryOffset + 1)];
+  }
+
+  static long entryAmount(ByteBuffer buffer, int entryOffset) {
+    return buffer.getLong(entryOffset + 2);
+  }
+
+  static long entryAvailableBalance(ByteBuffer buffer, int entryOffset) {
+    return buffer.getLong(entryOffset + 10);
+  }
+
+  static long entryHoldBalance(ByteBuffer buffer, int entryOffset) {
+    return buffer.getLong(entryOffset + 18);
+  }
+
+  static int entryHoldIdOffset(int entryOffset) {
+    return entryOffset + ENTRY_FIXED_SIZE;
+  }
+
+  static int entryHoldType(ByteBuffer buffer, int entryOffset) {
+    return buffer.get(stringEnd(buffer, entryHoldIdOffset(entryOffset)));
+  }
+
+  static long entryHoldAmount(ByteBuffer buffer, int entryOffset) {
+    return buffer.getLong(stringEnd(buffer, entryHoldIdOffset(entryOffset)) + 1);
+  }
+
+  static int idemOffset(int offset) {
+    return offset + RECORD_FIXED_SIZE;
+  }
+
+  /** Length of the UTF-8 bytes of the string at {@code offset}, which follow its length. */
+  static int stringLength(ByteBuffer buffer, int offset) {
+    return Short.toUnsignedInt(buffer.getShort(offset));
+  }
+
+  /** Whether the string at {@code offset} is {@code value}, without decoding it. */
+  static boolean stringEquals(ByteBuffer buffer, int offset, String value) {
+    int length = Short.toUnsignedInt(buffer.getShort(offset));
+    if (length < value.length()) {
+      return false;
+    }
+    int start = offset + Short.BYTES;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        // Ids are ASCII in practice.
+        return value.equals(getString(buffer, offset));
+      }
+      if (buffer.get(start + i) != (byte) c) {
+        return false;
+      }
+    }
+    return length == value.length();
+  }
+
+  /** 64-bit hash of the bytes of the string at {@code offset}, without decoding it. */
+  static long stringHash(ByteBuffer buffer, int offset) {
+    int length = Short.toUnsignedInt(buffer.getShort(offset));
+    int start = offset + Short.BYTES;
+    // FNV-1a, finished with the MurmurHash3 mix so that all bits depend on every byte.
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      hash = (hash ^ (buffer.get(start + i) & 0xFF)) * 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** Reads the account id of the record at {@code offset}, without decoding its entries. */
+  static String decodeAccountId(ByteBuffer buffer, int offset) {
+    return getString(buffer, accountIdOffset(buffer, offset));
+  }
+
+  /** Reads the idem of the record at {@code offset}, without decoding its entries. */
+  static String decodeIdem(ByteBuffer buffer, int offset) {
+    return getString(buffer, offset + RECORD_FIXED_SIZE);
+  }
+
+  private static void checkAmounts(Ledger.Entry entry) {
+    Currency currency = entry.amount().currency();
+    Account.AccountBalances balances = entry.accountSummary().balances();
+    checkAmount(entry.amount(), currency);
+    checkAmount(balances.availableBalance(), currency);
+    checkAmount(balances.holdBalance(), currency);
+    entry.holdSummary().ifPresent(holdSummary -> checkAmount(holdSummary.balance(), currency));
+  }
+
+  private static void checkAmount(Money money, Currency currency) {
+    if (money.currency() != currency) {
+      throw new IllegalArgumentException(
+          "Ledger entry mixes currencies " + currency + " and " + money.currency());
+    }
+    if (!money.isLongAmount()) {
+      throw new IllegalArgumentException("Ledger entry amount does not fit in a long: " + money);
+    }
+  }
+
+  private static int stringSize(String value) {
+    int length = utf8Length(value);
+    if (length > MAX_STRING_LENGTH) {
+      throw new IllegalArgumentException("String too long for the ledger journal: " + length);
+    }
+    return Short.BYTES + length;
+  }
+
+  private static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  // Encodes without an intermediate byte array; ids are ASCII in practice.
+  private static int putString(ByteBuffer buffer, int position, String value) {
+    int start = position + Short.BYTES;
+    int cursor = start;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer.put(cursor++, (byte) c);
+      } else if (c < 0x800) {
+        buffer.put(cursor++, (byte) (0xC0 | (c >> 6)));
+        buffer.put(cursor++, (byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer.put(cursor++, (byte) (0xF0 | (codePoint >> 18)));
+        buffer.put(cursor++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        buffer.put(cursor++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        buffer.put(cursor++, (byte) (0x80 | (codePoint & 0x3F)));
+      } else {
+        buffer.put(cursor++, (byte) (0xE0 | (c >> 12)));
+        buffer.put(cursor++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+        buffer.put(cursor++, (byte) (0x80 | (c & 0x3F)));
+      }
+    }
+    buffer.putShort(position, (short) (cursor - start));
+    return cursor;
+  }
+
+  private static int stringEnd(ByteBuffer buffer, int position) {
+    return position + Short.BYTES + Short.toUnsignedInt(buffer.getShort(position));
+  }
+
+  static String getString(ByteBuffer buffer, int position) {
+    int length = Short.toUnsignedInt(buffer.getShort(position));
+    byte[] bytes = new byte[length];
+    buffer.get(position + Short.BYTES, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
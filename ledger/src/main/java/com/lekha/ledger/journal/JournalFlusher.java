@@ -0,0 +1,166 @@
+package com.lekha.ledger.journal;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Group commit of journal appends: a dedicated thread forces the records of all waiting appends
+ * with one {@code force()} once {@code maxEntries} of them wait or the oldest one waited {@code
+ * maxDelay}, then wakes them up.
+ *
+ * <p>Appends are identified by their sequence number, 1 for the first append of the journal. The
+ * force callback forces every record appended so far and returns the sequence number of the last
+ * one.
+ *
+ * <p>A failed force is final: the pages it did not write may be dropped by the OS, so nothing
+ * appended can be acknowledged anymore and every later wait fails too.
+ */
+final class JournalFlusher implements AutoCloseable {
+
+  private final int maxEntries;
+  private final long maxDelayNanos;
+  private final LongSupplier forceAppended;
+  private final Thread thread;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition flushRequested = lock.newCondition();
+  private final Condition flushed = lock.newCondition();
+  // Guarded by lock.
+  private long requestedSequence;
+  private long durableSequence;
+  private long waitingSinceNanos;
+  private RuntimeException failure;
+  private boolean closed;
+
+  JournalFlusher(LedgerJournal.Durability.GroupCommit policy, LongSupplier forceAppended) {
+    this.maxEntries = policy.maxEntries();
+    this.maxDelayNanos = policy.maxDelay().toNanos();
+    this.forceAppended = forceAppended;
+    this.thread = Thread.ofPlatform().name("ledger-journal-flusher").daemon().unstarted(this::run);
+    this.thread.start();
+  }
+
+  /**
+   * Blocks until the append with sequence number {@code sequence} is on disk.
+   *
+   * @throws UncheckedIOException if the journal could not be forced.
+   */
+  void awaitDurable(long sequence) {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("Ledger journal is closed");
+      }
+      if (sequence > requestedSequence) {
+        boolean groupStarted = requestedSequence == durableSequence;
+        if (groupStarted) {
+          waitingSinceNanos = System.nanoTime();
+        }
+        requestedSequence = sequence;
+        if (groupStarted || requestedSequence - durableSequence >= maxEntries) {
+          // The idle flusher starts waiting for the deadline of the group, or a full group is
+          // forced right away.
+          flushRequested.signal();
+        }
+      }
+      while (durableSequence < sequence) {
+        if (failure != null) {
+          throw failure;
+        }
+        // Appends that wait when the flusher is closed are still forced before it stops.
+        flushed.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Forces the records of the appends still waiting and stops the flusher thread. */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      flushRequested.signal();
+    } finally {
+      lock.unlock();
+    }
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (awaitGroup()) {
+      long sequence = 0;
+      RuntimeException forceFailure = null;
+      try {
+        // Appends carry on while the group is forced; they make up the next group.
+        sequence = forceAppended.getAsLong();
+      } catch (RuntimeException e) {
+        forceFailure = e;
+      }
+      lock.lock();
+      try {
+        if (forceFailure != null) {
+          failure = forceFailure;
+        } else if (sequence > durableSequence) {
+          durableSequence = sequence;
+        }
+        if (requestedSequence > durableSequence) {
+          // Appended while the previous group was forced; their wait starts now.
+          waitingSinceNanos = System.nanoTime();
+        }
+        flushed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Waits until there is a group to force.
+   *
+   * @return false once the flusher is closed and nothing waits anymore.
+   */
+  private boolean awaitGroup() {
+    lock.lock();
+    try {
+      while (failure == null && requestedSequence == durableSequence) {
+        if (closed) {
+          return false;
+        }
+        flushRequested.awaitUninterruptibly();
+      }
+      if (failure != null) {
+        flushed.signalAll();
+        return false;
+      }
+      long deadline = waitingSinceNanos + maxDelayNanos;
+      while (!closed && requestedSequence - durableSequence < maxEntries) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        try {
+          flushRequested.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          // Only close() stops the flusher.
+        }
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.lekha.ledger.journal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only view of the journal in a directory, for jobs that read all of it outside the ledger
+ * process, such as reconciliation. It sees the records that were complete when it was opened; the
+ * ledger may keep appending meanwhile.
+ *
+ * <p>Segments are read through independent {@link RecordCursor}s, so they may be read in parallel.
+ * Compressed segments are decompressed block by block as the cursors go.
+ */
+public final class JournalReader implements AutoCloseable {
+
+  private final List<JournalSegment> segments;
+
+  private JournalReader(List<JournalSegment> segments) {
+    this.segments = segments;
+  }
+
+  public static JournalReader open(Path directory) throws IOException {
+    List<JournalSegment> segments = new ArrayList<>();
+    try {
+      for (int segmentId : LedgerJournal.segmentIds(directory)) {
+        segments.add(openSegment(directory, segmentId));
+      }
+    } catch (IOException e) {
+      for (JournalSegment segment : segments) {
+        segment.close();
+      }
+      throw e;
+    }
+    return new JournalReader(segments);
+  }
+
+  private static JournalSegment openSegment(Path directory, int segmentId) throws IOException {
+    Path compressedPath = LedgerJournal.compressedSegmentPath(directory, segmentId);
+    if (!Files.exists(compressedPath)) {
+      try {
+        return JournalSegment.openReadOnly(
+            LedgerJournal.segmentPath(directory, segmentId), segmentId);
+      } catch (NoSuchFileException e) {
+        // Compressed by the ledger meanwhile.
+      }
+    }
+    return JournalSegment.openCompressed(compressedPath, segmentId);
+  }
+
+  public int segmentCount() {
+    return segments.size();
+  }
+
+  /** A new cursor over the records of the {@code index}-th segment, in journal order. */
+  public RecordCursor cursor(int index) {
+    return segments.get(index).cursor();
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (JournalSegment segment : segments) {
+      segment.close();
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package com.lekha.ledger.journal;
+
+import com.lekha.ledger.Ledger;
+import java.util.List;
+
+/**
+ * One record of the {@link LedgerJournal}: the entries one {@code Ledger} invocation stored.
+ *
+ * @param position where the record starts, see {@link LedgerJournal#append}.
+ * @param timestamp a {@link com.lekha.clock.HybridLogicalClock} timestamp. The journal only
+ *     compares them, and keeps the ones it is given even when they go backwards.
+ */
+public record JournalRecord(
+    long position, String idem, long timestamp, String accountId, List<Ledger.Entry> entries) {}
@@ -0,0 +1,390 @@
+package com.lekha.ledger.journal;
+
+import com.lekha.ledger.Ledger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+/**
+ * One preallocated, memory-mapped journal file.
+ *
+ * <p>After a small header, the file holds frames of {@code length:i32 crc32c:i32 record}, where the
+ * checksum covers the record bytes. The rest of the file is zeros, so a zero length marks the end.
+ * A frame is written record first and length last; a frame cut short by a crash has a length that
+ * runs past the file or a checksum that does not match, and is dropped by {@link #open}. Only the
+ * segment appended to can hold such a frame: a full segment is forced before the next one is
+ * created, so {@link #openSealed} reports a bad frame in it as corruption.
+ *
+ * <p>Appends must be serialized by the caller. Scans may run concurrently with them and see the
+ * frames appended before they started.
+ *
+ * <p>Once full, a segment may be compressed into a {@link CompressedSegment}, which replaces the
+ * file and the mapping. Reads find the frames at the same offsets either way, as {@link
+ * FrameRange}s, and may run concurrently with the compression.
+ */
+final class JournalSegment implements AutoCloseable {
+
+  private static final int MAGIC = 0x4C4A524E; // "LJRN"
+  private static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int FRAME_HEADER_SIZE = 2 * Integer.BYTES;
+
+  private final int id;
+  private final Path path;
+  private final FileChannel channel;
+  // Null once compressed, so that the mapping of the deleted file goes away with its last reader.
+  private volatile MappedByteBuffer buffer;
+  // Set before buffer is cleared.
+  private volatile CompressedSegment compressed;
+  private final CRC32C crc = new CRC32C();
+  // End of the last complete frame; published to scans.
+  private volatile int writePosition;
+  // Guarded by this.
+  private int forcedPosition;
+
+  private JournalSegment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+    this.id = id;
+    this.path = path;
+    this.channel = channel;
+    this.buffer = buffer;
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private JournalSegment(int id, CompressedSegment compressed) {
+    this.id = id;
+    this.path = compressed.path();
+    this.channel = null;
+    this.compressed = compressed;
+    this.writePosition = compressed.writePosition();
+  }
+
+  static JournalSegment create(Path path, int id, int size) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    JournalSegment segment = new JournalSegment(id, path, channel, buffer);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putLong(8, id);
+    segment.writePosition = HEADER_SIZE;
+    return segment;
+  }
+
+  /** Maps an existing file and truncates it after its last complete frame. */
+  static JournalSegment open(Path path, int id) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    JournalSegment segment = map(path, id, channel, FileChannel.MapMode.READ_WRITE);
+    segment.recover();
+    return segment;
+  }
+
+  /**
+   * Maps an existing full segment read-only. Its frames are checked up to the first zero length,
+   * and the rest of the file is left alone.
+   *
+   * @throws IOException if a frame is cut short or does not match its checksum.
+   */
+  static JournalSegment openSealed(Path path, int id) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    JournalSegment segment = map(path, id, channel, FileChannel.MapMode.READ_ONLY);
+    int offset = HEADER_SIZE;
+    for (int recordSize = segment.frameAt(offset);
+        recordSize != 0;
+        recordSize = segment.frameAt(offset)) {
+      if (recordSize < 0) {
+        segment.close();
+        throw new IOException(
+            "Corrupt frame at offset " + offset + " of sealed ledger journal segment " + path);
+      }
+      offset += FRAME_HEADER_SIZE + recordSize;
+    }
+    segment.writePosition = offset;
+    return segment;
+  }
+
+  /**
+   * Maps an existing file for reading the frames it holds now, up to its last complete frame. The
+   * file may be appended to meanwhile by the process that has the journal open.
+   */
+  static JournalSegment openReadOnly(Path path, int id) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    JournalSegment segment = map(path, id, channel, FileChannel.MapMode.READ_ONLY);
+    segment.writePosition = segment.lastFrameEnd();
+    return segment;
+  }
+
+  /** Opens a segment compressed by {@link #compress}. */
+  static JournalSegment openCompressed(Path path, int id) throws IOException {
+    return new JournalSegment(id, CompressedSegment.open(path, id));
+  }
+
+  private static JournalSegment map(
+      Path path, int id, FileChannel channel, FileChannel.MapMode mode) throws IOException {
+    MappedByteBuffer buffer = channel.map(mode, 0, channel.size());
+    JournalSegment segment = new JournalSegment(id, path, channel, buffer);
+    if (buffer.capacity() < HEADER_SIZE
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION
+        || buffer.getLong(8) != id) {
+      segment.close();
+      throw new IOException("Not a ledger journal segment: " + path);
+    }
+    return segment;
+  }
+
+  int id() {
+    return id;
+  }
+
+  Path path() {
+    return path;
+  }
+
+  int writePosition() {
+    return writePosition;
+  }
+
+  boolean isCompressed() {
+    return compressed != null;
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @return the offset of its frame, or -1 when the segment has no room left for it.
+   */
+  int tryAppend(
+      int recordSize, String idem, long timestamp, String accountId, List<Ledger.Entry> entries) {
+    // Only full segments are compressed, so the mapping is there.
+    MappedByteBuffer buffer = this.buffer;
+    int offset = writePosition;
+    if (offset + FRAME_HEADER_SIZE + recordSize > buffer.capacity()) {
+      return -1;
+    }
+    int recordOffset = offset + FRAME_HEADER_SIZE;
+    JournalCodec.encode(buffer, recordOffset, idem, timestamp, accountId, entries);
+    crc.reset();
+    crc.update(buffer.slice(recordOffset, recordSize));
+    buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+    buffer.putInt(offset, recordSize);
+    writePosition = recordOffset + recordSize;
+    return offset;
+  }
+
+  /**
+   * Passes the records from {@code fromOffset} to the end of the segment to {@code visitor} until
+   * it returns false.
+   *
+   * @return false if the visitor stopped the scan.
+   */
+  boolean scan(int fromOffset, Predicate<JournalRecord> visitor) {
+    int offset = Math.max(fromOffset, HEADER_SIZE);
+    for (FrameRange frames = frames(offset); frames != null; frames = frames(offset)) {
+      ByteBuffer framesBuffer = frames.buffer();
+      while (offset < frames.end()) {
+        int index = offset - frames.base();
+        JournalRecord record =
+            JournalCodec.decode(
+                framesBuffer, index + FRAME_HEADER_SIZE, LedgerJournal.position(id, offset));
+        if (!visitor.test(record)) {
+          return false;
+        }
+        offset += FRAME_HEADER_SIZE + framesBuffer.getInt(index);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Passes the records of {@code accountId} with a timestamp in {@code [from, to)} among the frames
+   * from {@code startOffset} to {@code lastOffset} to {@code visitor}, until it returns false. The
+   * records of other accounts are skipped without decoding them.
+   *
+   * @param startOffset the offset of a frame.
+   * @return the offset of the record the visitor returned false for, or -1.
+   */
+  int scanAccount(
+      int startOffset,
+      int lastOffset,
+      String accountId,
+      long from,
+      long to,
+      Predicate<JournalRecord> visitor) {
+    int offset = startOffset;
+    for (FrameRange frames = frames(offset);
+        frames != null && offset <= lastOffset;
+        frames = frames(offset)) {
+      ByteBuffer framesBuffer = frames.buffer();
+      while (offset < frames.end() && offset <= lastOffset) {
+        int recordOffset = offset - frames.base() + FRAME_HEADER_SIZE;
+        long timestamp = JournalCodec.decodeTimestamp(framesBuffer, recordOffset);
+        if (timestamp >= from
+            && timestamp < to
+            && JournalCodec.hasAccountId(framesBuffer, recordOffset, accountId)
+            && !visitor.test(
+                JournalCodec.decode(
+                    framesBuffer, recordOffset, LedgerJournal.position(id, offset)))) {
+          return offset;
+        }
+        offset += FRAME_HEADER_SIZE + framesBuffer.getInt(recordOffset - FRAME_HEADER_SIZE);
+      }
+    }
+    return -1;
+  }
+
+  /** A cursor over the records of the segment, from its first to its current last one. */
+  RecordCursor cursor() {
+    return new RecordCursor(this);
+  }
+
+  /** A view of the record of the frame at {@code offset}. */
+  RecordView view(int offset) {
+    FrameRange frames = frames(offset);
+    return new RecordView(frames.buffer(), id, frames.base(), offset);
+  }
+
+  /**
+   * The frames around {@code offset}: a range that holds the frame at it, or null if {@code offset}
+   * is past the last frame. The whole segment while it is mapped, a decompressed block once it is
+   * compressed.
+   *
+   * @throws java.io.UncheckedIOException if the block cannot be decompressed.
+   */
+  FrameRange frames(int offset) {
+    MappedByteBuffer mapped = buffer;
+    if (mapped == null) {
+      return compressed.frames(offset);
+    }
+    int end = writePosition;
+    return offset < end ? new FrameRange(mapped, 0, HEADER_SIZE, end) : null;
+  }
+
+  /** Whether a complete frame starts at {@code offset}, for offsets that come from outside. */
+  boolean isFrameAt(int offset) {
+    FrameRange frames = offset < HEADER_SIZE ? null : frames(offset);
+    if (frames == null) {
+      return false;
+    }
+    ByteBuffer framesBuffer = frames.buffer();
+    int index = offset - frames.base();
+    int end = frames.end() - frames.base();
+    if (index > end - FRAME_HEADER_SIZE) {
+      return false;
+    }
+    int recordSize = framesBuffer.getInt(index);
+    if (recordSize <= 0 || recordSize > end - index - FRAME_HEADER_SIZE) {
+      return false;
+    }
+    CRC32C frameCrc = new CRC32C();
+    frameCrc.update(framesBuffer.slice(index + FRAME_HEADER_SIZE, recordSize));
+    return (int) frameCrc.getValue() == framesBuffer.getInt(index + Integer.BYTES);
+  }
+
+  /** Adds the records of the segment to the indexes of the journal. */
+  void index(IdemIndex idems, StatementIndex statements, BalanceCheckpoints checkpoints) {
+    int offset = HEADER_SIZE;
+    for (FrameRange frames = frames(offset); frames != null; frames = frames(offset)) {
+      ByteBuffer framesBuffer = frames.buffer();
+      while (offset < frames.end()) {
+        int recordOffset = offset - frames.base() + FRAME_HEADER_SIZE;
+        String accountId = JournalCodec.decodeAccountId(framesBuffer, recordOffset);
+        long position = LedgerJournal.position(id, offset);
+        long timestamp = JournalCodec.decodeTimestamp(framesBuffer, recordOffset);
+        idems.add(accountId, JournalCodec.decodeIdem(framesBuffer, recordOffset), position);
+        statements.add(accountId, timestamp, position);
+        checkpoints.add(accountId, timestamp, position);
+        offset += FRAME_HEADER_SIZE + framesBuffer.getInt(recordOffset - FRAME_HEADER_SIZE);
+      }
+    }
+  }
+
+  /**
+   * Compresses the segment into {@code compressedPath}, then reads it from there and deletes the
+   * mapped file. The segment must be full and forced, so that it does not change anymore.
+   *
+   * @throws IOException if the segment could not be compressed; it is left as it was.
+   */
+  void compress(Path compressedPath) throws IOException {
+    FrameRange frames = frames(HEADER_SIZE);
+    if (frames == null) {
+      frames = new FrameRange(buffer, 0, HEADER_SIZE, HEADER_SIZE);
+    }
+    compressed = CompressedSegment.write(compressedPath, id, frames);
+    buffer = null;
+    channel.close();
+    // Reads that got the mapping before go on with it; the file is gone once they are done.
+    Files.delete(path);
+  }
+
+  /** Forces the frames up to {@code end} to disk, unless an earlier call already did. */
+  synchronized void force(int end) {
+    MappedByteBuffer buffer = this.buffer;
+    if (buffer != null && end > forcedPosition) {
+      // Only the range written since the last force, instead of every page of the mapping.
+      buffer.force(forcedPosition, end - forcedPosition);
+      forcedPosition = end;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  private void recover() {
+    MappedByteBuffer buffer = this.buffer;
+    int offset = lastFrameEnd();
+    // Zero whatever a torn frame left behind, so that the next append starts from clean space.
+    int position = offset;
+    for (; position + Long.BYTES <= buffer.capacity(); position += Long.BYTES) {
+      if (buffer.getLong(position) != 0) {
+        buffer.putLong(position, 0);
+      }
+    }
+    for (; position < buffer.capacity(); position++) {
+      buffer.put(position, (byte) 0);
+    }
+    writePosition = offset;
+  }
+
+  /** End of the last frame that is complete and follows complete frames only. */
+  private int lastFrameEnd() {
+    int offset = HEADER_SIZE;
+    for (int recordSize = frameAt(offset); recordSize > 0; recordSize = frameAt(offset)) {
+      offset += FRAME_HEADER_SIZE + recordSize;
+    }
+    return offset;
+  }
+
+  /**
+   * The record size of the frame at {@code offset}: 0 at the end of the frames, -1 if the frame is
+   * cut short or does not match its checksum.
+   */
+  private int frameAt(int offset) {
+    MappedByteBuffer buffer = this.buffer;
+    if (offset + FRAME_HEADER_SIZE > buffer.capacity()) {
+      return 0;
+    }
+    int recordSize = buffer.getInt(offset);
+    if (recordSize == 0) {
+      return 0;
+    }
+    if (recordSize < 0 || recordSize > buffer.capacity() - offset - FRAME_HEADER_SIZE) {
+      return -1;
+    }
+    crc.reset();
+    crc.update(buffer.slice(offset + FRAME_HEADER_SIZE, recordSize));
+    return (int) crc.getValue() == buffer.getInt(offset + Integer.BYTES) ? recordSize : -1;
+  }
+}
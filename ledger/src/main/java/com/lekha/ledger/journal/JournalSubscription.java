@@ -0,0 +1,133 @@
+package com.lekha.ledger.journal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One subscriber of {@link LedgerJournal#changes}.
+ *
+ * <p>Records are delivered by a drain task on the executor of the subscription, which reads them
+ * from the journal while the subscriber has demand. The task runs once at a time however many
+ * threads request, append or cancel, so the subscriber is signalled serially. When the drain finds
+ * no new durable record it marks the subscription as waiting, and the next append schedules it
+ * again; appends cost subscriptions that are not waiting one volatile read.
+ */
+final class JournalSubscription implements Flow.Subscription {
+
+  private final LedgerJournal journal;
+  private final Flow.Subscriber<? super RecordView> subscriber;
+  private final Executor executor;
+  private final AtomicLong demand = new AtomicLong();
+  // Drains requested since the running one started; the task runs while it is not zero.
+  private final AtomicInteger pendingDrains = new AtomicInteger();
+  private volatile boolean waitingForRecords;
+  private volatile boolean cancelled;
+  private volatile IllegalArgumentException invalidRequest;
+  // Owned by the drain task.
+  private boolean subscribed;
+  private long position;
+
+  JournalSubscription(
+      LedgerJournal journal,
+      Flow.Subscriber<? super RecordView> subscriber,
+      Executor executor,
+      long fromPosition) {
+    this.journal = journal;
+    this.subscriber = subscriber;
+    this.executor = executor;
+    this.position = fromPosition;
+  }
+
+  /** Signals {@code onSubscribe} to the subscriber, from the executor. */
+  void start() {
+    scheduleDrain();
+  }
+
+  @Override
+  public void request(long n) {
+    if (n <= 0) {
+      invalidRequest = new IllegalArgumentException("Requested " + n + " records, must be > 0");
+    } else {
+      demand.accumulateAndGet(
+          n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+    }
+    scheduleDrain();
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    journal.unsubscribe(this);
+  }
+
+  /** Called after records became durable, and when the journal is closed. */
+  void recordsAvailable() {
+    if (waitingForRecords) {
+      waitingForRecords = false;
+      scheduleDrain();
+    }
+  }
+
+  private void scheduleDrain() {
+    if (pendingDrains.getAndIncrement() == 0) {
+      executor.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    int drains = pendingDrains.get();
+    while (true) {
+      drainOnce();
+      drains = pendingDrains.addAndGet(-drains);
+      if (drains == 0) {
+        return;
+      }
+    }
+  }
+
+  private void drainOnce() {
+    if (cancelled) {
+      return;
+    }
+    if (!subscribed) {
+      subscribed = true;
+      subscriber.onSubscribe(this);
+    }
+    if (invalidRequest != null) {
+      cancel();
+      subscriber.onError(invalidRequest);
+      return;
+    }
+    try {
+      long delivered = 0;
+      long requested = demand.get();
+      while (delivered < requested && !cancelled) {
+        RecordView record = journal.durableRecordAt(position);
+        if (record == null) {
+          // Set before looking again, so that an append in between schedules another drain.
+          waitingForRecords = true;
+          record = journal.durableRecordAt(position);
+          if (record == null) {
+            if (journal.isClosed()) {
+              cancel();
+              subscriber.onComplete();
+            }
+            break;
+          }
+          waitingForRecords = false;
+        }
+        position = record.nextPosition();
+        delivered++;
+        subscriber.onNext(record);
+      }
+      if (requested != Long.MAX_VALUE) {
+        demand.addAndGet(-delivered);
+      }
+    } catch (RuntimeException e) {
+      cancel();
+      subscriber.onError(e);
+    }
+  }
+}
@@ -0,0 +1,625 @@
+package com.lekha.ledger.journal;
+
+import com.lekha.ledger.Ledger;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Append-only store of ledger entries in memory-mapped segment files.
+ *
+ * <p>Records are encoded by {@link JournalCodec} directly into the mapped {@link JournalSegment}
+ * and checksummed, without an intermediate buffer. When the active segment is full, a new one is
+ * created and the full one is forced to disk. On {@link #open}, the last segment is scanned and cut
+ * after its last complete record, so a crash mid-append loses at most that append. Full segments
+ * are opened read-only, and a bad record in one of them fails the open.
+ *
+ * <p>A record is identified by its position: the segment id in the upper 32 bits and the offset of
+ * its frame in the lower ones. Positions grow with every append.
+ *
+ * <p>Each record is stored once per account id and idem: appending an idem again, as a retried
+ * {@code Ledger} invocation does, returns the position of the first record. The {@link IdemIndex}
+ * for this is rebuilt by {@link #open}.
+ *
+ * <p>The records of one account are read by {@link #readStatement} and {@link
+ * #readBalanceRecordAt}, which use a {@link StatementIndex} and {@link BalanceCheckpoints} also
+ * rebuilt by {@link #open}.
+ *
+ * <p>When an append returns depends on the {@link Durability} of the journal. Appends are
+ * serialized; scans run concurrently with them.
+ *
+ * <p>Consumers tail the journal with {@link #changes}, which publishes records once they are as
+ * durable as an append makes them.
+ *
+ * <p>Depending on its {@link Compression}, full segments that are not among the most recent ones
+ * are compressed in the background into a {@link CompressedSegment}, which all reads go through as
+ * they do through the segment file. Records keep their positions.
+ */
+public final class LedgerJournal implements AutoCloseable {
+
+  private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("journal-(\\d{10})\\.c?seg");
+
+  /**
+   * When appended records are forced to disk, and so when {@link #append} returns. Whatever the
+   * policy, a segment is forced when it is full and when the journal is closed.
+   */
+  public sealed interface Durability {
+
+    /** Every append forces its own record before returning. */
+    record PerEntry() implements Durability {}
+
+    /**
+     * Appends wait for a flusher thread that forces the records of all waiting appends at once,
+     * when {@code maxEntries} of them wait or the oldest one waited {@code maxDelay}.
+     */
+    record GroupCommit(int maxEntries, Duration maxDelay) implements Durability {
+      // A group smaller than maxEntries waits out maxDelay, so maxEntries should stay below the
+      // number of handler invocations that append concurrently.
+      public static final GroupCommit DEFAULT =
+          new GroupCommit(16, Duration.of(200, ChronoUnit.MICROS));
+
+      public GroupCommit {
+        if (maxEntries < 1) {
+          throw new IllegalArgumentException("Group commit needs at least one entry");
+        }
+        if (maxDelay.isNegative()) {
+          throw new IllegalArgumentException("Group commit delay must not be negative");
+        }
+      }
+    }
+
+    /**
+     * Appends return right away and the OS writes the pages back on its own. A crash of the process
+     * loses nothing, a crash of the machine may lose the last records.
+     */
+    record OsManaged() implements Durability {}
+  }
+
+  /** Whether full segments are compressed, which trades reads of old records for disk space. */
+  public sealed interface Compression {
+
+    /** Segments stay as they were written. */
+    record None() implements Compression {}
+
+    /**
+     * A background thread compresses each full segment once it is not among the last {@code
+     * hotSegments} ones, the one appended to included. Reads of a compressed segment decompress the
+     * blocks of about 64 KiB they go through, so the hot segments should hold the records that are
+     * read often.
+     */
+    record ColdSegments(int hotSegments) implements Compression {
+      public static final ColdSegments DEFAULT = new ColdSegments(4);
+
+      public ColdSegments {
+        if (hotSegments < 1) {
+          throw new IllegalArgumentException("The segment appended to is never compressed");
+        }
+      }
+    }
+  }
+
+  /**
+   * @param segmentSize bytes preallocated for each segment file; bounds the size of one record.
+   * @param balanceCheckpointInterval records of an account between two of its balance checkpoints,
+   *     and so the most records {@link #readBalanceRecordAt} reads.
+   */
+  public record Options(
+      int segmentSize,
+      Durability durability,
+      int balanceCheckpointInterval,
+      Compression compression) {
+    public static final Options DEFAULT =
+        new Options(
+            64 << 20, Durability.GroupCommit.DEFAULT, 256, Compression.ColdSegments.DEFAULT);
+
+    public Options {
+      if (segmentSize < 4096) {
+        throw new IllegalArgumentException("Segment size must be at least 4096 bytes");
+      }
+      if (balanceCheckpointInterval < 1) {
+        throw new IllegalArgumentException("Balance checkpoint interval must be at least 1");
+      }
+    }
+  }
+
+  /**
+   * One page of {@link #readStatement}.
+   *
+   * @param nextPosition where the next page starts, or -1 if there are no more records.
+   */
+  public record StatementPage(List<JournalRecord> records, long nextPosition) {}
+
+  private final Path directory;
+  private final Options options;
+  private final ReentrantLock appendLock = new ReentrantLock();
+  private final List<JournalSegment> segments;
+  private volatile JournalSegment activeSegment;
+  // Guarded by appendLock.
+  private final IdemIndex idems;
+  private long appendSequence;
+  private final StatementIndex statements;
+  private final BalanceCheckpoints checkpoints;
+  // Only for Durability.GroupCommit.
+  private final JournalFlusher flusher;
+  // End of the records that are as durable as the Durability makes them, published to changes().
+  private final AtomicLong durablePosition;
+  private final List<JournalSubscription> subscriptions = new CopyOnWriteArrayList<>();
+  // Only for Compression.ColdSegments.
+  private final ExecutorService compressor;
+  // Guarded by appendLock: the segments below it are compressed or queued for it.
+  private int compressedBelow;
+  private volatile boolean closed;
+
+  private LedgerJournal(
+      Path directory,
+      Options options,
+      List<JournalSegment> segments,
+      IdemIndex idems,
+      StatementIndex statements,
+      BalanceCheckpoints checkpoints) {
+    this.directory = directory;
+    this.options = options;
+    this.segments = new CopyOnWriteArrayList<>(segments);
+    this.activeSegment = segments.getLast();
+    this.idems = idems;
+    this.statements = statements;
+    this.checkpoints = checkpoints;
+    this.flusher =
+        options.durability() instanceof Durability.GroupCommit groupCommit
+            ? new JournalFlusher(groupCommit, this::forceAppended)
+            : null;
+    this.durablePosition =
+        new AtomicLong(position(activeSegment.id(), activeSegment.writePosition()));
+    this.compressor =
+        options.compression() instanceof Compression.ColdSegments
+            ? Executors.newSingleThreadExecutor(
+                Thread.ofPlatform().name("ledger-journal-compressor").daemon().factory())
+            : null;
+    this.compressedBelow = segments.getFirst().id();
+  }
+
+  /**
+   * Opens the journal in {@code directory}, creating both if needed.
+   *
+   * @throws IOException also if a full segment holds a corrupt record.
+   */
+  public static LedgerJournal open(Path directory, Options options) throws IOException {
+    Files.createDirectories(directory);
+    List<Integer> segmentIds = segmentIds(directory);
+    List<JournalSegment> segments = new ArrayList<>(segmentIds.size() + 1);
+    IdemIndex idems = new IdemIndex();
+    StatementIndex statements = new StatementIndex();
+    BalanceCheckpoints checkpoints = new BalanceCheckpoints(options.balanceCheckpointInterval());
+    for (int segmentId : segmentIds) {
+      Path compressedPath = compressedSegmentPath(directory, segmentId);
+      JournalSegment segment;
+      if (Files.exists(compressedPath)) {
+        // Compressed files are complete once they exist; the segment file may be left over from a
+        // crash before it was deleted.
+        Files.deleteIfExists(segmentPath(directory, segmentId));
+        segment = JournalSegment.openCompressed(compressedPath, segmentId);
+      } else if (segmentId == segmentIds.getLast()) {
+        segment = JournalSegment.open(segmentPath(directory, segmentId), segmentId);
+      } else {
+        // Full segments were forced before the next one was created, so they are complete.
+        segment = JournalSegment.openSealed(segmentPath(directory, segmentId), segmentId);
+      }
+      segment.index(idems, statements, checkpoints);
+      segments.add(segment);
+    }
+    if (segments.isEmpty() || segments.getLast().isCompressed()) {
+      int segmentId = segments.isEmpty() ? 0 : segments.getLast().id() + 1;
+      segments.add(
+          JournalSegment.create(
+              segmentPath(directory, segmentId), segmentId, options.segmentSize()));
+    }
+    LedgerJournal journal =
+        new LedgerJournal(directory, options, segments, idems, statements, checkpoints);
+    // Segments that went cold while the journal was closed, or whose compression did not finish.
+    journal.compressColdSegments();
+    return journal;
+  }
+
+  /**
+   * Appends the entries one {@code Ledger} invocation of {@code accountId} stores, unless a record
+   * with the same idem is stored already, and waits until they are as durable as the {@link
+   * Durability} of the journal requires.
+   *
+   * @return the position of the record, or of the record stored before with the same idem.
+   * @throws IllegalArgumentException if the record cannot be encoded, see {@link JournalCodec}.
+   * @throws java.io.UncheckedIOException if the record could not be forced to disk.
+   */
+  public long append(String idem, long timestamp, String accountId, List<Ledger.Entry> entries) {
+    int recordSize = JournalCodec.encodedSize(idem, accountId, entries);
+    if (JournalSegment.HEADER_SIZE + JournalSegment.FRAME_HEADER_SIZE + recordSize
+        > options.segmentSize()) {
+      throw new IllegalArgumentException(
+          "Ledger record of " + recordSize + " bytes does not fit in a journal segment");
+    }
+    long recordPosition;
+    JournalSegment segment;
+    int end;
+    long sequence;
+    appendLock.lock();
+    try {
+      segment = activeSegment;
+      recordPosition = idems.find(accountId, idem);
+      if (recordPosition < 0) {
+        int offset = segment.tryAppend(recordSize, idem, timestamp, accountId, entries);
+        if (offset < 0) {
+          segment = roll(segment);
+          offset = segment.tryAppend(recordSize, idem, timestamp, accountId, entries);
+        }
+        recordPosition = position(segment.id(), offset);
+        idems.add(accountId, idem, recordPosition);
+        statements.add(accountId, timestamp, recordPosition);
+        checkpoints.add(accountId, timestamp, recordPosition);
+        appendSequence++;
+      }
+      // A stored record may still be waiting to be forced, for the invocation that is retried now.
+      // Waiting for everything appended so far covers it.
+      end = segment.writePosition();
+      sequence = appendSequence;
+    } finally {
+      appendLock.unlock();
+    }
+    // Forced outside of the lock, so that appends go on meanwhile.
+    switch (options.durability()) {
+      case Durability.PerEntry perEntry -> segment.force(end);
+      case Durability.GroupCommit groupCommit -> flusher.awaitDurable(sequence);
+      case Durability.OsManaged osManaged -> {}
+    }
+    // Forces cover everything appended before, so the records up to end are durable too.
+    long endPosition = position(segment.id(), end);
+    if (durablePosition.accumulateAndGet(endPosition, Math::max) == endPosition) {
+      for (JournalSubscription subscription : subscriptions) {
+        subscription.recordsAvailable();
+      }
+    }
+    return recordPosition;
+  }
+
+  /**
+   * Publishes the records from {@code fromPosition} on, in append order, as they become as durable
+   * as {@link #append} makes them; then waits for more. Each subscriber is signalled on {@code
+   * executor} and gets records as it requests them. A subscription completes when the journal is
+   * closed and the subscriber has had the records before.
+   *
+   * <p>Records are published as {@link RecordView}s of the mapped segments: nothing is copied or
+   * decoded for a subscriber unless it asks for it.
+   *
+   * @param fromPosition 0, the position of a record, or the {@link RecordView#nextPosition} of one,
+   *     as kept by a {@link DurableCursor}.
+   * @throws IllegalArgumentException if {@code fromPosition} is none of these.
+   */
+  public Flow.Publisher<RecordView> changes(long fromPosition, Executor executor) {
+    if (fromPosition != 0 && !isRecordAt(fromPosition) && !isSegmentEnd(fromPosition)) {
+      throw new IllegalArgumentException("No record at position " + fromPosition);
+    }
+    return subscriber -> {
+      JournalSubscription subscription =
+          new JournalSubscription(this, subscriber, executor, fromPosition);
+      subscriptions.add(subscription);
+      subscription.start();
+    };
+  }
+
+  /**
+   * Passes the records from {@code fromPosition} on, in append order, to {@code visitor} until it
+   * returns false. Records appended during the scan may or may not be visited.
+   */
+  public void scan(long fromPosition, Predicate<JournalRecord> visitor) {
+    int fromSegmentId = segmentId(fromPosition);
+    for (JournalSegment segment : segments) {
+      if (segment.id() < fromSegmentId) {
+        continue;
+      }
+      int fromOffset = segment.id() == fromSegmentId ? offset(fromPosition) : 0;
+      if (!segment.scan(fromOffset, visitor)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads the records of {@code accountId} with a timestamp in {@code [from, to)}, in append order,
+   * from {@code fromPosition} on. Only the segments that hold such records are read, and only the
+   * records returned are decoded.
+   *
+   * @param fromPosition 0, or the {@link StatementPage#nextPosition} of the previous page.
+   * @throws IllegalArgumentException if there is no record at {@code fromPosition}.
+   * @param maxEntries the page ends before the record that would take it over this many entries,
+   *     unless that record is the first of the page.
+   */
+  public StatementPage readStatement(
+      String accountId, long from, long to, long fromPosition, int maxEntries) {
+    if (fromPosition != 0 && !isRecordAt(fromPosition)) {
+      throw new IllegalArgumentException("No record at position " + fromPosition);
+    }
+    int fromSegmentId = segmentId(fromPosition);
+    StatementPageBuilder page = new StatementPageBuilder(maxEntries);
+    for (StatementIndex.Span span : statements.spans(accountId, fromSegmentId)) {
+      if (!span.overlaps(from, to)) {
+        continue;
+      }
+      int startOffset =
+          span.segmentId() == fromSegmentId
+              ? Math.max(span.firstOffset(), offset(fromPosition))
+              : span.firstOffset();
+      int stoppedAt =
+          segment(span.segmentId())
+              .scanAccount(startOffset, span.lastOffset(), accountId, from, to, page);
+      if (stoppedAt >= 0) {
+        return new StatementPage(List.copyOf(page.records), position(span.segmentId(), stoppedAt));
+      }
+    }
+    return new StatementPage(List.copyOf(page.records), -1);
+  }
+
+  /**
+   * The last record of {@code accountId} such that it and all records of the account before it have
+   * a timestamp at or before {@code timestamp}. The balances of its last entry are the ones of the
+   * account at that instant.
+   *
+   * <p>Reads the records from the last balance checkpoint before the instant on, at most {@link
+   * Options#balanceCheckpointInterval} of them, instead of the whole history of the account.
+   */
+  public Optional<JournalRecord> readBalanceRecordAt(String accountId, long timestamp) {
+    BalanceCheckpoints.AccountCheckpoints accountCheckpoints = checkpoints.account(accountId);
+    long fromPosition =
+        accountCheckpoints == null ? -1 : accountCheckpoints.floorPosition(timestamp);
+    if (fromPosition < 0) {
+      return Optional.empty();
+    }
+    int fromSegmentId = segmentId(fromPosition);
+    LastRecordAt lastRecord = new LastRecordAt(timestamp);
+    for (StatementIndex.Span span : statements.spans(accountId, fromSegmentId)) {
+      int startOffset =
+          span.segmentId() == fromSegmentId ? offset(fromPosition) : span.firstOffset();
+      int stoppedAt =
+          segment(span.segmentId())
+              .scanAccount(
+                  startOffset,
+                  span.lastOffset(),
+                  accountId,
+                  Long.MIN_VALUE,
+                  Long.MAX_VALUE,
+                  lastRecord);
+      if (stoppedAt >= 0) {
+        break;
+      }
+    }
+    return Optional.ofNullable(lastRecord.record);
+  }
+
+  private static final class LastRecordAt implements Predicate<JournalRecord> {
+    private final long timestamp;
+    private JournalRecord record;
+
+    LastRecordAt(long timestamp) {
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public boolean test(JournalRecord candidate) {
+      if (candidate.timestamp() > timestamp) {
+        return false;
+      }
+      record = candidate;
+      return true;
+    }
+  }
+
+  private static final class StatementPageBuilder implements Predicate<JournalRecord> {
+    private final int maxEntries;
+    private final List<JournalRecord> records = new ArrayList<>();
+    private int entryCount;
+
+    StatementPageBuilder(int maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public boolean test(JournalRecord record) {
+      if (!records.isEmpty() && entryCount + record.entries().size() > maxEntries) {
+        return false;
+      }
+      records.add(record);
+      entryCount += record.entries().size();
+      return true;
+    }
+  }
+
+  /** Forces the records appended so far to disk. */
+  public void force() {
+    forceAppended();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (flusher != null) {
+      flusher.close();
+    }
+    closed = true;
+    for (JournalSubscription subscription : subscriptions) {
+      subscription.recordsAvailable();
+    }
+    if (compressor != null) {
+      // Waits for the compression under way; the queued ones see closed and skip.
+      compressor.close();
+    }
+    appendLock.lock();
+    try {
+      activeSegment.force(activeSegment.writePosition());
+      for (JournalSegment segment : segments) {
+        segment.close();
+      }
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  static long position(int segmentId, int offset) {
+    return ((long) segmentId << 32) | offset;
+  }
+
+  static int segmentId(long position) {
+    return (int) (position >>> 32);
+  }
+
+  static int offset(long position) {
+    return (int) position;
+  }
+
+  /**
+   * Forces the records appended so far to disk.
+   *
+   * @return the sequence number of the last of them.
+   */
+  private long forceAppended() {
+    JournalSegment segment;
+    int end;
+    long sequence;
+    appendLock.lock();
+    try {
+      segment = activeSegment;
+      end = segment.writePosition();
+      sequence = appendSequence;
+    } finally {
+      appendLock.unlock();
+    }
+    // Earlier segments were forced when they were rolled.
+    segment.force(end);
+    return sequence;
+  }
+
+  private JournalSegment roll(JournalSegment fullSegment) {
+    // The full segment will not change anymore.
+    fullSegment.force(fullSegment.writePosition());
+    int segmentId = fullSegment.id() + 1;
+    try {
+      JournalSegment segment =
+          JournalSegment.create(
+              segmentPath(directory, segmentId), segmentId, options.segmentSize());
+      segments.add(segment);
+      activeSegment = segment;
+      compressColdSegments();
+      return segment;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot create ledger journal segment " + segmentId, e);
+    }
+  }
+
+  /** Queues the full segments that are not among the hot ones for compression. */
+  private void compressColdSegments() {
+    if (!(options.compression() instanceof Compression.ColdSegments coldSegments)) {
+      return;
+    }
+    appendLock.lock();
+    try {
+      int coldBelow = activeSegment.id() - coldSegments.hotSegments() + 1;
+      for (; compressedBelow < coldBelow; compressedBelow++) {
+        JournalSegment segment = segment(compressedBelow);
+        if (!segment.isCompressed()) {
+          compressor.execute(() -> compress(segment));
+        }
+      }
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  private void compress(JournalSegment segment) {
+    if (closed) {
+      return;
+    }
+    try {
+      segment.compress(compressedSegmentPath(directory, segment.id()));
+    } catch (IOException | UncheckedIOException e) {
+      // The segment stays as it is and is compressed again after the next open.
+    }
+  }
+
+  /** The record at {@code position} if it is durable, see {@link #changes}; null if not yet. */
+  RecordView durableRecordAt(long position) {
+    long durable = durablePosition.get();
+    int segmentId = segmentId(position);
+    int offset = Math.max(offset(position), JournalSegment.HEADER_SIZE);
+    // Full segments end where they were rolled.
+    while (segmentId < segmentId(durable) && offset >= segment(segmentId).writePosition()) {
+      segmentId++;
+      offset = JournalSegment.HEADER_SIZE;
+    }
+    if (position(segmentId, offset) >= durable) {
+      return null;
+    }
+    return segment(segmentId).view(offset);
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  void unsubscribe(JournalSubscription subscription) {
+    subscriptions.remove(subscription);
+  }
+
+  private boolean isSegmentEnd(long position) {
+    int index = segmentId(position) - segments.getFirst().id();
+    return index >= 0
+        && index < segments.size()
+        && offset(position) == segments.get(index).writePosition();
+  }
+
+  private boolean isRecordAt(long position) {
+    int index = segmentId(position) - segments.getFirst().id();
+    return index >= 0 && index < segments.size() && segments.get(index).isFrameAt(offset(position));
+  }
+
+  private JournalSegment segment(int segmentId) {
+    // Segment ids have no gaps, see roll().
+    return segments.get(segmentId - segments.getFirst().id());
+  }
+
+  /** Ids of the segment files in {@code directory}, compressed or not, in ascending order. */
+  static List<Integer> segmentIds(Path directory) throws IOException {
+    SortedSet<Integer> segmentIds = new TreeSet<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.forEach(
+          file -> {
+            Matcher matcher = SEGMENT_FILE_NAME.matcher(file.getFileName().toString());
+            if (matcher.matches()) {
+              segmentIds.add(Integer.parseInt(matcher.group(1)));
+            }
+          });
+    }
+    return List.copyOf(segmentIds);
+  }
+
+  static Path segmentPath(Path directory, int segmentId) {
+    return directory.resolve(String.format("journal-%010d.seg", segmentId));
+  }
+
+  static Path compressedSegmentPath(Path directory, int segmentId) {
+    return directory.resolve(String.format("journal-%010d.cseg", segmentId));
+  }
+}
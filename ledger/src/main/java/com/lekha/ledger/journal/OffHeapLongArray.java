@@ -0,0 +1,47 @@
+package com.lekha.ledger.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Fixed-length, zero-initialized array of longs in direct buffers, so that it may hold more than
+ * {@code Integer.MAX_VALUE} elements and is never scanned or copied by the GC.
+ */
+final class OffHeapLongArray {
+
+  private static final int CHUNK_SHIFT = 17; // 1 MiB per chunk
+  private static final int CHUNK_LENGTH = 1 << CHUNK_SHIFT;
+  private static final long CHUNK_MASK = CHUNK_LENGTH - 1;
+
+  private final LongBuffer[] chunks;
+  private final long length;
+
+  OffHeapLongArray(long length) {
+    long chunkCount = (length + CHUNK_LENGTH - 1) >>> CHUNK_SHIFT;
+    if (chunkCount > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Off-heap array too long: " + length);
+    }
+    this.chunks = new LongBuffer[(int) chunkCount];
+    for (int i = 0; i < chunks.length; i++) {
+      int chunkLength = (int) Math.min(CHUNK_LENGTH, length - ((long) i << CHUNK_SHIFT));
+      chunks[i] =
+          ByteBuffer.allocateDirect(chunkLength * Long.BYTES)
+              .order(ByteOrder.nativeOrder())
+              .asLongBuffer();
+    }
+    this.length = length;
+  }
+
+  long length() {
+    return length;
+  }
+
+  long get(long index) {
+    return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+  }
+
+  void set(long index, long value) {
+    chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+  }
+}
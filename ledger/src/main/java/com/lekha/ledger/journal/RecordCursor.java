@@ -0,0 +1,144 @@
+package com.lekha.ledger.journal;
+
+import com.lekha.ledger.Ledger;
+import com.lekha.money.Currency;
+import java.nio.ByteBuffer;
+
+/**
+ * Forward-only cursor over the records of one segment that reads their fields in place, for jobs
+ * that go through the whole journal and would spend most of their time allocating if they decoded
+ * every record into a {@link JournalRecord}.
+ *
+ * <pre>{@code
+ * while (cursor.next()) {
+ *   while (cursor.nextEntry()) {
+ *     ... cursor.accountIdHash(), cursor.amount(), ...
+ *   }
+ * }
+ * }</pre>
+ *
+ * <p>Record accessors are valid after {@link #next} returned true, entry accessors after {@link
+ * #nextEntry} returned true. Not thread-safe.
+ */
+public final class RecordCursor {
+
+  // Null for the cursor of a RecordView, which has its one frame from the start.
+  private final JournalSegment segment;
+  private final int segmentId;
+  // The frames of the segment at hand, see FrameRange.
+  private ByteBuffer buffer;
+  private int base;
+  private int end;
+  // Offsets in the segment.
+  private int nextFrameOffset;
+  private int frameOffset = -1;
+  // Indexes in the buffer.
+  private int recordOffset;
+  private int remainingEntries;
+  private int entryOffset;
+  private int nextEntryOffset;
+
+  /** A cursor over the frames of {@code segment}, which it gets as it goes. */
+  RecordCursor(JournalSegment segment) {
+    this.segment = segment;
+    this.segmentId = segment.id();
+    this.nextFrameOffset = JournalSegment.HEADER_SIZE;
+    this.end = JournalSegment.HEADER_SIZE;
+  }
+
+  /** A cursor over the frames of {@code frames}. */
+  RecordCursor(FrameRange frames, int segmentId) {
+    this.segment = null;
+    this.segmentId = segmentId;
+    this.buffer = frames.buffer();
+    this.base = frames.base();
+    this.nextFrameOffset = frames.start();
+    this.end = frames.end();
+  }
+
+  /** Moves to the next record; false at the end of the segment. */
+  public boolean next() {
+    if (nextFrameOffset >= end) {
+      FrameRange frames = segment == null ? null : segment.frames(nextFrameOffset);
+      if (frames == null) {
+        return false;
+      }
+      buffer = frames.buffer();
+      base = frames.base();
+      end = frames.end();
+    }
+    frameOffset = nextFrameOffset;
+    recordOffset = frameOffset - base + JournalSegment.FRAME_HEADER_SIZE;
+    nextFrameOffset =
+        frameOffset + JournalSegment.FRAME_HEADER_SIZE + buffer.getInt(frameOffset - base);
+    remainingEntries = JournalCodec.entryCount(buffer, recordOffset);
+    nextEntryOffset = JournalCodec.firstEntryOffset(buffer, recordOffset);
+    return true;
+  }
+
+  /** Position of the record in the journal, see {@link JournalRecord#position}. */
+  public long position() {
+    return LedgerJournal.position(segmentId, frameOffset);
+  }
+
+  public long timestamp() {
+    return JournalCodec.decodeTimestamp(buffer, recordOffset);
+  }
+
+  public int entryCount() {
+    return JournalCodec.entryCount(buffer, recordOffset);
+  }
+
+  public String accountId() {
+    return JournalCodec.decodeAccountId(buffer, recordOffset);
+  }
+
+  /** Whether the record is of {@code accountId}, without decoding its account id. */
+  public boolean hasAccountId(String accountId) {
+    return JournalCodec.hasAccountId(buffer, recordOffset, accountId);
+  }
+
+  /** A 64-bit hash of the account id of the record, without decoding it. */
+  public long accountIdHash() {
+    return JournalCodec.stringHash(buffer, JournalCodec.accountIdOffset(buffer, recordOffset));
+  }
+
+  /** Moves to the next entry of the record; false after its last one. */
+  public boolean nextEntry() {
+    if (remainingEntries == 0) {
+      return false;
+    }
+    remainingEntries--;
+    entryOffset = nextEntryOffset;
+    nextEntryOffset = JournalCodec.entryEnd(buffer, entryOffset);
+    return true;
+  }
+
+  public Ledger.Operation operation() {
+    return JournalCodec.entryOperation(buffer, entryOffset);
+  }
+
+  public Currency currency() {
+    return JournalCodec.entryCurrency(buffer, entryOffset);
+  }
+
+  /** Amount of the entry, in minor units of its currency. */
+  public long amount() {
+    return JournalCodec.entryAmount(buffer, entryOffset);
+  }
+
+  /** Available balance of the account after the entry, in minor units. */
+  public long availableBalance() {
+    return JournalCodec.entryAvailableBalance(buffer, entryOffset);
+  }
+
+  /** Hold balance of the account after the entry, in minor units. */
+  public long holdBalance() {
+    return JournalCodec.entryHoldBalance(buffer, entryOffset);
+  }
+
+  /** Whether the entry moves an amount into or out of a hold, rather than the balances. */
+  public boolean hasHold() {
+    return JournalCodec.entryHasHold(buffer, entryOffset);
+  }
+}
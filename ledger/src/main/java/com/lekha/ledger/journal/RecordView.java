@@ -0,0 +1,81 @@
+package com.lekha.ledger.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One record of the journal, read in place from its segment as {@link LedgerJournal#changes}
+ * publishes it. Its fields are decoded when asked for, so a subscriber that only looks at some of
+ * them, or at the records of some accounts, does not pay for the rest.
+ *
+ * <p>Immutable: the record it points at never changes once it is published.
+ */
+public final class RecordView {
+
+  private final ByteBuffer buffer;
+  private final int segmentId;
+  // The segment offset of index 0 of the buffer, see FrameRange.
+  private final int base;
+  private final int frameOffset;
+
+  RecordView(ByteBuffer buffer, int segmentId, int base, int frameOffset) {
+    this.buffer = buffer;
+    this.segmentId = segmentId;
+    this.base = base;
+    this.frameOffset = frameOffset;
+  }
+
+  /** Position of the record in the journal, see {@link JournalRecord#position}. */
+  public long position() {
+    return LedgerJournal.position(segmentId, frameOffset);
+  }
+
+  /**
+   * Position right after the record, where a subscription resumes to continue with the next one,
+   * see {@link DurableCursor}.
+   */
+  public long nextPosition() {
+    return LedgerJournal.position(segmentId, nextFrameOffset());
+  }
+
+  public long timestamp() {
+    return JournalCodec.decodeTimestamp(buffer, recordOffset());
+  }
+
+  public String idem() {
+    return JournalCodec.decodeIdem(buffer, recordOffset());
+  }
+
+  public String accountId() {
+    return JournalCodec.decodeAccountId(buffer, recordOffset());
+  }
+
+  /** Whether the record is of {@code accountId}, without decoding its account id. */
+  public boolean hasAccountId(String accountId) {
+    return JournalCodec.hasAccountId(buffer, recordOffset(), accountId);
+  }
+
+  public int entryCount() {
+    return JournalCodec.entryCount(buffer, recordOffset());
+  }
+
+  /** A cursor over this record alone, already on it, for reading its entries in place. */
+  public RecordCursor cursor() {
+    RecordCursor cursor =
+        new RecordCursor(new FrameRange(buffer, base, frameOffset, nextFrameOffset()), segmentId);
+    cursor.next();
+    return cursor;
+  }
+
+  /** Decodes the whole record. */
+  public JournalRecord record() {
+    return JournalCodec.decode(buffer, recordOffset(), position());
+  }
+
+  private int recordOffset() {
+    return frameOffset - base + JournalSegment.FRAME_HEADER_SIZE;
+  }
+
+  private int nextFrameOffset() {
+    return frameOffset + JournalSegment.FRAME_HEADER_SIZE + buffer.getInt(frameOffset - base);
+  }
+}
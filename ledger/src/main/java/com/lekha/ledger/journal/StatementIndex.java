@@ -0,0 +1,56 @@
+package com.lekha.ledger.journal;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sparse index of the records of each account, for statements: one {@link Span} per account and
+ * segment the account has records in, kept in a skip list by segment id. A statement reads only the
+ * spans of its account whose time range overlaps its own, and skips the records of other accounts
+ * within them without decoding.
+ *
+ * <p>Written under the append lock of the journal, read concurrently by statements. A span is
+ * replaced rather than updated, so a reader sees the records up to its last offset completely.
+ */
+final class StatementIndex {
+
+  /** The records of one account in one segment. */
+  record Span(
+      int segmentId, int firstOffset, int lastOffset, long minTimestamp, long maxTimestamp) {
+
+    /** Whether the span may hold records with a timestamp in {@code [from, to)}. */
+    boolean overlaps(long from, long to) {
+      return minTimestamp < to && maxTimestamp >= from;
+    }
+  }
+
+  private final ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, Span>> spans =
+      new ConcurrentHashMap<>();
+
+  /** Adds the record of {@code accountId} at {@code position}, after all records added so far. */
+  void add(String accountId, long timestamp, long position) {
+    ConcurrentSkipListMap<Integer, Span> accountSpans =
+        spans.computeIfAbsent(accountId, id -> new ConcurrentSkipListMap<>());
+    int segmentId = LedgerJournal.segmentId(position);
+    int offset = LedgerJournal.offset(position);
+    Span span = accountSpans.get(segmentId);
+    accountSpans.put(
+        segmentId,
+        span == null
+            ? new Span(segmentId, offset, offset, timestamp, timestamp)
+            : new Span(
+                segmentId,
+                span.firstOffset(),
+                offset,
+                Math.min(span.minTimestamp(), timestamp),
+                Math.max(span.maxTimestamp(), timestamp)));
+  }
+
+  /** The spans of {@code accountId} from segment {@code fromSegmentId} on, in segment order. */
+  Collection<Span> spans(String accountId, int fromSegmentId) {
+    ConcurrentSkipListMap<Integer, Span> accountSpans = spans.get(accountId);
+    return accountSpans == null ? List.of() : accountSpans.tailMap(fromSegmentId).values();
+  }
+}
@@ -1,5 +1,6 @@
 package com.lekha.money;
 
+// Binary state stores currencies by ordinal: add new constants at the end.
 public enum Currency {
   USD(2),
   EUR(2),
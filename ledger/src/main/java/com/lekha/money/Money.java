@@ -1,33 +1,179 @@
 package com.lekha.money;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import dev.restate.sdk.common.TerminalException;
 import java.math.BigInteger;
+import java.util.Objects;
 
-public record Money(Currency currency, BigInteger amountInMinorUnits) {
+/**
+ * An amount of money in minor units of a currency.
+ *
+ * <p>Amounts are held in a primitive {@code long} and only fall back to {@link BigInteger} when an
+ * operation overflows, so the common debit/credit path allocates nothing but the result itself.
+ * Callers on hot paths should stick to the long-aware accessors, as {@link #amountInMinorUnits()}
+ * allocates a {@link BigInteger} for long amounts too. The JSON shape is {@code {"currency": ...,
+ * "amountInMinorUnits": <number>}} regardless of the internal representation.
+ */
+@JsonAutoDetect(
+    getterVisibility = JsonAutoDetect.Visibility.NONE,
+    isGetterVisibility = JsonAutoDetect.Visibility.NONE,
+    fieldVisibility = JsonAutoDetect.Visibility.NONE)
+public final class Money {
+
+  private static final Money[] ZEROS = new Money[Currency.values().length];
+
+  static {
+    for (Currency currency : Currency.values()) {
+      ZEROS[currency.ordinal()] = new Money(currency, 0L);
+    }
+  }
+
+  private final Currency currency;
+  // Valid only when bigAmount is null.
+  private final long amount;
+  // Set only when the amount does not fit in a long.
+  private final BigInteger bigAmount;
+
+  /**
+   * @throws TerminalException if the currency or the amount is missing, e.g. in a request payload.
+   */
+  @JsonCreator
+  public Money(
+      @JsonProperty("currency") Currency currency,
+      @JsonProperty("amountInMinorUnits") BigInteger amountInMinorUnits) {
+    if (currency == null) {
+      throw new TerminalException("Money is missing its currency");
+    }
+    if (amountInMinorUnits == null) {
+      throw new TerminalException("Money is missing its amountInMinorUnits");
+    }
+    this.currency = currency;
+    if (fitsInLong(amountInMinorUnits)) {
+      this.amount = amountInMinorUnits.longValue();
+      this.bigAmount = null;
+    } else {
+      this.amount = 0L;
+      this.bigAmount = amountInMinorUnits;
+    }
+  }
+
+  private Money(Currency currency, long amountInMinorUnits) {
+    this.currency = currency;
+    this.amount = amountInMinorUnits;
+    this.bigAmount = null;
+  }
+
+  public static Money of(Currency currency, long amountInMinorUnits) {
+    if (amountInMinorUnits == 0L) {
+      return zero(currency);
+    }
+    return new Money(currency, amountInMinorUnits);
+  }
 
   public static Money zero(Currency currency) {
-    return new Money(currency, BigInteger.ZERO);
+    return ZEROS[currency.ordinal()];
+  }
+
+  @JsonProperty("currency")
+  public Currency currency() {
+    return currency;
+  }
+
+  public BigInteger amountInMinorUnits() {
+    return bigAmount != null ? bigAmount : BigInteger.valueOf(amount);
+  }
+
+  /** Whether the amount fits in a {@code long}, i.e. {@link #longAmountInMinorUnits()} is exact. */
+  @JsonIgnore
+  public boolean isLongAmount() {
+    return bigAmount == null;
+  }
+
+  /**
+   * The amount as a {@code long}.
+   *
+   * @throws ArithmeticException if the amount does not fit in a {@code long}.
+   */
+  public long longAmountInMinorUnits() {
+    if (bigAmount != null) {
+      throw new ArithmeticException("Amount " + bigAmount + " does not fit in a long");
+    }
+    return amount;
+  }
+
+  /** The amount in minor units as decimal digits, without a {@link BigInteger} for long amounts. */
+  public String amountInMinorUnitsString() {
+    return bigAmount != null ? bigAmount.toString() : Long.toString(amount);
+  }
+
+  /**
+   * The amount divided by {@code divisor}, rounded toward zero.
+   *
+   * @throws IllegalArgumentException if {@code divisor} is not positive.
+   */
+  public Money divide(long divisor) {
+    if (divisor <= 0) {
+      throw new IllegalArgumentException("Divisor must be positive, got " + divisor);
+    }
+    if (bigAmount == null) {
+      return of(currency, amount / divisor);
+    }
+    return new Money(currency, bigAmount.divide(BigInteger.valueOf(divisor)));
+  }
+
+  @JsonGetter("amountInMinorUnits")
+  private Number jsonAmountInMinorUnits() {
+    return bigAmount != null ? bigAmount : Long.valueOf(amount);
   }
 
   public boolean isLessThan(Money other) {
-    ensureCurrencyMatches(other);
-    return amountInMinorUnits.compareTo(other.amountInMinorUnits) < 0;
+    return compareAmount(other) < 0;
   }
 
   public boolean isGreaterThan(Money other) {
-    ensureCurrencyMatches(other);
-    return amountInMinorUnits.compareTo(other.amountInMinorUnits) > 0;
+    return compareAmount(other) > 0;
   }
 
   public Money add(Money other) {
     ensureCurrencyMatches(other);
-    return new Money(this.currency, this.amountInMinorUnits.add(other.amountInMinorUnits));
+    if (other.isZero()) {
+      return this;
+    }
+    if (bigAmount == null && other.bigAmount == null) {
+      long result = amount + other.amount;
+      // Same overflow check as Math.addExact, without the exception on the slow path.
+      if (((amount ^ result) & (other.amount ^ result)) >= 0) {
+        return of(currency, result);
+      }
+    }
+    return new Money(currency, amountInMinorUnits().add(other.amountInMinorUnits()));
   }
 
   public Money subtract(Money other) {
     ensureCurrencyMatches(other);
-    return new Money(this.currency, this.amountInMinorUnits.subtract(other.amountInMinorUnits));
+    if (other.isZero()) {
+      return this;
+    }
+    if (bigAmount == null && other.bigAmount == null) {
+      long result = amount - other.amount;
+      // Same overflow check as Math.subtractExact, without the exception on the slow path.
+      if (((amount ^ other.amount) & (amount ^ result)) >= 0) {
+        return of(currency, result);
+      }
+    }
+    return new Money(currency, amountInMinorUnits().subtract(other.amountInMinorUnits()));
+  }
+
+  private int compareAmount(Money other) {
+    ensureCurrencyMatches(other);
+    if (bigAmount == null && other.bigAmount == null) {
+      return Long.compare(amount, other.amount);
+    }
+    return amountInMinorUnits().compareTo(other.amountInMinorUnits());
   }
 
   private void ensureCurrencyMatches(Money other) {
@@ -38,14 +184,14 @@ public record Money(Currency currency, BigInteger amountInMinorUnits) {
   }
 
   public void ensurePositive() {
-    if (amountInMinorUnits.compareTo(BigInteger.ZERO) <= 0) {
+    if (signum() <= 0) {
       throw new TerminalException("Amount must be positive");
     }
   }
 
   @JsonIgnore
   public boolean isZero() {
-    return amountInMinorUnits.compareTo(BigInteger.ZERO) == 0;
+    return bigAmount == null && amount == 0L;
   }
 
   public Money min(Money totalBalanceToDrain) {
@@ -54,4 +200,37 @@ public record Money(Currency currency, BigInteger amountInMinorUnits) {
     }
     return totalBalanceToDrain;
   }
+
+  public int signum() {
+    return bigAmount != null ? bigAmount.signum() : Long.signum(amount);
+  }
+
+  private static boolean fitsInLong(BigInteger value) {
+    return value.bitLength() < Long.SIZE;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Money other)) {
+      return false;
+    }
+    // Both sides are normalized on construction, so equal amounts share a representation.
+    return currency == other.currency
+        && amount == other.amount
+        && Objects.equals(bigAmount, other.bigAmount);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * currency.hashCode()
+        + (bigAmount != null ? bigAmount.hashCode() : Long.hashCode(amount));
+  }
+
+  @Override
+  public String toString() {
+    return "Money[currency=" + currency + ", amountInMinorUnits=" + jsonAmountInMinorUnits() + "]";
+  }
 }
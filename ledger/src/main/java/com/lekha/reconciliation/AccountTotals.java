@@ -0,0 +1,244 @@
+package com.lekha.reconciliation;
+
+import com.lekha.ledger.journal.RecordCursor;
+import com.lekha.money.Currency;
+import java.math.BigInteger;
+
+/**
+ * What the journal says about each account, accumulated over a range of segments: the net movement
+ * of its entries and its balances after its last one. Also the debits and credits of all accounts
+ * per currency.
+ *
+ * <p>Accounts are kept in an open-addressing table of parallel primitive arrays, keyed by a hash of
+ * the account id read from the mapped record and checked against the id, so an entry is added
+ * without decoding or allocating anything; an account id is decoded once per account and range.
+ *
+ * <p>Not thread-safe: each scan task has its own, and they are merged in journal order.
+ */
+final class AccountTotals {
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+  private static final Currency[] CURRENCIES = Currency.values();
+
+  private int capacity;
+  private int size;
+  private long[] hashes;
+  private String[] accountIds;
+  // Credits minus debits, modulo 2^64.
+  private long[] netMovements;
+  private long[] lastPositions;
+  private long[] lastAvailableBalances;
+  private long[] lastHoldBalances;
+  private byte[] currencies;
+
+  // Unsigned 128-bit sums per currency ordinal, as high and low halves.
+  private final long[] debitsHigh = new long[CURRENCIES.length];
+  private final long[] debitsLow = new long[CURRENCIES.length];
+  private final long[] creditsHigh = new long[CURRENCIES.length];
+  private final long[] creditsLow = new long[CURRENCIES.length];
+
+  private long records;
+  private long entries;
+
+  AccountTotals() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /** Adds the records of {@code cursor} from its current position to its end. */
+  void addAll(RecordCursor cursor) {
+    while (cursor.next()) {
+      records++;
+      int slot = slotOf(cursor);
+      long position = cursor.position();
+      while (cursor.nextEntry()) {
+        entries++;
+        int currency = cursor.currency().ordinal();
+        long amount = cursor.amount();
+        if (cursor.operation().isCredit()) {
+          netMovements[slot] += amount;
+          addCredit(currency, 0, amount);
+        } else {
+          netMovements[slot] -= amount;
+          addDebit(currency, 0, amount);
+        }
+        lastPositions[slot] = position;
+        lastAvailableBalances[slot] = cursor.availableBalance();
+        lastHoldBalances[slot] = cursor.holdBalance();
+        currencies[slot] = (byte) currency;
+      }
+    }
+  }
+
+  /** Adds the totals of {@code later}, which come from segments after the ones of this. */
+  void merge(AccountTotals later) {
+    records += later.records;
+    entries += later.entries;
+    for (int currency = 0; currency < CURRENCIES.length; currency++) {
+      addDebit(currency, later.debitsHigh[currency], later.debitsLow[currency]);
+      addCredit(currency, later.creditsHigh[currency], later.creditsLow[currency]);
+    }
+    for (int from = 0; from < later.capacity; from++) {
+      String accountId = later.accountIds[from];
+      if (accountId == null) {
+        continue;
+      }
+      int slot = slotOf(later.hashes[from], accountId);
+      netMovements[slot] += later.netMovements[from];
+      if (later.lastPositions[from] >= 0) {
+        lastPositions[slot] = later.lastPositions[from];
+        lastAvailableBalances[slot] = later.lastAvailableBalances[from];
+        lastHoldBalances[slot] = later.lastHoldBalances[from];
+        currencies[slot] = later.currencies[from];
+      }
+    }
+  }
+
+  long records() {
+    return records;
+  }
+
+  long entries() {
+    return entries;
+  }
+
+  int accountCount() {
+    return size;
+  }
+
+  /** Slots of the accounts, for iterating with the accessors below; empty slots are skipped. */
+  int capacity() {
+    return capacity;
+  }
+
+  /** The account id in {@code slot}, or null if it is empty. */
+  String accountId(int slot) {
+    return accountIds[slot];
+  }
+
+  long netMovement(int slot) {
+    return netMovements[slot];
+  }
+
+  /** Whether the account has an entry; a record may have none. */
+  boolean hasEntries(int slot) {
+    return lastPositions[slot] >= 0;
+  }
+
+  Currency currency(int slot) {
+    return CURRENCIES[currencies[slot]];
+  }
+
+  long lastAvailableBalance(int slot) {
+    return lastAvailableBalances[slot];
+  }
+
+  long lastHoldBalance(int slot) {
+    return lastHoldBalances[slot];
+  }
+
+  BigInteger debits(Currency currency) {
+    return unsigned128(debitsHigh[currency.ordinal()], debitsLow[currency.ordinal()]);
+  }
+
+  BigInteger credits(Currency currency) {
+    return unsigned128(creditsHigh[currency.ordinal()], creditsLow[currency.ordinal()]);
+  }
+
+  private void addDebit(int currency, long high, long low) {
+    long sum = debitsLow[currency] + low;
+    debitsHigh[currency] += high + (Long.compareUnsigned(sum, low) < 0 ? 1 : 0);
+    debitsLow[currency] = sum;
+  }
+
+  private void addCredit(int currency, long high, long low) {
+    long sum = creditsLow[currency] + low;
+    creditsHigh[currency] += high + (Long.compareUnsigned(sum, low) < 0 ? 1 : 0);
+    creditsLow[currency] = sum;
+  }
+
+  private static BigInteger unsigned128(long high, long low) {
+    return new BigInteger(Long.toUnsignedString(high))
+        .shiftLeft(Long.SIZE)
+        .add(new BigInteger(Long.toUnsignedString(low)));
+  }
+
+  // Slot of the account of the current record of the cursor, added if new.
+  private int slotOf(RecordCursor cursor) {
+    long hash = cursor.accountIdHash();
+    int mask = capacity - 1;
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      String accountId = accountIds[slot];
+      if (accountId == null) {
+        return insert(slot, hash, cursor.accountId());
+      }
+      if (hashes[slot] == hash && cursor.hasAccountId(accountId)) {
+        return slot;
+      }
+    }
+  }
+
+  private int slotOf(long hash, String accountId) {
+    int mask = capacity - 1;
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      String slotAccountId = accountIds[slot];
+      if (slotAccountId == null) {
+        return insert(slot, hash, accountId);
+      }
+      if (hashes[slot] == hash && slotAccountId.equals(accountId)) {
+        return slot;
+      }
+    }
+  }
+
+  private int insert(int slot, long hash, String accountId) {
+    if ((size + 1) * 10 > capacity * 7) {
+      grow();
+      return slotOf(hash, accountId);
+    }
+    hashes[slot] = hash;
+    accountIds[slot] = accountId;
+    lastPositions[slot] = -1;
+    size++;
+    return slot;
+  }
+
+  private void grow() {
+    int oldCapacity = capacity;
+    long[] oldHashes = hashes;
+    String[] oldAccountIds = accountIds;
+    long[] oldNetMovements = netMovements;
+    long[] oldLastPositions = lastPositions;
+    long[] oldLastAvailableBalances = lastAvailableBalances;
+    long[] oldLastHoldBalances = lastHoldBalances;
+    byte[] oldCurrencies = currencies;
+    allocate(oldCapacity * 2);
+    int mask = capacity - 1;
+    for (int from = 0; from < oldCapacity; from++) {
+      if (oldAccountIds[from] == null) {
+        continue;
+      }
+      int slot = (int) oldHashes[from] & mask;
+      while (accountIds[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      hashes[slot] = oldHashes[from];
+      accountIds[slot] = oldAccountIds[from];
+      netMovements[slot] = oldNetMovements[from];
+      lastPositions[slot] = oldLastPositions[from];
+      lastAvailableBalances[slot] = oldLastAvailableBalances[from];
+      lastHoldBalances[slot] = oldLastHoldBalances[from];
+      currencies[slot] = oldCurrencies[from];
+    }
+  }
+
+  private void allocate(int newCapacity) {
+    capacity = newCapacity;
+    hashes = new long[newCapacity];
+    accountIds = new String[newCapacity];
+    netMovements = new long[newCapacity];
+    lastPositions = new long[newCapacity];
+    lastAvailableBalances = new long[newCapacity];
+    lastHoldBalances = new long[newCapacity];
+    currencies = new byte[newCapacity];
+  }
+}
@@ -0,0 +1,241 @@
+package com.lekha.reconciliation;
+
+import com.lekha.account.Account;
+import com.lekha.ledger.journal.JournalReader;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Checks the ledger journal against the account state.
+ *
+ * <p>The journal is scanned with a fork/join task per segment, each reading its records in place
+ * into an {@link AccountTotals}, and the totals are merged in segment order. Then the summary of
+ * each account in the journal is fetched, at most {@link Options#maxConcurrentFetches} at a time,
+ * and checked against the totals:
+ *
+ * <ul>
+ *   <li>{@link Mismatch.Kind#BALANCE}: the balances of the account are not the ones after its last
+ *       entry, so an entry is missing or the state changed without one.
+ *   <li>{@link Mismatch.Kind#MOVEMENT}: the total balance of the account is not the net movement of
+ *       its entries, so the balances its entries carry are inconsistent. The journal has no account
+ *       type, so either sign is accepted: debits increase the balance of an asset account.
+ *   <li>{@link Mismatch.Kind#UNAVAILABLE}: the summary could not be fetched.
+ * </ul>
+ *
+ * <p>The debits and credits of all accounts are also totalled per currency, and must be equal once
+ * no transfer is in flight. Entries carry no transfer id, so an imbalance is not traced further.
+ *
+ * <p>The movement check assumes that the journal holds every entry of an account since it was
+ * created, with a zero balance.
+ */
+public final class Reconciliation {
+
+  /** Where the current state of the accounts comes from, {@code Account.getSummary} in practice. */
+  public interface SummarySource {
+    CompletableFuture<Account.AccountSummary> summary(String accountId);
+  }
+
+  public record Options(int parallelism, int maxConcurrentFetches) {
+    public static final Options DEFAULT =
+        new Options(Runtime.getRuntime().availableProcessors(), 256);
+
+    public Options {
+      if (parallelism <= 0) {
+        throw new IllegalArgumentException("parallelism must be positive");
+      }
+      if (maxConcurrentFetches <= 0) {
+        throw new IllegalArgumentException("maxConcurrentFetches must be positive");
+      }
+    }
+  }
+
+  public record Mismatch(String accountId, Kind kind, String detail) {
+    public enum Kind {
+      BALANCE,
+      MOVEMENT,
+      UNAVAILABLE
+    }
+  }
+
+  public record CurrencyTotals(Currency currency, BigInteger debits, BigInteger credits) {
+    public boolean isBalanced() {
+      return debits.equals(credits);
+    }
+  }
+
+  /**
+   * @param mismatches sorted by account id.
+   * @param currencyTotals of the currencies with entries.
+   */
+  public record Report(
+      long records,
+      long entries,
+      int accounts,
+      List<Mismatch> mismatches,
+      List<CurrencyTotals> currencyTotals,
+      Duration scanDuration,
+      Duration checkDuration) {
+
+    public boolean isClean() {
+      return mismatches.isEmpty() && currencyTotals.stream().allMatch(CurrencyTotals::isBalanced);
+    }
+
+    /** Entries scanned per second, the throughput of the scan. */
+    public double scannedEntriesPerSecond() {
+      return entries * 1e9 / Math.max(1, scanDuration.toNanos());
+    }
+  }
+
+  private final JournalReader journal;
+  private final SummarySource summaries;
+  private final Options options;
+
+  public Reconciliation(JournalReader journal, SummarySource summaries, Options options) {
+    this.journal = journal;
+    this.summaries = summaries;
+    this.options = options;
+  }
+
+  public Report run() throws InterruptedException {
+    long scanStart = System.nanoTime();
+    AccountTotals totals = scan();
+    long checkStart = System.nanoTime();
+    List<Mismatch> mismatches = check(totals);
+    long checkEnd = System.nanoTime();
+
+    List<CurrencyTotals> currencyTotals = new ArrayList<>();
+    for (Currency currency : Currency.values()) {
+      BigInteger debits = totals.debits(currency);
+      BigInteger credits = totals.credits(currency);
+      if (debits.signum() != 0 || credits.signum() != 0) {
+        currencyTotals.add(new CurrencyTotals(currency, debits, credits));
+      }
+    }
+    return new Report(
+        totals.records(),
+        totals.entries(),
+        totals.accountCount(),
+        mismatches,
+        List.copyOf(currencyTotals),
+        Duration.ofNanos(checkStart - scanStart),
+        Duration.ofNanos(checkEnd - checkStart));
+  }
+
+  private AccountTotals scan() {
+    if (journal.segmentCount() == 0) {
+      return new AccountTotals();
+    }
+    ForkJoinPool pool = new ForkJoinPool(options.parallelism());
+    try {
+      return pool.invoke(new ScanTask(0, journal.segmentCount()));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** Totals of the segments {@code [from, to)}. */
+  private final class ScanTask extends RecursiveTask<AccountTotals> {
+    private final int from;
+    private final int to;
+
+    ScanTask(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected AccountTotals compute() {
+      if (to - from == 1) {
+        AccountTotals totals = new AccountTotals();
+        totals.addAll(journal.cursor(from));
+        return totals;
+      }
+      int middle = (from + to) >>> 1;
+      ScanTask earlier = new ScanTask(from, middle);
+      earlier.fork();
+      AccountTotals later = new ScanTask(middle, to).compute();
+      AccountTotals totals = earlier.join();
+      totals.merge(later);
+      return totals;
+    }
+  }
+
+  private List<Mismatch> check(AccountTotals totals) throws InterruptedException {
+    ConcurrentLinkedQueue<Mismatch> mismatches = new ConcurrentLinkedQueue<>();
+    Semaphore fetches = new Semaphore(options.maxConcurrentFetches());
+    for (int slot = 0; slot < totals.capacity(); slot++) {
+      String accountId = totals.accountId(slot);
+      if (accountId == null || !totals.hasEntries(slot)) {
+        continue;
+      }
+      Currency currency = totals.currency(slot);
+      long netMovement = totals.netMovement(slot);
+      Account.AccountBalances expected =
+          new Account.AccountBalances(
+              Money.of(currency, totals.lastAvailableBalance(slot)),
+              Money.of(currency, totals.lastHoldBalance(slot)));
+      fetches.acquire();
+      CompletableFuture<Account.AccountSummary> summary;
+      try {
+        summary = summaries.summary(accountId);
+      } catch (RuntimeException e) {
+        summary = CompletableFuture.failedFuture(e);
+      }
+      summary.whenComplete(
+          (actual, failure) -> {
+            try {
+              if (failure != null) {
+                mismatches.add(
+                    new Mismatch(accountId, Mismatch.Kind.UNAVAILABLE, failure.toString()));
+              } else {
+                check(accountId, expected, netMovement, actual.balances(), mismatches);
+              }
+            } finally {
+              fetches.release();
+            }
+          });
+    }
+    // All permits are back once the last fetch is checked.
+    fetches.acquire(options.maxConcurrentFetches());
+    List<Mismatch> sorted = new ArrayList<>(mismatches);
+    sorted.sort(Comparator.comparing(Mismatch::accountId));
+    return List.copyOf(sorted);
+  }
+
+  private static void check(
+      String accountId,
+      Account.AccountBalances expected,
+      long netMovement,
+      Account.AccountBalances actual,
+      ConcurrentLinkedQueue<Mismatch> mismatches) {
+    if (!expected.equals(actual)) {
+      mismatches.add(
+          new Mismatch(
+              accountId,
+              Mismatch.Kind.BALANCE,
+              "state has " + actual + ", last entry has " + expected));
+      return;
+    }
+    // Modulo 2^64, like the net movement.
+    long total =
+        expected.availableBalance().longAmountInMinorUnits()
+            + expected.holdBalance().longAmountInMinorUnits();
+    if (total != netMovement && total != -netMovement) {
+      mismatches.add(
+          new Mismatch(
+              accountId,
+              Mismatch.Kind.MOVEMENT,
+              "balance is " + total + ", entries move " + netMovement));
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.lekha.reconciliation;
+
+import com.lekha.account.AccountClient;
+import com.lekha.ledger.journal.JournalReader;
+import dev.restate.client.Client;
+import java.nio.file.Path;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs a {@link Reconciliation} of the journal in {@code LEDGER_JOURNAL_DIR} against the accounts
+ * behind the Restate ingress at {@code RESTATE_INGRESS_URI}, and exits with status 1 if it finds a
+ * discrepancy. Run it next to the ledger, which may keep appending meanwhile:
+ *
+ * <pre>{@code
+ * ./gradlew :ledger:run -PmainClass=com.lekha.reconciliation.ReconciliationMain
+ * }</pre>
+ */
+public class ReconciliationMain {
+  private static final Logger LOG = LogManager.getLogger(ReconciliationMain.class);
+  private static final int MAX_LOGGED_MISMATCHES = 100;
+
+  public static void main(String[] args) throws Exception {
+    Path journalDirectory = Path.of(envOrDefault("LEDGER_JOURNAL_DIR", "ledger-journal"));
+    Client client = Client.connect(envOrDefault("RESTATE_INGRESS_URI", "http://localhost:8080"));
+    Reconciliation.Options options =
+        new Reconciliation.Options(
+            envIntOrDefault(
+                "RECONCILIATION_PARALLELISM", Reconciliation.Options.DEFAULT.parallelism()),
+            envIntOrDefault(
+                "RECONCILIATION_MAX_CONCURRENT_FETCHES",
+                Reconciliation.Options.DEFAULT.maxConcurrentFetches()));
+
+    Reconciliation.Report report;
+    try (JournalReader journal = JournalReader.open(journalDirectory)) {
+      report =
+          new Reconciliation(
+                  journal,
+                  accountId -> AccountClient.fromClient(client, accountId).getSummaryAsync(),
+                  options)
+              .run();
+    }
+
+    LOG.info(
+        "Scanned {} records, {} entries of {} accounts in {} ({} entries/s); checked in {}",
+        report.records(),
+        report.entries(),
+        report.accounts(),
+        report.scanDuration(),
+        String.format("%.0f", report.scannedEntriesPerSecond()),
+        report.checkDuration());
+    for (Reconciliation.CurrencyTotals totals : report.currencyTotals()) {
+      if (totals.isBalanced()) {
+        LOG.info("{}: debits and credits are {}", totals.currency(), totals.debits());
+      } else {
+        LOG.warn(
+            "{}: debits are {}, credits are {}",
+            totals.currency(),
+            totals.debits(),
+            totals.credits());
+      }
+    }
+    report.mismatches().stream()
+        .limit(MAX_LOGGED_MISMATCHES)
+        .forEach(
+            mismatch ->
+                LOG.warn("{} {}: {}", mismatch.kind(), mismatch.accountId(), mismatch.detail()));
+    if (!report.isClean()) {
+      LOG.error("Reconciliation failed with {} mismatches", report.mismatches().size());
+      System.exit(1);
+    }
+    LOG.info("Reconciliation passed");
+  }
+
+  private static String envOrDefault(String key, String defaultValue) {
+    String value = System.getenv(key);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    return value;
+  }
+
+  private static int envIntOrDefault(String key, int defaultValue) {
+    String value = System.getenv(key);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      LOG.warn("Invalid integer for {} ({}), using {}", key, value, defaultValue);
+      return defaultValue;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.lekha.serde;
+
+/** Writes and reads one value in the binary state format, without the version header. */
+public interface BinaryCodec<T> {
+
+  void write(BinaryWriter out, T value);
+
+  T read(BinaryReader in);
+
+  @FunctionalInterface
+  interface Writer<T> {
+    void write(BinaryWriter out, T value);
+  }
+
+  @FunctionalInterface
+  interface Reader<T> {
+    T read(BinaryReader in);
+  }
+
+  static <T> BinaryCodec<T> of(Writer<T> writer, Reader<T> reader) {
+    return new BinaryCodec<>() {
+      @Override
+      public void write(BinaryWriter out, T value) {
+        writer.write(out, value);
+      }
+
+      @Override
+      public T read(BinaryReader in) {
+        return reader.read(in);
+      }
+    };
+  }
+}
@@ -0,0 +1,131 @@
+package com.lekha.serde;
+
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads what {@link BinaryWriter} wrote. Malformed input fails with an IllegalStateException. */
+public final class BinaryReader {
+
+  private static final Currency[] CURRENCIES = Currency.values();
+
+  private final byte[] buffer;
+  private final int formatVersion;
+  private int position;
+
+  /**
+   * @param formatVersion the {@link VersionedSerde} format version the buffer was written in.
+   */
+  public BinaryReader(byte[] buffer, int offset, int formatVersion) {
+    this.buffer = buffer;
+    this.position = offset;
+    this.formatVersion = formatVersion;
+  }
+
+  public int formatVersion() {
+    return formatVersion;
+  }
+
+  public int readByte() {
+    if (position >= buffer.length) {
+      throw new IllegalStateException("Unexpected end of binary state at byte " + position);
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  public boolean readBoolean() {
+    return readByte() != 0;
+  }
+
+  public byte[] readBytes() {
+    int length = readLength(readVarInt());
+    byte[] bytes = new byte[length];
+    System.arraycopy(buffer, position, bytes, 0, length);
+    position += length;
+    return bytes;
+  }
+
+  public long readVarLong() {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalStateException("Malformed varint in binary state at byte " + position);
+  }
+
+  public int readVarInt() {
+    long value = readVarLong();
+    if (value < 0 || value > 0xFFFFFFFFL) {
+      throw new IllegalStateException("Varint out of int range in binary state: " + value);
+    }
+    return (int) value;
+  }
+
+  public long readSignedVarLong() {
+    long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  public <E extends Enum<E>> E readEnum(E[] values) {
+    int ordinal = readVarInt();
+    if (ordinal < 0 || ordinal >= values.length) {
+      throw new IllegalStateException("Unknown enum ordinal in binary state: " + ordinal);
+    }
+    return values[ordinal];
+  }
+
+  public String readString() {
+    int lengthPlusOne = readVarInt();
+    if (lengthPlusOne == 0) {
+      return null;
+    }
+    int length = readLength(lengthPlusOne - 1);
+    String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+    position += length;
+    return value;
+  }
+
+  public Money readMoney() {
+    int header = readVarInt();
+    Currency currency = CURRENCIES[checkOrdinal(header >>> 1, CURRENCIES.length)];
+    if ((header & 1) == 0) {
+      return Money.of(currency, readSignedVarLong());
+    }
+    return new Money(currency, new BigInteger(readBytes()));
+  }
+
+  /** Reads into a mutable list. */
+  public <T> List<T> readList(BinaryCodec<T> codec) {
+    int size = readVarInt();
+    List<T> values = new ArrayList<>(Math.min(size, buffer.length - position));
+    for (int i = 0; i < size; i++) {
+      values.add(codec.read(this));
+    }
+    return values;
+  }
+
+  public boolean hasRemaining() {
+    return position < buffer.length;
+  }
+
+  private int readLength(int length) {
+    if (length < 0 || length > buffer.length - position) {
+      throw new IllegalStateException("Length " + length + " exceeds binary state at " + position);
+    }
+    return length;
+  }
+
+  private static int checkOrdinal(int ordinal, int numValues) {
+    if (ordinal >= numValues) {
+      throw new IllegalStateException("Unknown enum ordinal in binary state: " + ordinal);
+    }
+    return ordinal;
+  }
+}
@@ -0,0 +1,109 @@
+package com.lekha.serde;
+
+import com.lekha.money.Money;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Growable buffer for the binary state format.
+ *
+ * <p>Integers are LEB128 varints, signed ones zigzag-encoded first, so small amounts and counts
+ * take one or two bytes. Enums are written as their ordinal, which makes the order of their
+ * constants part of the format.
+ */
+public final class BinaryWriter {
+
+  private byte[] buffer;
+  private int position;
+
+  public BinaryWriter() {
+    this(64);
+  }
+
+  public BinaryWriter(int initialCapacity) {
+    this.buffer = new byte[Math.max(initialCapacity, 16)];
+  }
+
+  public void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) value;
+  }
+
+  public void writeBoolean(boolean value) {
+    writeByte(value ? 1 : 0);
+  }
+
+  public void writeBytes(byte[] bytes) {
+    writeVarLong(bytes.length);
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+
+  /** Unsigned LEB128. Negative values take ten bytes; use {@link #writeSignedVarLong} for those. */
+  public void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[position++] = (byte) value;
+  }
+
+  public void writeVarInt(int value) {
+    writeVarLong(Integer.toUnsignedLong(value));
+  }
+
+  public void writeSignedVarLong(long value) {
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  public void writeEnum(Enum<?> value) {
+    writeVarInt(value.ordinal());
+  }
+
+  /** A nullable UTF-8 string; the length is written plus one so that zero means {@code null}. */
+  public void writeString(String value) {
+    if (value == null) {
+      writeVarInt(0);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(bytes.length + 1);
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+
+  /**
+   * The currency ordinal shifted left by one, with the low bit set when the amount does not fit in
+   * a {@code long}, followed by the zigzag amount or, for big amounts, its two's-complement bytes.
+   */
+  public void writeMoney(Money money) {
+    boolean fitsInLong = money.isLongAmount();
+    writeVarInt((money.currency().ordinal() << 1) | (fitsInLong ? 0 : 1));
+    if (fitsInLong) {
+      writeSignedVarLong(money.longAmountInMinorUnits());
+    } else {
+      writeBytes(money.amountInMinorUnits().toByteArray());
+    }
+  }
+
+  public <T> void writeCollection(Collection<T> values, BinaryCodec<T> codec) {
+    writeVarInt(values.size());
+    for (T value : values) {
+      codec.write(this, value);
+    }
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, position);
+  }
+
+  private void ensureCapacity(int additional) {
+    if (position + additional > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.lekha.serde;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import dev.restate.serde.Serde;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+
+/**
+ * {@link Serde} for the binary state format.
+ *
+ * <p>Every value starts with a format version byte followed by the {@link BinaryCodec} encoding.
+ * Values are written in the latest version; a codec reads the fields added in later versions only
+ * when {@link BinaryReader#formatVersion()} has them.
+ * State written before the binary format is Jackson JSON, which always starts with {@code '{'};
+ * such values are still read with Jackson, and are rewritten in binary the next time their key is
+ * set.
+ */
+public final class VersionedSerde {
+
+  static final int FORMAT_V1 = 1;
+  // Adds the group commit flag of account options.
+  public static final int FORMAT_V2 = 2;
+  // Adds the settled instructions of queued debits and credits.
+  public static final int FORMAT_V3 = 3;
+  private static final int FORMAT_LATEST = FORMAT_V3;
+  private static final int JSON_OBJECT_START = '{';
+
+  private static final ObjectMapper LEGACY_JSON =
+      new ObjectMapper()
+          .registerModule(new Jdk8Module())
+          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private VersionedSerde() {}
+
+  /** For state that has only ever been written in the binary format. */
+  public static <T> Serde<T> of(BinaryCodec<T> codec) {
+    return Serde.using(value -> serialize(codec, value), bytes -> deserialize(codec, null, bytes));
+  }
+
+  /**
+   * @param legacyJsonType the type Jackson used for the JSON encoding of this state.
+   */
+  public static <T> Serde<T> of(BinaryCodec<T> codec, Type legacyJsonType) {
+    JavaType javaType = LEGACY_JSON.constructType(legacyJsonType);
+    return Serde.using(
+        value -> serialize(codec, value), bytes -> deserialize(codec, javaType, bytes));
+  }
+
+  static <T> byte[] serialize(BinaryCodec<T> codec, T value) {
+    BinaryWriter out = new BinaryWriter();
+    out.writeByte(FORMAT_LATEST);
+    codec.write(out, value);
+    return out.toByteArray();
+  }
+
+  static <T> T deserialize(BinaryCodec<T> codec, JavaType legacyJsonType, byte[] bytes) {
+    if (bytes.length == 0) {
+      throw new IllegalStateException("Empty binary state");
+    }
+    int version = bytes[0] & 0xFF;
+    if (version == JSON_OBJECT_START && legacyJsonType != null) {
+      try {
+        return LEGACY_JSON.readValue(bytes, legacyJsonType);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot read legacy JSON state", e);
+      }
+    }
+    if (version < FORMAT_V1 || version > FORMAT_LATEST) {
+      throw new IllegalStateException("Unknown binary state format version " + version);
+    }
+    BinaryReader in = new BinaryReader(bytes, 1, version);
+    T value = codec.read(in);
+    if (in.hasRemaining()) {
+      throw new IllegalStateException("Trailing bytes after binary state");
+    }
+    return value;
+  }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.lekha.account.Account;
 import com.lekha.money.Money;
 
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
@@ -49,13 +50,25 @@ public sealed interface AccountOperation<
   String getType();
 
   @JsonTypeName(Debit.TYPE_NAME)
-  record Debit(String accountId, Money amountToDebit)
+  record Debit(
+      String accountId, Money amountToDebit, Account.SettledInstructions settledInstructions)
       implements AccountOperation<AccountOperationResult.Debit, AccountOperationResult.Credit> {
     public static final String TYPE_NAME = "debit";
 
+    public Debit {
+      // Absent from plans journaled before netted operations carried them.
+      if (settledInstructions == null) {
+        settledInstructions = Account.SettledInstructions.NONE;
+      }
+    }
+
+    public Debit(String accountId, Money amountToDebit) {
+      this(accountId, amountToDebit, Account.SettledInstructions.NONE);
+    }
+
     @Override
     public Credit reversed(AccountOperationResult.Debit result) {
-      return new Credit(accountId, amountToDebit);
+      return new Credit(accountId, amountToDebit, settledInstructions.reversed());
     }
 
     @Override
@@ -65,13 +78,25 @@ public sealed interface AccountOperation<
   }
 
   @JsonTypeName(AsyncDebit.TYPE_NAME)
-  record AsyncDebit(String accountId, Money amountToDebit)
+  record AsyncDebit(
+      String accountId, Money amountToDebit, Account.SettledInstructions settledInstructions)
       implements AccountOperation<AccountOperationResult.Debit, AccountOperationResult.Credit> {
     public static final String TYPE_NAME = "async_debit";
 
+    public AsyncDebit {
+      // Absent from plans journaled before netted operations carried them.
+      if (settledInstructions == null) {
+        settledInstructions = Account.SettledInstructions.NONE;
+      }
+    }
+
+    public AsyncDebit(String accountId, Money amountToDebit) {
+      this(accountId, amountToDebit, Account.SettledInstructions.NONE);
+    }
+
     @Override
     public Credit reversed(AccountOperationResult.Debit result) {
-      return new Credit(accountId, amountToDebit);
+      return new Credit(accountId, amountToDebit, settledInstructions.reversed());
     }
 
     @Override
@@ -81,14 +106,26 @@ public sealed interface AccountOperation<
   }
 
   @JsonTypeName(Credit.TYPE_NAME)
-  record Credit(String accountId, Money amountToCredit)
+  record Credit(
+      String accountId, Money amountToCredit, Account.SettledInstructions settledInstructions)
       implements AccountOperation<AccountOperationResult.Credit, AccountOperationResult.Debit> {
 
     public static final String TYPE_NAME = "credit";
 
+    public Credit {
+      // Absent from plans journaled before netted operations carried them.
+      if (settledInstructions == null) {
+        settledInstructions = Account.SettledInstructions.NONE;
+      }
+    }
+
+    public Credit(String accountId, Money amountToCredit) {
+      this(accountId, amountToCredit, Account.SettledInstructions.NONE);
+    }
+
     @Override
     public Debit reversed(AccountOperationResult.Credit result) {
-      return new Debit(accountId, amountToCredit);
+      return new Debit(accountId, amountToCredit, settledInstructions.reversed());
     }
 
     @Override
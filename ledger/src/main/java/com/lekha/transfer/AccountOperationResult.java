@@ -5,6 +5,8 @@ import com.lekha.money.Money;
 
 public sealed interface AccountOperationResult {
 
+  Account.AccountSummary accountSummary();
+
   record Debit(Account.AccountSummary accountSummary) implements AccountOperationResult {}
 
   record Credit(Account.AccountSummary accountSummary) implements AccountOperationResult {}
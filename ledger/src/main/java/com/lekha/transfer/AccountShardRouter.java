@@ -0,0 +1,116 @@
+package com.lekha.transfer;
+
+import com.lekha.account.Account;
+import com.lekha.account.AccountClient;
+import com.lekha.account.AccountShards;
+import com.lekha.money.Money;
+import dev.restate.sdk.Context;
+import dev.restate.sdk.DurableFuture;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Maps account operations of a plan onto account keys, spreading sharded accounts over shards, and
+ * tells which accounts take their operations through group commit.
+ */
+final class AccountShardRouter {
+
+  private final Map<String, Account.AccountOptions> optionsByAccountId;
+
+  private AccountShardRouter(Map<String, Account.AccountOptions> optionsByAccountId) {
+    this.optionsByAccountId = optionsByAccountId;
+  }
+
+  /** Looks up the options of every account in the plan, in parallel. */
+  static AccountShardRouter resolve(Context ctx, Planner.Plan plan) {
+    Map<String, DurableFuture<Account.AccountOptions>> optionsFutures = new LinkedHashMap<>();
+    for (List<AccountOperation<?, ?>> operations :
+        List.of(plan.operations(), plan.parallelCleanupOperations())) {
+      for (AccountOperation<?, ?> operation : operations) {
+        optionsFutures.computeIfAbsent(
+            operation.accountId(),
+            accountId -> AccountClient.fromContext(ctx, accountId).getOptions());
+      }
+    }
+    DurableFuture.all(new ArrayList<>(optionsFutures.values())).await();
+
+    Map<String, Account.AccountOptions> optionsByAccountId = new LinkedHashMap<>();
+    optionsFutures.forEach(
+        (accountId, optionsFuture) -> optionsByAccountId.put(accountId, optionsFuture.await()));
+    return new AccountShardRouter(optionsByAccountId);
+  }
+
+  boolean isSharded(String accountId) {
+    return numShards(accountId) > 1;
+  }
+
+  /** Whether the account opted into group commit, see {@link Account.AccountOptions}. */
+  boolean usesGroupCommit(String accountId) {
+    Account.AccountOptions options = optionsByAccountId.get(accountId);
+    return options != null && options.groupCommit();
+  }
+
+  /**
+   * Account keys to try the operation on, in order. Balance operations may run on any shard and
+   * start from a random one; hold operations stay on the shard that owns the hold.
+   */
+  List<String> accountKeys(Context ctx, AccountOperation<?, ?> operation) {
+    String accountId = operation.accountId();
+    int numShards = numShards(accountId);
+    if (numShards <= 1) {
+      return List.of(accountId);
+    }
+    Optional<String> routingId = routingId(operation);
+    if (routingId.isPresent()) {
+      return List.of(AccountShards.shardKey(accountId, numShards, routingId.get()));
+    }
+    int firstShard = ctx.random().nextInt(numShards);
+    List<String> accountKeys = new ArrayList<>(numShards);
+    for (int i = 0; i < numShards; i++) {
+      accountKeys.add(AccountShards.shardKey(accountId, (firstShard + i) % numShards));
+    }
+    return accountKeys;
+  }
+
+  /** The amount of a balance operation, which a rebalance must make available on one shard. */
+  static Optional<Money> balanceAmount(AccountOperation<?, ?> operation) {
+    return switch (operation) {
+      case AccountOperation.Debit debit -> Optional.of(debit.amountToDebit());
+      case AccountOperation.AsyncDebit asyncDebit -> Optional.of(asyncDebit.amountToDebit());
+      case AccountOperation.Credit credit -> Optional.of(credit.amountToCredit());
+      case AccountOperation.TransactionalDebit transactionalDebit ->
+          Optional.of(transactionalDebit.amountToDebit());
+      case AccountOperation.TransactionalHold transactionalHold ->
+          Optional.of(transactionalHold.amountToHold());
+      default -> Optional.empty();
+    };
+  }
+
+  private static Optional<String> routingId(AccountOperation<?, ?> operation) {
+    return switch (operation) {
+      case AccountOperation.Debit debit -> Optional.empty();
+      case AccountOperation.AsyncDebit asyncDebit -> Optional.empty();
+      case AccountOperation.Credit credit -> Optional.empty();
+      case AccountOperation.Hold hold -> Optional.of(hold.holdId());
+      case AccountOperation.ReleaseHold releaseHold -> Optional.of(releaseHold.holdId());
+      case AccountOperation.DebitHold debitHold -> Optional.of(debitHold.holdId());
+      case AccountOperation.CreditHold creditHold -> Optional.of(creditHold.holdId());
+      case AccountOperation.TransactionalDebit transactionalDebit ->
+          Optional.of(transactionalDebit.transactionId());
+      case AccountOperation.TransactionalCredit transactionalCredit ->
+          Optional.of(transactionalCredit.transactionId());
+      case AccountOperation.TransactionalHold transactionalHold ->
+          Optional.of(transactionalHold.transactionId());
+      case AccountOperation.TransactionalReleaseHold transactionalReleaseHold ->
+          Optional.of(transactionalReleaseHold.transactionId());
+    };
+  }
+
+  private int numShards(String accountId) {
+    Account.AccountOptions options = optionsByAccountId.get(accountId);
+    return options == null ? 1 : options.numShards();
+  }
+}
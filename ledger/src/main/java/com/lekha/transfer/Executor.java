@@ -2,19 +2,26 @@ package com.lekha.transfer;
 
 import com.lekha.account.Account;
 import com.lekha.account.AccountClient;
+import com.lekha.account.BalanceUpdateChecks;
+import com.lekha.money.Money;
 import com.lekha.utils.Saga;
 import dev.restate.sdk.Awakeable;
 import dev.restate.sdk.Context;
 import dev.restate.sdk.DurableFuture;
+import dev.restate.sdk.common.TerminalException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 public record Executor(Context ctx) {
 
   public void executeOperations(Context ctx, Planner.Plan plan) {
-    try (Saga saga = new Saga()) {
-      for (AccountOperation<?, ?> operation : plan.serialOperations()) {
-        executeOperationWithSaga(ctx, saga, operation);
+    AccountShardRouter router = AccountShardRouter.resolve(ctx, plan);
+    try (Saga saga = new Saga(ctx)) {
+      for (List<AccountCall> wave : waves(plan, router)) {
+        executeWave(ctx, router, saga, plan.operations(), wave);
       }
     }
 
@@ -22,34 +29,264 @@ public record Executor(Context ctx) {
     if (!cleanupOperations.isEmpty()) {
       List<DurableFuture<?>> cleanupResults = new ArrayList<>(cleanupOperations.size());
       for (AccountOperation<?, ?> operation : cleanupOperations) {
-        cleanupResults.add(this.executeOperationAsync(ctx, operation));
+        // Cleanups release holds, which live on exactly one account key.
+        String accountKey = router.accountKeys(ctx, operation).getFirst();
+        cleanupResults.add(this.executeOperationAsync(ctx, router, accountKey, operation));
       }
       DurableFuture.all(cleanupResults).await();
     }
   }
 
+  /** Operations of the plan, by index, that one call to their account applies in order. */
+  private record AccountCall(int wave, List<Integer> operations) {}
+
+  /**
+   * Groups the operations of the plan into account calls, and the calls into waves: a call joins
+   * the wave after the last one holding an operation it depends on, so the calls of one wave are
+   * independent of each other. An operation joins the latest call to its account when everything
+   * else it depends on ran in an earlier wave than that call; operations on sharded accounts get a
+   * call each, as each may end up on a different shard.
+   */
+  private static List<List<AccountCall>> waves(Planner.Plan plan, AccountShardRouter router) {
+    List<List<AccountCall>> waves = new ArrayList<>();
+    AccountCall[] calls = new AccountCall[plan.operations().size()];
+    Map<String, AccountCall> lastCallByAccountId = new HashMap<>();
+    for (int i = 0; i < calls.length; i++) {
+      String accountId = plan.operations().get(i).accountId();
+      AccountCall lastCall =
+          router.isSharded(accountId) ? null : lastCallByAccountId.get(accountId);
+      int wave = 0;
+      for (int dependency : plan.dependencies().get(i)) {
+        if (calls[dependency] != lastCall) {
+          wave = Math.max(wave, calls[dependency].wave() + 1);
+        }
+      }
+      if (lastCall != null && wave <= lastCall.wave()) {
+        lastCall.operations().add(i);
+        calls[i] = lastCall;
+        continue;
+      }
+      if (lastCall != null) {
+        wave = Math.max(wave, lastCall.wave() + 1);
+      }
+      calls[i] = new AccountCall(wave, new ArrayList<>(List.of(i)));
+      lastCallByAccountId.put(accountId, calls[i]);
+      if (wave == waves.size()) {
+        waves.add(new ArrayList<>());
+      }
+      waves.get(wave).add(calls[i]);
+    }
+    return waves;
+  }
+
+  /**
+   * Runs the calls of a wave concurrently. Every call that succeeds is added to the saga, even when
+   * another one of the wave fails, so that compensation undoes all of them. The saga compensates
+   * each account's calls in reverse, so an operation is undone before the earlier ones on its
+   * account, and different accounts concurrently.
+   */
+  private void executeWave(
+      Context ctx,
+      AccountShardRouter router,
+      Saga saga,
+      List<AccountOperation<?, ?>> operations,
+      List<AccountCall> wave) {
+    List<DurableFuture<?>> results = new ArrayList<>(wave.size());
+    for (AccountCall call : wave) {
+      AccountOperation<?, ?> operation = operations.get(call.operations().getFirst());
+      if (router.isSharded(operation.accountId())) {
+        // Operations on sharded accounts may move on to other shards: they run one at a time below.
+        results.add(null);
+      } else if (call.operations().size() == 1) {
+        results.add(executeOperationAsync(ctx, router, operation.accountId(), operation));
+      } else {
+        List<Account.BatchOperation> batch = new ArrayList<>(call.operations().size());
+        for (int index : call.operations()) {
+          batch.add(batchOperation(operations.get(index)));
+        }
+        results.add(
+            AccountClient.fromContext(ctx, operation.accountId())
+                .applyBatch(new Account.ApplyBatchInstruction(batch)));
+      }
+    }
+
+    TerminalException failure = null;
+    for (int i = 0; i < wave.size(); i++) {
+      AccountCall call = wave.get(i);
+      AccountOperation<?, ?> operation = operations.get(call.operations().getFirst());
+      DurableFuture<?> result = results.get(i);
+      if (result == null && failure != null) {
+        continue;
+      }
+      try {
+        if (result == null) {
+          executeOperationWithSaga(
+              ctx, router, saga, operation, () -> executeOperation(ctx, router, operation));
+        } else if (call.operations().size() == 1) {
+          executeOperationWithSaga(
+              ctx, router, saga, operation, () -> (AccountOperationResult) result.await());
+        } else {
+          List<AccountOperation<?, ?>> callOperations =
+              call.operations().stream().<AccountOperation<?, ?>>map(operations::get).toList();
+          Account.ApplyBatchResult batchResult =
+              saga.run(
+                  operation.accountId(),
+                  () -> (Account.ApplyBatchResult) result.await(),
+                  new BatchCompensation(ctx, operation.accountId(), callOperations));
+          if (batchResult.failure().isPresent()) {
+            saga.fail(new TerminalException(batchResult.failure().get()));
+          }
+        }
+      } catch (TerminalException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private <R extends AccountOperationResult, S extends AccountOperationResult>
-      void executeOperationWithSaga(Context ctx, Saga saga, AccountOperation<R, S> operation) {
+      void executeOperationWithSaga(
+          Context ctx,
+          AccountShardRouter router,
+          Saga saga,
+          AccountOperation<R, S> operation,
+          Saga.WorkflowSupplier<AccountOperationResult> execution) {
+    // Keyed by account, not shard, so that the shards of an account are compensated in order too.
     saga.run(
-        () -> executeOperation(ctx, operation),
-        result -> executeOperation(ctx, operation.reversed((R) result)));
+        operation.accountId(),
+        execution,
+        // Compensate on the account key that executed the operation, i.e. the same shard.
+        result ->
+            executeOperationAsync(
+                ctx, router, result.accountSummary().accountId(), operation.reversed((R) result)));
+  }
+
+  /**
+   * Undoes the applied operations of a batch, last first, in one call to the account. Started again
+   * after a failure, it only sends the reversals that did not apply yet, as the account applies
+   * those of a batch up to the first failure.
+   */
+  private static final class BatchCompensation
+      implements Saga.AsyncWorkflowFunction<Account.ApplyBatchResult> {
+    private final Context ctx;
+    private final String accountId;
+    private final List<AccountOperation<?, ?>> operations;
+    private int reversedCount = 0;
+
+    private BatchCompensation(
+        Context ctx, String accountId, List<AccountOperation<?, ?>> operations) {
+      this.ctx = ctx;
+      this.accountId = accountId;
+      this.operations = operations;
+    }
+
+    @Override
+    public DurableFuture<?> start(Account.ApplyBatchResult applied) {
+      if (reversedCount == applied.results().size()) {
+        return null;
+      }
+      List<Account.BatchOperation> reversals =
+          new ArrayList<>(applied.results().size() - reversedCount);
+      for (int i = applied.results().size() - 1 - reversedCount; i >= 0; i--) {
+        AccountOperation<?, ?> operation = operations.get(i);
+        AccountOperationResult result = batchOperationResult(applied, i, operation);
+        reversals.add(batchOperation(reversed(operation, result)));
+      }
+      return AccountClient.fromContext(ctx, accountId)
+          .applyBatch(new Account.ApplyBatchInstruction(reversals))
+          .map(
+              reversed -> {
+                reversedCount += reversed.results().size();
+                if (reversed.failure().isPresent()) {
+                  throw new TerminalException(reversed.failure().get());
+                }
+                return reversed;
+              });
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <R extends AccountOperationResult> AccountOperation<?, ?> reversed(
+      AccountOperation<R, ?> operation, AccountOperationResult result) {
+    return operation.reversed((R) result);
   }
 
   private AccountOperationResult executeOperation(
-      Context ctx, AccountOperation<?, ?> accountOperation) {
-    return executeOperationAsync(ctx, accountOperation).await();
+      Context ctx, AccountShardRouter router, AccountOperation<?, ?> accountOperation) {
+    if (!router.isSharded(accountOperation.accountId())) {
+      return executeOperationAsync(ctx, router, accountOperation.accountId(), accountOperation)
+          .await();
+    }
+
+    // Try the shards in turn until one has enough balance. Any other failure is the operation's.
+    List<String> accountKeys = router.accountKeys(ctx, accountOperation);
+    TerminalException lastFailure = null;
+    for (String accountKey : accountKeys) {
+      try {
+        AccountOperationResult result =
+            executeOperationAsync(ctx, router, accountKey, accountOperation).await();
+        if (lastFailure != null) {
+          // A shard ran low: even the shards out in the background.
+          requestRebalance(ctx, accountOperation);
+        }
+        return result;
+      } catch (TerminalException e) {
+        if (!BalanceUpdateChecks.isInsufficientBalance(e)) {
+          throw e;
+        }
+        lastFailure = e;
+      }
+    }
+
+    // No shard could take the operation on its own: gather the balance on one shard and retry.
+    Optional<Money> balanceAmount = AccountShardRouter.balanceAmount(accountOperation);
+    if (balanceAmount.isEmpty()) {
+      throw lastFailure;
+    }
+    Optional<String> fundedShardKey =
+        accountKeys.size() == 1 ? Optional.of(accountKeys.getFirst()) : Optional.empty();
+    Account.RebalanceResult rebalanceResult =
+        AccountClient.fromContext(ctx, accountOperation.accountId())
+            .rebalance(new Account.RebalanceInstruction(balanceAmount.get(), fundedShardKey))
+            .await();
+    return executeOperationAsync(ctx, router, rebalanceResult.fundedShardKey(), accountOperation)
+        .await();
+  }
+
+  private void requestRebalance(Context ctx, AccountOperation<?, ?> accountOperation) {
+    AccountShardRouter.balanceAmount(accountOperation)
+        .ifPresent(
+            amount ->
+                AccountClient.fromContext(ctx, accountOperation.accountId())
+                    .send()
+                    .rebalance(
+                        new Account.RebalanceInstruction(
+                            Money.zero(amount.currency()), Optional.empty())));
   }
 
+  /**
+   * Starts the operation on the account key. Credits, hold credits and hold debits of accounts that
+   * opted into group commit are queued on the account's group commit instead of called directly.
+   */
   private DurableFuture<AccountOperationResult> executeOperationAsync(
-      Context ctx, AccountOperation<?, ?> accountOperation) {
-    AccountClient.ContextClient account =
-        AccountClient.fromContext(ctx, accountOperation.accountId());
+      Context ctx,
+      AccountShardRouter router,
+      String accountKey,
+      AccountOperation<?, ?> accountOperation) {
+    AccountClient.ContextClient account = AccountClient.fromContext(ctx, accountKey);
+    boolean groupCommit = router.usesGroupCommit(accountOperation.accountId());
     Account.OperationMetadata metadata = new Account.OperationMetadata();
     return switch (accountOperation) {
       case AccountOperation.Debit operation -> {
         DurableFuture<Account.DebitResult> debitResultFuture =
-            account.debit(new Account.DebitInstruction(operation.amountToDebit(), metadata));
+            account.debit(
+                new Account.DebitInstruction(
+                    operation.amountToDebit(), metadata, operation.settledInstructions()));
         yield debitResultFuture.map(
             debitResult -> new AccountOperationResult.Debit(debitResult.accountSummary()));
       }
@@ -57,17 +294,30 @@ public record Executor(Context ctx) {
         Awakeable<Account.AsyncDebitResult> debitResultAwakeable =
             ctx.awakeable(Account.AsyncDebitResult.class);
         Account.DebitInstruction debitInstruction =
-            new Account.DebitInstruction(operation.amountToDebit(), metadata);
+            new Account.DebitInstruction(
+                operation.amountToDebit(), metadata, operation.settledInstructions());
         Account.SignalInstruction signalInstruction =
             new Account.SignalInstruction(debitResultAwakeable.id());
         account.asyncDebit(new Account.AsyncDebitInstruction(debitInstruction, signalInstruction));
         yield debitResultAwakeable.map(
             asyncDebitResult ->
-                new AccountOperationResult.Debit(asyncDebitResult.debitResult().accountSummary()));
+                new AccountOperationResult.Debit(asyncDebitResult.debitResult().accountSummary()),
+            rejection -> {
+              throw BalanceUpdateChecks.fromRejection(rejection);
+            });
       }
       case AccountOperation.Credit operation -> {
+        Account.CreditInstruction creditInstruction =
+            new Account.CreditInstruction(
+                operation.amountToCredit(), metadata, operation.settledInstructions());
         DurableFuture<Account.CreditResult> creditResultFuture =
-            account.credit(new Account.CreditInstruction(operation.amountToCredit(), metadata));
+            groupCommit
+                ? groupCommit(
+                    ctx,
+                    account,
+                    new Account.GroupCommitOperation.Credit(creditInstruction),
+                    Account.CreditResult.class)
+                : account.credit(creditInstruction);
         yield creditResultFuture.map(
             creditResult -> new AccountOperationResult.Credit(creditResult.accountSummary()));
       }
@@ -92,33 +342,55 @@ public record Executor(Context ctx) {
                     releaseHoldResult.releasedAmount()));
       }
       case AccountOperation.DebitHold operation -> {
+        Account.DebitHoldInstruction debitHoldInstruction =
+            new Account.DebitHoldInstruction(
+                operation.holdId(),
+                new Account.DebitInstruction(operation.amountToDebit(), metadata));
         DurableFuture<Account.DebitHoldResult> debitHoldResultFuture =
-            account.debitHold(
-                new Account.DebitHoldInstruction(
-                    operation.holdId(),
-                    new Account.DebitInstruction(operation.amountToDebit(), metadata)));
+            groupCommit
+                ? groupCommit(
+                    ctx,
+                    account,
+                    new Account.GroupCommitOperation.DebitHold(debitHoldInstruction),
+                    Account.DebitHoldResult.class)
+                : account.debitHold(debitHoldInstruction);
         yield debitHoldResultFuture.map(
             debitHoldResult ->
                 new AccountOperationResult.DebitHold(
                     debitHoldResult.accountSummary(), debitHoldResult.holdSummary()));
       }
       case AccountOperation.CreditHold operation -> {
+        Account.CreditHoldInstruction creditHoldInstruction =
+            new Account.CreditHoldInstruction(
+                operation.holdId(),
+                new Account.CreditInstruction(operation.amountToCredit(), metadata));
         DurableFuture<Account.CreditHoldResult> creditHoldResultFuture =
-            account.creditHold(
-                new Account.CreditHoldInstruction(
-                    operation.holdId(),
-                    new Account.CreditInstruction(operation.amountToCredit(), metadata)));
+            groupCommit
+                ? groupCommit(
+                    ctx,
+                    account,
+                    new Account.GroupCommitOperation.CreditHold(creditHoldInstruction),
+                    Account.CreditHoldResult.class)
+                : account.creditHold(creditHoldInstruction);
         yield creditHoldResultFuture.map(
             creditHoldResult ->
                 new AccountOperationResult.CreditHold(
                     creditHoldResult.accountSummary(), creditHoldResult.holdSummary()));
       }
       case AccountOperation.TransactionalCredit operation -> {
+        Account.TransactionalCreditInstruction transactionalCreditInstruction =
+            new Account.TransactionalCreditInstruction(
+                operation.transactionId(),
+                new Account.CreditInstruction(operation.amountToCredit(), metadata));
         DurableFuture<Account.TransactionalCreditResult> creditResultFuture =
-            account.transactionalCredit(
-                new Account.TransactionalCreditInstruction(
-                    operation.transactionId(),
-                    new Account.CreditInstruction(operation.amountToCredit(), metadata)));
+            groupCommit
+                ? groupCommit(
+                    ctx,
+                    account,
+                    new Account.GroupCommitOperation.TransactionalCredit(
+                        transactionalCreditInstruction),
+                    Account.TransactionalCreditResult.class)
+                : account.transactionalCredit(transactionalCreditInstruction);
         yield creditResultFuture.map(
             creditResult ->
                 new AccountOperationResult.TransactionalCredit(
@@ -159,4 +431,118 @@ public record Executor(Context ctx) {
       }
     };
   }
+
+  private static Account.BatchOperation batchOperation(AccountOperation<?, ?> accountOperation) {
+    Account.OperationMetadata metadata = new Account.OperationMetadata();
+    return switch (accountOperation) {
+      case AccountOperation.Debit operation ->
+          new Account.BatchOperation.Debit(
+              new Account.DebitInstruction(
+                  operation.amountToDebit(), metadata, operation.settledInstructions()));
+      case AccountOperation.AsyncDebit operation ->
+          new Account.BatchOperation.Debit(
+              new Account.DebitInstruction(
+                  operation.amountToDebit(), metadata, operation.settledInstructions()));
+      case AccountOperation.Credit operation ->
+          new Account.BatchOperation.Credit(
+              new Account.CreditInstruction(
+                  operation.amountToCredit(), metadata, operation.settledInstructions()));
+      case AccountOperation.Hold operation ->
+          new Account.BatchOperation.Hold(
+              new Account.HoldInstruction(operation.holdId(), operation.amountToHold(), metadata));
+      case AccountOperation.ReleaseHold operation ->
+          new Account.BatchOperation.ReleaseHold(
+              new Account.ReleaseHoldInstruction(operation.holdId(), metadata));
+      case AccountOperation.DebitHold operation ->
+          new Account.BatchOperation.DebitHold(
+              new Account.DebitHoldInstruction(
+                  operation.holdId(),
+                  new Account.DebitInstruction(operation.amountToDebit(), metadata)));
+      case AccountOperation.CreditHold operation ->
+          new Account.BatchOperation.CreditHold(
+              new Account.CreditHoldInstruction(
+                  operation.holdId(),
+                  new Account.CreditInstruction(operation.amountToCredit(), metadata)));
+      case AccountOperation.TransactionalDebit operation ->
+          new Account.BatchOperation.TransactionalDebit(
+              new Account.TransactionalDebitInstruction(
+                  operation.transactionId(),
+                  new Account.DebitInstruction(operation.amountToDebit(), metadata)));
+      case AccountOperation.TransactionalCredit operation ->
+          new Account.BatchOperation.TransactionalCredit(
+              new Account.TransactionalCreditInstruction(
+                  operation.transactionId(),
+                  new Account.CreditInstruction(operation.amountToCredit(), metadata)));
+      case AccountOperation.TransactionalHold operation ->
+          new Account.BatchOperation.TransactionalHold(
+              new Account.TransactionalHoldInstruction(
+                  operation.transactionId(), operation.amountToHold(), metadata));
+      case AccountOperation.TransactionalReleaseHold operation ->
+          new Account.BatchOperation.TransactionalReleaseHold(
+              new Account.TransactionalReleaseHoldInstruction(operation.transactionId(), metadata));
+    };
+  }
+
+  /**
+   * The result of the operation at {@code index} of an applied batch; throws the failure of the
+   * batch if it is the operation that failed.
+   */
+  private static AccountOperationResult batchOperationResult(
+      Account.ApplyBatchResult batchResult, int index, AccountOperation<?, ?> accountOperation) {
+    if (index >= batchResult.results().size()) {
+      throw new TerminalException(batchResult.failure().orElseThrow());
+    }
+    Account.BatchOperationResult result = batchResult.results().get(index);
+    Account.AccountSummary accountSummary = result.accountSummary();
+    return switch (accountOperation) {
+      case AccountOperation.Debit operation -> new AccountOperationResult.Debit(accountSummary);
+      case AccountOperation.AsyncDebit operation ->
+          new AccountOperationResult.Debit(accountSummary);
+      case AccountOperation.Credit operation -> new AccountOperationResult.Credit(accountSummary);
+      case AccountOperation.Hold operation ->
+          new AccountOperationResult.Hold(accountSummary, result.holdSummary().orElseThrow());
+      case AccountOperation.ReleaseHold operation ->
+          new AccountOperationResult.ReleaseHold(
+              accountSummary,
+              result.holdSummary().orElseThrow(),
+              result.releasedAmount().orElseThrow());
+      case AccountOperation.DebitHold operation ->
+          new AccountOperationResult.DebitHold(accountSummary, result.holdSummary().orElseThrow());
+      case AccountOperation.CreditHold operation ->
+          new AccountOperationResult.CreditHold(accountSummary, result.holdSummary().orElseThrow());
+      case AccountOperation.TransactionalDebit operation ->
+          new AccountOperationResult.TransactionalDebit(
+              accountSummary, result.holdSummary().orElseThrow());
+      case AccountOperation.TransactionalCredit operation ->
+          new AccountOperationResult.TransactionalCredit(
+              accountSummary, result.holdSummary().orElseThrow());
+      case AccountOperation.TransactionalHold operation ->
+          new AccountOperationResult.TransactionalHold(
+              accountSummary, result.holdSummary().orElseThrow());
+      case AccountOperation.TransactionalReleaseHold operation ->
+          new AccountOperationResult.TransactionalReleaseHold(
+              accountSummary,
+              result.holdSummary().orElseThrow(),
+              result.releasedAmount().orElseThrow());
+    };
+  }
+
+  /**
+   * Queues {@code operation} on the account's group commit and returns its result, which the
+   * account delivers through an awakeable once the batch is applied.
+   */
+  private static <T> DurableFuture<T> groupCommit(
+      Context ctx,
+      AccountClient.ContextClient account,
+      Account.GroupCommitOperation operation,
+      Class<T> resultClass) {
+    Awakeable<T> resultAwakeable = ctx.awakeable(resultClass);
+    account.groupCommit(
+        new Account.GroupCommitInstruction(
+            operation, new Account.SignalInstruction(resultAwakeable.id())));
+    return resultAwakeable.mapFailure(
+        rejection -> {
+          throw BalanceUpdateChecks.fromRejection(rejection);
+        });
+  }
 }
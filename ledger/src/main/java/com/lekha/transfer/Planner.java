@@ -1,12 +1,28 @@
 package com.lekha.transfer;
 
+import com.lekha.account.Account;
+import com.lekha.account.LedgerRecorder;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import dev.restate.sdk.common.TerminalException;
 import java.util.*;
-import java.util.stream.Stream;
 
 public interface Planner {
 
+  /**
+   * Account operations to execute, and the earlier operations each one waits for.
+   *
+   * @param dependencies for the operation at each index, the indexes of the earlier operations that
+   *     must succeed before it starts. Operations without a path between them may run concurrently.
+   * @param settledInstructions for the operation at each index, the indexes of the instructions it
+   *     moves money for. Netted operations settle several instructions at once. Null in plans
+   *     journaled by versions that did not write it.
+   * @param parallelCleanupOperations operations to run concurrently once all others succeeded.
+   */
   record Plan(
-      List<AccountOperation<?, ?>> serialOperations,
+      List<AccountOperation<?, ?>> operations,
+      List<List<Integer>> dependencies,
+      List<List<Integer>> settledInstructions,
       List<AccountOperation<?, ?>> parallelCleanupOperations) {}
 
   Plan plan(List<Transfer.MoveMoneyInstruction> instructions);
@@ -15,16 +31,124 @@ public interface Planner {
 
     @Override
     public Plan plan(List<Transfer.MoveMoneyInstruction> instructions) {
-      List<AccountOperation<?, ?>> operations =
-          instructions.stream().flatMap(this::toAccountOperations).toList();
-      return new Plan(operations, List.of());
+      OperationGraph graph = new OperationGraph(instructions.size() * 2);
+      for (int i = 0; i < instructions.size(); i++) {
+        Transfer.MoveMoneyInstruction instruction = instructions.get(i);
+        int debit = graph.add(getDebitOperation(instruction), List.of(), List.of(i));
+        graph.add(
+            new AccountOperation.Credit(instruction.destinationAccountId(), instruction.amount()),
+            List.of(debit),
+            List.of(i));
+      }
+      return graph.plan(List.of());
     }
+  }
+
+  /**
+   * Moves the net amount of each account across the instructions instead of every instruction: an
+   * account that pays out more than it receives is debited once by the difference, one that
+   * receives more is credited once, and one that breaks even is left alone. Per currency the debits
+   * add up to the credits, so the credits wait for all debits of their currency, as if the money
+   * passed through a clearing account. Moves out of a hold are debited on their own.
+   *
+   * <p>An operation that nets several instructions carries what each of them moved in its {@link
+   * Account.SettledInstructions}, so that the account posts one ledger entry per instruction.
+   */
+  record NettingPlanner() implements Planner {
+
+    @Override
+    public Plan plan(List<Transfer.MoveMoneyInstruction> instructions) {
+      OperationGraph graph = new OperationGraph(instructions.size());
+      Map<Currency, List<Integer>> debitsByCurrency = new EnumMap<>(Currency.class);
+      Map<NetPositionKey, NetPosition> netPositions = new LinkedHashMap<>();
+      for (int i = 0; i < instructions.size(); i++) {
+        Transfer.MoveMoneyInstruction instruction = instructions.get(i);
+        Currency currency = instruction.amount().currency();
+        if (containsHold(instruction)) {
+          int debit = graph.add(getDebitOperation(instruction), List.of(), List.of(i));
+          debitsByCurrency.computeIfAbsent(currency, c -> new ArrayList<>()).add(debit);
+        } else {
+          netPosition(netPositions, instruction.sourceAccountId(), currency)
+              .pay(instruction.amount(), i);
+        }
+        netPosition(netPositions, instruction.destinationAccountId(), currency)
+            .receive(instruction.amount(), i);
+      }
 
-    private Stream<AccountOperation<?, ?>> toAccountOperations(
-        Transfer.MoveMoneyInstruction instruction) {
-      return Stream.of(
-          getDebitOperation(instruction),
-          new AccountOperation.Credit(instruction.destinationAccountId(), instruction.amount()));
+      for (NetPosition position : netPositions.values()) {
+        if (position.net.isLessThan(Money.zero(position.net.currency()))) {
+          Money amountToDebit = Money.zero(position.net.currency()).subtract(position.net);
+          int debit =
+              graph.add(
+                  new AccountOperation.AsyncDebit(
+                      position.accountId, amountToDebit, position.settledInstructions()),
+                  List.of(),
+                  position.instructions);
+          debitsByCurrency
+              .computeIfAbsent(amountToDebit.currency(), c -> new ArrayList<>())
+              .add(debit);
+        }
+      }
+      // Shared by all credits of a currency.
+      debitsByCurrency.replaceAll((currency, debits) -> List.copyOf(debits));
+      for (NetPosition position : netPositions.values()) {
+        if (position.net.isGreaterThan(Money.zero(position.net.currency()))) {
+          graph.add(
+              new AccountOperation.Credit(
+                  position.accountId, position.net, position.settledInstructions()),
+              debitsByCurrency.getOrDefault(position.net.currency(), List.of()),
+              position.instructions);
+        }
+      }
+      return graph.plan(List.of());
+    }
+
+    private static NetPosition netPosition(
+        Map<NetPositionKey, NetPosition> netPositions, String accountId, Currency currency) {
+      return netPositions.computeIfAbsent(
+          new NetPositionKey(accountId, currency), key -> new NetPosition(accountId, currency));
+    }
+
+    private record NetPositionKey(String accountId, Currency currency) {}
+
+    /** The amount an account receives, less what it pays, over the instructions involving it. */
+    private static final class NetPosition {
+      private final String accountId;
+      private final List<Integer> instructions = new ArrayList<>();
+      private final List<LedgerRecorder.OperationDetails> received = new ArrayList<>();
+      private final List<LedgerRecorder.OperationDetails> paid = new ArrayList<>();
+      private Money net;
+
+      private NetPosition(String accountId, Currency currency) {
+        this.accountId = accountId;
+        this.net = Money.zero(currency);
+      }
+
+      private void pay(Money amount, int instruction) {
+        net = net.subtract(amount);
+        paid.add(new LedgerRecorder.OperationDetails(amount, new Account.OperationMetadata()));
+        addInstruction(instruction);
+      }
+
+      private void receive(Money amount, int instruction) {
+        net = net.add(amount);
+        received.add(new LedgerRecorder.OperationDetails(amount, new Account.OperationMetadata()));
+        addInstruction(instruction);
+      }
+
+      private Account.SettledInstructions settledInstructions() {
+        if (received.size() + paid.size() == 1) {
+          return Account.SettledInstructions.NONE;
+        }
+        return new Account.SettledInstructions(List.copyOf(received), List.copyOf(paid));
+      }
+
+      private void addInstruction(int instruction) {
+        // An instruction moving money from an account to itself pays and receives.
+        if (instructions.isEmpty() || instructions.getLast() != instruction) {
+          instructions.add(instruction);
+        }
+      }
     }
   }
 
@@ -46,20 +170,25 @@ public interface Planner {
   record TransactionalPlanner(String transactionId) implements Planner {
     @Override
     public Plan plan(List<Transfer.MoveMoneyInstruction> instructions) {
-      List<AccountOperation<?, ?>> operations = new ArrayList<>(instructions.size() * 2);
+      OperationGraph graph = new OperationGraph(instructions.size() * 2);
       Set<String> transactionalHoldAccountIds = new LinkedHashSet<>();
-      for (Transfer.MoveMoneyInstruction instruction : instructions) {
+      for (int i = 0; i < instructions.size(); i++) {
+        Transfer.MoveMoneyInstruction instruction = instructions.get(i);
+        AccountOperation<?, ?> debitOperation;
         if (!containsHold(instruction)
             && transactionalHoldAccountIds.contains(instruction.sourceAccountId())) {
-          operations.add(
+          debitOperation =
               new AccountOperation.TransactionalDebit(
-                  instruction.sourceAccountId(), transactionId, instruction.amount()));
+                  instruction.sourceAccountId(), transactionId, instruction.amount());
         } else {
-          operations.add(getDebitOperation(instruction));
+          debitOperation = getDebitOperation(instruction);
         }
-        operations.add(
+        int debit = graph.add(debitOperation, List.of(), List.of(i));
+        graph.add(
             new AccountOperation.TransactionalCredit(
-                instruction.destinationAccountId(), transactionId, instruction.amount()));
+                instruction.destinationAccountId(), transactionId, instruction.amount()),
+            List.of(debit),
+            List.of(i));
         transactionalHoldAccountIds.add(instruction.destinationAccountId());
       }
 
@@ -70,7 +199,121 @@ public interface Planner {
                 transactionalHoldAccountId, transactionId));
       }
 
-      return new Plan(operations, cleanups);
+      return graph.plan(cleanups);
+    }
+  }
+
+  /**
+   * Moves money in two phases. The first holds, on every source account at once, what the account
+   * pays out net of what it receives, under the transaction id; the second debits the holds and
+   * credits the destinations, again all at once. A hold that fails fails the transfer before any
+   * money moves, and the saga releases the holds placed. Moves out of a hold need no second hold.
+   */
+  record TwoPhasePlanner(String transactionId) implements Planner {
+
+    @Override
+    public Plan plan(List<Transfer.MoveMoneyInstruction> instructions) {
+      Map<String, Money> netOutflows = new LinkedHashMap<>();
+      Map<String, List<Integer>> outflowInstructions = new HashMap<>();
+      for (int i = 0; i < instructions.size(); i++) {
+        Transfer.MoveMoneyInstruction instruction = instructions.get(i);
+        if (!containsHold(instruction)) {
+          addNetOutflow(netOutflows, instruction.sourceAccountId(), instruction.amount());
+          outflowInstructions
+              .computeIfAbsent(instruction.sourceAccountId(), accountId -> new ArrayList<>())
+              .add(i);
+        }
+        addNetOutflow(
+            netOutflows,
+            instruction.destinationAccountId(),
+            Money.zero(instruction.amount().currency()).subtract(instruction.amount()));
+      }
+
+      OperationGraph graph = new OperationGraph(instructions.size() * 2 + netOutflows.size());
+      List<Integer> holds = new ArrayList<>();
+      netOutflows.forEach(
+          (accountId, netOutflow) -> {
+            if (netOutflow.isGreaterThan(Money.zero(netOutflow.currency()))) {
+              holds.add(
+                  graph.add(
+                      new AccountOperation.TransactionalHold(accountId, transactionId, netOutflow),
+                      List.of(),
+                      outflowInstructions.get(accountId)));
+            }
+          });
+
+      List<Integer> allHolds = List.copyOf(holds);
+      for (int i = 0; i < instructions.size(); i++) {
+        Transfer.MoveMoneyInstruction instruction = instructions.get(i);
+        AccountOperation<?, ?> debit =
+            containsHold(instruction)
+                ? getDebitOperation(instruction)
+                : new AccountOperation.TransactionalDebit(
+                    instruction.sourceAccountId(), transactionId, instruction.amount());
+        graph.add(debit, allHolds, List.of(i));
+        graph.add(
+            new AccountOperation.Credit(instruction.destinationAccountId(), instruction.amount()),
+            allHolds,
+            List.of(i));
+      }
+      return graph.plan(List.of());
+    }
+
+    private static void addNetOutflow(
+        Map<String, Money> netOutflows, String accountId, Money amount) {
+      Money netOutflow = netOutflows.get(accountId);
+      if (netOutflow != null && netOutflow.currency() != amount.currency()) {
+        throw new TerminalException(
+            "Two-phase transfers move one currency per account. Account id: " + accountId);
+      }
+      netOutflows.put(accountId, netOutflow == null ? amount : netOutflow.add(amount));
+    }
+  }
+
+  /**
+   * Builds the dependencies of a plan. An operation waits for the previous operation on its
+   * account, so each account sees its operations in instruction order and a debit sees the funds
+   * credited before it; a credit also waits for the debits funding it, so money is never credited
+   * before it has left the source accounts.
+   */
+  final class OperationGraph {
+    private final List<AccountOperation<?, ?>> operations;
+    private final List<List<Integer>> dependencies;
+    private final List<List<Integer>> settledInstructions;
+    private final Map<String, Integer> lastOperationByAccountId = new HashMap<>();
+
+    private OperationGraph(int expectedOperations) {
+      operations = new ArrayList<>(expectedOperations);
+      dependencies = new ArrayList<>(expectedOperations);
+      settledInstructions = new ArrayList<>(expectedOperations);
+    }
+
+    /**
+     * Adds {@code operation}, funded by the operations at the ascending indexes {@code
+     * fundingOperations}, and returns its index.
+     */
+    private int add(
+        AccountOperation<?, ?> operation,
+        List<Integer> fundingOperations,
+        List<Integer> instructions) {
+      int index = operations.size();
+      Integer previous = lastOperationByAccountId.put(operation.accountId(), index);
+      List<Integer> waitsFor = List.copyOf(fundingOperations);
+      if (previous != null && !fundingOperations.contains(previous)) {
+        List<Integer> withPrevious = new ArrayList<>(fundingOperations.size() + 1);
+        withPrevious.addAll(fundingOperations);
+        withPrevious.add(previous);
+        withPrevious.sort(null);
+        waitsFor = List.copyOf(withPrevious);
+      }
+      operations.add(operation);
+      dependencies.add(waitsFor);
+      settledInstructions.add(List.copyOf(instructions));
+      return index;
+    }
+
+    private Plan plan(List<AccountOperation<?, ?>> parallelCleanupOperations) {
+      return new Plan(operations, dependencies, settledInstructions, parallelCleanupOperations);
     }
   }
 }
@@ -41,6 +41,24 @@ public class Transfer {
     executor.executeOperations(ctx, plan);
   }
 
+  /**
+   * Like {@link #bulkMove}, but moves only the net amount of each account across the instructions,
+   * see {@link Planner.NettingPlanner}.
+   */
+  @Handler
+  public void nettingBulkMove(Context ctx, List<MoveMoneyInstruction> instructions) {
+    Planner.Plan plan =
+        ctx.run(
+            "plan",
+            TypeTag.of(new TypeRef<>() {}),
+            () -> {
+              Planner planner = new Planner.NettingPlanner();
+              return planner.plan(instructions);
+            });
+    Executor executor = new Executor(ctx);
+    executor.executeOperations(ctx, plan);
+  }
+
   @Handler
   public void transactionalBulkMove(Context ctx, List<MoveMoneyInstruction> instructions) {
     Planner.Plan plan =
@@ -55,4 +73,23 @@ public class Transfer {
     Executor executor = new Executor(ctx);
     executor.executeOperations(ctx, plan);
   }
+
+  /**
+   * Like {@link #transactionalBulkMove}, but holds the funds of all source accounts first and then
+   * moves them, each phase in parallel, see {@link Planner.TwoPhasePlanner}.
+   */
+  @Handler
+  public void twoPhaseBulkMove(Context ctx, List<MoveMoneyInstruction> instructions) {
+    Planner.Plan plan =
+        ctx.run(
+            "plan",
+            TypeTag.of(new TypeRef<>() {}),
+            () -> {
+              String transactionId = ctx.request().invocationId().toString();
+              Planner planner = new Planner.TwoPhasePlanner(transactionId);
+              return planner.plan(instructions);
+            });
+    Executor executor = new Executor(ctx);
+    executor.executeOperations(ctx, plan);
+  }
 }
@@ -0,0 +1,178 @@
+package com.lekha.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Chooses the {@link Batcher.Limits} of each new batch from the recent traffic of its key.
+ *
+ * <p>Per key it tracks the arrival rate of items and the execution time per item of recent batches,
+ * as exponentially weighted moving averages. A batch may hold as many items as arrive within the
+ * longest wait, capped so that executing it stays within {@link Bounds#maxBatchExecutionTime()},
+ * and waits only as long as filling it is expected to take. When fewer than two items are expected
+ * within the longest wait, waiting cannot batch anything and the shortest wait is used.
+ *
+ * <p>The statistics live in memory, so each service instance tunes the keys it sees. Handlers must
+ * journal the chosen limits (the {@link Batcher} does) since they differ between attempts. Chosen
+ * limits and batch executions are recorded as metrics tagged with the batcher name; account keys
+ * are not used as tags to keep the number of time series bounded.
+ */
+public final class AdaptiveBatchPolicy {
+
+  /** Bounds within which the limits are tuned. */
+  public record Bounds(
+      int minBatchSize,
+      int maxBatchSize,
+      Duration minBatchWait,
+      Duration maxBatchWait,
+      Duration maxBatchExecutionTime) {
+    public static final Bounds DEFAULT =
+        new Bounds(16, 1000, Duration.ofMillis(5), Duration.ofMillis(100), Duration.ofMillis(500));
+
+    public Bounds {
+      if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+        throw new IllegalArgumentException("Invalid batch size bounds");
+      }
+      if (minBatchWait.isNegative() || maxBatchWait.compareTo(minBatchWait) < 0) {
+        throw new IllegalArgumentException("Invalid batch wait bounds");
+      }
+    }
+  }
+
+  // Weight of the newest sample in the moving averages.
+  private static final double SMOOTHING = 0.2;
+  private static final int MAX_TRACKED_KEYS = 10_000;
+
+  private final Bounds bounds;
+  private final LongSupplier nanoClock;
+  private final Map<String, KeyStatistics> statistics;
+  private final DistributionSummary batchSizeLimits;
+  private final Timer batchWaitLimits;
+  private final DistributionSummary executedBatchSizes;
+  private final Timer batchExecutions;
+
+  public AdaptiveBatchPolicy(String batcherName, Bounds bounds, MeterRegistry meterRegistry) {
+    this(batcherName, bounds, meterRegistry, System::nanoTime);
+  }
+
+  AdaptiveBatchPolicy(
+      String batcherName, Bounds bounds, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+    this.bounds = bounds;
+    this.nanoClock = nanoClock;
+    this.statistics =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<String, KeyStatistics> eldest) {
+                return size() > MAX_TRACKED_KEYS;
+              }
+            });
+    this.batchSizeLimits =
+        DistributionSummary.builder("ledger.batcher.limit.size")
+            .description("Maximum number of items chosen for new batches")
+            .tag("batcher", batcherName)
+            .register(meterRegistry);
+    this.batchWaitLimits =
+        Timer.builder("ledger.batcher.limit.wait")
+            .description("Maximum wait chosen for new batches")
+            .tag("batcher", batcherName)
+            .register(meterRegistry);
+    this.executedBatchSizes =
+        DistributionSummary.builder("ledger.batcher.execution.size")
+            .description("Number of items in executed batches")
+            .tag("batcher", batcherName)
+            .register(meterRegistry);
+    this.batchExecutions =
+        Timer.builder("ledger.batcher.execution")
+            .description("Execution time of batches")
+            .tag("batcher", batcherName)
+            .register(meterRegistry);
+  }
+
+  public void recordArrival(String key) {
+    keyStatistics(key).recordArrival(nanoClock.getAsLong());
+  }
+
+  public void recordExecution(String key, int batchSize, Duration executionTime) {
+    executedBatchSizes.record(batchSize);
+    batchExecutions.record(executionTime);
+    if (batchSize > 0) {
+      keyStatistics(key).recordExecution(batchSize, executionTime.toNanos());
+    }
+  }
+
+  public Batcher.Limits limits(String key) {
+    KeyStatistics keyStatistics = keyStatistics(key);
+    double arrivalsPerNano = keyStatistics.arrivalsPerNano();
+    double nanosPerItem = keyStatistics.executionNanosPerItem();
+
+    double expectedItems = arrivalsPerNano * bounds.maxBatchWait().toNanos();
+    long batchSize =
+        clamp((long) Math.ceil(expectedItems), bounds.minBatchSize(), bounds.maxBatchSize());
+    if (nanosPerItem > 0) {
+      long executableItems = (long) (bounds.maxBatchExecutionTime().toNanos() / nanosPerItem);
+      batchSize = clamp(Math.min(batchSize, executableItems), bounds.minBatchSize(), batchSize);
+    }
+
+    long batchWaitNanos = bounds.minBatchWait().toNanos();
+    if (expectedItems >= 2) {
+      batchWaitNanos =
+          clamp(
+              (long) (batchSize / arrivalsPerNano),
+              bounds.minBatchWait().toNanos(),
+              bounds.maxBatchWait().toNanos());
+    }
+
+    Batcher.Limits limits = new Batcher.Limits((int) batchSize, batchWaitNanos / 1_000_000L);
+    batchSizeLimits.record(limits.maxBatchSize());
+    batchWaitLimits.record(limits.maxBatchWait());
+    return limits;
+  }
+
+  private KeyStatistics keyStatistics(String key) {
+    return statistics.computeIfAbsent(key, ignored -> new KeyStatistics());
+  }
+
+  private static long clamp(long value, long min, long max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static final class KeyStatistics {
+    private long lastArrivalNanos = -1;
+    // 0 until there are two arrivals or one execution.
+    private double meanInterArrivalNanos;
+    private double meanExecutionNanosPerItem;
+
+    synchronized void recordArrival(long nowNanos) {
+      if (lastArrivalNanos >= 0) {
+        // At least 1ns, so that bursts within the clock resolution still count as fast.
+        double interArrivalNanos = Math.max(nowNanos - lastArrivalNanos, 1);
+        meanInterArrivalNanos = movingAverage(meanInterArrivalNanos, interArrivalNanos);
+      }
+      lastArrivalNanos = nowNanos;
+    }
+
+    synchronized void recordExecution(int batchSize, long executionNanos) {
+      meanExecutionNanosPerItem =
+          movingAverage(meanExecutionNanosPerItem, (double) executionNanos / batchSize);
+    }
+
+    synchronized double arrivalsPerNano() {
+      return meanInterArrivalNanos > 0 ? 1 / meanInterArrivalNanos : 0;
+    }
+
+    synchronized double executionNanosPerItem() {
+      return meanExecutionNanosPerItem;
+    }
+
+    private static double movingAverage(double average, double sample) {
+      return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+  }
+}
@@ -1,29 +1,108 @@
 package com.lekha.utils;
 
+import com.lekha.serde.BinaryCodec;
+import com.lekha.serde.BinaryReader;
+import com.lekha.serde.BinaryWriter;
+import com.lekha.serde.VersionedSerde;
 import dev.restate.sdk.InvocationHandle;
 import dev.restate.sdk.ObjectContext;
 import dev.restate.sdk.common.StateKey;
 import dev.restate.sdk.common.TerminalException;
+import dev.restate.serde.Serde;
 import dev.restate.serde.TypeRef;
-import dev.restate.serde.TypeTag;
 import java.time.Duration;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * Collects items appended by invocations of one virtual object key for a single batch execution.
+ *
+ * <p>Items are stored in segments of at most {@link #SEGMENT_SIZE} items, each under its own state
+ * key, next to a small {@link Header} with the item count. An append reads and writes only the
+ * header and the tail segment, so its cost does not grow with the size of the batch, and the
+ * executor hands the segments to the consumer one at a time.
+ */
 public class Batcher<T> {
 
+  static final int SEGMENT_SIZE = 64;
+
+  /** The whole batch under one key, as written before segments; still drained by the executor. */
   public record State<T>(List<T> items, String expireInvocationId) {}
 
+  /**
+   * Limits of one batch, chosen when it starts.
+   *
+   * @param maxBatchSize number of items at which the batch is executed without further waiting.
+   * @param maxBatchWaitMillis time after which the batch is executed, however few items it has.
+   */
+  public record Limits(int maxBatchSize, long maxBatchWaitMillis) {
+    public Duration maxBatchWait() {
+      return Duration.ofMillis(maxBatchWaitMillis);
+    }
+  }
+
+  /**
+   * @param segmentSize items per segment when the batch was started.
+   * @param maxBatchSize see {@link Limits#maxBatchSize()}.
+   */
+  public record Header(int size, int segmentSize, int maxBatchSize, String expireInvocationId) {
+    int numSegments() {
+      return (size + segmentSize - 1) / segmentSize;
+    }
+  }
+
+  /** Serdes of the state keys of batchers of {@code T}, see {@link #stateSerdes}. */
+  public record StateSerdes<T>(Serde<List<T>> segment, Serde<State<T>> legacyState) {}
+
+  private static final Serde<Header> HEADER_SERDE =
+      VersionedSerde.of(
+          BinaryCodec.of(
+              (BinaryWriter out, Header header) -> {
+                out.writeVarInt(header.size());
+                out.writeVarInt(header.segmentSize());
+                out.writeVarInt(header.maxBatchSize());
+                out.writeString(header.expireInvocationId());
+              },
+              (BinaryReader in) ->
+                  new Header(in.readVarInt(), in.readVarInt(), in.readVarInt(), in.readString())));
+
   private final ObjectContext ctx;
   private final String batcherName;
-  private final TypeRef<State<T>> stateTypeRef;
+  private final StateSerdes<T> stateSerdes;
 
-  public Batcher(ObjectContext ctx, String batcherName, TypeRef<State<T>> stateTypeRef) {
+  public Batcher(ObjectContext ctx, String batcherName, StateSerdes<T> stateSerdes) {
     this.ctx = ctx;
     this.batcherName = batcherName;
-    this.stateTypeRef = stateTypeRef;
+    this.stateSerdes = stateSerdes;
+  }
+
+  /**
+   * Binary serdes of the batcher state that encode items with {@code itemCodec}.
+   *
+   * @param legacyJsonType the state type, to read batches written as JSON before the binary format.
+   */
+  public static <T> StateSerdes<T> stateSerdes(
+      BinaryCodec<T> itemCodec, TypeRef<State<T>> legacyJsonType) {
+    BinaryCodec<List<T>> segmentCodec =
+        BinaryCodec.of(
+            (BinaryWriter out, List<T> items) -> out.writeCollection(items, itemCodec),
+            (BinaryReader in) -> in.readList(itemCodec));
+    BinaryCodec<State<T>> legacyStateCodec =
+        BinaryCodec.of(
+            (BinaryWriter out, State<T> state) -> {
+              out.writeString(state.expireInvocationId());
+              out.writeCollection(state.items(), itemCodec);
+            },
+            (BinaryReader in) -> {
+              String expireInvocationId = in.readString();
+              return new State<>(in.readList(itemCodec), expireInvocationId);
+            });
+    return new StateSerdes<>(
+        VersionedSerde.of(segmentCodec),
+        VersionedSerde.of(legacyStateCodec, legacyJsonType.getType()));
   }
 
   @FunctionalInterface
@@ -36,7 +115,17 @@ public class Batcher<T> {
       int maxBatchSize,
       Duration maxBatchWaitDuration,
       BatchExecutionScheduler batchExecutionScheduler) {
-    return new Appender(maxBatchSize, maxBatchWaitDuration, batchExecutionScheduler);
+    Limits limits = new Limits(maxBatchSize, maxBatchWaitDuration.toMillis());
+    return new Appender(() -> limits, batchExecutionScheduler);
+  }
+
+  /**
+   * @param limits the limits of a new batch. Called only when the append starts a batch, and
+   *     journaled, so it may depend on in-memory state such as an {@link AdaptiveBatchPolicy}.
+   */
+  public Appender appender(
+      Supplier<Limits> limits, BatchExecutionScheduler batchExecutionScheduler) {
+    return new Appender(limits, batchExecutionScheduler);
   }
 
   public Executor executor() {
@@ -44,53 +133,111 @@ public class Batcher<T> {
   }
 
   public class Appender {
-    private final int maxBatchSize;
     private final BatchExecutionScheduler batchExecutionScheduler;
-    private final State<T> batcherState;
+    private Header header;
+    // The last segment, once read or started by this appender.
+    private List<T> tailSegment;
 
     private Appender(
-        int maxBatchSize,
-        Duration maxBatchWaitDuration,
-        BatchExecutionScheduler batchExecutionScheduler) {
-      this.maxBatchSize = maxBatchSize;
+        Supplier<Limits> limitsSupplier, BatchExecutionScheduler batchExecutionScheduler) {
       this.batchExecutionScheduler = batchExecutionScheduler;
-      Optional<State<T>> existingState = ctx.get(batcherStateKey());
-      if (existingState.isPresent()) {
-        this.batcherState = existingState.get();
+      Optional<Header> existingHeader = ctx.get(headerKey());
+      if (existingHeader.isPresent()) {
+        this.header = existingHeader.get();
+        return;
+      }
+      Limits limits = ctx.run("batch limits", Limits.class, limitsSupplier::get);
+      Optional<State<T>> legacyState = ctx.get(legacyStateKey());
+      if (legacyState.isPresent()) {
+        // Its execution is already scheduled; move the pending items into segments.
+        this.header =
+            new Header(
+                0, SEGMENT_SIZE, limits.maxBatchSize(), legacyState.get().expireInvocationId());
+        legacyState.get().items().forEach(this::append);
+        ctx.clear(legacyStateKey());
       } else {
         InvocationHandle<?> invocationHandle =
             this.batchExecutionScheduler.scheduleBatchExecution(
-                ctx, batcherName, Optional.of(maxBatchWaitDuration));
-        this.batcherState = new State<>(new LinkedList<>(), invocationHandle.invocationId());
+                ctx, batcherName, Optional.of(limits.maxBatchWait()));
+        this.header =
+            new Header(0, SEGMENT_SIZE, limits.maxBatchSize(), invocationHandle.invocationId());
       }
     }
 
+    /**
+     * Appends {@code value}. When this fills the batch, its execution is scheduled right away
+     * instead of at the end of the wait. It is not awaited: it runs after the invocations already
+     * queued on the key, whose items still join the batch.
+     */
     public void addToBatch(T value) {
-      this.batcherState.items.add(value);
-      ctx.set(batcherStateKey(), batcherState);
-      if (this.batcherState.items.size() >= maxBatchSize) {
-        InvocationHandle<?> invocationHandle =
-            this.batchExecutionScheduler.scheduleBatchExecution(ctx, batcherName, Optional.empty());
-        invocationHandle.attach().await();
+      append(value);
+      if (header.size() == header.maxBatchSize()) {
+        this.batchExecutionScheduler.scheduleBatchExecution(ctx, batcherName, Optional.empty());
+      }
+    }
+
+    private void append(T value) {
+      int segment = header.size() / header.segmentSize();
+      if (header.size() % header.segmentSize() == 0) {
+        tailSegment = new ArrayList<>();
+      } else if (tailSegment == null) {
+        tailSegment = ctx.get(segmentKey(segment)).orElseThrow(() -> missingSegment(segment));
       }
+      tailSegment.add(value);
+      ctx.set(segmentKey(segment), tailSegment);
+      header =
+          new Header(
+              header.size() + 1,
+              header.segmentSize(),
+              header.maxBatchSize(),
+              header.expireInvocationId());
+      ctx.set(headerKey(), header);
     }
   }
 
   public class Executor {
+    /**
+     * Passes the batch to {@code consumer} one segment at a time, then clears it. Does nothing when
+     * the batch was already executed because it filled up before its wait ended.
+     */
     public void executeBatch(Consumer<List<T>> consumer) {
-      State<T> existingState =
-          ctx.get(batcherStateKey())
-              .orElseThrow(
-                  () ->
-                      new TerminalException(
-                          String.format("State of batcher %s not found", batcherName)));
-      List<T> items = existingState.items;
-      consumer.accept(items);
-      ctx.clear(batcherStateKey());
+      Optional<State<T>> legacyState = ctx.get(legacyStateKey());
+      Optional<Header> header = ctx.get(headerKey());
+      if (legacyState.isPresent()) {
+        consumer.accept(legacyState.get().items());
+      }
+      if (header.isPresent()) {
+        for (int segment = 0; segment < header.get().numSegments(); segment++) {
+          int currentSegment = segment;
+          consumer.accept(
+              ctx.get(segmentKey(segment)).orElseThrow(() -> missingSegment(currentSegment)));
+        }
+      }
+
+      legacyState.ifPresent(ignored -> ctx.clear(legacyStateKey()));
+      if (header.isPresent()) {
+        for (int segment = 0; segment < header.get().numSegments(); segment++) {
+          ctx.clear(segmentKey(segment));
+        }
+        ctx.clear(headerKey());
+      }
     }
   }
 
-  private StateKey<State<T>> batcherStateKey() {
-    return StateKey.of("batcher_" + batcherName, TypeTag.of(stateTypeRef));
+  private TerminalException missingSegment(int segment) {
+    return new TerminalException(
+        String.format("Segment %d of batcher %s not found", segment, batcherName));
+  }
+
+  private StateKey<Header> headerKey() {
+    return StateKey.of("batcher_" + batcherName + "_header", HEADER_SERDE);
+  }
+
+  private StateKey<List<T>> segmentKey(int segment) {
+    return StateKey.of("batcher_" + batcherName + "_segment_" + segment, stateSerdes.segment());
+  }
+
+  private StateKey<State<T>> legacyStateKey() {
+    return StateKey.of("batcher_" + batcherName, stateSerdes.legacyState());
   }
 }
@@ -1,33 +1,57 @@
 package com.lekha.utils;
 
+import dev.restate.sdk.Context;
+import dev.restate.sdk.DurableFuture;
 import dev.restate.sdk.common.TerminalException;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Runs tasks and, when one of them fails, compensates the ones that succeeded. Each compensation
+ * has a key, e.g. the account it changes: the compensations of one key run one at a time, last
+ * registered first, while those of different keys run concurrently. A compensation that fails is
+ * started again after a backoff until it succeeds, so it must be safe to start again after a
+ * failure.
+ */
 public class Saga implements AutoCloseable {
-
-  @FunctionalInterface
-  public interface WorkflowRunnable {
-    void run() throws TerminalException;
-  }
+  private static final Duration INITIAL_RETRY_DELAY = Duration.ofMillis(100);
+  private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
 
   @FunctionalInterface
   public interface WorkflowSupplier<T> {
     T supply() throws TerminalException;
   }
 
+  /** Starts a compensation and returns its result, or null if there is nothing to compensate. */
   @FunctionalInterface
-  public interface WorkflowFunction<T> {
-    void apply(T input) throws TerminalException;
+  public interface AsyncWorkflowFunction<T> {
+    DurableFuture<?> start(T input) throws TerminalException;
   }
 
+  private interface Compensation {
+    DurableFuture<?> start() throws TerminalException;
+  }
+
+  private record KeyedCompensation(String key, Compensation compensation) {}
+
+  private final Context ctx;
   private boolean needsCompensation = false;
-  private final List<WorkflowRunnable> compensations = new ArrayList<>();
+  private final List<KeyedCompensation> compensations = new ArrayList<>();
+
+  public Saga(Context ctx) {
+    this.ctx = ctx;
+  }
 
-  public <T> T run(WorkflowSupplier<T> task, WorkflowFunction<T> compensation) {
+  /** Runs {@code task} and registers its compensation on {@code key}. */
+  public <T> T run(String key, WorkflowSupplier<T> task, AsyncWorkflowFunction<T> compensation) {
     try {
       T result = task.supply();
-      this.compensations.add(() -> compensation.apply(result));
+      this.compensations.add(new KeyedCompensation(key, () -> compensation.start(result)));
       return result;
     } catch (TerminalException e) {
       needsCompensation = true;
@@ -35,14 +59,10 @@ public class Saga implements AutoCloseable {
     }
   }
 
-  public void run(WorkflowRunnable task, WorkflowRunnable compensation) {
-    try {
-      task.run();
-      this.compensations.add(compensation);
-    } catch (TerminalException e) {
-      needsCompensation = true;
-      throw e;
-    }
+  /** Fails the saga with {@code e}, as a task throwing it would. */
+  public void fail(TerminalException e) {
+    needsCompensation = true;
+    throw e;
   }
 
   @Override
@@ -53,9 +73,97 @@ public class Saga implements AutoCloseable {
   }
 
   private void compensate() {
-    // run compensations in reverse order
+    Map<String, Deque<Compensation>> chains = new LinkedHashMap<>();
     for (int i = compensations.size() - 1; i >= 0; i--) {
-      compensations.get(i).run();
+      KeyedCompensation compensation = compensations.get(i);
+      chains
+          .computeIfAbsent(compensation.key(), key -> new ArrayDeque<>())
+          .add(compensation.compensation());
+    }
+
+    List<Chain> running = new ArrayList<>(chains.size());
+    for (Deque<Compensation> chain : chains.values()) {
+      Chain next = new Chain(chain);
+      if (next.startNext()) {
+        running.add(next);
+      }
+    }
+    while (!running.isEmpty()) {
+      List<DurableFuture<?>> pending = new ArrayList<>(running.size());
+      for (Chain chain : running) {
+        pending.add(chain.pending);
+      }
+      int index = DurableFuture.any(pending).await();
+      if (!running.get(index).advance()) {
+        running.remove(index);
+      }
+    }
+  }
+
+  /**
+   * The compensations of one key, and what it waits on: the one running, or the backoff before
+   * starting it again.
+   */
+  private final class Chain {
+    private final Deque<Compensation> compensations;
+    private Compensation current;
+    private DurableFuture<Boolean> pending;
+    private boolean backingOff;
+    private Duration retryDelay;
+
+    private Chain(Deque<Compensation> compensations) {
+      this.compensations = compensations;
+    }
+
+    /** Moves on once {@code pending} completed, and returns whether the chain still runs. */
+    private boolean advance() {
+      if (backingOff) {
+        return start() || startNext();
+      }
+      if (!pending.await()) {
+        backOff();
+        return true;
+      }
+      return startNext();
+    }
+
+    /** Starts the next compensation with something to do, and returns whether there was one. */
+    private boolean startNext() {
+      while (!compensations.isEmpty()) {
+        current = compensations.poll();
+        retryDelay = INITIAL_RETRY_DELAY;
+        if (start()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Starts {@code current}, and returns false when it had nothing to compensate. */
+    private boolean start() {
+      backingOff = false;
+      DurableFuture<?> result;
+      try {
+        result = current.start();
+      } catch (TerminalException e) {
+        backOff();
+        return true;
+      }
+      if (result == null) {
+        return false;
+      }
+      // Failures complete the future too, so that one key failing does not hide the others.
+      pending = result.map(ignored -> true, failure -> false);
+      return true;
+    }
+
+    private void backOff() {
+      backingOff = true;
+      pending = ctx.timer(retryDelay).map(ignored -> true);
+      retryDelay = retryDelay.multipliedBy(2);
+      if (retryDelay.compareTo(MAX_RETRY_DELAY) > 0) {
+        retryDelay = MAX_RETRY_DELAY;
+      }
     }
   }
 }
@@ -0,0 +1,451 @@
+package com.lekha.account;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.lekha.ledger.Ledger;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.testsetup.inmemory.InMemoryRestate;
+import com.lekha.testsetup.inmemory.KeyedState;
+import com.lekha.testsetup.inmemory.StateOperationCounts;
+import dev.restate.sdk.ObjectContext;
+import dev.restate.sdk.annotation.Handler;
+import dev.restate.sdk.annotation.Name;
+import dev.restate.sdk.annotation.VirtualObject;
+import dev.restate.sdk.common.TerminalException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Runs the Account handlers on {@link InMemoryRestate}, without the Restate test container. */
+public class AccountInMemoryTest {
+
+  private InMemoryRestate restate;
+  private String accountId;
+
+  @BeforeEach
+  public void setup() {
+    restate = new InMemoryRestate().bind(new Account()).bind(new Ledger());
+    accountId = "test-account-" + UUID.randomUUID();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    restate.close();
+  }
+
+  @Test
+  public void liabilityAccount_creditDebit() {
+    init(AccountType.LIABILITY);
+
+    Account.CreditResult creditResult =
+        call("credit", new Account.CreditInstruction(usd(1000), metadata()));
+    assertThat(creditResult.accountSummary().balances().availableBalance()).isEqualTo(usd(1000));
+
+    Account.DebitResult debitResult =
+        call("debit", new Account.DebitInstruction(usd(750), metadata()));
+    assertThat(debitResult.accountSummary().balances().availableBalance()).isEqualTo(usd(250));
+  }
+
+  @Test
+  public void liabilityAccount_debitMoreThanBalance_failsWithoutStateChange() {
+    init(AccountType.LIABILITY);
+    call("credit", new Account.CreditInstruction(usd(100), metadata()));
+
+    assertThatThrownBy(() -> call("debit", new Account.DebitInstruction(usd(101), metadata())))
+        .isInstanceOf(TerminalException.class);
+
+    Account.AccountSummary summary = call("getSummary", null);
+    assertThat(summary.balances().availableBalance()).isEqualTo(usd(100));
+  }
+
+  @Test
+  public void hold_thenRelease_restoresAvailableBalance() {
+    init(AccountType.LIABILITY);
+    call("credit", new Account.CreditInstruction(usd(1000), metadata()));
+
+    Account.HoldResult holdResult =
+        call("hold", new Account.HoldInstruction("hold-1", usd(400), metadata()));
+    assertThat(holdResult.accountSummary().balances().availableBalance()).isEqualTo(usd(600));
+    assertThat(holdResult.accountSummary().balances().holdBalance()).isEqualTo(usd(400));
+
+    Account.ReleaseHoldResult releaseHoldResult =
+        call("releaseHold", new Account.ReleaseHoldInstruction("hold-1", metadata()));
+    assertThat(releaseHoldResult.releasedAmount()).isEqualTo(usd(400));
+    assertThat(releaseHoldResult.accountSummary().balances().availableBalance())
+        .isEqualTo(usd(1000));
+  }
+
+  @Test
+  public void asyncDebit_resolvesEveryAwakeableOnceTheBatchRuns() throws Exception {
+    init(AccountType.LIABILITY);
+    call("credit", new Account.CreditInstruction(usd(250), metadata()));
+
+    List<InMemoryRestate.InMemoryAwakeable<Account.AsyncDebitResult>> awakeables =
+        new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      InMemoryRestate.InMemoryAwakeable<Account.AsyncDebitResult> awakeable =
+          restate.awakeable(Account.AsyncDebitResult.class);
+      awakeables.add(awakeable);
+      call(
+          "asyncDebit",
+          new Account.AsyncDebitInstruction(
+              new Account.DebitInstruction(usd(100), metadata()),
+              new Account.SignalInstruction(awakeable.id())));
+    }
+    restate.awaitIdle(Duration.ofSeconds(10));
+
+    // The third debit does not fit in the remaining balance.
+    assertThat(awakeables.get(0).result().get(1, TimeUnit.SECONDS))
+        .isInstanceOf(Account.AsyncDebitResult.class);
+    assertThat(awakeables.get(1).result().get(1, TimeUnit.SECONDS))
+        .isInstanceOf(Account.AsyncDebitResult.class);
+    assertThat(awakeables.get(2).result().isCompletedExceptionally()).isTrue();
+    Account.AccountSummary summary = call("getSummary", null);
+    assertThat(summary.balances().availableBalance()).isEqualTo(usd(50));
+  }
+
+  @Test
+  public void asyncDebit_appendCostDoesNotGrowWithTheBatch() throws Exception {
+    init(AccountType.LIABILITY);
+    call("credit", new Account.CreditInstruction(usd(1000), metadata()));
+    restate.resetStateOperationCounts();
+
+    // Spans several segments of the batcher.
+    int numDebits = 200;
+    List<InMemoryRestate.InMemoryAwakeable<Account.AsyncDebitResult>> awakeables =
+        new ArrayList<>();
+    for (int i = 0; i < numDebits; i++) {
+      InMemoryRestate.InMemoryAwakeable<Account.AsyncDebitResult> awakeable =
+          restate.awakeable(Account.AsyncDebitResult.class);
+      awakeables.add(awakeable);
+      call(
+          "asyncDebit",
+          new Account.AsyncDebitInstruction(
+              new Account.DebitInstruction(usd(1), metadata()),
+              new Account.SignalInstruction(awakeable.id())));
+    }
+    restate.awaitIdle(Duration.ofSeconds(10));
+
+    StateOperationCounts appendCounts = restate.stateOperationCounts().get("Account/asyncDebit");
+    assertThat(appendCounts.sets()).isEqualTo(2L * numDebits);
+    assertThat(appendCounts.gets()).isLessThanOrEqualTo(2L * numDebits);
+    for (InMemoryRestate.InMemoryAwakeable<Account.AsyncDebitResult> awakeable : awakeables) {
+      assertThat(awakeable.result().get(1, TimeUnit.SECONDS))
+          .isInstanceOf(Account.AsyncDebitResult.class);
+    }
+    Account.AccountSummary summary = call("getSummary", null);
+    assertThat(summary.balances().availableBalance()).isEqualTo(usd(800));
+    assertThat(restate.state("Account", accountId).snapshot().keySet()).containsExactly("account");
+  }
+
+  @Test
+  public void groupCommit_appliesQueuedOperationsInOneStateUpdate() throws Exception {
+    init(AccountType.LIABILITY);
+    restate.resetStateOperationCounts();
+
+    List<Account.GroupCommitOperation> operations =
+        List.of(
+            new Account.GroupCommitOperation.Credit(
+                new Account.CreditInstruction(usd(100), metadata())),
+            new Account.GroupCommitOperation.CreditHold(
+                new Account.CreditHoldInstruction(
+                    "hold-1", new Account.CreditInstruction(usd(50), metadata()))),
+            new Account.GroupCommitOperation.TransactionalCredit(
+                new Account.TransactionalCreditInstruction(
+                    "transaction-1", new Account.CreditInstruction(usd(30), metadata()))),
+            // More than the hold has: fails without affecting the other operations.
+            new Account.GroupCommitOperation.DebitHold(
+                new Account.DebitHoldInstruction(
+                    "hold-1", new Account.DebitInstruction(usd(80), metadata()))),
+            new Account.GroupCommitOperation.DebitHold(
+                new Account.DebitHoldInstruction(
+                    "hold-1", new Account.DebitInstruction(usd(20), metadata()))));
+    // Each operation resolves its awakeable with the result type of that operation.
+    List<Class<?>> resultTypes =
+        List.of(
+            Account.CreditResult.class,
+            Account.CreditHoldResult.class,
+            Account.TransactionalCreditResult.class,
+            Account.DebitHoldResult.class,
+            Account.DebitHoldResult.class);
+    List<InMemoryRestate.InMemoryAwakeable<?>> awakeables = new ArrayList<>();
+    List<CompletableFuture<Void>> appends = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      InMemoryRestate.InMemoryAwakeable<?> awakeable = restate.awakeable(resultTypes.get(i));
+      awakeables.add(awakeable);
+      // Queued together, so that they usually join the same batch. The batch wait starts with the
+      // first one though, so a slow test thread may still see them split.
+      appends.add(
+          restate.call(
+              "Account",
+              accountId,
+              "groupCommit",
+              new Account.GroupCommitInstruction(
+                  operations.get(i), new Account.SignalInstruction(awakeable.id()))));
+    }
+    appends.forEach(CompletableFuture::join);
+    restate.awaitIdle(Duration.ofSeconds(10));
+
+    assertThat(awakeables.get(0).result().get(1, TimeUnit.SECONDS))
+        .isInstanceOf(Account.CreditResult.class);
+    assertThat(awakeables.get(1).result().get(1, TimeUnit.SECONDS))
+        .isInstanceOf(Account.CreditHoldResult.class);
+    assertThat(awakeables.get(2).result().get(1, TimeUnit.SECONDS))
+        .isInstanceOf(Account.TransactionalCreditResult.class);
+    assertThat(awakeables.get(3).result().isCompletedExceptionally()).isTrue();
+    Account.DebitHoldResult debitHoldResult =
+        (Account.DebitHoldResult) awakeables.get(4).result().get(1, TimeUnit.SECONDS);
+    assertThat(debitHoldResult.holdSummary().balance()).isEqualTo(usd(30));
+
+    StateOperationCounts executionCounts =
+        restate.stateOperationCounts().get("Account/executeGroupCommit");
+    // Each key the operations touch, the account and its two holds, is written at most once per
+    // batch, however the operations were split into batches.
+    assertThat(executionCounts.sets()).isLessThanOrEqualTo(3 * executionCounts.invocations());
+    Account.AccountSummary summary = call("getSummary", null);
+    assertThat(summary.balances().availableBalance()).isEqualTo(usd(100));
+    assertThat(summary.balances().holdBalance()).isEqualTo(usd(60));
+    assertThat(restate.state("Account", accountId).snapshot().keySet())
+        .containsExactlyInAnyOrder("account", "hold_hold-1", "hold_transaction-1");
+  }
+
+  @Test
+  public void applyBatch_appliesOperationsInOneStateUpdate_andStopsAtTheFirstFailure()
+      throws Exception {
+    init(AccountType.LIABILITY);
+    restate.awaitIdle(Duration.ofSeconds(10));
+    restate.resetStateOperationCounts();
+
+    Account.ApplyBatchResult batchResult =
+        call(
+            "applyBatch",
+            new Account.ApplyBatchInstruction(
+                List.of(
+                    new Account.BatchOperation.Credit(
+                        new Account.CreditInstruction(usd(100), metadata())),
+                    new Account.BatchOperation.Hold(
+                        new Account.HoldInstruction("hold-1", usd(40), metadata())),
+                    new Account.BatchOperation.DebitHold(
+                        new Account.DebitHoldInstruction(
+                            "hold-1", new Account.DebitInstruction(usd(10), metadata()))),
+                    // More than is available: fails, and the operations after it are not applied.
+                    new Account.BatchOperation.Debit(
+                        new Account.DebitInstruction(usd(100), metadata())),
+                    new Account.BatchOperation.Credit(
+                        new Account.CreditInstruction(usd(5), metadata())))));
+    restate.awaitIdle(Duration.ofSeconds(10));
+
+    assertThat(batchResult.results()).hasSize(3);
+    assertThat(batchResult.failure().isPresent()).isTrue();
+    Account.BatchOperationResult debitHoldResult = batchResult.results().get(2);
+    assertThat(debitHoldResult.holdSummary().get().balance()).isEqualTo(usd(30));
+    assertThat(debitHoldResult.accountSummary().balances().availableBalance()).isEqualTo(usd(60));
+
+    // Once for the account key and once for the key of its hold.
+    StateOperationCounts batchCounts = restate.stateOperationCounts().get("Account/applyBatch");
+    assertThat(batchCounts.gets()).isEqualTo(2L);
+    assertThat(batchCounts.sets()).isEqualTo(2L);
+    assertThat(restate.stateOperationCounts().get("Ledger/recordEntries").invocations())
+        .isEqualTo(1L);
+    Account.AccountSummary summary = call("getSummary", null);
+    assertThat(summary.balances().availableBalance()).isEqualTo(usd(60));
+    assertThat(summary.balances().holdBalance()).isEqualTo(usd(30));
+  }
+
+  @Test
+  public void restore_undoesHoldChangesMadeAfterTheSnapshot() {
+    restate.bind(new AccountStateProbe());
+
+    List<String> holds =
+        restate.<List<String>>call("AccountStateProbe", accountId, "restoreHolds", null).join();
+
+    assertThat(holds).containsExactly("kept=10", "changed=20", "removed=30", "added=absent");
+  }
+
+  @Test
+  public void assetAccount_transactionalHold_holdsNothing() {
+    init(AccountType.ASSET);
+
+    Account.HoldResult holdResult =
+        call(
+            "transactionalHold",
+            new Account.TransactionalHoldInstruction("transaction-1", usd(100), metadata()));
+
+    assertThat(holdResult.holdSummary().balance()).isEqualTo(usd(0));
+    assertThat(holdResult.accountSummary().balances().holdBalance()).isEqualTo(usd(0));
+    Account.TransactionalReleaseHoldResult releaseResult =
+        call(
+            "transactionReleaseHold",
+            new Account.TransactionalReleaseHoldInstruction("transaction-1", metadata()));
+    assertThat(releaseResult.releasedAmount()).isEqualTo(usd(0));
+  }
+
+  @Test
+  public void debit_readsAndWritesAccountStateOnce() {
+    init(AccountType.LIABILITY);
+    call("credit", new Account.CreditInstruction(usd(1000), metadata()));
+    for (int i = 0; i < 10; i++) {
+      call("hold", new Account.HoldInstruction("hold-" + i, usd(10), metadata()));
+    }
+    restate.resetStateOperationCounts();
+
+    call("debit", new Account.DebitInstruction(usd(100), metadata()));
+    call("hold", new Account.HoldInstruction("hold-10", usd(100), metadata()));
+
+    // Open holds are neither read nor rewritten by a balance update.
+    StateOperationCounts debitCounts = restate.stateOperationCounts().get("Account/debit");
+    assertThat(debitCounts.gets()).isEqualTo(1L);
+    assertThat(debitCounts.sets()).isEqualTo(1L);
+    // A new hold touches the account key and its own key.
+    StateOperationCounts holdCounts = restate.stateOperationCounts().get("Account/hold");
+    assertThat(holdCounts.gets()).isEqualTo(2L);
+    assertThat(holdCounts.sets()).isEqualTo(2L);
+  }
+
+  @Test
+  public void everyInvocation_postsItsLedgerEntriesInOneCall() throws Exception {
+    init(AccountType.LIABILITY);
+    call("credit", new Account.CreditInstruction(usd(1000), metadata()));
+    restate.awaitIdle(Duration.ofSeconds(10));
+    restate.resetStateOperationCounts();
+
+    // Each records a balance and a hold entry.
+    call("hold", new Account.HoldInstruction("hold-1", usd(100), metadata()));
+    call("releaseHold", new Account.ReleaseHoldInstruction("hold-1", metadata()));
+    restate.awaitIdle(Duration.ofSeconds(10));
+
+    assertThat(restate.stateOperationCounts().keySet())
+        .containsExactlyInAnyOrder("Account/hold", "Account/releaseHold", "Ledger/recordEntries");
+    assertThat(restate.stateOperationCounts().get("Ledger/recordEntries").invocations())
+        .isEqualTo(2L);
+  }
+
+  @Test
+  public void legacyPerPartState_isMigratedOnFirstWrite() {
+    KeyedState state = restate.state("Account", accountId);
+    state.put(
+        "account_options",
+        AccountStateSerdes.OPTIONS,
+        new AccountOptionsState.State(AccountType.LIABILITY, Currency.USD, 0, false));
+    state.put(
+        "account_balances_state",
+        AccountStateSerdes.BALANCES,
+        new AccountBalancesState.State(usd(600), usd(400)));
+    state.put(
+        "hold_hold-1",
+        AccountStateSerdes.HOLD,
+        new HoldBalanceState.State(
+            new HoldBalanceState.HoldDetails("hold-1", Account.HoldType.USER), usd(400)));
+
+    Account.AccountSummary summary = call("getSummary", null);
+    assertThat(summary.balances().availableBalance()).isEqualTo(usd(600));
+    assertThat(state.snapshot().keySet()).contains("account_options");
+
+    call("debit", new Account.DebitInstruction(usd(100), metadata()));
+    assertThat(state.snapshot().keySet()).containsExactlyInAnyOrder("account", "hold_hold-1");
+
+    Account.ReleaseHoldResult releaseHoldResult =
+        call("releaseHold", new Account.ReleaseHoldInstruction("hold-1", metadata()));
+    assertThat(releaseHoldResult.releasedAmount()).isEqualTo(usd(400));
+    assertThat(releaseHoldResult.accountSummary().balances().availableBalance())
+        .isEqualTo(usd(900));
+  }
+
+  @Test
+  public void holdsInsideTheAccountKey_areMovedToTheirOwnKeysOnFirstWrite() {
+    KeyedState state = restate.state("Account", accountId);
+    state.put(
+        "account",
+        AccountStateSerdes.ACCOUNT_STATE,
+        new AccountState.State(
+            new AccountOptionsState.State(AccountType.LIABILITY, Currency.USD, 0, false),
+            new AccountBalancesState.State(usd(600), usd(400)),
+            Map.of(
+                "hold-1",
+                new HoldBalanceState.State(
+                    new HoldBalanceState.HoldDetails("hold-1", Account.HoldType.USER), usd(400)))));
+
+    call("debit", new Account.DebitInstruction(usd(100), metadata()));
+    assertThat(state.snapshot().keySet()).containsExactlyInAnyOrder("account", "hold_hold-1");
+    assertThat(state.get("account", AccountStateSerdes.ACCOUNT_STATE).orElseThrow().holds())
+        .isEmpty();
+
+    Account.ReleaseHoldResult releaseHoldResult =
+        call("releaseHold", new Account.ReleaseHoldInstruction("hold-1", metadata()));
+    assertThat(releaseHoldResult.releasedAmount()).isEqualTo(usd(400));
+    assertThat(releaseHoldResult.accountSummary().balances().availableBalance())
+        .isEqualTo(usd(900));
+    assertThat(state.snapshot().keySet()).containsExactly("account");
+  }
+
+  /** Changes holds after a snapshot and reports them once the snapshot is restored. */
+  @VirtualObject
+  @Name("AccountStateProbe")
+  public static class AccountStateProbe {
+    @Handler
+    public List<String> restoreHolds(ObjectContext ctx) {
+      AccountState state = AccountState.of(ctx);
+      state.setHold("kept", hold("kept", 10));
+      state.setHold("changed", hold("changed", 20));
+      state.setHold("removed", hold("removed", 30));
+
+      AccountState.Snapshot snapshot = state.snapshot();
+      state.setHold("changed", hold("changed", 21));
+      state.setHold("changed", hold("changed", 22));
+      state.removeHold("removed");
+      state.setHold("added", hold("added", 40));
+      state.restore(snapshot);
+
+      List<String> holds = new ArrayList<>();
+      for (String holdId : List.of("kept", "changed", "removed", "added")) {
+        holds.add(
+            holdId
+                + "="
+                + state
+                    .hold(holdId)
+                    .map(hold -> hold.availableBalance().amountInMinorUnitsString())
+                    .orElse("absent"));
+      }
+      return holds;
+    }
+
+    private static HoldBalanceState.State hold(String holdId, long amount) {
+      return new HoldBalanceState.State(
+          new HoldBalanceState.HoldDetails(holdId, Account.HoldType.USER), usd(amount));
+    }
+  }
+
+  private void init(AccountType accountType) {
+    call(
+        "init", new Account.InitInstruction(new Account.AccountOptions(accountType, Currency.USD)));
+  }
+
+  private <R> R call(String handler, Object input) {
+    try {
+      return restate.<R>call("Account", accountId, handler, input).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private static Money usd(long amount) {
+    return Money.of(Currency.USD, amount);
+  }
+
+  private static Account.OperationMetadata metadata() {
+    return OperationMetadataFactory.createOperationMetadata();
+  }
+}
@@ -0,0 +1,180 @@
+package com.lekha.account;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.utils.Batcher;
+import dev.restate.common.Slice;
+import dev.restate.serde.Serde;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class AccountStateSerdesTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void accountState_roundTripsAndIsSmallerThanJson() throws Exception {
+    AccountState.State state = accountState(100);
+
+    byte[] binary = AccountStateSerdes.ACCOUNT_STATE.serialize(state).toByteArray();
+
+    assertThat(AccountStateSerdes.ACCOUNT_STATE.deserialize(Slice.wrap(binary))).isEqualTo(state);
+    assertThat(binary.length).isLessThan(objectMapper.writeValueAsBytes(state).length / 3);
+  }
+
+  @Test
+  public void money_roundTripsNegativeAndBigAmounts() {
+    Money big =
+        new Money(Currency.EUR, BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.TEN));
+    AccountBalancesState.State balances =
+        new AccountBalancesState.State(Money.of(Currency.EUR, -12_345L), big);
+
+    AccountBalancesState.State decoded = roundTrip(AccountStateSerdes.BALANCES, balances);
+
+    assertThat(decoded).isEqualTo(balances);
+    assertThat(decoded.holdBalance().isLongAmount()).isFalse();
+  }
+
+  @Test
+  public void legacyJson_isReadTransparently() throws Exception {
+    AccountState.State state = accountState(3);
+    AccountOptionsState.State options = state.options();
+    HoldBalanceState.State hold = state.holds().values().iterator().next();
+
+    assertThat(fromJson(AccountStateSerdes.ACCOUNT_STATE, state)).isEqualTo(state);
+    assertThat(fromJson(AccountStateSerdes.OPTIONS, options)).isEqualTo(options);
+    assertThat(fromJson(AccountStateSerdes.BALANCES, state.balances())).isEqualTo(state.balances());
+    assertThat(fromJson(AccountStateSerdes.HOLD, hold)).isEqualTo(hold);
+  }
+
+  @Test
+  public void batcherState_roundTripsFromBinaryAndJsonIntoMutableLists() throws Exception {
+    List<Account.AsyncDebitInstruction> items = new LinkedList<>();
+    for (int i = 0; i < 3; i++) {
+      items.add(
+          new Account.AsyncDebitInstruction(
+              new Account.DebitInstruction(
+                  Money.of(Currency.USD, 100L + i),
+                  new Account.OperationMetadata(),
+                  i == 0 ? settledInstructions() : Account.SettledInstructions.NONE),
+              new Account.SignalInstruction("sign_" + i)));
+    }
+    Batcher.State<Account.AsyncDebitInstruction> state = new Batcher.State<>(items, "inv_1");
+    Batcher.StateSerdes<Account.AsyncDebitInstruction> serdes = AccountStateSerdes.DEBIT_BATCHER;
+
+    List<Account.AsyncDebitInstruction> segment = roundTrip(serdes.segment(), items);
+    Batcher.State<Account.AsyncDebitInstruction> decoded = roundTrip(serdes.legacyState(), state);
+
+    assertThat(segment).isEqualTo(List.copyOf(items));
+    segment.add(items.get(0));
+    assertThat(decoded).isEqualTo(new Batcher.State<>(List.copyOf(items), "inv_1"));
+    decoded.items().add(items.get(0));
+    assertThat(fromJson(serdes.legacyState(), state)).isEqualTo(state);
+  }
+
+  @Test
+  public void groupCommitInstructions_roundTripEveryOperation() {
+    Account.OperationMetadata metadata = new Account.OperationMetadata();
+    Account.CreditInstruction credit =
+        new Account.CreditInstruction(Money.of(Currency.USD, 10L), metadata);
+    List<Account.GroupCommitOperation> operations =
+        List.of(
+            new Account.GroupCommitOperation.Credit(credit),
+            new Account.GroupCommitOperation.Credit(
+                new Account.CreditInstruction(
+                    Money.of(Currency.USD, 10L), metadata, settledInstructions())),
+            new Account.GroupCommitOperation.CreditHold(
+                new Account.CreditHoldInstruction("hold-1", credit)),
+            new Account.GroupCommitOperation.TransactionalCredit(
+                new Account.TransactionalCreditInstruction("transaction-1", credit)),
+            new Account.GroupCommitOperation.DebitHold(
+                new Account.DebitHoldInstruction(
+                    "hold-1", new Account.DebitInstruction(Money.of(Currency.USD, 5L), metadata))));
+    List<Account.GroupCommitInstruction> items = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      items.add(
+          new Account.GroupCommitInstruction(
+              operations.get(i), new Account.SignalInstruction("sign_" + i)));
+    }
+
+    assertThat(roundTrip(AccountStateSerdes.GROUP_COMMIT_BATCHER.segment(), items))
+        .isEqualTo(items);
+  }
+
+  @Test
+  public void optionsWrittenBeforeGroupCommit_readWithGroupCommitOff() {
+    // Format version 1: ASSET, USD, 4 shards.
+    byte[] v1 = {1, (byte) AccountType.ASSET.ordinal(), (byte) Currency.USD.ordinal(), 4};
+
+    assertThat(AccountStateSerdes.OPTIONS.deserialize(Slice.wrap(v1)))
+        .isEqualTo(new AccountOptionsState.State(AccountType.ASSET, Currency.USD, 4, false));
+  }
+
+  @Test
+  public void asyncDebitsQueuedBeforeSettledInstructions_readWithoutThem() {
+    Serde<List<Account.AsyncDebitInstruction>> serde = AccountStateSerdes.DEBIT_BATCHER.segment();
+    List<Account.AsyncDebitInstruction> items =
+        List.of(
+            new Account.AsyncDebitInstruction(
+                new Account.DebitInstruction(
+                    Money.of(Currency.USD, 100L), new Account.OperationMetadata()),
+                new Account.SignalInstruction("sign_0")));
+    byte[] binary = serde.serialize(items).toByteArray();
+    // Format version 2 ends the instruction after its signal: drop the two empty lists.
+    byte[] v2 = Arrays.copyOf(binary, binary.length - 2);
+    v2[0] = 2;
+
+    assertThat(serde.deserialize(Slice.wrap(v2))).isEqualTo(items);
+  }
+
+  @Test
+  public void unknownVersion_fails() {
+    assertThatThrownBy(
+            () -> AccountStateSerdes.OPTIONS.deserialize(Slice.wrap(new byte[] {42, 0, 0, 1})))
+        .hasMessageContaining("Unknown binary state format version 42");
+  }
+
+  private static Account.SettledInstructions settledInstructions() {
+    Account.OperationMetadata metadata = new Account.OperationMetadata();
+    return new Account.SettledInstructions(
+        List.of(new LedgerRecorder.OperationDetails(Money.of(Currency.USD, 30L), metadata)),
+        List.of(
+            new LedgerRecorder.OperationDetails(Money.of(Currency.USD, 100L), metadata),
+            new LedgerRecorder.OperationDetails(Money.of(Currency.USD, 30L), metadata)));
+  }
+
+  private static AccountState.State accountState(int numHolds) {
+    Map<String, HoldBalanceState.State> holds = new LinkedHashMap<>();
+    for (int i = 0; i < numHolds; i++) {
+      String holdId = "hold-" + i;
+      Account.HoldType holdType = i % 2 == 0 ? Account.HoldType.USER : Account.HoldType.TRANSACTION;
+      holds.put(
+          holdId,
+          new HoldBalanceState.State(
+              new HoldBalanceState.HoldDetails(holdId, holdType), Money.of(Currency.USD, 500L)));
+    }
+    return new AccountState.State(
+        new AccountOptionsState.State(AccountType.LIABILITY, Currency.USD, 4, true),
+        new AccountBalancesState.State(
+            Money.of(Currency.USD, 1_000_000L), Money.of(Currency.USD, 500L * numHolds)),
+        holds);
+  }
+
+  private static <T> T roundTrip(Serde<T> serde, T value) {
+    return serde.deserialize(serde.serialize(value));
+  }
+
+  private <T> T fromJson(Serde<T> serde, T value) throws Exception {
+    return serde.deserialize(Slice.wrap(objectMapper.writeValueAsBytes(value)));
+  }
+}
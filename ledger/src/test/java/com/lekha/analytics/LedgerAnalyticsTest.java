@@ -0,0 +1,198 @@
+package com.lekha.analytics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.lekha.account.Account;
+import com.lekha.account.AccountType;
+import com.lekha.clock.HybridLogicalClock;
+import com.lekha.ledger.Ledger;
+import com.lekha.ledger.journal.LedgerJournal;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LedgerAnalyticsTest {
+
+  private static final LedgerJournal.Options SMALL_SEGMENTS =
+      new LedgerJournal.Options(
+          4096,
+          LedgerJournal.Durability.GroupCommit.DEFAULT,
+          256,
+          new LedgerJournal.Compression.None());
+
+  // "pending" is never resolved, so its entries are of an unknown type.
+  private static final Map<String, AccountType> ACCOUNT_TYPES =
+      Map.of(
+          "asset", AccountType.ASSET,
+          "liability-1", AccountType.LIABILITY,
+          "liability-2", AccountType.LIABILITY);
+
+  @TempDir Path directory;
+
+  @Test
+  public void aggregate_groupsFedEntries_byBucket_operation_andAccountType() throws Exception {
+    LedgerAnalytics analytics = feed(this::appendTransfers, 5);
+
+    List<LedgerAnalytics.Group> groups =
+        analytics.aggregate(
+            new LedgerAnalytics.Query(
+                1_000,
+                3_000,
+                Duration.ofSeconds(1),
+                EnumSet.of(
+                    LedgerAnalytics.Dimension.OPERATION, LedgerAnalytics.Dimension.ACCOUNT_TYPE)));
+
+    assertThat(groups)
+        .containsExactly(
+            new LedgerAnalytics.Group(
+                1_000,
+                Currency.USD,
+                Optional.of(Ledger.Operation.DEBIT),
+                Optional.of(AccountType.ASSET),
+                2,
+                300),
+            new LedgerAnalytics.Group(
+                1_000,
+                Currency.USD,
+                Optional.of(Ledger.Operation.CREDIT),
+                Optional.of(AccountType.LIABILITY),
+                2,
+                300),
+            new LedgerAnalytics.Group(
+                2_000,
+                Currency.EUR,
+                Optional.of(Ledger.Operation.CREDIT),
+                Optional.empty(),
+                1,
+                50));
+  }
+
+  @Test
+  public void aggregate_withoutDimensions_sumsPerBucketAndCurrency_withinThePeriod()
+      throws Exception {
+    LedgerAnalytics analytics = feed(this::appendTransfers, 5);
+
+    List<LedgerAnalytics.Group> groups =
+        analytics.aggregate(
+            new LedgerAnalytics.Query(1_200, 2_600, Duration.ofMillis(700), Set.of()));
+
+    assertThat(groups)
+        .containsExactly(
+            new LedgerAnalytics.Group(
+                1_200, Currency.USD, Optional.empty(), Optional.empty(), 2, 400),
+            new LedgerAnalytics.Group(
+                1_900, Currency.EUR, Optional.empty(), Optional.empty(), 1, 50));
+  }
+
+  @Test
+  public void topAccounts_rankAccountsByVolume_acrossChunks() throws Exception {
+    // More entries than a chunk holds, so queries merge several.
+    int records = ColumnChunk.ROWS / 10 + 1;
+    LedgerAnalytics analytics =
+        feed(
+            journal -> {
+              for (int i = 0; i < records; i++) {
+                String accountId = "account-" + (i % 5);
+                List<Ledger.Entry> entries = new ArrayList<>();
+                for (int entry = 0; entry < 10; entry++) {
+                  entries.add(entry(Ledger.Operation.CREDIT, Money.of(Currency.USD, i % 5 + 1)));
+                }
+                journal.append(
+                    "inv_" + i + "_ledger", HybridLogicalClock.lowest(i), accountId, entries);
+              }
+            },
+            records * 10L);
+
+    List<LedgerAnalytics.AccountVolume> top = analytics.topAccounts(0, records, Currency.USD, 2);
+
+    assertThat(top)
+        .containsExactly(
+            new LedgerAnalytics.AccountVolume("account-4", Currency.USD, 13_100, 65_500),
+            new LedgerAnalytics.AccountVolume("account-3", Currency.USD, 13_110, 52_440));
+    assertThat(analytics.topAccounts(0, records, Currency.EUR, 2)).isEmpty();
+  }
+
+  @Test
+  public void queries_withTooManyGroups_areRejected() {
+    LedgerAnalytics analytics = new LedgerAnalytics(accountId -> new CompletableFuture<>());
+
+    assertThatThrownBy(
+            () ->
+                analytics.aggregate(
+                    new LedgerAnalytics.Query(0, 1_000_000_000, Duration.ofMillis(1), Set.of())))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(
+            () -> new LedgerAnalytics.Query(1_000, 1_000, Duration.ofSeconds(1), Set.of()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private interface Appender {
+    void append(LedgerJournal journal);
+  }
+
+  private LedgerAnalytics feed(Appender appender, long expectedEntries) throws Exception {
+    LedgerAnalytics analytics =
+        new LedgerAnalytics(
+            accountId ->
+                ACCOUNT_TYPES.containsKey(accountId)
+                    ? CompletableFuture.completedFuture(ACCOUNT_TYPES.get(accountId))
+                    : new CompletableFuture<>());
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      journal.changes(0, executor).subscribe(analytics);
+      appender.append(journal);
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      while (analytics.entryCount() < expectedEntries && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(analytics.entryCount()).isEqualTo(expectedEntries);
+    return analytics;
+  }
+
+  private void appendTransfers(LedgerJournal journal) {
+    append(journal, 1_000, "asset", Ledger.Operation.DEBIT, Money.of(Currency.USD, 100));
+    append(journal, 1_000, "liability-1", Ledger.Operation.CREDIT, Money.of(Currency.USD, 100));
+    append(journal, 1_500, "asset", Ledger.Operation.DEBIT, Money.of(Currency.USD, 200));
+    append(journal, 1_500, "liability-2", Ledger.Operation.CREDIT, Money.of(Currency.USD, 200));
+    append(journal, 2_500, "pending", Ledger.Operation.CREDIT, Money.of(Currency.EUR, 50));
+  }
+
+  private static void append(
+      LedgerJournal journal,
+      long timestampMs,
+      String accountId,
+      Ledger.Operation operation,
+      Money amount) {
+    journal.append(
+        "inv_" + accountId + "_" + timestampMs + "_ledger",
+        HybridLogicalClock.lowest(timestampMs),
+        accountId,
+        List.of(entry(operation, amount)));
+  }
+
+  private static Ledger.Entry entry(Ledger.Operation operation, Money amount) {
+    return new Ledger.Entry(
+        operation,
+        amount,
+        new Account.AccountSummary(
+            "unused", new Account.AccountBalances(amount, Money.of(amount.currency(), 0L))),
+        Optional.empty(),
+        new Account.OperationMetadata());
+  }
+}
@@ -0,0 +1,91 @@
+package com.lekha.clock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class HybridLogicalClockTest {
+
+  @Test
+  public void timestamps_increaseWithinAMillisecond_andFollowTheWallClock() {
+    AtomicLong wallClock = new AtomicLong(1_000);
+    HybridLogicalClock clock = new HybridLogicalClock(wallClock::get);
+
+    long first = clock.now();
+    long second = clock.now();
+    wallClock.set(1_001);
+    long third = clock.now();
+
+    assertThat(HybridLogicalClock.millis(first)).isEqualTo(1_000L);
+    assertThat(HybridLogicalClock.counter(first)).isEqualTo(0);
+    assertThat(HybridLogicalClock.millis(second)).isEqualTo(1_000L);
+    assertThat(HybridLogicalClock.counter(second)).isEqualTo(1);
+    assertThat(third).isEqualTo(HybridLogicalClock.lowest(1_001));
+  }
+
+  @Test
+  public void timestamps_increaseWhenTheWallClockGoesBack_orIsBehindAnObservedOne() {
+    AtomicLong wallClock = new AtomicLong(5_000);
+    HybridLogicalClock clock = new HybridLogicalClock(wallClock::get);
+
+    long beforeStep = clock.now();
+    wallClock.set(4_000);
+    long afterStep = clock.now();
+    long received = HybridLogicalClock.lowest(9_000) + 7;
+    clock.observe(received);
+    long afterReceive = clock.now();
+
+    assertThat(afterStep).isEqualTo(beforeStep + 1);
+    assertThat(afterReceive).isEqualTo(received + 1);
+  }
+
+  @Test
+  public void concurrentCallers_getDistinctTimestamps() throws Exception {
+    HybridLogicalClock clock = new HybridLogicalClock(() -> 1_000);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<long[]>> results = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  long[] timestamps = new long[10_000];
+                  for (int i = 0; i < timestamps.length; i++) {
+                    timestamps[i] = clock.now();
+                  }
+                  return timestamps;
+                }));
+      }
+      Set<Long> all = new HashSet<>();
+      for (Future<long[]> result : results) {
+        long[] timestamps = result.get();
+        for (int i = 0; i < timestamps.length; i++) {
+          if (i > 0) {
+            assertThat(timestamps[i]).isGreaterThan(timestamps[i - 1]);
+          }
+          all.add(timestamps[i]);
+        }
+      }
+      // The counter carries into the milliseconds past 65536 timestamps.
+      assertThat(all).hasSize(80_000);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void millisecondBounds_areClamped() {
+    assertThat(HybridLogicalClock.highest(2) + 1).isEqualTo(HybridLogicalClock.lowest(3));
+    assertThat(HybridLogicalClock.lowest(Long.MAX_VALUE)).isEqualTo(Long.MAX_VALUE);
+    assertThat(HybridLogicalClock.highest(Long.MAX_VALUE)).isEqualTo(Long.MAX_VALUE);
+    assertThat(HybridLogicalClock.lowest(Long.MIN_VALUE)).isEqualTo(Long.MIN_VALUE);
+  }
+}
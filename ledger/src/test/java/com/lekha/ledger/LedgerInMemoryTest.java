@@ -0,0 +1,166 @@
+package com.lekha.ledger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.lekha.account.Account;
+import com.lekha.account.AccountShards;
+import com.lekha.account.AccountType;
+import com.lekha.ledger.journal.LedgerJournal;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.testsetup.inmemory.InMemoryRestate;
+import dev.restate.sdk.common.TerminalException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Runs the Ledger handlers on {@link InMemoryRestate} over a journal in a temporary directory. */
+public class LedgerInMemoryTest {
+
+  @TempDir Path directory;
+
+  private LedgerJournal journal;
+  private InMemoryRestate restate;
+  private String accountId;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    journal = LedgerJournal.open(directory, LedgerJournal.Options.DEFAULT);
+    restate = new InMemoryRestate().bind(new Account()).bind(new Ledger(journal));
+    accountId = "test-account-" + UUID.randomUUID();
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    restate.close();
+    journal.close();
+  }
+
+  @Test
+  public void statement_listsTheAccountsEntriesInPages() throws Exception {
+    callAccount(
+        "init",
+        new Account.InitInstruction(
+            new Account.AccountOptions(AccountType.LIABILITY, Currency.USD)));
+    callAccount("credit", new Account.CreditInstruction(usd(1000), metadata()));
+    callAccount("debit", new Account.DebitInstruction(usd(300), metadata()));
+    callAccount("credit", new Account.CreditInstruction(usd(50), metadata()));
+    restate.awaitIdle(Duration.ofSeconds(5));
+
+    Ledger.Statement firstPage = statement(Optional.empty(), 2);
+    assertThat(firstPage.entries().stream().map(e -> e.entry().amount()).toList())
+        .containsExactly(usd(1000), usd(300));
+    assertThat(firstPage.nextPageToken().isPresent()).isTrue();
+
+    Ledger.Statement lastPage = statement(firstPage.nextPageToken(), 2);
+    assertThat(lastPage.entries()).hasSize(1);
+    Ledger.StatementEntry entry = lastPage.entries().getFirst();
+    assertThat(entry.entry().operation()).isEqualTo(Ledger.Operation.CREDIT);
+    assertThat(entry.entry().accountSummary().balances().availableBalance()).isEqualTo(usd(750));
+    assertThat(lastPage.nextPageToken().isPresent()).isFalse();
+  }
+
+  @Test
+  public void balanceAt_isTheBalanceAfterTheLastEntryBeforeTheInstant() throws Exception {
+    callAccount(
+        "init",
+        new Account.InitInstruction(
+            new Account.AccountOptions(AccountType.LIABILITY, Currency.USD)));
+    callAccount("credit", new Account.CreditInstruction(usd(1000), metadata()));
+    callAccount("debit", new Account.DebitInstruction(usd(300), metadata()));
+    restate.awaitIdle(Duration.ofSeconds(5));
+
+    Ledger.BalanceAt now = balanceAt(Long.MAX_VALUE);
+    assertThat(now.balances().map(Account.AccountBalances::availableBalance))
+        .isEqualTo(Optional.of(usd(700)));
+    assertThat(balanceAt(0).balances()).isEqualTo(Optional.empty());
+  }
+
+  @Test
+  public void statement_tellsShardRebalancesFromTransfers() throws Exception {
+    callAccount(
+        "init",
+        new Account.InitInstruction(
+            new Account.AccountOptions(AccountType.LIABILITY, Currency.USD, 2)));
+    String shardKey0 = AccountShards.shardKey(accountId, 0);
+    String shardKey1 = AccountShards.shardKey(accountId, 1);
+    restate
+        .call("Account", shardKey0, "credit", new Account.CreditInstruction(usd(1000), metadata()))
+        .join();
+    callAccount("rebalance", new Account.RebalanceInstruction(usd(0), Optional.empty()));
+    restate.awaitIdle(Duration.ofSeconds(5));
+
+    assertThat(operations(shardKey0))
+        .containsExactly(Ledger.Operation.CREDIT, Ledger.Operation.SHARD_DEBIT);
+    assertThat(operations(shardKey1)).containsExactly(Ledger.Operation.SHARD_CREDIT);
+    // Only shards move balance between each other.
+    assertThatThrownBy(
+            () ->
+                callAccount(
+                    "giveShardBalance", new Account.ShardTransferInstruction(usd(1_000_000))))
+        .isInstanceOf(TerminalException.class);
+  }
+
+  @Test
+  public void statement_rejectsInvalidPageTokens() {
+    assertThatThrownBy(() -> statement(Optional.of("not-a-token"), 10))
+        .isInstanceOf(TerminalException.class);
+    // A well-formed token that does not point at a record.
+    assertThatThrownBy(() -> statement(Optional.of("11"), 10))
+        .isInstanceOf(TerminalException.class);
+  }
+
+  private Ledger.Statement statement(Optional<String> pageToken, int pageSize) {
+    return call(
+        "Ledger",
+        "getStatement",
+        new Ledger.GetStatementInstruction(0, Long.MAX_VALUE, pageToken, pageSize));
+  }
+
+  private List<Ledger.Operation> operations(String accountKey) {
+    Ledger.Statement statement =
+        restate
+            .<Ledger.Statement>call(
+                "Ledger",
+                accountKey,
+                "getStatement",
+                new Ledger.GetStatementInstruction(0, Long.MAX_VALUE, Optional.empty(), 10))
+            .join();
+    return statement.entries().stream().map(entry -> entry.entry().operation()).toList();
+  }
+
+  private Ledger.BalanceAt balanceAt(long timestampMs) {
+    return call("Ledger", "getBalanceAt", new Ledger.GetBalanceAtInstruction(timestampMs));
+  }
+
+  private <R> R callAccount(String handler, Object input) {
+    return call("Account", handler, input);
+  }
+
+  private <R> R call(String service, String handler, Object input) {
+    try {
+      return restate.<R>call(service, accountId, handler, input).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private static Account.OperationMetadata metadata() {
+    return new Account.OperationMetadata();
+  }
+
+  private static Money usd(long amount) {
+    return Money.of(Currency.USD, amount);
+  }
+}
@@ -0,0 +1,37 @@
+package com.lekha.ledger.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class IdemIndexTest {
+
+  @Test
+  public void addedIdems_areFoundAcrossGrowth() {
+    IdemIndex idems = new IdemIndex();
+    int count = 300_000;
+    for (int i = 0; i < count; i++) {
+      idems.add("account-" + (i % 100), "inv_" + i + "_ledger", i * 64L);
+    }
+
+    assertThat(idems.size()).isEqualTo((long) count);
+    for (int i = 0; i < count; i++) {
+      assertThat(idems.find("account-" + (i % 100), "inv_" + i + "_ledger")).isEqualTo(i * 64L);
+    }
+  }
+
+  @Test
+  public void unknownIdems_areNotFound() {
+    IdemIndex idems = new IdemIndex();
+    for (int i = 0; i < 10_000; i++) {
+      idems.add("account-1", "inv_" + i, i);
+    }
+
+    for (int i = 10_000; i < 20_000; i++) {
+      assertThat(idems.find("account-1", "inv_" + i)).isEqualTo(-1L);
+    }
+    // The account id and the idem are hashed apart.
+    assertThat(idems.find("account-1inv_", "1")).isEqualTo(-1L);
+    assertThat(idems.find("account-2", "inv_1")).isEqualTo(-1L);
+  }
+}
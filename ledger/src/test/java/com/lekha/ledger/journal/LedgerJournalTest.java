@@ -0,0 +1,518 @@
+package com.lekha.ledger.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.lekha.account.Account;
+import com.lekha.ledger.Ledger;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LedgerJournalTest {
+
+  private static final LedgerJournal.Options SMALL_SEGMENTS =
+      new LedgerJournal.Options(
+          4096,
+          LedgerJournal.Durability.GroupCommit.DEFAULT,
+          256,
+          new LedgerJournal.Compression.None());
+
+  @TempDir Path directory;
+
+  @Test
+  public void appendedRecords_areScannedBackInOrder() throws Exception {
+    List<Ledger.Entry> balanceEntries = balanceEntries("account-1", 2);
+    List<Ledger.Entry> holdEntries = holdEntries("account-é");
+    try (LedgerJournal journal = LedgerJournal.open(directory, LedgerJournal.Options.DEFAULT)) {
+      long first = journal.append("inv_1_ledger", 1_000L, "account-1", balanceEntries);
+      long second = journal.append("inv_2_ledger", 2_000L, "account-é", holdEntries);
+
+      List<JournalRecord> records = scanAll(journal);
+
+      assertThat(second).isGreaterThan(first);
+      assertThat(records)
+          .containsExactly(
+              new JournalRecord(first, "inv_1_ledger", 1_000L, "account-1", balanceEntries),
+              new JournalRecord(second, "inv_2_ledger", 2_000L, "account-é", holdEntries));
+    }
+  }
+
+  @Test
+  public void fullSegments_rollOver() throws Exception {
+    List<Long> positions = new ArrayList<>();
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      for (int i = 0; i < 100; i++) {
+        positions.add(journal.append("inv_" + i, i, "account-1", balanceEntries("account-1", 3)));
+      }
+
+      assertThat(segmentFiles()).isGreaterThan(1L);
+      assertThat(scanAll(journal).stream().map(JournalRecord::position).toList())
+          .isEqualTo(positions);
+      // Scans may start at any record.
+      List<JournalRecord> tail = new ArrayList<>();
+      journal.scan(positions.get(60), tail::add);
+      assertThat(tail).hasSize(40);
+    }
+  }
+
+  @Test
+  public void reopenedJournal_continuesAfterItsLastRecord() throws Exception {
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      for (int i = 0; i < 50; i++) {
+        journal.append("inv_" + i, i, "account-1", balanceEntries("account-1", 3));
+      }
+    }
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      journal.append("inv_50", 50, "account-1", balanceEntries("account-1", 3));
+
+      List<JournalRecord> records = scanAll(journal);
+      assertThat(records).hasSize(51);
+      assertThat(records.getLast().idem()).isEqualTo("inv_50");
+    }
+  }
+
+  @Test
+  public void tornLastRecord_isDroppedOnOpen() throws Exception {
+    long torn;
+    try (LedgerJournal journal = LedgerJournal.open(directory, LedgerJournal.Options.DEFAULT)) {
+      journal.append("inv_1", 1, "account-1", balanceEntries("account-1", 1));
+      torn = journal.append("inv_2", 2, "account-1", balanceEntries("account-1", 1));
+    }
+    // Corrupt a byte of the last record, as a crash in the middle of writing it would.
+    Path segment = directory.resolve("journal-0000000000.seg");
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {42}), LedgerJournal.offset(torn) + 20);
+    }
+
+    try (LedgerJournal journal = LedgerJournal.open(directory, LedgerJournal.Options.DEFAULT)) {
+      assertThat(scanAll(journal).stream().map(JournalRecord::idem).toList())
+          .containsExactly("inv_1");
+      long next = journal.append("inv_3", 3, "account-1", balanceEntries("account-1", 1));
+      assertThat(next).isEqualTo(torn);
+      assertThat(scanAll(journal).stream().map(JournalRecord::idem).toList())
+          .containsExactly("inv_1", "inv_3");
+    }
+  }
+
+  @Test
+  public void corruptRecordInFullSegment_failsTheOpen() throws Exception {
+    long corrupt;
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      corrupt = journal.append("inv_0", 0, "account-1", balanceEntries("account-1", 3));
+      for (int i = 1; i < 100; i++) {
+        journal.append("inv_" + i, i, "account-1", balanceEntries("account-1", 3));
+      }
+    }
+    Path segment = directory.resolve("journal-0000000000.seg");
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {42}), LedgerJournal.offset(corrupt) + 20);
+    }
+
+    assertThatThrownBy(() -> LedgerJournal.open(directory, SMALL_SEGMENTS))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("journal-0000000000.seg");
+  }
+
+  @Test
+  public void repeatedIdem_isStoredOnce() throws Exception {
+    long first;
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      first = journal.append("inv_1_ledger", 1, "account-1", balanceEntries("account-1", 1));
+      long retried = journal.append("inv_1_ledger", 2, "account-1", balanceEntries("account-1", 1));
+      // Idems are per account.
+      journal.append("inv_1_ledger", 3, "account-2", balanceEntries("account-2", 1));
+
+      assertThat(retried).isEqualTo(first);
+      assertThat(scanAll(journal)).hasSize(2);
+    }
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      long retried = journal.append("inv_1_ledger", 4, "account-1", balanceEntries("account-1", 1));
+
+      assertThat(retried).isEqualTo(first);
+      assertThat(scanAll(journal)).hasSize(2);
+    }
+  }
+
+  @Test
+  public void statement_pagesThroughTheAccountsRecordsInItsPeriod() throws Exception {
+    List<String> expected = new ArrayList<>();
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      for (int i = 0; i < 120; i++) {
+        String accountId = i % 2 == 0 ? "account-1" : "account-2";
+        journal.append("inv_" + i, i, accountId, balanceEntries(accountId, 2));
+        if (accountId.equals("account-1") && i >= 10 && i < 90) {
+          expected.add("inv_" + i);
+        }
+      }
+
+      assertThat(statementIdems(journal)).isEqualTo(expected);
+    }
+    // The index is rebuilt on open.
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      assertThat(statementIdems(journal)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void balanceAt_isTheBalanceAfterTheLastRecordAtOrBeforeTheInstant() throws Exception {
+    LedgerJournal.Options options =
+        new LedgerJournal.Options(
+            4096,
+            LedgerJournal.Durability.GroupCommit.DEFAULT,
+            4,
+            new LedgerJournal.Compression.None());
+    try (LedgerJournal journal = LedgerJournal.open(directory, options)) {
+      for (int i = 0; i < 100; i++) {
+        journal.append("inv_" + i, i * 10L, "account-1", balanceEntry("account-1", i));
+        journal.append("other_" + i, i * 10L, "account-2", balanceEntry("account-2", -i));
+      }
+      // A retried invocation may be recorded with an earlier timestamp than the one before it.
+      journal.append("inv_100", 985, "account-1", balanceEntry("account-1", 100));
+      journal.append("inv_101", 1_000, "account-1", balanceEntry("account-1", 101));
+
+      assertThat(balanceAt(journal, -1)).isEqualTo(Optional.empty());
+      assertThat(balanceAt(journal, 0)).isEqualTo(Optional.of(usd(0)));
+      assertThat(balanceAt(journal, 555)).isEqualTo(Optional.of(usd(55)));
+      assertThat(balanceAt(journal, 560)).isEqualTo(Optional.of(usd(56)));
+      assertThat(balanceAt(journal, 989)).isEqualTo(Optional.of(usd(98)));
+      assertThat(balanceAt(journal, 990)).isEqualTo(Optional.of(usd(100)));
+      assertThat(balanceAt(journal, Long.MAX_VALUE)).isEqualTo(Optional.of(usd(101)));
+    }
+  }
+
+  @Test
+  public void concurrentAppends_returnOnceDurable_underEveryPolicy() throws Exception {
+    List<LedgerJournal.Durability> policies =
+        List.of(
+            new LedgerJournal.Durability.PerEntry(),
+            LedgerJournal.Durability.GroupCommit.DEFAULT,
+            // Groups that never fill up are forced on their deadline.
+            new LedgerJournal.Durability.GroupCommit(1_000, Duration.ofMillis(1)),
+            new LedgerJournal.Durability.OsManaged());
+    for (int p = 0; p < policies.size(); p++) {
+      Path policyDirectory = directory.resolve("policy-" + p);
+      LedgerJournal.Options options =
+          new LedgerJournal.Options(
+              4096, policies.get(p), 256, new LedgerJournal.Compression.None());
+      try (LedgerJournal journal = LedgerJournal.open(policyDirectory, options);
+          ExecutorService executor = Executors.newFixedThreadPool(8)) {
+        List<Future<?>> appends = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+          String accountId = "account-" + t;
+          appends.add(
+              executor.submit(
+                  () -> {
+                    for (int i = 0; i < 50; i++) {
+                      List<Ledger.Entry> entries = balanceEntries(accountId, 2);
+                      journal.append(accountId + "_" + i, i, accountId, entries);
+                    }
+                  }));
+        }
+        for (Future<?> append : appends) {
+          append.get(30, TimeUnit.SECONDS);
+        }
+
+        assertThat(scanAll(journal)).hasSize(400);
+      }
+    }
+  }
+
+  @Test
+  public void changes_tailTheJournal_asRequested_andResumeFromADurableCursor() throws Exception {
+    DurableCursor cursor = DurableCursor.open(directory.resolve("consumer.cursor"));
+    Path journalDirectory = directory.resolve("journal");
+    try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+      LedgerJournal journal = LedgerJournal.open(journalDirectory, SMALL_SEGMENTS);
+      for (int i = 0; i < 60; i++) {
+        journal.append("inv_" + i, i, "account-1", balanceEntries("account-1", 3));
+      }
+      RecordSubscriber subscriber = new RecordSubscriber();
+      journal.changes(cursor.position(), executor).subscribe(subscriber);
+      subscriber.request(50);
+
+      for (int i = 0; i < 50; i++) {
+        RecordView record = subscriber.next();
+        assertThat(record.idem()).isEqualTo("inv_" + i);
+        cursor.commit(record.nextPosition());
+      }
+      assertThat(subscriber.records.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+      // Records appended while the subscriber waits for more are delivered as they land.
+      subscriber.request(20);
+      for (int i = 60; i < 70; i++) {
+        journal.append("inv_" + i, i, "account-1", balanceEntries("account-1", 3));
+      }
+      for (int i = 50; i < 70; i++) {
+        assertThat(subscriber.next().idem()).isEqualTo("inv_" + i);
+      }
+      subscriber.request(1);
+      journal.close();
+      assertThat(subscriber.completed.await(5, TimeUnit.SECONDS)).isTrue();
+
+      // A consumer that restarts resumes after the last record it committed.
+      DurableCursor reopened = DurableCursor.open(directory.resolve("consumer.cursor"));
+      assertThat(reopened.position()).isEqualTo(cursor.position());
+      try (LedgerJournal reopenedJournal = LedgerJournal.open(journalDirectory, SMALL_SEGMENTS)) {
+        RecordSubscriber resumed = new RecordSubscriber();
+        reopenedJournal.changes(reopened.position(), executor).subscribe(resumed);
+        resumed.request(Long.MAX_VALUE);
+
+        assertThat(resumed.next().record()).isEqualTo(scanAll(reopenedJournal).get(50));
+      }
+    }
+  }
+
+  @Test
+  public void coldSegments_areCompressed_andReadAsBefore() throws Exception {
+    LedgerJournal.Options options =
+        new LedgerJournal.Options(
+            4096,
+            LedgerJournal.Durability.GroupCommit.DEFAULT,
+            4,
+            new LedgerJournal.Compression.ColdSegments(2));
+    List<JournalRecord> written;
+    try (LedgerJournal journal = LedgerJournal.open(directory, options);
+        ExecutorService executor = Executors.newSingleThreadExecutor()) {
+      for (int i = 0; i < 300; i++) {
+        String accountId = i % 2 == 0 ? "account-1" : "account-2";
+        List<Ledger.Entry> entries =
+            switch (i % 10) {
+              case 9 -> holdEntries(accountId);
+              case 4 -> shardTransferEntries(accountId);
+              default -> balanceEntries(accountId, 2);
+            };
+        journal.append("inv_" + i, i, accountId, entries);
+      }
+      written = scanAll(journal);
+      List<String> statement = statementIdems(journal);
+      Optional<Money> balance = balanceAt(journal, 150);
+      int activeSegmentId = LedgerJournal.segmentId(written.getLast().position());
+      assertThat(activeSegmentId).isGreaterThan(3);
+
+      // All segments but the last two are compressed in the background.
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (files(".cseg") < activeSegmentId - 1 || files(".seg") > 2) {
+        assertThat(System.nanoTime() < deadline).isTrue();
+        Thread.sleep(5);
+      }
+      assertThat((activeSegmentId - 1) * (long) options.segmentSize())
+          .isGreaterThan(4 * fileBytes(".cseg"));
+
+      assertThat(scanAll(journal)).isEqualTo(written);
+      assertThat(statementIdems(journal)).isEqualTo(statement);
+      assertThat(balanceAt(journal, 150)).isEqualTo(balance);
+      RecordSubscriber subscriber = new RecordSubscriber();
+      journal.changes(written.get(5).position(), executor).subscribe(subscriber);
+      subscriber.request(3);
+      for (int i = 5; i < 8; i++) {
+        assertThat(subscriber.next().record()).isEqualTo(written.get(i));
+      }
+      assertThatThrownBy(() -> journal.changes(written.get(5).position() + 1, executor))
+          .isInstanceOf(IllegalArgumentException.class);
+      try (JournalReader reader = JournalReader.open(directory)) {
+        List<Long> positions = new ArrayList<>();
+        for (int i = 0; i < reader.segmentCount(); i++) {
+          RecordCursor cursor = reader.cursor(i);
+          while (cursor.next()) {
+            positions.add(cursor.position());
+          }
+        }
+        assertThat(positions).isEqualTo(written.stream().map(JournalRecord::position).toList());
+      }
+    }
+
+    try (LedgerJournal journal = LedgerJournal.open(directory, options)) {
+      assertThat(scanAll(journal)).isEqualTo(written);
+      long next = journal.append("inv_300", 300, "account-1", balanceEntries("account-1", 2));
+      assertThat(next).isGreaterThan(written.getLast().position());
+    }
+  }
+
+  @Test
+  public void amountsBeyondLong_areRejected() throws Exception {
+    Money big = new Money(Currency.USD, BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE));
+    Ledger.Entry entry =
+        new Ledger.Entry(
+            Ledger.Operation.CREDIT,
+            big,
+            summary("account-1", usd(0), usd(0)),
+            Optional.empty(),
+            metadata());
+    try (LedgerJournal journal = LedgerJournal.open(directory, LedgerJournal.Options.DEFAULT)) {
+      assertThatThrownBy(() -> journal.append("inv_1", 1, "account-1", List.of(entry)))
+          .isInstanceOf(IllegalArgumentException.class);
+      assertThat(scanAll(journal)).isEmpty();
+    }
+  }
+
+  private static final class RecordSubscriber implements Flow.Subscriber<RecordView> {
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private final BlockingQueue<RecordView> records = new LinkedBlockingQueue<>();
+    private volatile Flow.Subscription subscription;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscribed.countDown();
+    }
+
+    @Override
+    public void onNext(RecordView record) {
+      records.add(record);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      throw new AssertionError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      completed.countDown();
+    }
+
+    void request(long n) throws InterruptedException {
+      assertThat(subscribed.await(5, TimeUnit.SECONDS)).isTrue();
+      subscription.request(n);
+    }
+
+    RecordView next() throws InterruptedException {
+      RecordView record = records.poll(5, TimeUnit.SECONDS);
+      assertThat(record).isNotNull();
+      return record;
+    }
+  }
+
+  private static List<JournalRecord> scanAll(LedgerJournal journal) {
+    List<JournalRecord> records = new ArrayList<>();
+    journal.scan(0, records::add);
+    return records;
+  }
+
+  private static List<String> statementIdems(LedgerJournal journal) {
+    List<String> idems = new ArrayList<>();
+    long position = 0;
+    do {
+      // Records have two entries each, so pages of five entries hold two records.
+      LedgerJournal.StatementPage page = journal.readStatement("account-1", 10, 90, position, 5);
+      assertThat(page.records().size()).isEqualTo(2);
+      page.records().forEach(record -> idems.add(record.idem()));
+      position = page.nextPosition();
+    } while (position >= 0);
+    return idems;
+  }
+
+  private static Optional<Money> balanceAt(LedgerJournal journal, long timestamp) {
+    return journal
+        .readBalanceRecordAt("account-1", timestamp)
+        .map(record -> record.entries().getLast().accountSummary().balances().availableBalance());
+  }
+
+  private long segmentFiles() throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  private long files(String suffix) throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.toString().endsWith(suffix)).count();
+    }
+  }
+
+  private long fileBytes(String suffix) throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(file -> file.toString().endsWith(suffix))
+          .mapToLong(file -> file.toFile().length())
+          .sum();
+    }
+  }
+
+  private static List<Ledger.Entry> balanceEntries(String accountId, int count) {
+    List<Ledger.Entry> entries = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      entries.add(
+          new Ledger.Entry(
+              i % 2 == 0 ? Ledger.Operation.DEBIT : Ledger.Operation.CREDIT,
+              usd(100 + i),
+              summary(accountId, usd(-5_000 + i), usd(250)),
+              Optional.empty(),
+              metadata()));
+    }
+    return entries;
+  }
+
+  private static List<Ledger.Entry> balanceEntry(String accountId, long availableBalance) {
+    return List.of(
+        new Ledger.Entry(
+            Ledger.Operation.CREDIT,
+            usd(1),
+            summary(accountId, usd(availableBalance), usd(0)),
+            Optional.empty(),
+            metadata()));
+  }
+
+  private static List<Ledger.Entry> holdEntries(String accountId) {
+    Account.AccountSummary summary = summary(accountId, usd(900), usd(100));
+    return List.of(
+        new Ledger.Entry(Ledger.Operation.DEBIT, usd(100), summary, Optional.empty(), metadata()),
+        new Ledger.Entry(
+            Ledger.Operation.CREDIT,
+            usd(100),
+            summary,
+            Optional.of(new Account.HoldSummary("hold-1", Account.HoldType.USER, usd(100))),
+            metadata()));
+  }
+
+  private static List<Ledger.Entry> shardTransferEntries(String accountId) {
+    return List.of(
+        new Ledger.Entry(
+            Ledger.Operation.SHARD_DEBIT,
+            usd(40),
+            summary(accountId, usd(460), usd(0)),
+            Optional.empty(),
+            metadata()),
+        new Ledger.Entry(
+            Ledger.Operation.SHARD_CREDIT,
+            usd(15),
+            summary(accountId, usd(475), usd(0)),
+            Optional.empty(),
+            metadata()));
+  }
+
+  private static Account.AccountSummary summary(String accountId, Money available, Money hold) {
+    return new Account.AccountSummary(accountId, new Account.AccountBalances(available, hold));
+  }
+
+  private static Account.OperationMetadata metadata() {
+    return new Account.OperationMetadata();
+  }
+
+  private static Money usd(long amount) {
+    return Money.of(Currency.USD, amount);
+  }
+}
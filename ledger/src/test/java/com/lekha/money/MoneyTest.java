@@ -0,0 +1,111 @@
+package com.lekha.money;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.ValueInstantiationException;
+import dev.restate.sdk.common.TerminalException;
+import java.math.BigInteger;
+import org.junit.jupiter.api.Test;
+
+public class MoneyTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void addAndSubtract_stayOnLongPath() {
+    Money balance = Money.of(Currency.USD, 1000);
+    Money result = balance.add(Money.of(Currency.USD, 250)).subtract(Money.of(Currency.USD, 50));
+
+    assertThat(result.isLongAmount()).isTrue();
+    assertThat(result.longAmountInMinorUnits()).isEqualTo(1200L);
+    assertThat(result).isEqualTo(new Money(Currency.USD, BigInteger.valueOf(1200)));
+  }
+
+  @Test
+  public void add_overflowFallsBackToBigInteger() {
+    Money max = Money.of(Currency.USD, Long.MAX_VALUE);
+    Money result = max.add(Money.of(Currency.USD, 1));
+
+    assertThat(result.isLongAmount()).isFalse();
+    assertThat(result.amountInMinorUnits())
+        .isEqualTo(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE));
+    assertThat(result.isGreaterThan(max)).isTrue();
+
+    // Coming back into range returns to the long representation.
+    Money back = result.subtract(Money.of(Currency.USD, 1));
+    assertThat(back.isLongAmount()).isTrue();
+    assertThat(back).isEqualTo(max);
+  }
+
+  @Test
+  public void subtract_overflowFallsBackToBigInteger() {
+    Money result = Money.of(Currency.USD, Long.MIN_VALUE).subtract(Money.of(Currency.USD, 1));
+
+    assertThat(result.isLongAmount()).isFalse();
+    assertThat(result.amountInMinorUnits())
+        .isEqualTo(BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE));
+  }
+
+  @Test
+  public void divide_roundsTowardZero_forLongAndBigAmounts() {
+    BigInteger big = BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.TEN);
+
+    assertThat(Money.of(Currency.USD, 10).divide(3)).isEqualTo(Money.of(Currency.USD, 3));
+    assertThat(Money.of(Currency.USD, -10).divide(3)).isEqualTo(Money.of(Currency.USD, -3));
+    assertThat(new Money(Currency.USD, big).divide(10))
+        .isEqualTo(Money.of(Currency.USD, Long.MAX_VALUE));
+    assertThat(new Money(Currency.USD, big).amountInMinorUnitsString()).isEqualTo(big.toString());
+    assertThat(Money.of(Currency.USD, -42).amountInMinorUnitsString()).isEqualTo("-42");
+  }
+
+  @Test
+  public void json_keepsShape() throws Exception {
+    Money money = Money.of(Currency.EUR, 1234);
+
+    String json = objectMapper.writeValueAsString(money);
+
+    assertThat(json).isEqualTo("{\"currency\":\"EUR\",\"amountInMinorUnits\":1234}");
+    assertThat(objectMapper.readValue(json, Money.class)).isEqualTo(money);
+  }
+
+  @Test
+  public void json_roundTripsAmountsBeyondLong() throws Exception {
+    BigInteger amount = BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.TEN);
+    Money money = new Money(Currency.USD, amount);
+
+    String json = objectMapper.writeValueAsString(money);
+
+    assertThat(json).isEqualTo("{\"currency\":\"USD\",\"amountInMinorUnits\":" + amount + "}");
+    assertThat(objectMapper.readValue(json, Money.class)).isEqualTo(money);
+  }
+
+  @Test
+  public void json_missingCurrency_isRejected() {
+    assertThatExceptionOfType(ValueInstantiationException.class)
+        .isThrownBy(() -> objectMapper.readValue("{\"amountInMinorUnits\":1234}", Money.class))
+        .withRootCauseInstanceOf(TerminalException.class)
+        .withMessageContaining("Money is missing its currency");
+  }
+
+  @Test
+  public void json_missingAmount_isRejected() {
+    assertThatExceptionOfType(ValueInstantiationException.class)
+        .isThrownBy(() -> objectMapper.readValue("{\"currency\":\"EUR\"}", Money.class))
+        .withRootCauseInstanceOf(TerminalException.class)
+        .withMessageContaining("Money is missing its amountInMinorUnits");
+  }
+
+  @Test
+  public void currencyMismatch_throws() {
+    assertThatExceptionOfType(TerminalException.class)
+        .isThrownBy(() -> Money.of(Currency.USD, 1).add(Money.of(Currency.EUR, 1)));
+  }
+
+  @Test
+  public void ensurePositive_rejectsZero() {
+    assertThatExceptionOfType(TerminalException.class)
+        .isThrownBy(() -> Money.zero(Currency.USD).ensurePositive());
+  }
+}
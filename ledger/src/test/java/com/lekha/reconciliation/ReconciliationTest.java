@@ -0,0 +1,166 @@
+package com.lekha.reconciliation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.lekha.account.Account;
+import com.lekha.ledger.Ledger;
+import com.lekha.ledger.journal.JournalReader;
+import com.lekha.ledger.journal.LedgerJournal;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReconciliationTest {
+
+  private static final LedgerJournal.Options SMALL_SEGMENTS =
+      new LedgerJournal.Options(
+          4096,
+          LedgerJournal.Durability.GroupCommit.DEFAULT,
+          256,
+          new LedgerJournal.Compression.None());
+
+  @TempDir Path directory;
+
+  @Test
+  public void consistentJournal_reconciles() throws Exception {
+    Books books = new Books();
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      for (int i = 0; i < 500; i++) {
+        books.transfer(journal, "asset", "liability-" + (i % 7), 10 + i);
+      }
+      books.hold(journal, "liability-3", 25);
+    }
+
+    Reconciliation.Report report = reconcile(books.summaries);
+
+    assertThat(report.records()).isEqualTo(1001L);
+    assertThat(report.entries()).isEqualTo(1002L);
+    assertThat(report.accounts()).isEqualTo(8);
+    assertThat(report.mismatches()).isEmpty();
+    assertThat(report.currencyTotals())
+        .containsExactly(
+            new Reconciliation.CurrencyTotals(
+                Currency.USD, BigInteger.valueOf(129_775), BigInteger.valueOf(129_775)));
+    assertThat(report.isClean()).isTrue();
+  }
+
+  @Test
+  public void divergentAccounts_andUnbalancedEntries_areReported() throws Exception {
+    Books books = new Books();
+    try (LedgerJournal journal = LedgerJournal.open(directory, SMALL_SEGMENTS)) {
+      for (int i = 0; i < 300; i++) {
+        books.transfer(journal, "asset", "liability-" + (i % 3), 100);
+      }
+      // A credit without its debit, carrying a balance that does not follow from the entries.
+      journal.append(
+          "inv_orphan_ledger",
+          0L,
+          "liability-1",
+          List.of(entry(Ledger.Operation.CREDIT, 5, "liability-1", 1_000_000, 0)));
+    }
+    Map<String, Account.AccountSummary> summaries = new HashMap<>(books.summaries);
+    summaries.put("liability-1", summary("liability-1", 1_000_000, 0));
+    summaries.put("liability-2", summary("liability-2", 1, 0));
+    summaries.remove("asset");
+
+    Reconciliation.Report report = reconcile(summaries);
+
+    assertThat(report.mismatches().stream().map(m -> m.accountId() + " " + m.kind()).toList())
+        .containsExactly("asset UNAVAILABLE", "liability-1 MOVEMENT", "liability-2 BALANCE");
+    assertThat(report.currencyTotals())
+        .containsExactly(
+            new Reconciliation.CurrencyTotals(
+                Currency.USD, BigInteger.valueOf(30_000), BigInteger.valueOf(30_005)));
+    assertThat(report.isClean()).isFalse();
+  }
+
+  private Reconciliation.Report reconcile(Map<String, Account.AccountSummary> summaries)
+      throws Exception {
+    try (JournalReader reader = JournalReader.open(directory)) {
+      assertThat(reader.segmentCount()).isGreaterThan(1);
+      return new Reconciliation(
+              reader,
+              accountId ->
+                  summaries.containsKey(accountId)
+                      ? CompletableFuture.supplyAsync(() -> summaries.get(accountId))
+                      : CompletableFuture.failedFuture(new IllegalStateException("no account")),
+              new Reconciliation.Options(4, 3))
+          .run();
+    }
+  }
+
+  /** Balances of an asset account and its liability accounts, recorded like Account does. */
+  private static final class Books {
+    private final Map<String, Account.AccountSummary> summaries = new HashMap<>();
+    private int invocations;
+
+    void transfer(LedgerJournal journal, String assetId, String liabilityId, long amount) {
+      // Debits increase the balance of an asset account, credits the one of a liability account.
+      Account.AccountSummary asset = change(assetId, amount, 0);
+      append(journal, assetId, entry(Ledger.Operation.DEBIT, amount, asset));
+      Account.AccountSummary liability = change(liabilityId, amount, 0);
+      append(journal, liabilityId, entry(Ledger.Operation.CREDIT, amount, liability));
+    }
+
+    void hold(LedgerJournal journal, String liabilityId, long amount) {
+      Account.AccountSummary summary = change(liabilityId, -amount, amount);
+      Account.HoldSummary hold =
+          new Account.HoldSummary("hold-1", Account.HoldType.USER, usd(amount));
+      append(
+          journal,
+          liabilityId,
+          entry(Ledger.Operation.DEBIT, amount, summary),
+          new Ledger.Entry(
+              Ledger.Operation.CREDIT,
+              usd(amount),
+              summary,
+              Optional.of(hold),
+              new Account.OperationMetadata()));
+    }
+
+    private Account.AccountSummary change(String accountId, long available, long hold) {
+      Account.AccountSummary before = summaries.get(accountId);
+      Account.AccountSummary after =
+          before == null
+              ? summary(accountId, available, hold)
+              : summary(
+                  accountId,
+                  before.balances().availableBalance().longAmountInMinorUnits() + available,
+                  before.balances().holdBalance().longAmountInMinorUnits() + hold);
+      summaries.put(accountId, after);
+      return after;
+    }
+
+    private void append(LedgerJournal journal, String accountId, Ledger.Entry... entries) {
+      journal.append("inv_" + invocations++ + "_ledger", invocations, accountId, List.of(entries));
+    }
+  }
+
+  private static Ledger.Entry entry(
+      Ledger.Operation operation, long amount, String accountId, long available, long hold) {
+    return entry(operation, amount, summary(accountId, available, hold));
+  }
+
+  private static Ledger.Entry entry(
+      Ledger.Operation operation, long amount, Account.AccountSummary summary) {
+    return new Ledger.Entry(
+        operation, usd(amount), summary, Optional.empty(), new Account.OperationMetadata());
+  }
+
+  private static Account.AccountSummary summary(String accountId, long available, long hold) {
+    return new Account.AccountSummary(
+        accountId, new Account.AccountBalances(usd(available), usd(hold)));
+  }
+
+  private static Money usd(long amount) {
+    return Money.of(Currency.USD, amount);
+  }
+}
@@ -22,14 +22,18 @@ public class AccountHelper {
 
   public AccountHelper(
       Client ingressClient, String accountId, AccountType accountType, Currency currency) {
+    this(ingressClient, accountId, new Account.AccountOptions(accountType, currency));
+  }
+
+  public AccountHelper(
+      Client ingressClient, String accountId, Account.AccountOptions accountOptions) {
     this.ingressClient = ingressClient;
     this.accountId = accountId;
-    this.accountType = accountType;
-    this.currency = currency;
+    this.accountType = accountOptions.accountType();
+    this.currency = accountOptions.nativeCurrency();
     this.accountClient = AccountClient.fromClient(this.ingressClient, accountId);
 
-    Account.InitInstruction instruction =
-        new Account.InitInstruction(new Account.AccountOptions(accountType, currency));
+    Account.InitInstruction instruction = new Account.InitInstruction(accountOptions);
     accountClient.init(instruction);
   }
 
@@ -37,6 +41,12 @@ public class AccountHelper {
     return new AccountHelper(ingressClient, accountId, AccountType.ASSET, Currency.USD);
   }
 
+  public static AccountHelper newUSDShardedAccountHelper(
+      Client ingressClient, String accountId, AccountType accountType, int numShards) {
+    return new AccountHelper(
+        ingressClient, accountId, new Account.AccountOptions(accountType, Currency.USD, numShards));
+  }
+
   public static AccountHelper newUSDLiabilityAccountHelper(Client ingressClient, String accountId) {
     return new AccountHelper(ingressClient, accountId, AccountType.LIABILITY, Currency.USD);
   }
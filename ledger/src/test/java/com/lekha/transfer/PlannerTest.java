@@ -0,0 +1,184 @@
+package com.lekha.transfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.lekha.account.Account;
+import com.lekha.account.LedgerRecorder;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+public class PlannerTest {
+
+  @Test
+  public void plan_letsMovesBetweenDistinctAccountsRunConcurrently() {
+    Planner.Plan plan =
+        new Planner.NonTransactionalPlanner()
+            .plan(List.of(move("a", "b", 100), move("c", "d", 200)));
+
+    assertThat(plan.operations())
+        .isEqualTo(
+            List.of(
+                new AccountOperation.AsyncDebit("a", usd(100)),
+                new AccountOperation.Credit("b", usd(100)),
+                new AccountOperation.AsyncDebit("c", usd(200)),
+                new AccountOperation.Credit("d", usd(200))));
+    // Each credit waits for its debit only.
+    assertThat(plan.dependencies())
+        .isEqualTo(List.of(List.of(), List.of(0), List.of(), List.of(2)));
+    assertThat(plan.parallelCleanupOperations()).isEmpty();
+  }
+
+  @Test
+  public void plan_ordersOperationsOnTheSameAccount() {
+    Planner.Plan plan =
+        new Planner.NonTransactionalPlanner()
+            .plan(List.of(move("a", "b", 100), move("b", "c", 100), move("a", "c", 50)));
+
+    // Debiting "b" waits for the credit funding it; the second debit of "a" for the first one
+    // and the second credit of "c" for both the first one and its own debit.
+    assertThat(plan.dependencies())
+        .isEqualTo(
+            List.of(List.of(), List.of(0), List.of(1), List.of(2), List.of(0), List.of(3, 4)));
+  }
+
+  @Test
+  public void transactionalPlan_debitsCreditedFundsAfterTheCredit() {
+    Planner.Plan plan =
+        new Planner.TransactionalPlanner("tx-1")
+            .plan(List.of(move("a", "b", 100), move("b", "c", 100)));
+
+    assertThat(plan.operations())
+        .isEqualTo(
+            List.of(
+                new AccountOperation.AsyncDebit("a", usd(100)),
+                new AccountOperation.TransactionalCredit("b", "tx-1", usd(100)),
+                new AccountOperation.TransactionalDebit("b", "tx-1", usd(100)),
+                new AccountOperation.TransactionalCredit("c", "tx-1", usd(100))));
+    assertThat(plan.dependencies())
+        .isEqualTo(List.of(List.of(), List.of(0), List.of(1), List.of(2)));
+    assertThat(plan.parallelCleanupOperations())
+        .isEqualTo(
+            List.of(
+                new AccountOperation.TransactionalReleaseHold("b", "tx-1"),
+                new AccountOperation.TransactionalReleaseHold("c", "tx-1")));
+  }
+
+  @Test
+  public void nettingPlan_movesOnlyTheNetAmountOfEachAccount() {
+    Planner.Plan plan =
+        new Planner.NettingPlanner()
+            .plan(
+                List.of(
+                    move("a", "b", 100),
+                    move("b", "a", 30),
+                    move("a", "c", 50),
+                    move("c", "b", 50),
+                    move("b", "d", 20)));
+
+    // "c" breaks even; the credits wait for the only debit, as if through a clearing account.
+    // Netted operations list what each instruction moved, for the ledger.
+    assertThat(plan.operations())
+        .isEqualTo(
+            List.of(
+                new AccountOperation.AsyncDebit(
+                    "a", usd(120), settled(List.of(usd(30)), List.of(usd(100), usd(50)))),
+                new AccountOperation.Credit(
+                    "b", usd(100), settled(List.of(usd(100), usd(50)), List.of(usd(30), usd(20)))),
+                new AccountOperation.Credit("d", usd(20))));
+    assertThat(plan.dependencies()).isEqualTo(List.of(List.of(), List.of(0), List.of(0)));
+    assertThat(plan.settledInstructions())
+        .isEqualTo(List.of(List.of(0, 1, 2), List.of(0, 1, 3, 4), List.of(4)));
+  }
+
+  @Test
+  public void nettingPlan_debitsHoldsOnTheirOwn_andNetsEachCurrencyApart() {
+    Planner.Plan plan =
+        new Planner.NettingPlanner()
+            .plan(
+                List.of(
+                    new Transfer.MoveMoneyInstruction(
+                        "a",
+                        "b",
+                        usd(100),
+                        new Transfer.MoveMoneyInstructionOptions(Optional.of("hold-1"))),
+                    move("b", "a", 40),
+                    new Transfer.MoveMoneyInstruction(
+                        "b",
+                        "a",
+                        Money.of(Currency.EUR, 10),
+                        new Transfer.MoveMoneyInstructionOptions(Optional.empty()))));
+
+    assertThat(plan.operations())
+        .isEqualTo(
+            List.of(
+                new AccountOperation.DebitHold("a", "hold-1", usd(100)),
+                new AccountOperation.AsyncDebit("b", Money.of(Currency.EUR, 10)),
+                new AccountOperation.Credit(
+                    "b", usd(60), settled(List.of(usd(100)), List.of(usd(40)))),
+                new AccountOperation.Credit("a", usd(40)),
+                new AccountOperation.Credit("a", Money.of(Currency.EUR, 10))));
+    assertThat(plan.dependencies())
+        .isEqualTo(List.of(List.of(), List.of(), List.of(0, 1), List.of(0), List.of(1, 3)));
+  }
+
+  @Test
+  public void twoPhasePlan_holdsNetOutflows_thenMovesAfterAllHolds() {
+    Planner.Plan plan =
+        new Planner.TwoPhasePlanner("tx-1")
+            .plan(List.of(move("a", "b", 100), move("b", "c", 150), move("d", "c", 10)));
+
+    // "b" pays out 50 more than it receives; "c" only receives.
+    assertThat(plan.operations())
+        .isEqualTo(
+            List.of(
+                new AccountOperation.TransactionalHold("a", "tx-1", usd(100)),
+                new AccountOperation.TransactionalHold("b", "tx-1", usd(50)),
+                new AccountOperation.TransactionalHold("d", "tx-1", usd(10)),
+                new AccountOperation.TransactionalDebit("a", "tx-1", usd(100)),
+                new AccountOperation.Credit("b", usd(100)),
+                new AccountOperation.TransactionalDebit("b", "tx-1", usd(150)),
+                new AccountOperation.Credit("c", usd(150)),
+                new AccountOperation.TransactionalDebit("d", "tx-1", usd(10)),
+                new AccountOperation.Credit("c", usd(10))));
+    List<Integer> holds = List.of(0, 1, 2);
+    assertThat(plan.dependencies())
+        .isEqualTo(
+            List.of(
+                List.of(),
+                List.of(),
+                List.of(),
+                holds,
+                holds,
+                List.of(0, 1, 2, 4),
+                holds,
+                holds,
+                List.of(0, 1, 2, 6)));
+    assertThat(plan.parallelCleanupOperations()).isEmpty();
+  }
+
+  private static Transfer.MoveMoneyInstruction move(
+      String sourceAccountId, String destinationAccountId, long amount) {
+    return new Transfer.MoveMoneyInstruction(
+        sourceAccountId,
+        destinationAccountId,
+        usd(amount),
+        new Transfer.MoveMoneyInstructionOptions(Optional.empty()));
+  }
+
+  private static Account.SettledInstructions settled(List<Money> credits, List<Money> debits) {
+    return new Account.SettledInstructions(details(credits), details(debits));
+  }
+
+  private static List<LedgerRecorder.OperationDetails> details(List<Money> amounts) {
+    return amounts.stream()
+        .map(amount -> new LedgerRecorder.OperationDetails(amount, new Account.OperationMetadata()))
+        .toList();
+  }
+
+  private static Money usd(long amount) {
+    return Money.of(Currency.USD, amount);
+  }
+}
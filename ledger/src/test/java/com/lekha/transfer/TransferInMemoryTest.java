@@ -0,0 +1,293 @@
+package com.lekha.transfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+import com.lekha.account.Account;
+import com.lekha.account.AccountType;
+import com.lekha.ledger.Ledger;
+import com.lekha.ledger.journal.LedgerJournal;
+import com.lekha.money.Currency;
+import com.lekha.money.Money;
+import com.lekha.testsetup.inmemory.InMemoryRestate;
+import dev.restate.sdk.common.TerminalException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Runs {@link Executor#executeOperations} through the Transfer handlers on {@link InMemoryRestate},
+ * so the account calls, awakeables and compensations of each planner resolve without the Restate
+ * test container.
+ */
+public class TransferInMemoryTest {
+
+  enum BulkMoveType {
+    NON_TRANSACTIONAL("bulkMove"),
+    TRANSACTIONAL("transactionalBulkMove"),
+    NETTING("nettingBulkMove"),
+    TWO_PHASE("twoPhaseBulkMove");
+
+    private final String handler;
+
+    BulkMoveType(String handler) {
+      this.handler = handler;
+    }
+  }
+
+  @TempDir Path directory;
+
+  private LedgerJournal journal;
+  private InMemoryRestate restate;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    journal = LedgerJournal.open(directory, LedgerJournal.Options.DEFAULT);
+    restate =
+        new InMemoryRestate().bind(new Account()).bind(new Ledger(journal)).bind(new Transfer());
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    restate.close();
+    journal.close();
+  }
+
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_fromAssetToLiabilitiesChain(BulkMoveType bulkMoveType) {
+    String assetAccountId = newAccount(AccountType.ASSET, 1);
+    String liabilityAccountId1 = newAccount(AccountType.LIABILITY, 1);
+    String liabilityAccountId2 = newAccount(AccountType.LIABILITY, 1);
+
+    executeBulkMove(
+        bulkMoveType,
+        List.of(
+            move(assetAccountId, liabilityAccountId1, 1000),
+            move(liabilityAccountId1, liabilityAccountId2, 750),
+            move(liabilityAccountId2, assetAccountId, 15)));
+
+    assertThat(availableBalance(assetAccountId)).isEqualTo(usd(985));
+    assertThat(availableBalance(liabilityAccountId1)).isEqualTo(usd(250));
+    assertThat(availableBalance(liabilityAccountId2)).isEqualTo(usd(735));
+  }
+
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_oneMovementFails_resultsInRollback(BulkMoveType bulkMoveType) {
+    String assetAccountId = newAccount(AccountType.ASSET, 1);
+    String liabilityAccountId1 = newAccount(AccountType.LIABILITY, 1);
+    String liabilityAccountId2 = newAccount(AccountType.LIABILITY, 1);
+    String liabilityAccountId3 = newAccount(AccountType.LIABILITY, 1);
+
+    List<Transfer.MoveMoneyInstruction> moveMoneyInstructions =
+        List.of(
+            move(assetAccountId, liabilityAccountId1, 1000),
+            move(liabilityAccountId1, liabilityAccountId2, 750),
+            move(liabilityAccountId2, assetAccountId, 180),
+            // More than liabilityAccountId2 has.
+            move(liabilityAccountId2, liabilityAccountId3, 800));
+    assertThatThrownBy(() -> executeBulkMove(bulkMoveType, moveMoneyInstructions))
+        .isInstanceOf(TerminalException.class);
+
+    assertThat(availableBalance(assetAccountId)).isEqualTo(usd(0));
+    assertThat(availableBalance(liabilityAccountId1)).isEqualTo(usd(0));
+    assertThat(availableBalance(liabilityAccountId2)).isEqualTo(usd(0));
+    assertThat(availableBalance(liabilityAccountId3)).isEqualTo(usd(0));
+  }
+
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_fromShardedAssetAccount(BulkMoveType bulkMoveType) {
+    String assetAccountId = newAccount(AccountType.ASSET, 4);
+    String liabilityAccountId1 = newAccount(AccountType.LIABILITY, 1);
+    String liabilityAccountId2 = newAccount(AccountType.LIABILITY, 1);
+
+    executeBulkMove(
+        bulkMoveType,
+        Stream.of(100, 200, 300, 400)
+            .map(
+                amount ->
+                    move(
+                        assetAccountId,
+                        amount % 200 == 0 ? liabilityAccountId2 : liabilityAccountId1,
+                        amount))
+            .toList());
+
+    assertThat(availableBalance(assetAccountId)).isEqualTo(usd(1000));
+    assertThat(availableBalance(liabilityAccountId1)).isEqualTo(usd(400));
+    assertThat(availableBalance(liabilityAccountId2)).isEqualTo(usd(600));
+  }
+
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_fromShardedLiabilityAccount(BulkMoveType bulkMoveType) {
+    String assetAccountId = newAccount(AccountType.ASSET, 1);
+    String liabilityAccountId1 = newAccount(AccountType.LIABILITY, 3);
+    String liabilityAccountId2 = newAccount(AccountType.LIABILITY, 1);
+    String liabilityAccountId3 = newAccount(AccountType.LIABILITY, 1);
+    // Credits land on random shards, so no single shard is likely to hold the net outflow.
+    for (int i = 0; i < 10; i++) {
+      call("Transfer", null, "move", move(assetAccountId, liabilityAccountId1, 100));
+    }
+
+    executeBulkMove(
+        bulkMoveType,
+        List.of(
+            move(liabilityAccountId1, liabilityAccountId2, 400),
+            move(liabilityAccountId1, liabilityAccountId3, 500)));
+
+    assertThat(availableBalance(liabilityAccountId1)).isEqualTo(usd(100));
+    assertThat(availableBalance(liabilityAccountId2)).isEqualTo(usd(400));
+    assertThat(availableBalance(liabilityAccountId3)).isEqualTo(usd(500));
+  }
+
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_fromShardedAccount_failsRightAwayUnlessBalanceIsShort(
+      BulkMoveType bulkMoveType) {
+    String liabilityAccountId1 = newAccount(AccountType.LIABILITY, 3);
+    String liabilityAccountId2 = newAccount(AccountType.LIABILITY, 1);
+    restate.resetStateOperationCounts();
+
+    List<Transfer.MoveMoneyInstruction> moveMoneyInstructions =
+        List.of(
+            new Transfer.MoveMoneyInstruction(
+                liabilityAccountId1,
+                liabilityAccountId2,
+                Money.of(Currency.EUR, 100),
+                new Transfer.MoveMoneyInstructionOptions(Optional.empty())));
+    assertThatThrownBy(() -> executeBulkMove(bulkMoveType, moveMoneyInstructions))
+        .isInstanceOf(TerminalException.class)
+        .hasMessageContaining("does not match");
+
+    assertThat(restate.stateOperationCounts()).doesNotContainKey("Account/rebalance");
+  }
+
+  @ParameterizedTest
+  @EnumSource(
+      value = BulkMoveType.class,
+      names = {"NON_TRANSACTIONAL", "TRANSACTIONAL"})
+  public void bulkMove_groupCommitsOnlyAccountsThatOptedIn(BulkMoveType bulkMoveType) {
+    String assetAccountId = newAccount(AccountType.ASSET, 1);
+    String liabilityAccountId = newAccount(AccountType.LIABILITY, 1);
+    String hotLiabilityAccountId =
+        newAccount(new Account.AccountOptions(AccountType.LIABILITY, Currency.USD, 1, true));
+    restate.resetStateOperationCounts();
+
+    executeBulkMove(
+        bulkMoveType,
+        List.of(
+            move(assetAccountId, liabilityAccountId, 100),
+            move(assetAccountId, hotLiabilityAccountId, 200)));
+
+    assertThat(availableBalance(liabilityAccountId)).isEqualTo(usd(100));
+    assertThat(availableBalance(hotLiabilityAccountId)).isEqualTo(usd(200));
+    assertThat(restate.stateOperationCounts().get("Account/groupCommit").invocations())
+        .isEqualTo(1L);
+  }
+
+  @Test
+  public void nettingBulkMove_postsALedgerEntryPerInstruction() {
+    String assetAccountId = newAccount(AccountType.ASSET, 1);
+    String liabilityAccountId1 = newAccount(AccountType.LIABILITY, 1);
+    String liabilityAccountId2 = newAccount(AccountType.LIABILITY, 1);
+
+    executeBulkMove(
+        BulkMoveType.NETTING,
+        List.of(
+            move(assetAccountId, liabilityAccountId1, 1000),
+            move(liabilityAccountId1, liabilityAccountId2, 750),
+            move(liabilityAccountId2, assetAccountId, 15)));
+
+    // Each account changes balance once, by its net amount, under an entry per instruction.
+    assertThat(availableBalance(liabilityAccountId1)).isEqualTo(usd(250));
+    assertThat(ledgerEntries(assetAccountId))
+        .extracting(Ledger.Entry::operation, Ledger.Entry::amount)
+        .containsExactly(
+            tuple(Ledger.Operation.CREDIT, usd(15)), tuple(Ledger.Operation.DEBIT, usd(1000)));
+    assertThat(ledgerEntries(liabilityAccountId1))
+        .extracting(Ledger.Entry::operation, Ledger.Entry::amount)
+        .containsExactly(
+            tuple(Ledger.Operation.CREDIT, usd(1000)), tuple(Ledger.Operation.DEBIT, usd(750)));
+    assertThat(ledgerEntries(liabilityAccountId1))
+        .extracting(entry -> entry.accountSummary().balances().availableBalance())
+        .containsOnly(usd(250));
+    assertThat(ledgerEntries(liabilityAccountId2))
+        .extracting(Ledger.Entry::operation, Ledger.Entry::amount)
+        .containsExactly(
+            tuple(Ledger.Operation.CREDIT, usd(750)), tuple(Ledger.Operation.DEBIT, usd(15)));
+  }
+
+  private String newAccount(AccountType accountType, int numShards) {
+    return newAccount(new Account.AccountOptions(accountType, Currency.USD, numShards));
+  }
+
+  private String newAccount(Account.AccountOptions accountOptions) {
+    String accountId = UUID.randomUUID() + "-" + accountOptions.accountType();
+    call("Account", accountId, "init", new Account.InitInstruction(accountOptions));
+    return accountId;
+  }
+
+  private Money availableBalance(String accountId) {
+    // Async debits signal their caller before the batch that applied them commits its state.
+    try {
+      restate.awaitIdle(Duration.ofSeconds(5));
+    } catch (InterruptedException | TimeoutException e) {
+      throw new AssertionError(e);
+    }
+    Account.AccountSummary summary = call("Account", accountId, "getSummary", null);
+    return summary.balances().availableBalance();
+  }
+
+  private List<Ledger.Entry> ledgerEntries(String accountId) {
+    Ledger.Statement statement =
+        call(
+            "Ledger",
+            accountId,
+            "getStatement",
+            new Ledger.GetStatementInstruction(0, Long.MAX_VALUE, Optional.empty(), 10));
+    return statement.entries().stream().map(Ledger.StatementEntry::entry).toList();
+  }
+
+  private void executeBulkMove(
+      BulkMoveType bulkMoveType, List<Transfer.MoveMoneyInstruction> moveMoneyInstructions) {
+    call("Transfer", null, bulkMoveType.handler, moveMoneyInstructions);
+  }
+
+  private <R> R call(String service, String key, String handler, Object input) {
+    try {
+      return restate.<R>call(service, key, handler, input).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private static Transfer.MoveMoneyInstruction move(
+      String sourceAccountId, String destinationAccountId, long amount) {
+    return new Transfer.MoveMoneyInstruction(
+        sourceAccountId,
+        destinationAccountId,
+        usd(amount),
+        new Transfer.MoveMoneyInstructionOptions(Optional.empty()));
+  }
+
+  private static Money usd(long amount) {
+    return Money.of(Currency.USD, amount);
+  }
+}
@@ -4,6 +4,7 @@ import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
 
 import com.lekha.account.Account;
+import com.lekha.account.AccountType;
 import com.lekha.money.Currency;
 import com.lekha.money.Money;
 import com.lekha.testsetup.AccountHelper;
@@ -53,7 +54,9 @@ public class TransferTest extends BaseRestateTest {
 
   enum BulkMoveType {
     NON_TRANSACTIONAL,
-    TRANSACTIONAL
+    TRANSACTIONAL,
+    NETTING,
+    TWO_PHASE
   }
 
   @ParameterizedTest
@@ -301,11 +304,156 @@ public class TransferTest extends BaseRestateTest {
     assetAccount1.assertAvailableBalance(initialBalance - totalOrderFills);
   }
 
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_manyMovesFromOneAccount(BulkMoveType bulkMoveType) {
+    String assetAccountId = UUID.randomUUID() + "-asset-1";
+    String liabilityAccountId1 = UUID.randomUUID() + "-liability-1";
+    String liabilityAccountId2 = UUID.randomUUID() + "-liability-2";
+    AccountHelper assetAccount =
+        AccountHelper.newUSDAssetAccountHelper(ingressClient, assetAccountId);
+    AccountHelper liabilityAccount1 =
+        AccountHelper.newUSDLiabilityAccountHelper(ingressClient, liabilityAccountId1);
+    AccountHelper liabilityAccount2 =
+        AccountHelper.newUSDLiabilityAccountHelper(ingressClient, liabilityAccountId2);
+
+    // The debits of the asset account, and the credits of each liability account, share a call.
+    List<Transfer.MoveMoneyInstruction> moveMoneyInstructions =
+        Stream.iterate(1, i -> i + 1)
+            .limit(20)
+            .map(
+                i ->
+                    new Transfer.MoveMoneyInstruction(
+                        assetAccountId,
+                        i % 2 == 0 ? liabilityAccountId2 : liabilityAccountId1,
+                        new Money(Currency.USD, BigInteger.valueOf(i)),
+                        moveMoneyInstructionOptions()))
+            .toList();
+    executeBulkMove(bulkMoveType, moveMoneyInstructions);
+
+    assetAccount.assertAvailableBalance(210);
+    liabilityAccount1.assertAvailableBalance(100);
+    liabilityAccount2.assertAvailableBalance(110);
+  }
+
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_fromShardedAssetAccount(BulkMoveType bulkMoveType) {
+    String assetAccountId = UUID.randomUUID() + "-asset-1";
+    String liabilityAccountId1 = UUID.randomUUID() + "-liability-1";
+    String liabilityAccountId2 = UUID.randomUUID() + "-liability-2";
+    AccountHelper assetAccount =
+        AccountHelper.newUSDShardedAccountHelper(
+            ingressClient, assetAccountId, AccountType.ASSET, 4);
+    AccountHelper liabilityAccount1 =
+        AccountHelper.newUSDLiabilityAccountHelper(ingressClient, liabilityAccountId1);
+    AccountHelper liabilityAccount2 =
+        AccountHelper.newUSDLiabilityAccountHelper(ingressClient, liabilityAccountId2);
+
+    List<Transfer.MoveMoneyInstruction> moveMoneyInstructions =
+        Stream.of(100, 200, 300, 400)
+            .map(
+                amount ->
+                    new Transfer.MoveMoneyInstruction(
+                        assetAccountId,
+                        amount % 200 == 0 ? liabilityAccountId2 : liabilityAccountId1,
+                        new Money(Currency.USD, BigInteger.valueOf(amount)),
+                        moveMoneyInstructionOptions()))
+            .toList();
+    executeBulkMove(bulkMoveType, moveMoneyInstructions);
+
+    assetAccount.assertAvailableBalance(1000);
+    liabilityAccount1.assertAvailableBalance(400);
+    liabilityAccount2.assertAvailableBalance(600);
+  }
+
+  @ParameterizedTest
+  @EnumSource(BulkMoveType.class)
+  public void bulkMove_fromShardedLiabilityAccount(BulkMoveType bulkMoveType) {
+    String assetAccountId = UUID.randomUUID() + "-asset-1";
+    String liabilityAccountId1 = UUID.randomUUID() + "-liability-1";
+    String liabilityAccountId2 = UUID.randomUUID() + "-liability-2";
+    String liabilityAccountId3 = UUID.randomUUID() + "-liability-3";
+    AccountHelper.newUSDAssetAccountHelper(ingressClient, assetAccountId);
+    AccountHelper liabilityAccount1 =
+        AccountHelper.newUSDShardedAccountHelper(
+            ingressClient, liabilityAccountId1, AccountType.LIABILITY, 3);
+    AccountHelper liabilityAccount2 =
+        AccountHelper.newUSDLiabilityAccountHelper(ingressClient, liabilityAccountId2);
+    AccountHelper liabilityAccount3 =
+        AccountHelper.newUSDLiabilityAccountHelper(ingressClient, liabilityAccountId3);
+
+    // Credits land on random shards, so no single shard is likely to hold the net outflow.
+    for (int i = 0; i < 10; i++) {
+      transferClient.move(
+          new Transfer.MoveMoneyInstruction(
+              assetAccountId,
+              liabilityAccountId1,
+              new Money(Currency.USD, BigInteger.valueOf(100L)),
+              moveMoneyInstructionOptions()));
+    }
+    liabilityAccount1.assertAvailableBalance(1000);
+
+    List<Transfer.MoveMoneyInstruction> moveMoneyInstructions =
+        List.of(
+            new Transfer.MoveMoneyInstruction(
+                liabilityAccountId1,
+                liabilityAccountId2,
+                new Money(Currency.USD, BigInteger.valueOf(400L)),
+                moveMoneyInstructionOptions()),
+            new Transfer.MoveMoneyInstruction(
+                liabilityAccountId1,
+                liabilityAccountId3,
+                new Money(Currency.USD, BigInteger.valueOf(500L)),
+                moveMoneyInstructionOptions()));
+    executeBulkMove(bulkMoveType, moveMoneyInstructions);
+
+    liabilityAccount1.assertAvailableBalance(100);
+    liabilityAccount2.assertAvailableBalance(400);
+    liabilityAccount3.assertAvailableBalance(500);
+  }
+
+  @Test
+  public void move_fromShardedLiabilityAccount_gathersBalanceOnOneShard() {
+    String assetAccountId = UUID.randomUUID() + "-asset-1";
+    String liabilityAccountId1 = UUID.randomUUID() + "-liability-1";
+    String liabilityAccountId2 = UUID.randomUUID() + "-liability-2";
+    AccountHelper.newUSDAssetAccountHelper(ingressClient, assetAccountId);
+    AccountHelper liabilityAccount1 =
+        AccountHelper.newUSDShardedAccountHelper(
+            ingressClient, liabilityAccountId1, AccountType.LIABILITY, 3);
+    AccountHelper liabilityAccount2 =
+        AccountHelper.newUSDLiabilityAccountHelper(ingressClient, liabilityAccountId2);
+
+    // Credits land on random shards, so no single shard is likely to hold the full balance.
+    for (int i = 0; i < 10; i++) {
+      transferClient.move(
+          new Transfer.MoveMoneyInstruction(
+              assetAccountId,
+              liabilityAccountId1,
+              new Money(Currency.USD, BigInteger.valueOf(100L)),
+              moveMoneyInstructionOptions()));
+    }
+    liabilityAccount1.assertAvailableBalance(1000);
+
+    transferClient.move(
+        new Transfer.MoveMoneyInstruction(
+            liabilityAccountId1,
+            liabilityAccountId2,
+            new Money(Currency.USD, BigInteger.valueOf(900L)),
+            moveMoneyInstructionOptions()));
+
+    liabilityAccount1.assertAvailableBalance(100);
+    liabilityAccount2.assertAvailableBalance(900);
+  }
+
   private void executeBulkMove(
       BulkMoveType bulkMoveType, List<Transfer.MoveMoneyInstruction> moveMoneyInstructions) {
     switch (bulkMoveType) {
       case NON_TRANSACTIONAL -> transferClient.bulkMove(moveMoneyInstructions);
       case TRANSACTIONAL -> transferClient.transactionalBulkMove(moveMoneyInstructions);
+      case NETTING -> transferClient.nettingBulkMove(moveMoneyInstructions);
+      case TWO_PHASE -> transferClient.twoPhaseBulkMove(moveMoneyInstructions);
     }
   }
 
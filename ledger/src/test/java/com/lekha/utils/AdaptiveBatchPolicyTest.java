@@ -0,0 +1,108 @@
+package com.lekha.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveBatchPolicyTest {
+
+  private static final String KEY = "account-1";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private long nowNanos = 1_000_000_000L;
+  private final AdaptiveBatchPolicy policy =
+      new AdaptiveBatchPolicy(
+          "test_batcher", AdaptiveBatchPolicy.Bounds.DEFAULT, meterRegistry, () -> nowNanos);
+
+  @Test
+  public void sparseTraffic_doesNotWait() {
+    arrive(5, Duration.ofSeconds(1));
+
+    Batcher.Limits limits = policy.limits(KEY);
+
+    assertThat(limits.maxBatchSize()).isEqualTo(16);
+    assertThat(limits.maxBatchWait()).isEqualTo(Duration.ofMillis(5));
+  }
+
+  @Test
+  public void unknownKey_doesNotWait() {
+    assertThat(policy.limits(KEY).maxBatchWait()).isEqualTo(Duration.ofMillis(5));
+  }
+
+  @Test
+  public void steadyTraffic_batchesWhatArrivesWithinTheLongestWait() {
+    // 1000 debits per second: 100 arrive within the 100ms longest wait.
+    arrive(50, Duration.ofMillis(1));
+
+    Batcher.Limits limits = policy.limits(KEY);
+
+    assertThat(limits.maxBatchSize()).isEqualTo(100);
+    assertThat(limits.maxBatchWait()).isEqualTo(Duration.ofMillis(100));
+  }
+
+  @Test
+  public void heavyTraffic_isCappedByTheMaximumBatchSize() {
+    arrive(50, Duration.ofNanos(10_000));
+
+    assertThat(policy.limits(KEY).maxBatchSize()).isEqualTo(1000);
+  }
+
+  @Test
+  public void slowExecution_shrinksBatchesAndWaits() {
+    arrive(50, Duration.ofNanos(10_000));
+    // 10ms per item: 50 items fit in the 500ms execution bound.
+    policy.recordExecution(KEY, 100, Duration.ofSeconds(1));
+
+    Batcher.Limits limits = policy.limits(KEY);
+
+    assertThat(limits.maxBatchSize()).isEqualTo(50);
+    assertThat(limits.maxBatchWait()).isEqualTo(Duration.ofMillis(5));
+  }
+
+  @Test
+  public void keysAreTunedIndependently() {
+    arrive(50, Duration.ofNanos(10_000));
+
+    assertThat(policy.limits(KEY).maxBatchSize()).isEqualTo(1000);
+    assertThat(policy.limits("account-2").maxBatchSize()).isEqualTo(16);
+  }
+
+  @Test
+  public void chosenLimitsAndExecutions_areRecordedAsMetrics() {
+    arrive(50, Duration.ofMillis(1));
+    policy.limits(KEY);
+    policy.recordExecution(KEY, 100, Duration.ofMillis(20));
+
+    assertThat(
+            meterRegistry
+                .get("ledger.batcher.limit.size")
+                .tag("batcher", "test_batcher")
+                .summary()
+                .max())
+        .isEqualTo(100.0);
+    assertThat(
+            meterRegistry
+                .get("ledger.batcher.limit.wait")
+                .tag("batcher", "test_batcher")
+                .timer()
+                .max(TimeUnit.MILLISECONDS))
+        .isEqualTo(100.0);
+    assertThat(
+            meterRegistry
+                .get("ledger.batcher.execution")
+                .tag("batcher", "test_batcher")
+                .timer()
+                .count())
+        .isEqualTo(1L);
+  }
+
+  private void arrive(int count, Duration interval) {
+    for (int i = 0; i < count; i++) {
+      nowNanos += interval.toNanos();
+      policy.recordArrival(KEY);
+    }
+  }
+}
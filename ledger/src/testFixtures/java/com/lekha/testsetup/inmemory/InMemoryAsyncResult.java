@@ -0,0 +1,74 @@
+package com.lekha.testsetup.inmemory;
+
+import dev.restate.common.function.ThrowingFunction;
+import dev.restate.sdk.common.TerminalException;
+import dev.restate.sdk.endpoint.definition.AsyncResult;
+import dev.restate.sdk.endpoint.definition.HandlerContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * The result of a durable operation of an {@link Invocation}, backed by a future the engine
+ * completes. The SDK builds its durable futures on top of it, so awaiting, mapping and combining
+ * them works as it does against the Restate runtime.
+ */
+final class InMemoryAsyncResult<T> implements AsyncResult<T> {
+
+  private final HandlerContext ctx;
+  private final CompletableFuture<T> future;
+
+  InMemoryAsyncResult(HandlerContext ctx, CompletableFuture<T> future) {
+    this.ctx = ctx;
+    this.future = future;
+  }
+
+  static <T> InMemoryAsyncResult<T> completed(HandlerContext ctx, T value) {
+    return new InMemoryAsyncResult<>(ctx, CompletableFuture.completedFuture(value));
+  }
+
+  @Override
+  public CompletableFuture<T> poll() {
+    return future;
+  }
+
+  @Override
+  public HandlerContext ctx() {
+    return ctx;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <U> AsyncResult<U> map(
+      ThrowingFunction<T, CompletableFuture<U>> successMapper,
+      ThrowingFunction<TerminalException, CompletableFuture<U>> failureMapper) {
+    CompletableFuture<U> mapped =
+        future
+            .handle(
+                (value, failure) -> {
+                  Throwable cause = unwrap(failure);
+                  try {
+                    if (cause == null) {
+                      return successMapper != null
+                          ? successMapper.apply(value)
+                          : CompletableFuture.completedFuture((U) value);
+                    }
+                    if (cause instanceof TerminalException terminal && failureMapper != null) {
+                      return failureMapper.apply(terminal);
+                    }
+                    return CompletableFuture.<U>failedFuture(cause);
+                  } catch (Throwable t) {
+                    return CompletableFuture.<U>failedFuture(t);
+                  }
+                })
+            .thenCompose(Function.identity());
+    return new InMemoryAsyncResult<>(ctx, mapped);
+  }
+
+  static Throwable unwrap(Throwable failure) {
+    if (failure instanceof CompletionException && failure.getCause() != null) {
+      return failure.getCause();
+    }
+    return failure;
+  }
+}
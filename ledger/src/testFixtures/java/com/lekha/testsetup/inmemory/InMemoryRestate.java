@@ -0,0 +1,309 @@
+package com.lekha.testsetup.inmemory;
+
+import dev.restate.common.Slice;
+import dev.restate.sdk.HandlerRunner;
+import dev.restate.sdk.common.AbortedExecutionException;
+import dev.restate.sdk.common.TerminalException;
+import dev.restate.sdk.endpoint.definition.HandlerDefinition;
+import dev.restate.sdk.endpoint.definition.HandlerType;
+import dev.restate.sdk.endpoint.definition.ServiceDefinition;
+import dev.restate.sdk.endpoint.definition.ServiceDefinitionFactories;
+import dev.restate.sdk.endpoint.definition.ServiceType;
+import dev.restate.serde.Serde;
+import dev.restate.serde.jackson.JacksonSerdeFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process execution engine for Restate services and virtual objects.
+ *
+ * <p>Runs the handlers of bound services through the service definitions the SDK generates for
+ * them, on an in-memory {@link Invocation} context instead of the Restate runtime. Requests,
+ * responses and state go through the same serdes as in production. Virtual object state lives in
+ * per-key maps, exclusive handlers of a key run one at a time in arrival order, and shared handlers
+ * and services run concurrently.
+ *
+ * <p>Durable futures resolve through the engine: calls complete with the result of the callee,
+ * sends (including delayed ones) dispatch the callee and can be attached to, timers fire after
+ * their duration, awakeables complete when a handler or the test resolves them, and {@code
+ * DurableFuture.all/any} combine them. Handlers failing with a non-terminal exception are retried
+ * with their state writes discarded, replaying the journal of the previous attempts. Durable
+ * promises and cancellation are not supported.
+ */
+public final class InMemoryRestate implements AutoCloseable {
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  public record InMemoryAwakeable<T>(String id, CompletableFuture<T> result) {}
+
+  record PendingAwakeable(String id, CompletableFuture<Slice> result) {}
+
+  private final Map<String, ServiceDefinition> services = new ConcurrentHashMap<>();
+  private final Map<String, KeyedState> states = new ConcurrentHashMap<>();
+  private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<Slice>> awakeables = new ConcurrentHashMap<>();
+  // Only sent invocations can be attached to, so only their outputs are kept.
+  private final Map<String, CompletableFuture<Slice>> outputs = new ConcurrentHashMap<>();
+  private final Map<String, StateOperationCounts> stateOperationCounts = new ConcurrentHashMap<>();
+  private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+  private final ScheduledExecutorService timers =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "in-memory-timers");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final AtomicLong invocationIds = new AtomicLong();
+  private final AtomicLong awakeableIds = new AtomicLong();
+  private final AtomicLong inFlight = new AtomicLong();
+  private final Object idleMonitor = new Object();
+
+  public InMemoryRestate bind(Object service) {
+    ServiceDefinition definition =
+        ServiceDefinitionFactories.discover(service)
+            .create(service, HandlerRunner.Options.withExecutor(handlers));
+    services.put(definition.getServiceName(), definition);
+    return this;
+  }
+
+  /**
+   * Invokes a handler and returns its result.
+   *
+   * @param key the virtual object key, or {@code null} for services.
+   */
+  @SuppressWarnings("unchecked")
+  public <R> CompletableFuture<R> call(String service, String key, String handler, Object input) {
+    HandlerDefinition<Object, R> definition =
+        (HandlerDefinition<Object, R>) handler(service, key, handler);
+    return dispatch(
+            service,
+            key,
+            handler,
+            definition.getRequestSerde().serialize(input),
+            null,
+            newInvocationId())
+        .thenApply(output -> definition.getResponseSerde().deserialize(output));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void send(String service, String key, String handler, Object input, Duration delay) {
+    Serde<Object> requestSerde = (Serde<Object>) handler(service, key, handler).getRequestSerde();
+    dispatchAttachable(
+        service, key, handler, requestSerde.serialize(input), delay, newInvocationId());
+  }
+
+  /** Creates an awakeable that handlers can resolve through {@code ctx.awakeableHandle(id)}. */
+  public <T> InMemoryAwakeable<T> awakeable(Class<T> type) {
+    Serde<T> serde = JacksonSerdeFactory.DEFAULT.create(type);
+    PendingAwakeable awakeable = newAwakeable();
+    return new InMemoryAwakeable<>(
+        awakeable.id(), awakeable.result().thenApply(serde::deserialize));
+  }
+
+  public KeyedState state(String service, String key) {
+    return states.computeIfAbsent(service + "/" + key, ignored -> new KeyedState());
+  }
+
+  /** State operations per {@code service/handler}, counted over all attempts. */
+  public Map<String, StateOperationCounts> stateOperationCounts() {
+    return new TreeMap<>(stateOperationCounts);
+  }
+
+  public void resetStateOperationCounts() {
+    stateOperationCounts.clear();
+  }
+
+  /** Waits until no invocation is queued, running or scheduled. */
+  public void awaitIdle(Duration timeout) throws InterruptedException, TimeoutException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    synchronized (idleMonitor) {
+      while (inFlight.get() > 0) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0) {
+          throw new TimeoutException(inFlight.get() + " invocations still in flight");
+        }
+        idleMonitor.wait(remainingMs);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    timers.shutdownNow();
+    handlers.shutdownNow();
+  }
+
+  String newInvocationId() {
+    return "inv_inmemory_" + invocationIds.incrementAndGet();
+  }
+
+  CompletableFuture<Slice> dispatch(
+      String serviceName,
+      String key,
+      String handlerName,
+      Slice input,
+      Duration delay,
+      String invocationId) {
+    ServiceDefinition service = services.get(serviceName);
+    HandlerDefinition<?, ?> handler = handler(serviceName, key, handlerName);
+    boolean keyed = service.getServiceType() != ServiceType.SERVICE;
+    boolean exclusive = keyed && handler.getHandlerType() != HandlerType.SHARED;
+
+    inFlight.incrementAndGet();
+    CompletableFuture<Void> ready =
+        delay != null && !delay.isZero() ? timer(delay) : CompletableFuture.completedFuture(null);
+    CompletableFuture<Slice> output =
+        ready.thenCompose(
+            ignored -> {
+              if (exclusive) {
+                return mailboxes
+                    .computeIfAbsent(serviceName + "/" + key, ignoredKey -> new Mailbox())
+                    .submit(() -> execute(service, handler, key, input, invocationId));
+              }
+              return execute(service, handler, key, input, invocationId);
+            });
+    output.whenComplete((ignored, failure) -> invocationDone());
+    return output;
+  }
+
+  void dispatchAttachable(
+      String serviceName,
+      String key,
+      String handlerName,
+      Slice input,
+      Duration delay,
+      String invocationId) {
+    outputs.put(invocationId, dispatch(serviceName, key, handlerName, input, delay, invocationId));
+  }
+
+  CompletableFuture<Slice> output(String invocationId) {
+    CompletableFuture<Slice> output = outputs.get(invocationId);
+    if (output == null) {
+      return CompletableFuture.failedFuture(
+          new TerminalException(404, "Invocation " + invocationId + " cannot be attached to"));
+    }
+    return output;
+  }
+
+  CompletableFuture<Void> timer(Duration duration) {
+    CompletableFuture<Void> fired = new CompletableFuture<>();
+    timers.schedule(() -> fired.complete(null), duration.toNanos(), TimeUnit.NANOSECONDS);
+    return fired;
+  }
+
+  PendingAwakeable newAwakeable() {
+    String id = "sign_inmemory_" + awakeableIds.incrementAndGet();
+    return new PendingAwakeable(id, awakeable(id));
+  }
+
+  boolean resolveAwakeable(String id, Slice payload) {
+    return awakeable(id).complete(payload);
+  }
+
+  boolean rejectAwakeable(String id, TerminalException reason) {
+    return awakeable(id).completeExceptionally(reason);
+  }
+
+  private CompletableFuture<Slice> awakeable(String id) {
+    return awakeables.computeIfAbsent(id, ignored -> new CompletableFuture<>());
+  }
+
+  private HandlerDefinition<?, ?> handler(String serviceName, String key, String handlerName) {
+    ServiceDefinition service = services.get(serviceName);
+    if (service == null) {
+      throw new IllegalArgumentException("Service " + serviceName + " is not bound");
+    }
+    HandlerDefinition<?, ?> handler = service.getHandler(handlerName);
+    if (handler == null) {
+      throw new IllegalArgumentException("Unknown handler " + serviceName + "/" + handlerName);
+    }
+    if (service.getServiceType() != ServiceType.SERVICE && key == null) {
+      throw new IllegalArgumentException(serviceName + " is a virtual object and needs a key");
+    }
+    return handler;
+  }
+
+  private CompletableFuture<Slice> execute(
+      ServiceDefinition service,
+      HandlerDefinition<?, ?> handler,
+      String key,
+      Slice input,
+      String invocationId) {
+    KeyedState keyedState =
+        service.getServiceType() != ServiceType.SERVICE
+            ? state(service.getServiceName(), key)
+            : null;
+    return attempt(service, handler, key, input, invocationId, keyedState, new ArrayList<>(), 1);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private CompletableFuture<Slice> attempt(
+      ServiceDefinition service,
+      HandlerDefinition handler,
+      String key,
+      Slice input,
+      String invocationId,
+      KeyedState keyedState,
+      List<Object> journal,
+      int attempt) {
+    Invocation invocation = new Invocation(this, invocationId, key, input, keyedState, journal);
+    CompletableFuture<Slice> output =
+        handler
+            .getRunner()
+            .run(
+                invocation,
+                handler.getRequestSerde(),
+                handler.getResponseSerde(),
+                new AtomicReference<>());
+    return output
+        .handle(
+            (result, failure) -> {
+              countStateOperations(service, handler, invocation);
+              Throwable cause = InMemoryAsyncResult.unwrap(failure);
+              if (cause instanceof AbortedExecutionException && invocation.failure() != null) {
+                cause = invocation.failure();
+              }
+              if (cause == null || cause instanceof TerminalException) {
+                // Terminal failures complete the invocation, so their state changes are kept.
+                invocation.commit();
+                return cause == null
+                    ? CompletableFuture.completedFuture(result)
+                    : CompletableFuture.<Slice>failedFuture(cause);
+              }
+              if (attempt >= MAX_ATTEMPTS) {
+                return CompletableFuture.<Slice>failedFuture(cause);
+              }
+              return attempt(
+                  service, handler, key, input, invocationId, keyedState, journal, attempt + 1);
+            })
+        .thenCompose(next -> next);
+  }
+
+  private void countStateOperations(
+      ServiceDefinition service, HandlerDefinition<?, ?> handler, Invocation invocation) {
+    stateOperationCounts.merge(
+        service.getServiceName() + "/" + handler.getName(),
+        StateOperationCounts.EMPTY.plus(invocation),
+        (existing, ignored) -> existing.plus(invocation));
+  }
+
+  private void invocationDone() {
+    if (inFlight.decrementAndGet() == 0) {
+      synchronized (idleMonitor) {
+        idleMonitor.notifyAll();
+      }
+    }
+  }
+}
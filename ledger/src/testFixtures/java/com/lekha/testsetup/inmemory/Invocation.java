@@ -0,0 +1,402 @@
+package com.lekha.testsetup.inmemory;
+
+import dev.restate.common.Output;
+import dev.restate.common.Slice;
+import dev.restate.common.Target;
+import dev.restate.sdk.common.HandlerRequest;
+import dev.restate.sdk.common.InvocationId;
+import dev.restate.sdk.common.RetryPolicy;
+import dev.restate.sdk.common.TerminalException;
+import dev.restate.sdk.endpoint.definition.AsyncResult;
+import dev.restate.sdk.endpoint.definition.HandlerContext;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * One attempt of a handler invocation, as the {@link HandlerContext} the SDK runs the handler on.
+ *
+ * <p>State writes are buffered and only become visible on {@link #commit()}, which mirrors how
+ * Restate discards the state changes of an attempt that fails with a retryable error. Calls, sends,
+ * timers, awakeables and {@code ctx.run} results are recorded in the journal of the invocation as
+ * they happen, and later attempts replay them instead of repeating them, so a retried handler does
+ * not call or signal twice. A {@code ctx.run} that failed with a retryable error is not recorded,
+ * and runs again on the next attempt.
+ */
+final class Invocation implements HandlerContext {
+
+  static final Slice CLEARED = Slice.wrap(new byte[0]);
+
+  private final InMemoryRestate restate;
+  private final String invocationId;
+  private final String key;
+  private final Slice input;
+  private final KeyedState keyedState;
+  private final List<Object> journal;
+  private int journalIndex;
+  private final Map<String, Slice> writes = new HashMap<>();
+  private boolean clearAll;
+  private Throwable failure;
+  private long gets;
+  private long sets;
+  private long clears;
+
+  Invocation(
+      InMemoryRestate restate,
+      String invocationId,
+      String key,
+      Slice input,
+      KeyedState keyedState,
+      List<Object> journal) {
+    this.restate = restate;
+    this.invocationId = invocationId;
+    this.key = key;
+    this.input = input;
+    this.keyedState = keyedState;
+    this.journal = journal;
+  }
+
+  @Override
+  public String objectKey() {
+    if (key == null) {
+      throw new UnsupportedOperationException("Services have no key");
+    }
+    return key;
+  }
+
+  @Override
+  public HandlerRequest request() {
+    return new HandlerRequest(
+        new InMemoryInvocationId(invocationId),
+        io.opentelemetry.context.Context.root(),
+        input,
+        Map.of());
+  }
+
+  @Override
+  public CompletableFuture<Void> writeOutput(Slice output) {
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public CompletableFuture<Void> writeOutput(TerminalException output) {
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public synchronized CompletableFuture<AsyncResult<Optional<Slice>>> get(String stateKey) {
+    gets++;
+    Slice written = writes.get(stateKey);
+    Optional<Slice> value;
+    if (written != null) {
+      value = written == CLEARED ? Optional.empty() : Optional.of(written);
+    } else if (clearAll) {
+      value = Optional.empty();
+    } else {
+      value = keyedState().get(stateKey);
+    }
+    return completed(value);
+  }
+
+  @Override
+  public synchronized CompletableFuture<AsyncResult<Collection<String>>> getKeys() {
+    List<String> stateKeys = new ArrayList<>();
+    if (!clearAll) {
+      stateKeys.addAll(keyedState().snapshot().keySet());
+    }
+    for (Map.Entry<String, Slice> write : writes.entrySet()) {
+      stateKeys.remove(write.getKey());
+      if (write.getValue() != CLEARED) {
+        stateKeys.add(write.getKey());
+      }
+    }
+    return completed(stateKeys);
+  }
+
+  @Override
+  public synchronized CompletableFuture<Void> set(String stateKey, Slice value) {
+    keyedState();
+    sets++;
+    writes.put(stateKey, value);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public synchronized CompletableFuture<Void> clear(String stateKey) {
+    keyedState();
+    clears++;
+    writes.put(stateKey, CLEARED);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public synchronized CompletableFuture<Void> clearAll() {
+    keyedState();
+    clears++;
+    writes.clear();
+    clearAll = true;
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Void>> timer(Duration duration, String name) {
+    return CompletableFuture.completedFuture(
+        journaled(() -> new InMemoryAsyncResult<>(this, restate.timer(duration))));
+  }
+
+  @Override
+  public CompletableFuture<CallResult> call(
+      Target target,
+      Slice parameter,
+      String idempotencyKey,
+      Collection<Map.Entry<String, String>> headers) {
+    return CompletableFuture.completedFuture(
+        journaled(
+            () -> {
+              String calleeId = restate.newInvocationId();
+              CompletableFuture<Slice> output =
+                  restate.dispatch(
+                      target.getService(),
+                      target.getKey(),
+                      target.getHandler(),
+                      parameter,
+                      null,
+                      calleeId);
+              return new CallResult(
+                  InMemoryAsyncResult.completed(this, calleeId),
+                  new InMemoryAsyncResult<>(this, output));
+            }));
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<String>> send(
+      Target target,
+      Slice parameter,
+      String idempotencyKey,
+      Collection<Map.Entry<String, String>> headers,
+      Duration delay) {
+    return CompletableFuture.completedFuture(
+        journaled(
+            () -> {
+              String calleeId = restate.newInvocationId();
+              restate.dispatchAttachable(
+                  target.getService(),
+                  target.getKey(),
+                  target.getHandler(),
+                  parameter,
+                  delay,
+                  calleeId);
+              return InMemoryAsyncResult.completed(this, calleeId);
+            }));
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Slice>> submitRun(
+      String name, Consumer<RunCompleter> closure) {
+    CompletableFuture<Slice> result = new CompletableFuture<>();
+    InMemoryAsyncResult<Slice> asyncResult = new InMemoryAsyncResult<>(this, result);
+    synchronized (this) {
+      if (journalIndex < journal.size()) {
+        InMemoryAsyncResult<Slice> recorded = journalEntry();
+        if (!failedRetryably(recorded.poll())) {
+          return CompletableFuture.completedFuture(recorded);
+        }
+        journal.set(journalIndex - 1, asyncResult);
+      } else {
+        journal.add(asyncResult);
+        journalIndex++;
+      }
+    }
+    closure.accept(
+        new RunCompleter() {
+          @Override
+          public void proposeSuccess(Slice value) {
+            result.complete(value);
+          }
+
+          @Override
+          public void proposeFailure(Throwable runFailure, RetryPolicy retryPolicy) {
+            // Retryable failures fail the attempt, and the run is retried with the invocation.
+            result.completeExceptionally(runFailure);
+          }
+        });
+    return CompletableFuture.completedFuture(asyncResult);
+  }
+
+  @Override
+  public CompletableFuture<Awakeable> awakeable() {
+    return CompletableFuture.completedFuture(
+        journaled(
+            () -> {
+              InMemoryRestate.PendingAwakeable pending = restate.newAwakeable();
+              return new Awakeable(pending.id(), new InMemoryAsyncResult<>(this, pending.result()));
+            }));
+  }
+
+  @Override
+  public CompletableFuture<Void> resolveAwakeable(String id, Slice payload) {
+    journaled(() -> restate.resolveAwakeable(id, payload));
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public CompletableFuture<Void> rejectAwakeable(String id, TerminalException reason) {
+    journaled(() -> restate.rejectAwakeable(id, reason));
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Slice>> promise(String name) {
+    return notSupported("Durable promises");
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Output<Slice>>> peekPromise(String name) {
+    return notSupported("Durable promises");
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Void>> resolvePromise(String name, Slice payload) {
+    return notSupported("Durable promises");
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Void>> rejectPromise(String name, TerminalException reason) {
+    return notSupported("Durable promises");
+  }
+
+  @Override
+  public CompletableFuture<Void> cancelInvocation(String invocationId) {
+    return notSupported("Cancelling invocations");
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Slice>> attachInvocation(String invocationId) {
+    return pending(restate.output(invocationId));
+  }
+
+  @Override
+  public CompletableFuture<AsyncResult<Output<Slice>>> getInvocationOutput(String invocationId) {
+    CompletableFuture<Slice> output = restate.output(invocationId);
+    if (!output.isDone()) {
+      return completed(Output.notReady());
+    }
+    return pending(output.thenApply(Output::ready));
+  }
+
+  @Override
+  public synchronized void fail(Throwable cause) {
+    failure = cause;
+  }
+
+  @Override
+  public AsyncResult<Integer> createAnyAsyncResult(List<AsyncResult<?>> results) {
+    CompletableFuture<Integer> any = new CompletableFuture<>();
+    for (int i = 0; i < results.size(); i++) {
+      int index = i;
+      results.get(i).poll().whenComplete((ignored, failure) -> any.complete(index));
+    }
+    return new InMemoryAsyncResult<>(this, any);
+  }
+
+  @Override
+  public AsyncResult<Void> createAllAsyncResult(List<AsyncResult<?>> results) {
+    CompletableFuture<Void> all = new CompletableFuture<>();
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[results.size()];
+    for (int i = 0; i < results.size(); i++) {
+      futures[i] = results.get(i).poll();
+      // Fails as soon as one of the results fails, like Restate does.
+      futures[i].whenComplete(
+          (ignored, failure) -> {
+            if (failure != null) {
+              all.completeExceptionally(InMemoryAsyncResult.unwrap(failure));
+            }
+          });
+    }
+    CompletableFuture.allOf(futures).thenRun(() -> all.complete(null));
+    return new InMemoryAsyncResult<>(this, all);
+  }
+
+  /** The failure the SDK reported through {@link #fail}, if any. */
+  synchronized Throwable failure() {
+    return failure;
+  }
+
+  synchronized long gets() {
+    return gets;
+  }
+
+  synchronized long sets() {
+    return sets;
+  }
+
+  synchronized long clears() {
+    return clears;
+  }
+
+  synchronized void commit() {
+    if (keyedState != null) {
+      keyedState.apply(writes, clearAll);
+    }
+  }
+
+  private synchronized <T> T journaled(Supplier<T> operation) {
+    if (journalIndex < journal.size()) {
+      return journalEntry();
+    }
+    T result = operation.get();
+    journal.add(result);
+    journalIndex++;
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T journalEntry() {
+    return (T) journal.get(journalIndex++);
+  }
+
+  private static boolean failedRetryably(CompletableFuture<?> result) {
+    return result.isCompletedExceptionally()
+        && !(result.handle((ignored, failure) -> InMemoryAsyncResult.unwrap(failure)).join()
+            instanceof TerminalException);
+  }
+
+  private KeyedState keyedState() {
+    if (keyedState == null) {
+      throw new UnsupportedOperationException("Services have no state");
+    }
+    return keyedState;
+  }
+
+  private <T> CompletableFuture<AsyncResult<T>> completed(T value) {
+    return CompletableFuture.completedFuture(InMemoryAsyncResult.completed(this, value));
+  }
+
+  private <T> CompletableFuture<AsyncResult<T>> pending(CompletableFuture<T> value) {
+    return CompletableFuture.completedFuture(new InMemoryAsyncResult<>(this, value));
+  }
+
+  private static <T> CompletableFuture<T> notSupported(String what) {
+    return CompletableFuture.failedFuture(
+        new UnsupportedOperationException(what + " are not supported in memory"));
+  }
+
+  private record InMemoryInvocationId(String id) implements InvocationId {
+    @Override
+    public long toRandomSeed() {
+      return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return id;
+    }
+  }
+}
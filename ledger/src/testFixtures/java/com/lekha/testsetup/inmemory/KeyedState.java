@@ -0,0 +1,43 @@
+package com.lekha.testsetup.inmemory;
+
+import dev.restate.common.Slice;
+import dev.restate.serde.Serde;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Committed state of one virtual object key, stored serialized as Restate stores it. */
+public final class KeyedState {
+
+  private final Map<String, Slice> values = new ConcurrentHashMap<>();
+
+  public Optional<Slice> get(String stateKey) {
+    return Optional.ofNullable(values.get(stateKey));
+  }
+
+  public <T> Optional<T> get(String stateKey, Serde<T> serde) {
+    return get(stateKey).map(serde::deserialize);
+  }
+
+  /** Writes a value directly, e.g. to seed state in a layout handlers no longer write. */
+  public <T> void put(String stateKey, Serde<T> serde, T value) {
+    values.put(stateKey, serde.serialize(value));
+  }
+
+  public Map<String, Slice> snapshot() {
+    return Map.copyOf(values);
+  }
+
+  void apply(Map<String, Slice> writes, boolean clearAll) {
+    if (clearAll) {
+      values.clear();
+    }
+    for (Map.Entry<String, Slice> write : writes.entrySet()) {
+      if (write.getValue() == Invocation.CLEARED) {
+        values.remove(write.getKey());
+      } else {
+        values.put(write.getKey(), write.getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.lekha.testsetup.inmemory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Runs the exclusive invocations of one virtual object key one at a time, in arrival order. An
+ * invocation starts once the previous one completed, without holding a thread while it waits.
+ */
+final class Mailbox {
+
+  private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+  synchronized <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> invocation) {
+    CompletableFuture<T> result =
+        tail.handle((ignored, failure) -> null).thenCompose(ignored -> invocation.get());
+    tail = result;
+    return result;
+  }
+}
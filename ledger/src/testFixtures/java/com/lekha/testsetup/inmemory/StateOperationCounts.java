@@ -0,0 +1,23 @@
+package com.lekha.testsetup.inmemory;
+
+/** Number of state operations issued by the invocations of one handler. */
+public record StateOperationCounts(long invocations, long gets, long sets, long clears) {
+
+  public static final StateOperationCounts EMPTY = new StateOperationCounts(0, 0, 0, 0);
+
+  StateOperationCounts plus(Invocation invocation) {
+    return new StateOperationCounts(
+        invocations + 1,
+        gets + invocation.gets(),
+        sets + invocation.sets(),
+        clears + invocation.clears());
+  }
+
+  public double getsPerInvocation() {
+    return invocations == 0 ? 0 : (double) gets / invocations;
+  }
+
+  public double setsPerInvocation() {
+    return invocations == 0 ? 0 : (double) sets / invocations;
+  }
+}
@@ -47,7 +47,10 @@ final class LedgerLoadTestContext {
     AccountClient.IngressClient asset = AccountClient.fromClient(client, assetAccountId);
     Account.InitInstruction assetInit =
         new Account.InitInstruction(
-            new Account.AccountOptions(AccountType.ASSET, settings.transferAmount().currency()));
+            new Account.AccountOptions(
+                AccountType.ASSET,
+                settings.transferAmount().currency(),
+                settings.assetAccountShards()));
 
     List<CompletableFuture<?>> initFutures = new ArrayList<>();
     initFutures.add(asset.initAsync(assetInit));
@@ -8,6 +8,7 @@ import java.time.Duration;
 record LoadTestSettings(
     String baseUri,
     int liabilityAccounts,
+    int assetAccountShards,
     Money transferAmount,
     int concurrentUsers,
     Duration runDuration) {
@@ -17,6 +18,8 @@ record LoadTestSettings(
         readString("ledger.load.baseUri", "LEDGER_LOAD_BASE_URI", "http://runtime:8080");
     int liabilityAccounts =
         readPositiveInt("ledger.load.liabilityAccounts", "LEDGER_LOAD_LIABILITY_ACCOUNTS", 500);
+    int assetAccountShards =
+        readPositiveInt("ledger.load.assetAccountShards", "LEDGER_LOAD_ASSET_ACCOUNT_SHARDS", 1);
     int concurrentUsers =
         readPositiveInt("ledger.load.concurrentUsers", "LEDGER_LOAD_CONCURRENT_USERS", 50);
     int durationSeconds =
@@ -34,6 +37,7 @@ record LoadTestSettings(
     return new LoadTestSettings(
         baseUri,
         liabilityAccounts,
+        assetAccountShards,
         transferAmount,
         concurrentUsers,
         Duration.ofSeconds(durationSeconds));
@@ -4,4 +4,4 @@ plugins {
 
 rootProject.name = "restate-ledger"
 
-include("ledger", "load-test")
+include("ledger", "load-test", "benchmarks")